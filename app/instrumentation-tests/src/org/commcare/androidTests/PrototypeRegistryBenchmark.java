@@ -0,0 +1,51 @@
+package org.commcare.androidTests;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.commcare.models.AndroidPrototypeFactory;
+import org.commcare.models.PrototypeRegistry;
+import org.commcare.models.database.AndroidPrototypeFactorySetup;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares building the prototype factory from the build-time registry against scanning the
+ * APK's dex file, and makes sure both find the same prototypes
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PrototypeRegistryBenchmark {
+    private static final String TAG = PrototypeRegistryBenchmark.class.getSimpleName();
+
+    @Test
+    public void compareRegistryWithDexScan() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        long start = System.nanoTime();
+        List<String> scannedClasses = AndroidPrototypeFactorySetup.getClasses(context);
+        new AndroidPrototypeFactory(new HashSet<>(scannedClasses)).getClass(new byte[4]);
+        long scanMs = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        PrototypeRegistry registry = PrototypeRegistry.load();
+        assertNotNull("Prototype registry should be packaged with the app", registry);
+        new AndroidPrototypeFactory(new HashSet<>(registry.getClassNames())).getClass(new byte[4]);
+        long registryMs = (System.nanoTime() - start) / 1000000;
+
+        Log.i(TAG, "Prototype factory from dex scan: " + scanMs + "ms, from registry: "
+                + registryMs + "ms, " + scannedClasses.size() + " prototypes");
+        assertEquals(new HashSet<>(scannedClasses), new HashSet<>(registry.getClassNames()));
+    }
+}
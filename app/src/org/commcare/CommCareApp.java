@@ -13,6 +13,7 @@ import org.commcare.interfaces.AppFilePathBuilder;
 import org.commcare.models.database.AndroidDbHelper;
 import org.commcare.models.database.HybridFileBackedSqlHelpers;
 import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.StorageRegistry;
 import org.commcare.models.database.UnencryptedHybridFileBackedSqlStorage;
 import org.commcare.models.database.app.DatabaseAppOpenHelper;
 import org.commcare.modern.database.Table;
@@ -72,6 +73,7 @@ public class CommCareApp implements AppFilePathBuilder {
 
     private final Object appDbHandleLock = new Object();
     private SQLiteDatabase appDatabase;
+    private StorageRegistry storageRegistry;
 
     private static Stylizer mStylizer;
 
@@ -390,7 +392,16 @@ public class CommCareApp implements AppFilePathBuilder {
     }
 
     public <T extends Persistable> SqlStorage<T> getStorage(String name, Class<T> c) {
-        return new SqlStorage<>(name, c, buildAndroidDbHelper());
+        return getStorageRegistry().getStorage(name, c);
+    }
+
+    public StorageRegistry getStorageRegistry() {
+        synchronized (appDbHandleLock) {
+            if (storageRegistry == null) {
+                storageRegistry = new StorageRegistry(buildAndroidDbHelper());
+            }
+            return storageRegistry;
+        }
     }
 
     public <T extends Persistable> UnencryptedHybridFileBackedSqlStorage<T> getFileBackedStorage(String name, Class<T> c) {
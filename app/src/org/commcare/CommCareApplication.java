@@ -72,8 +72,11 @@ import org.commcare.models.database.HybridFileBackedSqlHelpers;
 import org.commcare.models.database.HybridFileBackedSqlStorage;
 import org.commcare.models.database.MigrationException;
 import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.StorageRegistry;
+import org.commcare.models.database.user.models.CaseIndexGraph;
 import org.commcare.models.database.global.DatabaseGlobalOpenHelper;
 import org.commcare.models.database.user.models.CommCareEntityStorageCache;
+import org.commcare.models.database.user.models.EntityCacheMemoryLayer;
 import org.commcare.models.legacy.LegacyInstallUtils;
 import org.commcare.modern.database.Table;
 import org.commcare.modern.session.SessionWrapper;
@@ -92,6 +95,7 @@ import org.commcare.sync.FormSubmissionWorker;
 import org.commcare.tasks.AsyncRestoreHelper;
 import org.commcare.tasks.DataPullTask;
 import org.commcare.tasks.DeleteLogs;
+import org.commcare.tasks.FormDefCacheWarmer;
 import org.commcare.tasks.LogSubmissionTask;
 import org.commcare.tasks.PurgeStaleArchivedFormsTask;
 import org.commcare.tasks.templates.ManagedAsyncTask;
@@ -155,6 +159,7 @@ public class CommCareApplication extends MultiDexApplication {
     public static final int STATE_MIGRATION_QUESTIONABLE = 32;
     private static final String DELETE_LOGS_REQUEST = "delete-logs-request";
     private static final String CLEAN_RAW_MEDIA_REQUEST = "clean-raw-media-request";
+    private static final String PREWARM_FORM_DEF_CACHE_REQUEST = "prewarm-form-def-cache-request";
     private static final long BACKOFF_DELAY_FOR_UPDATE_RETRY = 5 * 60 * 1000L; // 5 mins
     private static final long BACKOFF_DELAY_FOR_FORM_SUBMISSION_RETRY = 5 * 60 * 1000L; // 5 mins
     private static final long PERIODICITY_FOR_FORM_SUBMISSION_IN_HOURS = 1;
@@ -172,6 +177,13 @@ public class CommCareApplication extends MultiDexApplication {
 
     private final Object globalDbHandleLock = new Object();
     private SQLiteDatabase globalDatabase;
+    private StorageRegistry globalStorageRegistry;
+
+    // Shared storages for the logged in user, dropped whenever the session service is unbound
+    private final Object userStorageRegistryLock = new Object();
+    private StorageRegistry userStorageRegistry;
+    private StorageRegistry userReadStorageRegistry;
+    private CaseIndexGraph caseIndexGraph;
 
     private ArchiveFileRoot mArchiveFileRoot;
 
@@ -600,22 +612,39 @@ public class CommCareApplication extends MultiDexApplication {
         return this.getSession().getUserDbHandle();
     }
 
+    /**
+     * @return A user database connection for reads that shouldn't wait on background writes,
+     * like a sync. Only differs from the main handle when write-ahead logging is enabled.
+     */
+    public SQLiteDatabase getUserDbReadHandle() {
+        return this.getSession().getUserDbReadHandle();
+    }
+
     public <T extends Persistable> SqlStorage<T> getGlobalStorage(Class<T> c) {
         return getGlobalStorage(c.getAnnotation(Table.class).value(), c);
     }
 
     public <T extends Persistable> SqlStorage<T> getGlobalStorage(String table, Class<T> c) {
-        return new SqlStorage<>(table, c, new AndroidDbHelper(this.getApplicationContext()) {
-            @Override
-            public SQLiteDatabase getHandle() {
-                synchronized (globalDbHandleLock) {
-                    if (globalDatabase == null || !globalDatabase.isOpen()) {
-                        globalDatabase = new DatabaseGlobalOpenHelper(this.c).getWritableDatabase("null");
+        return getGlobalStorageRegistry().getStorage(table, c);
+    }
+
+    public StorageRegistry getGlobalStorageRegistry() {
+        synchronized (globalDbHandleLock) {
+            if (globalStorageRegistry == null) {
+                globalStorageRegistry = new StorageRegistry(new AndroidDbHelper(this.getApplicationContext()) {
+                    @Override
+                    public SQLiteDatabase getHandle() {
+                        synchronized (globalDbHandleLock) {
+                            if (globalDatabase == null || !globalDatabase.isOpen()) {
+                                globalDatabase = new DatabaseGlobalOpenHelper(this.c).getWritableDatabase("null");
+                            }
+                            return globalDatabase;
+                        }
                     }
-                    return globalDatabase;
-                }
+                });
             }
-        });
+            return globalStorageRegistry;
+        }
     }
 
     public <T extends Persistable> SqlStorage<T> getAppStorage(Class<T> c) {
@@ -635,7 +664,64 @@ public class CommCareApplication extends MultiDexApplication {
     }
 
     public <T extends Persistable> SqlStorage<T> getUserStorage(String storage, Class<T> c) {
-        return new SqlStorage<>(storage, c, buildUserDbHandle());
+        return getUserStorageRegistry().getStorage(storage, c);
+    }
+
+    /**
+     * @return The storages shared for the current user session, along with their per-table
+     * access counts
+     */
+    public StorageRegistry getUserStorageRegistry() {
+        synchronized (userStorageRegistryLock) {
+            if (userStorageRegistry == null) {
+                userStorageRegistry = new StorageRegistry(buildUserDbHandle());
+            }
+            return userStorageRegistry;
+        }
+    }
+
+    /**
+     * Storage over the user database's read connection, which sees the last committed data
+     * rather than waiting on open write transactions. Must not be written to.
+     */
+    public <T extends Persistable> SqlStorage<T> getUserReadOnlyStorage(String storage, Class<T> c) {
+        synchronized (userStorageRegistryLock) {
+            if (userReadStorageRegistry == null) {
+                userReadStorageRegistry = new StorageRegistry(new AndroidDbHelper(this.getApplicationContext()) {
+                    @Override
+                    public SQLiteDatabase getHandle() {
+                        SQLiteDatabase database = getUserDbReadHandle();
+                        if (database == null) {
+                            throw new SessionUnavailableException("The user database has been closed!");
+                        }
+                        return database;
+                    }
+                });
+            }
+            return userReadStorageRegistry.getStorage(storage, c);
+        }
+    }
+
+    /**
+     * @return The in-memory case index graph for the current user session, which is built
+     * from the user database's case index table the first time it's queried
+     */
+    public CaseIndexGraph getCaseIndexGraph() {
+        synchronized (userStorageRegistryLock) {
+            if (caseIndexGraph == null) {
+                caseIndexGraph = new CaseIndexGraph();
+            }
+            return caseIndexGraph;
+        }
+    }
+
+    private void invalidateUserStorageRegistry() {
+        synchronized (userStorageRegistryLock) {
+            userStorageRegistry = null;
+            userReadStorageRegistry = null;
+            caseIndexGraph = null;
+        }
+        EntityCacheMemoryLayer.clearLayers();
     }
 
     public <T extends Persistable> HybridFileBackedSqlStorage<T> getFileBackedUserStorage(String storage, Class<T> c) {
@@ -827,6 +913,16 @@ public class CommCareApplication extends MultiDexApplication {
                 .enqueueUniqueWork(CLEAN_RAW_MEDIA_REQUEST, ExistingWorkPolicy.KEEP, cleanRawMediaRequest);
     }
 
+    /**
+     * Parse and cache the current app's forms in the background, so that opening a form for the
+     * first time after an install or update doesn't have to parse its XML
+     */
+    public void prewarmFormDefCache() {
+        OneTimeWorkRequest prewarmRequest = new OneTimeWorkRequest.Builder(FormDefCacheWarmer.class).build();
+        WorkManager.getInstance(CommCareApplication.instance())
+                .enqueueUniqueWork(PREWARM_FORM_DEF_CACHE_REQUEST, ExistingWorkPolicy.REPLACE, prewarmRequest);
+    }
+
     private void purgeLogs() {
         if (shouldRunLogDeletion()) {
             OneTimeWorkRequest deleteLogsRequest = new OneTimeWorkRequest.Builder(DeleteLogs.class).build();
@@ -935,6 +1031,7 @@ public class CommCareApplication extends MultiDexApplication {
                     sessionWrapper.reset();
                 }
                 sessionServiceIsBound = false;
+                invalidateUserStorageRegistry();
 
                 // Detach our existing connection.
                 unbindService(mConnection);
@@ -1081,10 +1178,13 @@ public class CommCareApplication extends MultiDexApplication {
 
     private static void setupLoggerStorage(boolean userStorageAvailable) {
         boolean loggingEnabled = HiddenPreferences.isLoggingEnabled();
+        boolean bufferLogs = DeveloperPreferences.isBufferedLoggingEnabled();
         if (userStorageAvailable) {
             if (loggingEnabled) {
-                Logger.registerLogger(new AndroidLogger(app.getUserStorage(AndroidLogEntry.STORAGE_KEY,
-                        AndroidLogEntry.class)));
+                // buffered entries that miss the user db go to global storage instead
+                Logger.registerLogger(new AndroidLogger(
+                        app.getUserStorage(AndroidLogEntry.STORAGE_KEY, AndroidLogEntry.class), bufferLogs,
+                        app.getGlobalStorage(AndroidLogEntry.STORAGE_KEY, AndroidLogEntry.class)));
             } else {
                 Logger.detachLogger();
             }
@@ -1095,7 +1195,7 @@ public class CommCareApplication extends MultiDexApplication {
         } else {
             if (loggingEnabled) {
                 Logger.registerLogger(new AndroidLogger(
-                        app.getGlobalStorage(AndroidLogEntry.STORAGE_KEY, AndroidLogEntry.class)));
+                        app.getGlobalStorage(AndroidLogEntry.STORAGE_KEY, AndroidLogEntry.class), bufferLogs));
             } else {
                 Logger.detachLogger();
             }
@@ -34,11 +34,13 @@ import org.commcare.activities.components.EntitySelectViewSetup;
 import org.commcare.adapters.EntityListAdapter;
 import org.commcare.android.javarosa.IntentCallout;
 import org.commcare.android.logging.ReportingUtils;
+import org.commcare.cases.entity.AsyncNodeEntityFactory;
 import org.commcare.cases.entity.Entity;
 import org.commcare.cases.entity.NodeEntityFactory;
 import org.commcare.dalvik.R;
 import org.commcare.fragments.ContainerFragment;
 import org.commcare.gis.EntityMapActivity;
+import org.commcare.gis.EntityMapUtils;
 import org.commcare.gis.EntityMapboxActivity;
 import org.commcare.models.AndroidSessionWrapper;
 import org.commcare.modern.session.SessionWrapper;
@@ -476,7 +478,9 @@ public class EntitySelectActivity extends SaveSessionCommCareActivity
         }
 
         if (loader == null && !EntityLoaderTask.attachToActivity(this)) {
-            EntityLoaderTask entityLoader = new EntityLoaderTask(shortSelect, evalContext());
+            // the map mustn't reuse the last load's entities while this one is in progress
+            EntityMapUtils.clearLoadedEntities();
+            EntityLoaderTask entityLoader = new EntityLoaderTask(shortSelect, evalContext(), true);
             entityLoader.attachListener(this);
             entityLoader.executeParallel(selectDatum.getNodeset());
             return true;
@@ -847,26 +851,43 @@ public class EntitySelectActivity extends SaveSessionCommCareActivity
         return choiceItems;
     }
 
+    @Override
+    public void deliverFirstPage(List<Entity<TreeReference>> entities,
+                                 List<TreeReference> references,
+                                 NodeEntityFactory factory) {
+        // Not handed to the container fragment: if the activity is recreated mid-load it
+        // should re-attach to the loader rather than hold on to a partial list
+        setupAdapter(entities, references, factory);
+        findViewById(R.id.entity_select_loading).setVisibility(View.GONE);
+    }
+
+    @Override
+    public void deliverLoadBatch(List<Entity<TreeReference>> entities) {
+        if (adapter != null) {
+            adapter.appendEntities(entities);
+        }
+    }
+
     @Override
     public void deliverLoadResult(List<Entity<TreeReference>> entities,
                                   List<TreeReference> references,
                                   NodeEntityFactory factory, int focusTargetIndex) {
         loader = null;
 
-        AdapterView visibleView;
-        if (shortSelect.shouldBeLaidOutInGrid()) {
-            visibleView = ((GridView)this.findViewById(R.id.screen_entity_select_grid));
-        } else {
-            ListView listView = this.findViewById(R.id.screen_entity_select_list);
-            EntitySelectViewSetup.setupDivider(this, listView, shortSelect.usesEntityTileView());
-            visibleView = listView;
+        int streamedScrollPosition = -1;
+        if (adapter != null) {
+            // Replacing the partial list built from a streaming load
+            streamedScrollPosition = getVisibleEntityView().getFirstVisiblePosition();
+            adapter.signalKilled();
         }
 
-        adapter = new EntityListAdapter(this, shortSelect, references, entities, factory,
-                hideActionsFromEntityList, shortSelect.getCustomActions(evalContext()), inAwesomeMode);
-        visibleView.setAdapter(adapter);
-        adapter.registerDataSetObserver(this.mListStateObserver);
+        AdapterView visibleView = setupAdapter(entities, references, factory);
         containerFragment.setData(adapter);
+        if (!(factory instanceof AsyncNodeEntityFactory)) {
+            // Async entities evaluate their fields lazily against the loader's context, so the
+            // map evaluates its own copies of those
+            EntityMapUtils.setLoadedEntities(selectDatum.getShortDetail(), references, entities);
+        }
 
         if (entitySelectSearchUI != null) {
             entitySelectSearchUI.restoreSearchString();
@@ -896,6 +917,8 @@ public class EntitySelectActivity extends SaveSessionCommCareActivity
             updateSelectedItem(true);
         } else if (focusTargetIndex != -1) {
             visibleView.setSelection(focusTargetIndex);
+        } else if (streamedScrollPosition > 0) {
+            visibleView.setSelection(streamedScrollPosition);
         }
 
         refreshTimer.start(this);
@@ -907,6 +930,29 @@ public class EntitySelectActivity extends SaveSessionCommCareActivity
         }
     }
 
+    private AdapterView setupAdapter(List<Entity<TreeReference>> entities,
+                                     List<TreeReference> references,
+                                     NodeEntityFactory factory) {
+        AdapterView visibleView = getVisibleEntityView();
+        if (visibleView instanceof ListView) {
+            EntitySelectViewSetup.setupDivider(this, (ListView)visibleView, shortSelect.usesEntityTileView());
+        }
+
+        adapter = new EntityListAdapter(this, shortSelect, references, entities, factory,
+                hideActionsFromEntityList, shortSelect.getCustomActions(evalContext()), inAwesomeMode);
+        visibleView.setAdapter(adapter);
+        adapter.registerDataSetObserver(this.mListStateObserver);
+        return visibleView;
+    }
+
+    private AdapterView getVisibleEntityView() {
+        if (shortSelect.shouldBeLaidOutInGrid()) {
+            return this.findViewById(R.id.screen_entity_select_grid);
+        } else {
+            return this.findViewById(R.id.screen_entity_select_list);
+        }
+    }
+
     private void restoreAdapterStateFromSession() {
         entitySelectSearchUI.restoreSearchString();
 
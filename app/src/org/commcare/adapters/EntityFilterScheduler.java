@@ -0,0 +1,159 @@
+package org.commcare.adapters;
+
+import org.commcare.cases.entity.NodeEntityFactory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an entity list's filters on a background worker, one at a time and only for the
+ * latest request.
+ *
+ * Every adapter's filters share a single worker thread. Scheduling a filter cancels the one
+ * before it: a filter that hasn't started yet is dropped, and a running one is flagged to stop
+ * at its next cancellation check, without the caller waiting for it. String searches are
+ * scheduled with a short delay, so a burst of keystrokes only filters the list once.
+ *
+ * A filter whose entity set isn't ready yet doesn't hold the worker. It waits to be re-run
+ * when the entity loader signals that an entity set is ready, which happens once the loader's
+ * factory has finished preparing its entities, including any cache priming it does in the
+ * background. The scheduler is registered as waiting before readiness is checked, so a signal
+ * can't slip in between the two. A single long timeout only guards against an entity set
+ * that becomes ready without a signal.
+ */
+public class EntityFilterScheduler {
+
+    static final long SEARCH_DEBOUNCE_MS = 150;
+    static final long READINESS_TIMEOUT_MS = 5000;
+    // How often the loader's readiness watcher looks in on a factory priming in the background
+    private static final long PRIMING_CHECK_MS = 100;
+
+    private static final ScheduledExecutorService worker =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Entity filter");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Schedulers whose latest filter is waiting for its entity set to be ready
+    private static final Set<EntityFilterScheduler> waitingSchedulers =
+            Collections.newSetFromMap(new WeakHashMap<EntityFilterScheduler, Boolean>());
+
+    private EntityFiltererBase current;
+    private ScheduledFuture<?> pending;
+    private boolean currentFinished;
+
+    /**
+     * Cancel any filter from this scheduler that is pending or running and queue up the
+     * provided one
+     */
+    public synchronized void schedule(EntityFiltererBase filterer, long delayMs) {
+        cancel();
+        current = filterer;
+        currentFinished = false;
+        pending = worker.schedule(() -> run(filterer), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the latest filter from this scheduler, whether or not it has started. A filter that
+     * already finished only has its matches dropped, if they haven't reached the adapter yet,
+     * so that the adapter's search state is left alone.
+     */
+    public synchronized void cancel() {
+        setWaiting(false);
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        if (current != null) {
+            if (currentFinished) {
+                current.discardResult();
+            } else {
+                current.cancelSearch();
+            }
+            current = null;
+        }
+    }
+
+    private void run(EntityFiltererBase filterer) {
+        synchronized (this) {
+            if (filterer != current || filterer.isCancelled()) {
+                return;
+            }
+            setWaiting(true);
+            if (!filterer.isEntitySetReady()) {
+                pending = worker.schedule(() -> run(filterer), READINESS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            setWaiting(false);
+        }
+
+        filterer.run();
+
+        synchronized (this) {
+            if (filterer == current) {
+                currentFinished = true;
+                pending = null;
+            }
+        }
+    }
+
+    private void setWaiting(boolean waiting) {
+        synchronized (waitingSchedulers) {
+            if (waiting) {
+                waitingSchedulers.add(this);
+            } else {
+                waitingSchedulers.remove(this);
+            }
+        }
+    }
+
+    private synchronized void recheckNow() {
+        if (current != null && !currentFinished && pending != null && pending.cancel(false)) {
+            EntityFiltererBase filterer = current;
+            pending = worker.schedule(() -> run(filterer), 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Signal waiting filters once the factory's entity set is ready. Core's async factory
+     * primes its cache on a thread of its own and offers no callback for when that is done, so
+     * the wait for it happens here, once per load, rather than in every waiting filter.
+     */
+    public static void signalWhenEntitySetReady(NodeEntityFactory factory) {
+        if (factory.isEntitySetReady()) {
+            signalEntitySetReady();
+            return;
+        }
+        Thread watcher = new Thread(() -> {
+            try {
+                while (!factory.isEntitySetReady()) {
+                    Thread.sleep(PRIMING_CHECK_MS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            signalEntitySetReady();
+        }, "Entity set readiness");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Re-run any filter that is waiting for its entity set to be ready
+     */
+    public static void signalEntitySetReady() {
+        EntityFilterScheduler[] waiting;
+        synchronized (waitingSchedulers) {
+            waiting = waitingSchedulers.toArray(new EntityFilterScheduler[0]);
+        }
+        for (EntityFilterScheduler scheduler : waiting) {
+            scheduler.recheckNow();
+        }
+    }
+}
@@ -19,8 +19,7 @@ public abstract class EntityFiltererBase {
     private final EntityListAdapter adapter;
     protected final List<Entity<TreeReference>> matchList;
     protected final List<Entity<TreeReference>> fullEntityList;
-    private Thread thread;
-    private boolean cancelled = false;
+    private volatile boolean cancelled = false;
     private final AppCompatActivity context;
 
     public EntityFiltererBase(AppCompatActivity context,
@@ -34,36 +33,40 @@ public abstract class EntityFiltererBase {
         this.matchList = new ArrayList<>();
     }
 
-    public void start() {
-        thread = new Thread(() -> {
-            //Make sure that we have loaded the necessary cached data
-            //before we attempt to search over it
-            while (!nodeFactory.isEntitySetReady()) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-            filter();
+    /**
+     * Filter the entity list and hand the matches to the adapter. Run by the adapter's
+     * EntityFilterScheduler once the entity set is ready.
+     */
+    void run() {
+        filter();
 
-            finishSearch();
-        });
-        thread.start();
+        finishSearch();
+    }
+
+    boolean isEntitySetReady() {
+        return nodeFactory.isEntitySetReady();
     }
 
     private void finishSearch() {
-        context.runOnUiThread(() -> adapter.setCurrent(matchList));
+        context.runOnUiThread(() -> {
+            // cancelled searches have been replaced by another one, or by the full list
+            if (!cancelled) {
+                adapter.setCurrent(matchList);
+            }
+        });
     }
 
     public void cancelSearch() {
         cancelled = true;
         adapter.clearSearch();
-        try {
-            thread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    }
+
+    /**
+     * Keep the matches of a filter that already finished from reaching the adapter, without
+     * touching the adapter's search state
+     */
+    void discardResult() {
+        cancelled = true;
     }
 
     protected boolean isCancelled() {
@@ -71,7 +71,11 @@ public class EntityListAdapter extends AndroidSortableEntityAdapter implements L
     private String[] currentSearchTerms;
     private String searchQuery = "";
 
-    private EntityFiltererBase entityFilterer = null;
+    private final EntityFilterScheduler filterScheduler = new EntityFilterScheduler();
+    // Built by the first string search and kept for the lifetime of the loaded list
+    private final EntitySearchIndex searchIndex = new EntitySearchIndex();
+    // Bumped whenever entities are added to the full list
+    private int entityGeneration = 0;
 
     // Asyncronous image loader, allows rows with images to scroll smoothly
     private final CachingAsyncImageLoader mImageLoader;
@@ -306,9 +310,7 @@ public class EntityListAdapter extends AndroidSortableEntityAdapter implements L
     }
 
     public synchronized void filterByString(String filterRaw) {
-        if (entityFilterer != null) {
-            entityFilterer.cancelSearch();
-        }
+        filterScheduler.cancel();
         // split by whitespace
         String[] searchTerms = filterRaw.split("\\s+");
         for (int i = 0; i < searchTerms.length; ++i) {
@@ -316,10 +318,12 @@ public class EntityListAdapter extends AndroidSortableEntityAdapter implements L
         }
         currentSearchTerms = searchTerms;
         searchQuery = filterRaw;
-        entityFilterer =
+        // Filters read a copy of the list, so that it can be sorted or grown while they run
+        EntityFiltererBase entityFilterer =
                 new EntityStringFilterer(this, searchTerms,
-                        mFuzzySearchEnabled, mNodeFactory, full, commCareActivity);
-        entityFilterer.start();
+                        mFuzzySearchEnabled, mNodeFactory, new ArrayList<>(full), commCareActivity, searchIndex,
+                        entityGeneration);
+        filterScheduler.schedule(entityFilterer, EntityFilterScheduler.SEARCH_DEBOUNCE_MS);
     }
 
     /**
@@ -330,9 +334,7 @@ public class EntityListAdapter extends AndroidSortableEntityAdapter implements L
     public synchronized void filterByKeyedCalloutData(OrderedHashtable<String, String> keyToExtraDataMapping) {
         calloutResponseData = keyToExtraDataMapping;
 
-        if (entityFilterer != null) {
-            entityFilterer.cancelSearch();
-        }
+        filterScheduler.cancel();
         LinkedHashSet<String> keysToFilterBy = new LinkedHashSet<>();
         for (Enumeration en = calloutResponseData.keys(); en.hasMoreElements(); ) {
             String key = (String)en.nextElement();
@@ -340,9 +342,28 @@ public class EntityListAdapter extends AndroidSortableEntityAdapter implements L
         }
 
         isFilteringByCalloutResult = true;
-        entityFilterer =
-                new EntityKeyFilterer(this, mNodeFactory, full, commCareActivity, keysToFilterBy);
-        entityFilterer.start();
+        EntityFiltererBase entityFilterer =
+                new EntityKeyFilterer(this, mNodeFactory, new ArrayList<>(full), commCareActivity, keysToFilterBy);
+        filterScheduler.schedule(entityFilterer, 0);
+    }
+
+    /**
+     * Adds entities that finished loading after this adapter was created, IE: batches from a
+     * streaming EntityLoaderTask. Any active filter is re-run so that it covers them.
+     */
+    public synchronized void appendEntities(List<Entity<TreeReference>> entities) {
+        String activeQuery = searchQuery;
+        filterScheduler.cancel();
+        addSorted(full, entities);
+        entityGeneration++;
+
+        if (isFilteringByCalloutResult) {
+            filterByKeyedCalloutData(calloutResponseData);
+        } else if (!"".equals(activeQuery)) {
+            filterByString(activeQuery);
+        } else {
+            setCurrent(new ArrayList<>(full));
+        }
     }
 
     void update() {
@@ -387,9 +408,7 @@ public class EntityListAdapter extends AndroidSortableEntityAdapter implements L
      * we need to stop doing so.
      */
     public synchronized void signalKilled() {
-        if (entityFilterer != null) {
-            entityFilterer.cancelSearch();
-        }
+        filterScheduler.cancel();
     }
 
     public String getSearchNotificationText() {
@@ -0,0 +1,268 @@
+package org.commcare.adapters;
+
+import org.commcare.cases.entity.Entity;
+import org.commcare.cases.util.StringUtils;
+import org.javarosa.core.model.instance.TreeReference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Inverted index over the searchable fields of a loaded entity list, used to narrow down
+ * which entities a string search needs to look at.
+ *
+ * Two postings are kept per entity: the trigrams of each normalized field, which every
+ * entity containing a search term as a substring must have, and the distinct sort field
+ * pieces, which fuzzy matching runs against once per distinct piece rather than once per
+ * entity. Candidates are a superset of the real matches; the final match and its score are
+ * still decided by EntitySortUtil so that results are identical to an unindexed search.
+ *
+ * Entities are identified by the order they were indexed in rather than by list position,
+ * so the index stays valid when the list is re-sorted or grows. The owner of the list hands
+ * in a generation that changes whenever entities are added, so a list the index has already
+ * covered isn't walked again.
+ */
+public class EntitySearchIndex {
+
+    private static final int GRAM_LENGTH = 3;
+    private static final int MAX_CACHED_FUZZY_TERMS = 64;
+
+    public interface CancellationCheck {
+        boolean isCancelled();
+    }
+
+    private final IdentityHashMap<Entity<TreeReference>, Integer> entityIds = new IdentityHashMap<>();
+    private final HashMap<String, Postings> gramPostings = new HashMap<>();
+    private final HashMap<String, Postings> piecePostings = new HashMap<>();
+    private final HashMap<String, BitSet> fuzzyMatchesByTerm = new HashMap<>();
+
+    private int indexedGeneration = -1;
+
+    private String[] lastSearchTerms;
+    private boolean lastSearchWasFuzzy;
+    private BitSet lastMatches;
+
+    /**
+     * Indexes any entities in the list that haven't been indexed yet
+     *
+     * @param generation Identifies the list's contents; a list of the same generation as the
+     *                   last fully indexed one is assumed to already be covered
+     * @return false if indexing was cancelled before it covered the full list
+     */
+    public synchronized boolean indexEntities(List<Entity<TreeReference>> entities, int generation,
+                                              Locale locale, CancellationCheck cancellationCheck) {
+        if (generation == indexedGeneration) {
+            return true;
+        }
+        for (Entity<TreeReference> entity : entities) {
+            if (cancellationCheck.isCancelled()) {
+                return false;
+            }
+            if (entityIds.containsKey(entity)) {
+                continue;
+            }
+            int id = entityIds.size();
+            entityIds.put(entity, id);
+            for (int i = 0; i < entity.getNumFields(); i++) {
+                indexField(id, entity.getNormalizedField(i), locale);
+                for (String piece : entity.getSortFieldPieces(i)) {
+                    getPostings(piecePostings, piece).add(id);
+                }
+            }
+        }
+        indexedGeneration = generation;
+        // new pieces may fuzzy match terms cached earlier
+        fuzzyMatchesByTerm.clear();
+        lastMatches = null;
+        return true;
+    }
+
+    private void indexField(int id, String field, Locale locale) {
+        if (field == null || field.length() < GRAM_LENGTH) {
+            return;
+        }
+        String lowerCaseField = field.toLowerCase(locale);
+        for (int i = 0; i + GRAM_LENGTH <= lowerCaseField.length(); i++) {
+            getPostings(gramPostings, lowerCaseField.substring(i, i + GRAM_LENGTH)).add(id);
+        }
+    }
+
+    private static Postings getPostings(Map<String, Postings> postingsMap, String key) {
+        Postings postings = postingsMap.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            postingsMap.put(key, postings);
+        }
+        return postings;
+    }
+
+    /**
+     * @return The entities from the list that could match every search term, in list order
+     */
+    public synchronized List<Entity<TreeReference>> getCandidates(List<Entity<TreeReference>> entities,
+                                                                  String[] searchTerms,
+                                                                  boolean isFuzzySearchEnabled,
+                                                                  Locale locale) {
+        BitSet candidates = null;
+        if (lastMatches != null && extendsLastSearch(searchTerms, isFuzzySearchEnabled)) {
+            candidates = (BitSet)lastMatches.clone();
+        }
+        for (String term : searchTerms) {
+            BitSet termCandidates = getTermCandidates(term, isFuzzySearchEnabled, locale);
+            if (termCandidates == null) {
+                continue;
+            }
+            if (candidates == null) {
+                candidates = termCandidates;
+            } else {
+                candidates.and(termCandidates);
+            }
+        }
+        if (candidates == null) {
+            return entities;
+        }
+
+        List<Entity<TreeReference>> candidateEntities = new ArrayList<>(candidates.cardinality());
+        for (Entity<TreeReference> entity : entities) {
+            Integer id = entityIds.get(entity);
+            if (id == null || candidates.get(id)) {
+                candidateEntities.add(entity);
+            }
+        }
+        return candidateEntities;
+    }
+
+    /**
+     * Narrowing from the previous matches is only safe for substring matching: anything
+     * containing the extended terms also contained the shorter ones. Fuzzy matches don't
+     * have that property, since an edit distance threshold applies to each term separately.
+     */
+    private boolean extendsLastSearch(String[] searchTerms, boolean isFuzzySearchEnabled) {
+        if (isFuzzySearchEnabled || lastSearchWasFuzzy
+                || searchTerms.length < lastSearchTerms.length) {
+            return false;
+        }
+        for (int i = 0; i < lastSearchTerms.length; i++) {
+            if (!searchTerms[i].contains(lastSearchTerms[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Ids of entities that could match the term, or null if the index can't narrow
+     * down matches for it
+     */
+    private BitSet getTermCandidates(String term, boolean isFuzzySearchEnabled, Locale locale) {
+        BitSet substringCandidates = getSubstringCandidates(term.toLowerCase(locale));
+        if (substringCandidates == null || !isFuzzySearchEnabled) {
+            return substringCandidates;
+        }
+        substringCandidates.or(getFuzzyCandidates(term));
+        return substringCandidates;
+    }
+
+    private BitSet getSubstringCandidates(String term) {
+        if (term.length() < GRAM_LENGTH) {
+            return null;
+        }
+        List<Postings> termPostings = new ArrayList<>();
+        for (int i = 0; i + GRAM_LENGTH <= term.length(); i++) {
+            Postings postings = gramPostings.get(term.substring(i, i + GRAM_LENGTH));
+            if (postings == null) {
+                return new BitSet();
+            }
+            termPostings.add(postings);
+        }
+        // start from the rarest gram so the intersection stays small
+        Postings rarest = termPostings.get(0);
+        for (Postings postings : termPostings) {
+            if (postings.size < rarest.size) {
+                rarest = postings;
+            }
+        }
+        BitSet candidates = rarest.toBitSet();
+        for (Postings postings : termPostings) {
+            if (postings != rarest) {
+                candidates.and(postings.toBitSet());
+            }
+        }
+        return candidates;
+    }
+
+    private BitSet getFuzzyCandidates(String term) {
+        BitSet candidates = fuzzyMatchesByTerm.get(term);
+        if (candidates == null) {
+            candidates = new BitSet();
+            for (Map.Entry<String, Postings> piece : piecePostings.entrySet()) {
+                if (StringUtils.fuzzyMatch(term, piece.getKey()).first) {
+                    piece.getValue().addTo(candidates);
+                }
+            }
+            if (fuzzyMatchesByTerm.size() >= MAX_CACHED_FUZZY_TERMS) {
+                fuzzyMatchesByTerm.clear();
+            }
+            fuzzyMatchesByTerm.put(term, candidates);
+        }
+        return (BitSet)candidates.clone();
+    }
+
+    /**
+     * Remembers the result of a completed search so that a follow-up search extending the
+     * same terms only has to look at these entities
+     */
+    public synchronized void recordMatches(String[] searchTerms, boolean isFuzzySearchEnabled,
+                                           List<Entity<TreeReference>> matches) {
+        BitSet matchIds = new BitSet(entityIds.size());
+        for (Entity<TreeReference> entity : matches) {
+            Integer id = entityIds.get(entity);
+            if (id == null) {
+                // not covered by the index, so the next search can't rely on these matches
+                lastMatches = null;
+                return;
+            }
+            matchIds.set(id);
+        }
+        lastSearchTerms = searchTerms;
+        lastSearchWasFuzzy = isFuzzySearchEnabled;
+        lastMatches = matchIds;
+    }
+
+    /**
+     * Ids of entities with a given gram or piece, in increasing order since ids are handed
+     * out sequentially
+     */
+    private static class Postings {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        BitSet toBitSet() {
+            BitSet bitSet = new BitSet();
+            addTo(bitSet);
+            return bitSet;
+        }
+
+        void addTo(BitSet bitSet) {
+            for (int i = 0; i < size; i++) {
+                bitSet.set(ids[i]);
+            }
+        }
+    }
+}
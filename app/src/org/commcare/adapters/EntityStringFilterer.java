@@ -30,16 +30,25 @@ public class EntityStringFilterer extends EntityFiltererBase {
     private final String[] searchTerms;
     private final ArrayList<Pair<Integer, Integer>> matchScores = new ArrayList<>();
     private final boolean isFuzzySearchEnabled;
+    private final EntitySearchIndex searchIndex;
+    private final int entityGeneration;
 
+    /**
+     * @param entityGeneration Generation of the entity list, as understood by the search index
+     */
     public EntityStringFilterer(EntityListAdapter adapter,
                                 String[] searchTerms,
                                 boolean isFuzzySearchEnabled,
                                 NodeEntityFactory nodeFactory,
                                 List<Entity<TreeReference>> fullEntityList,
-                                AppCompatActivity context) {
+                                AppCompatActivity context,
+                                EntitySearchIndex searchIndex,
+                                int entityGeneration) {
         super(context, nodeFactory, adapter, fullEntityList);
 
         this.isFuzzySearchEnabled = isFuzzySearchEnabled;
+        this.searchIndex = searchIndex;
+        this.entityGeneration = entityGeneration;
         this.isFilterEmpty = searchTerms == null || searchTerms.length == 0;
         this.searchTerms = searchTerms;
 
@@ -66,11 +75,13 @@ public class EntityStringFilterer extends EntityFiltererBase {
         }
     }
 
-    private Entity<TreeReference> getEntityAtIndex(SQLiteDatabase db, int index) {
+    private Entity<TreeReference> getEntityAtIndex(SQLiteDatabase db,
+                                                   List<Entity<TreeReference>> entities,
+                                                   int index) {
         if (index % 500 == 0) {
             db.yieldIfContendedSafely();
         }
-        Entity<TreeReference> e = fullEntityList.get(index);
+        Entity<TreeReference> e = entities.get(index);
         if (isCancelled()) {
             return null;
         }
@@ -90,13 +101,24 @@ public class EntityStringFilterer extends EntityFiltererBase {
         }
         db.beginTransaction();
         try {
-            EntitySortUtil.sortEntities(fullEntityList,
+            // The index only narrows down which entities get checked; matching and scoring
+            // are still done by EntitySortUtil
+            if (!searchIndex.indexEntities(fullEntityList, entityGeneration, currentLocale,
+                    this::isCancelled)) {
+                return;
+            }
+            List<Entity<TreeReference>> candidates = searchIndex.getCandidates(fullEntityList,
+                    searchTerms, isFuzzySearchEnabled, currentLocale);
+            EntitySortUtil.sortEntities(candidates,
                     searchTerms,
                     currentLocale,
                     isFuzzySearchEnabled,
                     matchScores,
                     matchList,
-                    index -> getEntityAtIndex(db, index));
+                    index -> getEntityAtIndex(db, candidates, index));
+            if (!isCancelled()) {
+                searchIndex.recordMatches(searchTerms, isFuzzySearchEnabled, matchList);
+            }
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -46,11 +46,20 @@ public class DeviceReportRecord extends Persisted implements EncryptedModel {
     }
 
     public static DeviceReportRecord generateNewRecordStub() {
+        return generateNewRecordStub(0);
+    }
+
+    /**
+     * @param chunkIndex Position of the report among those generated from one backlog of
+     *                   logs, which keeps their file names distinct
+     */
+    public static DeviceReportRecord generateNewRecordStub(int chunkIndex) {
+        String suffix = chunkIndex == 0 ? "" : "-" + chunkIndex;
         DeviceReportRecord slr = new DeviceReportRecord();
         slr.fileName = new File(
                 CommCareApplication.instance().getCurrentApp().fsPath((GlobalConstants.FILE_CC_LOGS))
                         + FileUtil.SanitizeFileName(File.separator
-                        + DateUtils.formatDateTime(new Date(), DateUtils.FORMAT_ISO8601)) + ".xml").getAbsolutePath();
+                        + DateUtils.formatDateTime(new Date(), DateUtils.FORMAT_ISO8601) + suffix) + ".xml").getAbsolutePath();
         slr.aesKey = CommCareApplication.instance().createNewSymmetricKey().getEncoded();
         return slr;
     }
@@ -4,7 +4,9 @@ import org.commcare.logging.AndroidLogPurger;
 import org.commcare.logging.AndroidLogSerializer;
 import org.commcare.logging.DeviceReportElement;
 import org.commcare.logging.DeviceReportWriter;
+import org.commcare.logging.LogChunkLimit;
 import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.SqlStorageIterator;
 import org.javarosa.core.log.LogEntry;
 import org.javarosa.core.log.StreamLogSerializer;
 import org.javarosa.core.model.utils.DateUtils;
@@ -22,6 +24,7 @@ public class ForceCloseLogSerializer extends StreamLogSerializer implements Devi
     private ForceCloseLogEntry singleEntry;
     private SqlStorage<ForceCloseLogEntry> logStorage;
     private XmlSerializer serializer;
+    private LogChunkLimit chunkLimit;
 
     public ForceCloseLogSerializer(ForceCloseLogEntry entry) {
         this.singleEntry = entry;
@@ -32,6 +35,15 @@ public class ForceCloseLogSerializer extends StreamLogSerializer implements Devi
         this.setPurger(new AndroidLogPurger<>(logStorage));
     }
 
+    /**
+     * Serializes entries from storage, in record order, until the limit is reached. Only the
+     * serialized entries are purged, so the rest can go into the next report.
+     */
+    public ForceCloseLogSerializer(final SqlStorage<ForceCloseLogEntry> logStorage, LogChunkLimit chunkLimit) {
+        this(logStorage);
+        this.chunkLimit = chunkLimit;
+    }
+
     @Override
     public void writeToDeviceReport(XmlSerializer serializer) throws IOException {
         this.serializer = serializer;
@@ -41,8 +53,17 @@ public class ForceCloseLogSerializer extends StreamLogSerializer implements Devi
             if (singleEntry != null) {
                 serializeLog(singleEntry.getID(), singleEntry);
             } else {
-                for (ForceCloseLogEntry entry : logStorage) {
-                    serializeLog(entry.getID(), entry);
+                SqlStorageIterator<ForceCloseLogEntry> iterator = logStorage.iterate();
+                try {
+                    while (iterator.hasNext()) {
+                        ForceCloseLogEntry entry = iterator.next();
+                        if (chunkLimit != null && !chunkLimit.tryAdd(entry)) {
+                            break;
+                        }
+                        serializeLog(entry.getID(), entry);
+                    }
+                } finally {
+                    iterator.close();
                 }
             }
         } finally {
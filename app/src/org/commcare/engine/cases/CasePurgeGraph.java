@@ -0,0 +1,346 @@
+package org.commcare.engine.cases;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.cases.model.Case;
+import org.commcare.cases.model.CaseIndex;
+import org.commcare.modern.database.DatabaseHelper;
+import org.commcare.modern.database.TableBuilder;
+import org.commcare.models.database.user.models.AndroidCaseIndexTable;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * The case graph used to decide which cases a purge removes, held in primitive arrays rather
+ * than a DAG keyed by case id strings.
+ *
+ * Nodes are numbered by their position in the case table (ordered by record id), and the
+ * indices between them are stored in compressed sparse row form: the indices out of node n
+ * are the entries of outTargets between outOffsets[n] and outOffsets[n + 1]. A second row set
+ * holds the extension indices into each node, so that marks can be pushed from a host to its
+ * extensions without a reverse lookup.
+ *
+ * Statuses propagate in the same order and along the same edges as CasePurgeFilter:
+ * relevance, then availability, then liveness, each pushed up every index and down extension
+ * indices. Graphs with an index to a case which isn't on the device, or with a cycle, are
+ * reported as not valid so that the caller can fall back to CasePurgeFilter, which reports
+ * those problems.
+ */
+public class CasePurgeGraph {
+
+    private static final byte STATUS_OWNED = 1;
+    private static final byte STATUS_OPEN = 2;
+    private static final byte STATUS_RELEVANT = 4;
+    private static final byte STATUS_AVAILABLE = 8;
+    private static final byte STATUS_LIVE = 16;
+
+    private final int nodeCount;
+    private final int[] recordIds;
+    private final byte[] status;
+
+    private int[] outOffsets;
+    private int[] outTargets;
+    private boolean[] outIsExtension;
+
+    private int[] extensionOffsets;
+    private int[] extensionSources;
+
+    private boolean hasMissingTargets;
+
+    private CasePurgeGraph(int[] recordIds, byte[] status, int nodeCount) {
+        this.recordIds = recordIds;
+        this.status = status;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Load the graph of every case in the database
+     *
+     * @param owners The ids of the users and groups whose cases are owned on this device
+     */
+    public static CasePurgeGraph load(SQLiteDatabase db, Set<String> owners) {
+        CasePurgeGraph graph = loadNodes(db, owners);
+        graph.loadEdges(new AndroidCaseIndexTable(db));
+        return graph;
+    }
+
+    private static CasePurgeGraph loadNodes(SQLiteDatabase db, Set<String> owners) {
+        String ownerColumn = TableBuilder.scrubName(Case.INDEX_OWNER_ID);
+        String statusColumn = TableBuilder.scrubName(Case.INDEX_CASE_STATUS);
+        Cursor c = db.query(ACase.STORAGE_KEY,
+                new String[]{DatabaseHelper.ID_COL, ownerColumn, statusColumn},
+                null, null, null, null, DatabaseHelper.ID_COL);
+        try {
+            int nodeCount = c.getCount();
+            int[] recordIds = new int[nodeCount];
+            byte[] status = new byte[nodeCount];
+            int node = 0;
+            while (c.moveToNext()) {
+                recordIds[node] = c.getInt(0);
+                byte nodeStatus = 0;
+                if (owners.contains(c.getString(1))) {
+                    nodeStatus |= STATUS_OWNED;
+                }
+                if (!"closed".equals(c.getString(2))) {
+                    nodeStatus |= STATUS_OPEN;
+                }
+                status[node++] = nodeStatus;
+            }
+            return new CasePurgeGraph(recordIds, status, node);
+        } finally {
+            c.close();
+        }
+    }
+
+    private void loadEdges(AndroidCaseIndexTable indexTable) {
+        int edgeCount = 0;
+        int[] sources = new int[Math.max(16, nodeCount)];
+        int[] targets = new int[sources.length];
+        boolean[] isExtension = new boolean[sources.length];
+
+        Cursor c = indexTable.getResolvedIndexCursor();
+        try {
+            while (c.moveToNext()) {
+                int source = nodeForRecord(c.getInt(0));
+                if (source < 0) {
+                    // index rows left behind for a case which is gone, which aren't part of the graph
+                    continue;
+                }
+                if (c.isNull(1)) {
+                    hasMissingTargets = true;
+                    continue;
+                }
+                if (edgeCount == sources.length) {
+                    int newLength = edgeCount * 2;
+                    sources = Arrays.copyOf(sources, newLength);
+                    targets = Arrays.copyOf(targets, newLength);
+                    isExtension = Arrays.copyOf(isExtension, newLength);
+                }
+                sources[edgeCount] = source;
+                targets[edgeCount] = nodeForRecord(c.getInt(1));
+                isExtension[edgeCount] = CaseIndex.RELATIONSHIP_EXTENSION.equals(c.getString(2));
+                edgeCount++;
+            }
+        } finally {
+            c.close();
+        }
+
+        buildOutRows(sources, targets, isExtension, edgeCount);
+        buildExtensionRows();
+    }
+
+    private int nodeForRecord(int recordId) {
+        int node = Arrays.binarySearch(recordIds, 0, nodeCount, recordId);
+        return node < 0 ? -1 : node;
+    }
+
+    /**
+     * Bucket the edges by source. A case with more than one index to the same target keeps a
+     * single edge to it, which is an extension if any one of those indices is.
+     */
+    private void buildOutRows(int[] sources, int[] targets, boolean[] isExtension, int edgeCount) {
+        int[] offsets = new int[nodeCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            offsets[sources[i] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            offsets[n + 1] += offsets[n];
+        }
+        int[] rowTargets = new int[edgeCount];
+        boolean[] rowIsExtension = new boolean[edgeCount];
+        int[] next = Arrays.copyOf(offsets, nodeCount);
+        for (int i = 0; i < edgeCount; i++) {
+            int slot = next[sources[i]]++;
+            rowTargets[slot] = targets[i];
+            rowIsExtension[slot] = isExtension[i];
+        }
+
+        outOffsets = new int[nodeCount + 1];
+        outTargets = rowTargets;
+        outIsExtension = rowIsExtension;
+        int written = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            outOffsets[n] = written;
+            for (int i = offsets[n]; i < offsets[n + 1]; i++) {
+                int existing = findTarget(outOffsets[n], written, rowTargets[i]);
+                if (existing < 0) {
+                    outTargets[written] = rowTargets[i];
+                    outIsExtension[written] = rowIsExtension[i];
+                    written++;
+                } else if (rowIsExtension[i]) {
+                    outIsExtension[existing] = true;
+                }
+            }
+        }
+        outOffsets[nodeCount] = written;
+    }
+
+    private int findTarget(int start, int end, int target) {
+        for (int i = start; i < end; i++) {
+            if (outTargets[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void buildExtensionRows() {
+        extensionOffsets = new int[nodeCount + 1];
+        int edgeCount = outOffsets[nodeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            if (outIsExtension[i]) {
+                extensionOffsets[outTargets[i] + 1]++;
+            }
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            extensionOffsets[n + 1] += extensionOffsets[n];
+        }
+        extensionSources = new int[extensionOffsets[nodeCount]];
+        int[] next = Arrays.copyOf(extensionOffsets, nodeCount);
+        for (int source = 0; source < nodeCount; source++) {
+            for (int i = outOffsets[source]; i < outOffsets[source + 1]; i++) {
+                if (outIsExtension[i]) {
+                    extensionSources[next[outTargets[i]]++] = source;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return False if an index points to a case which isn't on the device, or the indices
+     * form a cycle, in which case the graph can't be used to decide what to purge
+     */
+    public boolean isValid() {
+        return !hasMissingTargets && !hasCycle();
+    }
+
+    /**
+     * Kahn's algorithm over the index edges: the graph has a cycle if some nodes are never
+     * left without an unvisited index into them.
+     */
+    private boolean hasCycle() {
+        int[] inDegree = new int[nodeCount];
+        int edgeCount = outOffsets[nodeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            inDegree[outTargets[i]]++;
+        }
+        int[] queue = new int[nodeCount];
+        int tail = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            if (inDegree[n] == 0) {
+                queue[tail++] = n;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int node = queue[head];
+            for (int i = outOffsets[node]; i < outOffsets[node + 1]; i++) {
+                if (--inDegree[outTargets[i]] == 0) {
+                    queue[tail++] = outTargets[i];
+                }
+            }
+        }
+        return tail != nodeCount;
+    }
+
+    /**
+     * @return The record ids of the cases which aren't live, and should be purged
+     */
+    public Vector<Integer> getCasesToRemove() {
+        int[] stack = new int[nodeCount];
+
+        // Relevant cases are open and owned, or indexed by a relevant case, or extensions of one
+        for (int n = 0; n < nodeCount; n++) {
+            if (hasStatus(n, STATUS_OWNED | STATUS_OPEN)) {
+                status[n] |= STATUS_RELEVANT;
+            }
+        }
+        propagateUp(STATUS_RELEVANT, stack);
+        propagateToExtensions(STATUS_RELEVANT, stack);
+
+        // Available cases are open, relevant and not extensions, or extensions of available cases
+        for (int n = 0; n < nodeCount; n++) {
+            if (hasStatus(n, STATUS_OPEN | STATUS_RELEVANT) && !hasExtensionIndex(n)) {
+                status[n] |= STATUS_AVAILABLE;
+            }
+        }
+        propagateToExtensions(STATUS_AVAILABLE, stack);
+
+        // Live cases are owned, relevant and available, or indexed by a live case, or extensions of one
+        for (int n = 0; n < nodeCount; n++) {
+            if (hasStatus(n, STATUS_OWNED | STATUS_RELEVANT | STATUS_AVAILABLE)) {
+                status[n] |= STATUS_LIVE;
+            }
+        }
+        propagateUp(STATUS_LIVE, stack);
+        propagateToExtensions(STATUS_LIVE, stack);
+
+        Vector<Integer> toRemove = new Vector<>();
+        for (int n = 0; n < nodeCount; n++) {
+            if (!hasStatus(n, STATUS_LIVE)) {
+                toRemove.add(recordIds[n]);
+            }
+        }
+        return toRemove;
+    }
+
+    private boolean hasStatus(int node, int mask) {
+        return (status[node] & mask) == mask;
+    }
+
+    private boolean hasExtensionIndex(int node) {
+        for (int i = outOffsets[node]; i < outOffsets[node + 1]; i++) {
+            if (outIsExtension[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark every case indexed (directly or not) by a case with the mark
+     */
+    private void propagateUp(byte mark, int[] stack) {
+        int top = pushMarked(mark, stack);
+        while (top > 0) {
+            int node = stack[--top];
+            for (int i = outOffsets[node]; i < outOffsets[node + 1]; i++) {
+                int target = outTargets[i];
+                if ((status[target] & mark) == 0) {
+                    status[target] |= mark;
+                    stack[top++] = target;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark every extension (directly or not) of a case with the mark
+     */
+    private void propagateToExtensions(byte mark, int[] stack) {
+        int top = pushMarked(mark, stack);
+        while (top > 0) {
+            int node = stack[--top];
+            for (int i = extensionOffsets[node]; i < extensionOffsets[node + 1]; i++) {
+                int extension = extensionSources[i];
+                if ((status[extension] & mark) == 0) {
+                    status[extension] |= mark;
+                    stack[top++] = extension;
+                }
+            }
+        }
+    }
+
+    private int pushMarked(byte mark, int[] stack) {
+        int top = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            if ((status[n] & mark) != 0) {
+                stack[top++] = n;
+            }
+        }
+        return top;
+    }
+}
@@ -13,6 +13,7 @@ import org.commcare.cases.util.InvalidCaseGraphException;
 import org.commcare.models.database.SqlStorage;
 import org.commcare.models.database.SqlStorageIterator;
 import org.commcare.models.database.user.models.AndroidCaseIndexTable;
+import org.commcare.models.database.user.models.CaseDbHashTable;
 import org.commcare.modern.engine.cases.CaseIndexTable;
 import org.commcare.modern.util.Pair;
 import org.commcare.util.LogTypes;
@@ -26,14 +27,12 @@ import org.javarosa.core.services.Logger;
 import org.javarosa.core.services.storage.IStorageIterator;
 import org.javarosa.core.services.storage.IStorageUtilityIndexed;
 import org.javarosa.core.util.DAG;
-import org.javarosa.core.util.MD5;
 import org.javarosa.model.xform.XPathReference;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Vector;
 
-import static org.commcare.cases.util.CaseDBUtils.xordata;
-
 /**
  * Utilities for performing complex operations on the case database.
  *
@@ -41,36 +40,78 @@ import static org.commcare.cases.util.CaseDBUtils.xordata;
  */
 public class CaseUtils {
 
+    /**
+     * @return The hash of every case id in storage, which is sent with sync requests. Read from
+     * the running digest which case writes keep up to date, which is rebuilt with a full scan
+     * of the cases if it isn't being tracked yet.
+     */
     public static String computeCaseDbHash(SqlStorage<?> storage) {
-        long timeStart = System.currentTimeMillis();
-
-        byte[] data = new byte[MD5.length];
-        for (int i = 0; i < data.length; ++i) {
-            data[i] = 0;
-        }
-        boolean casesExist = false;
-        long count = 0;
-
-        for (SqlStorageIterator i = storage.iterate(false, new String[]{Case.INDEX_CASE_ID}); i.hasMore(); ) {
-            byte[] current = MD5.hash(i.peekIncludedMetadata(Case.INDEX_CASE_ID).getBytes());
-            data = xordata(data, current);
-            casesExist = true;
-            count++;
-            i.nextID();
+        String hash = CaseDbHashTable.readHash(storage.getAccessLock());
+        if (hash == null) {
+            return rebuildCaseDbHash(storage);
         }
+        return hash;
+    }
+
+    /**
+     * Recompute the case db hash from a scan of every case, and replace the running digest
+     * with the result.
+     */
+    public static String rebuildCaseDbHash(SqlStorage<?> storage) {
+        SQLiteDatabase db = storage.getAccessLock();
+        db.beginTransaction();
+        try {
+            long timeStart = System.currentTimeMillis();
+
+            byte[] data = CaseDbHashTable.emptyDigest();
+            long count = 0;
+            for (SqlStorageIterator i = storage.iterate(false, new String[]{Case.INDEX_CASE_ID}); i.hasMore(); ) {
+                data = CaseDbHashTable.foldCaseId(data, i.peekIncludedMetadata(Case.INDEX_CASE_ID));
+                count++;
+                i.nextID();
+            }
 
-        //In the base case (with no cases), the case hash is empty
-        if (!casesExist) {
-            return "";
+            if (CaseDbHashTable.isTableExist(db)) {
+                CaseDbHashTable.writeDigest(db, data, count);
+            }
+            db.setTransactionSuccessful();
+
+            long timeEnd = System.currentTimeMillis();
+            Logger.log(LogTypes.TYPE_MAINTENANCE, String.format(
+                    "Hashed %d Cases records in %dms",
+                    count, timeEnd - timeStart));
+
+            return CaseDbHashTable.toHash(data, count);
+        } finally {
+            db.endTransaction();
         }
+    }
 
-        long timeEnd = System.currentTimeMillis();
-        Logger.log(LogTypes.TYPE_MAINTENANCE, String.format(
-                "Hashed %d Cases records in %dms",
-                count, timeEnd-timeStart));
+    /**
+     * Check the running case db hash against a full scan of the cases, rebuilding it if they
+     * don't match.
+     *
+     * @return Whether the running digest was tracked and matched the cases in storage
+     */
+    public static boolean verifyCaseDbHash(SqlStorage<?> storage) {
+        SQLiteDatabase db = storage.getAccessLock();
+        db.beginTransaction();
+        try {
+            String runningHash = CaseDbHashTable.readHash(db);
+            String scannedHash = rebuildCaseDbHash(storage);
+            db.setTransactionSuccessful();
 
-        return MD5.toHex(data);
+            boolean matched = scannedHash.equals(runningHash);
+            if (runningHash != null && !matched) {
+                Logger.log(LogTypes.SOFT_ASSERT, "Running case db hash " + runningHash +
+                        " didn't match the cases in storage, which hash to " + scannedHash);
+            }
+            return matched;
+        } finally {
+            db.endTransaction();
+        }
     }
+
     /**
      * Perform a case purge against the logged in user with the logged in app in local storage.
      *
@@ -112,26 +153,20 @@ public class CaseUtils {
         int removedLedgers;
         try {
             SqlStorage<ACase> storage = CommCareApplication.instance().getUserStorage(ACase.STORAGE_KEY, ACase.class);
-            DAG<String, int[], String> fullCaseGraph = getFullCaseGraph(storage, new AndroidCaseIndexTable(), owners);
-
-            CasePurgeFilter filter = new CasePurgeFilter(fullCaseGraph);
-            if (filter.invalidEdgesWereRemoved()) {
-                Logger.log(LogTypes.SOFT_ASSERT, "An invalid edge was created in the internal " +
-                        "case DAG of a case purge filter, meaning that at least 1 case on the " +
-                         "device had an index into another case that no longer exists on the device");
-                Logger.log(LogTypes.TYPE_ERROR_ASSERTION, "Case lists on the server and device" +
-                        " were out of sync. The following cases were expected to be on the device, " +
-                        "but were missing: " + filter.getMissingCasesString() + ". As a result, the " +
-                        "following cases were also removed from the device: " + filter.getRemovedCasesString());
+
+            Vector<Integer> casesToRemove;
+            CasePurgeGraph caseGraph = CasePurgeGraph.load(db, new HashSet<>(owners));
+            if (caseGraph.isValid()) {
+                casesToRemove = caseGraph.getCasesToRemove();
+            } else {
+                // Let the DAG based filter deal with (and report) missing cases and cycles
+                casesToRemove = getCasesToRemoveWithFilter(storage, owners);
             }
 
-            Vector<Integer> casesRemoved = storage.removeAll(filter.getCasesToRemove());
+            Vector<Integer> casesRemoved = storage.removeAll(casesToRemove);
             removedCaseCount = casesRemoved.size();
 
-            AndroidCaseIndexTable indexTable = new AndroidCaseIndexTable(db);
-            for (int recordId : casesRemoved) {
-                indexTable.clearCaseIndices(recordId);
-            }
+            new AndroidCaseIndexTable().clearCaseIndices(casesRemoved);
 
 
             SqlStorage<Ledger> stockStorage = CommCareApplication.instance().getUserStorage(Ledger.STORAGE_KEY, Ledger.class);
@@ -151,6 +186,24 @@ public class CaseUtils {
 
     }
 
+    static Vector<Integer> getCasesToRemoveWithFilter(SqlStorage<ACase> storage,
+                                                      Vector<String> owners)
+            throws InvalidCaseGraphException {
+        DAG<String, int[], String> fullCaseGraph = getFullCaseGraph(storage, new AndroidCaseIndexTable(), owners);
+
+        CasePurgeFilter filter = new CasePurgeFilter(fullCaseGraph);
+        if (filter.invalidEdgesWereRemoved()) {
+            Logger.log(LogTypes.SOFT_ASSERT, "An invalid edge was created in the internal " +
+                    "case DAG of a case purge filter, meaning that at least 1 case on the " +
+                    "device had an index into another case that no longer exists on the device");
+            Logger.log(LogTypes.TYPE_ERROR_ASSERTION, "Case lists on the server and device" +
+                    " were out of sync. The following cases were expected to be on the device, " +
+                    "but were missing: " + filter.getMissingCasesString() + ". As a result, the " +
+                    "following cases were also removed from the device: " + filter.getRemovedCasesString());
+        }
+        return filter.getCasesToRemove();
+    }
+
     public static DAG<String, int[], String> getFullCaseGraph(SqlStorage<ACase> caseStorage,
                                                               AndroidCaseIndexTable indexTable,
                                                               Vector<String> owners) {
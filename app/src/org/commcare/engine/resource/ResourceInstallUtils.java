@@ -199,6 +199,8 @@ public class ResourceInstallUtils {
         String authRef = profile.getAuthReference();
 
         updateProfileRef(currentApp.getAppPreferences(), authRef, profileRef);
+
+        CommCareApplication.instance().prewarmFormDefCache();
     }
 
     private static void updateProfileRef(SharedPreferences prefs,
@@ -3,13 +3,17 @@ package org.commcare.gis;
 import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.os.Bundle;
-import android.util.Pair;
 
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
@@ -28,20 +32,39 @@ import org.javarosa.core.model.data.GeoPointData;
 import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.xpath.XPathException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import androidx.core.content.ContextCompat;
 
 /**
+ * Shows the entities of the current select datum on a Google map.
+ *
+ * Entity locations are loaded in the background into a MapPointIndex, and only the points in
+ * and around the visible region are drawn, grouped into clusters for the current zoom level.
+ * Markers are redrawn whenever the camera stops moving, keeping any whose cluster hasn't
+ * changed.
+ *
  * @author Forest Tong (ftong@dimagi.com)
  */
 public class EntityMapActivity extends CommCareActivity implements OnMapReadyCallback,
-        GoogleMap.OnInfoWindowClickListener {
+        GoogleMap.OnInfoWindowClickListener, GoogleMap.OnMarkerClickListener {
     private static final int MAP_PADDING = 50;  // Number of pixels to pad bounding region of markers
+    private static final int CLUSTER_ICON_SIZE = 96;
 
-    private final Vector<Pair<Entity<TreeReference>, LatLng>> entityLocations = new Vector<>();
-    private final HashMap<Marker, TreeReference> markerReferences = new HashMap<>();
+    // Entity shown at each point of the index
+    private final List<Entity<TreeReference>> pointEntities = new ArrayList<>();
+    private MapPointIndex pointIndex;
+
+    private final HashMap<Long, Marker> markersByCluster = new HashMap<>();
+    private final HashMap<Marker, MapPointIndex.Cluster> markerClusters = new HashMap<>();
+    private final HashMap<String, BitmapDescriptor> clusterIcons = new HashMap<>();
+
+    private final ExecutorService pointLoader = Executors.newSingleThreadExecutor();
 
     private GoogleMap mMap;
 
@@ -54,62 +77,198 @@ public class EntityMapActivity extends CommCareActivity implements OnMapReadyCal
                 .findFragmentById(R.id.map);
         mapFragment.getMapAsync(this);
 
-        try {
-            addEntityData();
-        } catch (XPathException xe) {
-            new UserfacingErrorHandling<>().logErrorAndShowDialog(this, xe, true);
-        }
+        pointLoader.execute(() -> {
+            List<Entity<TreeReference>> entities = new ArrayList<>();
+            MapPointIndex index;
+            try {
+                index = loadEntityPoints(entities);
+            } catch (XPathException xe) {
+                runOnUiThread(() -> new UserfacingErrorHandling<>().logErrorAndShowDialog(this, xe, true));
+                return;
+            }
+            runOnUiThread(() -> onPointsLoaded(entities, index));
+        });
     }
 
-
     /**
-     * Gets entity locations, and adds corresponding pairs to the vector entityLocations.
+     * Gets entity locations, reusing the entities loaded by the case list when possible
+     *
+     * @param entities Filled with the entity shown at each point of the returned index
      */
-    private void addEntityData() {
+    private static MapPointIndex loadEntityPoints(List<Entity<TreeReference>> entities) {
+        double[] latitudes = new double[16];
+        double[] longitudes = new double[16];
+        int pointCount = 0;
 
         EntityDatum selectDatum = EntityMapUtils.getNeededEntityDatum();
         if (selectDatum != null) {
             Detail detail = CommCareApplication.instance().getCurrentSession()
                     .getDetail(selectDatum.getShortDetail());
-            for (Entity<TreeReference> entity : EntityMapUtils.getEntities(detail, selectDatum.getNodeset())) {
+            for (Entity<TreeReference> entity : EntityMapUtils.getEntities(
+                    selectDatum.getShortDetail(), detail, selectDatum.getNodeset())) {
                 for (int i = 0; i < detail.getHeaderForms().length; ++i) {
                     GeoPointData data = EntityMapUtils.getEntityLocation(entity, detail, i);
                     if (data != null) {
-                        entityLocations.add(
-                                new Pair<>(entity, new LatLng(data.getLatitude(), data.getLongitude())));
+                        if (pointCount == latitudes.length) {
+                            latitudes = Arrays.copyOf(latitudes, pointCount * 2);
+                            longitudes = Arrays.copyOf(longitudes, pointCount * 2);
+                        }
+                        latitudes[pointCount] = data.getLatitude();
+                        longitudes[pointCount] = data.getLongitude();
+                        entities.add(entity);
+                        pointCount++;
                     }
                 }
             }
         }
+        return new MapPointIndex(Arrays.copyOf(latitudes, pointCount),
+                Arrays.copyOf(longitudes, pointCount));
+    }
+
+    private void onPointsLoaded(List<Entity<TreeReference>> entities, MapPointIndex index) {
+        if (isFinishing()) {
+            return;
+        }
+        pointEntities.addAll(entities);
+        pointIndex = index;
+        if (mMap != null) {
+            showPoints();
+        }
     }
 
     @Override
     public void onMapReady(final GoogleMap map) {
         mMap = map;
 
-        if (entityLocations.size() > 0) {
+        mMap.setOnInfoWindowClickListener(this);
+        mMap.setOnMarkerClickListener(this);
+        mMap.setOnCameraIdleListener(this::renderVisibleMarkers);
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED
+                || ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+            mMap.setMyLocationEnabled(true);
+        }
+
+        if (pointIndex != null) {
+            showPoints();
+        }
+    }
+
+    private void showPoints() {
+        if (pointIndex.size() > 0) {
             LatLngBounds.Builder builder = new LatLngBounds.Builder();
-            // Add markers to map and find bounding region
-            for (Pair<Entity<TreeReference>, LatLng> entityLocation : entityLocations) {
-                Marker marker = mMap.addMarker(new MarkerOptions()
-                        .position(entityLocation.second)
-                        .title(entityLocation.first.getFieldString(0))
-                        .snippet(entityLocation.first.getFieldString(1)));
-                markerReferences.put(marker, entityLocation.first.getElement());
-                builder.include(entityLocation.second);
+            for (int i = 0; i < pointIndex.size(); i++) {
+                builder.include(new LatLng(pointIndex.getLatitude(i), pointIndex.getLongitude(i)));
             }
             final LatLngBounds bounds = builder.build();
 
             // Move camera to be include all markers
             mMap.setOnMapLoadedCallback(() -> mMap.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds, MAP_PADDING)));
         }
+        renderVisibleMarkers();
+    }
 
-        mMap.setOnInfoWindowClickListener(this);
+    /**
+     * Draw the clusters in and around the visible region, replacing the markers of clusters
+     * that have changed since the last time
+     */
+    private void renderVisibleMarkers() {
+        if (mMap == null || pointIndex == null) {
+            return;
+        }
+        LatLngBounds visible = mMap.getProjection().getVisibleRegion().latLngBounds;
+        // include half a screen around the visible region, so that panning doesn't show gaps
+        double latPadding = (visible.northeast.latitude - visible.southwest.latitude) / 2;
+        double width = visible.northeast.longitude - visible.southwest.longitude;
+        if (width < 0) {
+            width += 360;
+        }
+        double south = Math.max(-90, visible.southwest.latitude - latPadding);
+        double north = Math.min(90, visible.northeast.latitude + latPadding);
+        double west = -180, east = 180;
+        if (width * 2 < 360) {
+            west = wrapLongitude(visible.southwest.longitude - width / 2);
+            east = wrapLongitude(visible.northeast.longitude + width / 2);
+        }
 
-        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED
-                || ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
-            mMap.setMyLocationEnabled(true);
+        HashMap<Long, Marker> previousMarkers = new HashMap<>(markersByCluster);
+        markersByCluster.clear();
+        for (MapPointIndex.Cluster cluster : pointIndex.cluster(south, west, north, east, mMap.getCameraPosition().zoom)) {
+            Marker marker = previousMarkers.remove(cluster.getKey());
+            if (marker != null && markerClusters.get(marker).getCount() != cluster.getCount()) {
+                removeMarker(marker);
+                marker = null;
+            }
+            if (marker == null) {
+                marker = mMap.addMarker(buildMarker(cluster));
+            }
+            markerClusters.put(marker, cluster);
+            markersByCluster.put(cluster.getKey(), marker);
+        }
+        for (Marker stale : previousMarkers.values()) {
+            removeMarker(stale);
+        }
+    }
+
+    private static double wrapLongitude(double longitude) {
+        return ((longitude + 180) % 360 + 360) % 360 - 180;
+    }
+
+    private void removeMarker(Marker marker) {
+        markerClusters.remove(marker);
+        marker.remove();
+    }
+
+    private MarkerOptions buildMarker(MapPointIndex.Cluster cluster) {
+        MarkerOptions options = new MarkerOptions()
+                .position(new LatLng(cluster.getLatitude(), cluster.getLongitude()));
+        if (cluster.getCount() == 1) {
+            Entity<TreeReference> entity = pointEntities.get(cluster.getFirstPoint());
+            return options.title(entity.getFieldString(0))
+                    .snippet(entity.getFieldString(1));
+        }
+        return options.icon(getClusterIcon(cluster.getCount()))
+                .anchor(0.5f, 0.5f);
+    }
+
+    private BitmapDescriptor getClusterIcon(int count) {
+        String label = count < 1000 ? String.valueOf(count) : (count / 1000) + "k+";
+        BitmapDescriptor icon = clusterIcons.get(label);
+        if (icon == null) {
+            Bitmap bitmap = Bitmap.createBitmap(CLUSTER_ICON_SIZE, CLUSTER_ICON_SIZE, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paint.setColor(ContextCompat.getColor(this, R.color.translucent_blue));
+            float radius = CLUSTER_ICON_SIZE / 2f;
+            canvas.drawCircle(radius, radius, radius, paint);
+            paint.setColor(ContextCompat.getColor(this, R.color.white));
+            paint.setTextSize(CLUSTER_ICON_SIZE / 3f);
+            paint.setTextAlign(Paint.Align.CENTER);
+            canvas.drawText(label, radius, radius - (paint.descent() + paint.ascent()) / 2, paint);
+            icon = BitmapDescriptorFactory.fromBitmap(bitmap);
+            clusterIcons.put(label, icon);
         }
+        return icon;
+    }
+
+    @Override
+    public boolean onMarkerClick(Marker marker) {
+        MapPointIndex.Cluster cluster = markerClusters.get(marker);
+        if (cluster == null || cluster.getCount() == 1) {
+            // let the map show the entity's info window
+            return false;
+        }
+        if (cluster.getSouth() == cluster.getNorth() && cluster.getWest() == cluster.getEast()) {
+            // every point is in the same place, so zoom in until they're shown on their own
+            mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(marker.getPosition(),
+                    MapPointIndex.MAX_CLUSTER_ZOOM + 1));
+        } else {
+            LatLngBounds bounds = new LatLngBounds(
+                    new LatLng(cluster.getSouth(), cluster.getWest()),
+                    new LatLng(cluster.getNorth(), cluster.getEast()));
+            mMap.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds, MAP_PADDING));
+        }
+        return true;
     }
 
     @Override
@@ -135,10 +294,17 @@ public class EntityMapActivity extends CommCareActivity implements OnMapReadyCal
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        pointLoader.shutdown();
+    }
+
     @Override
     public void onInfoWindowClick(Marker marker) {
         Intent i = new Intent(getIntent());
-        TreeReference ref = markerReferences.get(marker);
+        MapPointIndex.Cluster cluster = markerClusters.get(marker);
+        TreeReference ref = pointEntities.get(cluster.getFirstPoint()).getElement();
         SerializationUtil.serializeToIntent(i, EntityDetailActivity.CONTEXT_REFERENCE, ref);
 
         setResult(RESULT_OK, i);
@@ -8,14 +8,23 @@ import org.commcare.cases.entity.NodeEntityFactory
 import org.commcare.suite.model.Detail
 import org.commcare.suite.model.EntityDatum
 import org.commcare.utils.AndroidInstanceInitializer
+import org.javarosa.core.model.condition.EvaluationContext
 import org.javarosa.core.model.data.GeoPointData
 import org.javarosa.core.model.data.UncastData
 import org.javarosa.core.model.instance.TreeReference
+import java.lang.ref.WeakReference
 import java.util.*
 import javax.annotation.Nullable
 
 object EntityMapUtils {
 
+    // The entities most recently loaded by the case list and the references they were built
+    // from, which the map can show without evaluating them again. Only held for as long as
+    // the list itself holds them, and cleared as soon as the list starts another load.
+    private var loadedDetailId: String? = null
+    private var loadedReferences = WeakReference<List<TreeReference>>(null)
+    private var loadedEntities = WeakReference<List<Entity<TreeReference>>>(null)
+
     @JvmStatic
     fun getEntityLocation(entity: Entity<TreeReference>, detail: Detail, fieldIndex: Int): GeoPointData? {
         if ("address" == detail.templateForms[fieldIndex]) {
@@ -47,16 +56,64 @@ object EntityMapUtils {
         } else null
     }
 
+    /**
+     * Remember the complete set of entities the case list loaded for a detail, along with the
+     * references they were built from, so that a map of the same entities can reuse them
+     */
+    @JvmStatic
+    @Synchronized
+    fun setLoadedEntities(detailId: String, references: List<TreeReference>,
+                          entities: List<Entity<TreeReference>>) {
+        loadedDetailId = detailId
+        loadedReferences = WeakReference(references)
+        loadedEntities = WeakReference(entities)
+    }
+
+    /**
+     * Forget the entities from the case list's last load, IE: because it is loading again
+     */
+    @JvmStatic
+    @Synchronized
+    fun clearLoadedEntities() {
+        loadedDetailId = null
+        loadedReferences = WeakReference(null)
+        loadedEntities = WeakReference(null)
+    }
+
+    /**
+     * @return The entities of the detail's nodeset, reusing the ones the case list loaded
+     * if they were built from the same references the nodeset evaluates to now
+     */
+    @JvmStatic
+    fun getEntities(detailId: String, detail: Detail, nodeset: TreeReference): List<Entity<TreeReference>> {
+        val evaluationContext = createEvaluationContext()
+        val references = evaluationContext.expandReference(nodeset)
+        synchronized(this) {
+            val entities = loadedEntities.get()
+            if (entities != null && detailId == loadedDetailId && references == loadedReferences.get()) {
+                return ArrayList(entities)
+            }
+        }
+        return buildEntities(detail, evaluationContext, references)
+    }
+
     @JvmStatic
     fun getEntities(detail: Detail, nodeset: TreeReference): Vector<Entity<TreeReference>> {
+        val evaluationContext = createEvaluationContext()
+        return buildEntities(detail, evaluationContext, evaluationContext.expandReference(nodeset))
+    }
+
+    private fun createEvaluationContext(): EvaluationContext {
         val session = CommCareApplication.instance().currentSession
         val evaluationContext = session.getEvaluationContext(
                 AndroidInstanceInitializer(session))
         evaluationContext.addFunctionHandler(EntitySelectActivity.getHereFunctionHandler())
+        return evaluationContext
+    }
 
-        val references = evaluationContext.expandReference(nodeset)
+    private fun buildEntities(detail: Detail, evaluationContext: EvaluationContext,
+                              references: List<TreeReference>): Vector<Entity<TreeReference>> {
         val entities = Vector<Entity<TreeReference>>()
-
         val factory = NodeEntityFactory(detail, evaluationContext)
         for (ref in references) {
             entities.add(factory.getEntity(ref))
@@ -16,8 +16,10 @@ import androidx.viewbinding.ViewBinding
 import com.google.gson.JsonObject
 import com.google.gson.JsonPrimitive
 import com.mapbox.geojson.Feature
+import com.mapbox.mapboxsdk.camera.CameraUpdateFactory
 import com.mapbox.mapboxsdk.annotations.BubbleLayout
 import com.mapbox.mapboxsdk.geometry.LatLng
+import com.mapbox.mapboxsdk.geometry.LatLngBounds
 import com.mapbox.mapboxsdk.maps.Style
 import com.mapbox.mapboxsdk.plugins.annotation.FillOptions
 import com.mapbox.mapboxsdk.plugins.annotation.Symbol
@@ -52,6 +54,9 @@ import org.javarosa.core.services.Logger
 
 /**
  * Mapbox based screen to show cases on a map
+ *
+ * Only the cases in and around the visible region are drawn, grouped into clusters for the
+ * current zoom level by a MapPointIndex over their locations.
  */
 class EntityMapboxActivity : BaseMapboxActivity() {
 
@@ -63,6 +68,7 @@ class EntityMapboxActivity : BaseMapboxActivity() {
         private const val INFO_IMAGE_ID = "info-image"
 
         private const val MAX_ICON_SIZE = 60
+        private const val MAP_PADDING = 50
 
 
         private fun viewToBitmap(view: View): Bitmap {
@@ -84,6 +90,11 @@ class EntityMapboxActivity : BaseMapboxActivity() {
     private lateinit var source: GeoJsonSource
     private var iconset = java.util.HashSet<String>()
     private lateinit var mapEntities: java.util.ArrayList<MapEntity>
+    // over the locations of mapEntities, in the same order
+    private lateinit var pointIndex: MapPointIndex
+    private lateinit var symbolManager: SymbolManager
+    private val symbolsByCluster = HashMap<Long, Symbol>()
+    private val symbolClusters = HashMap<Long, MapPointIndex.Cluster>()
     private lateinit var viewBinding: ActivityEntityMapboxBinding
 
     override fun getViewBinding(): ViewBinding {
@@ -115,7 +126,7 @@ class EntityMapboxActivity : BaseMapboxActivity() {
         if (selectDatum != null) {
             detail = CommCareApplication.instance().currentSession
                     .getDetail(selectDatum.shortDetail)
-            val entities = getEntities(detail!!, selectDatum.nodeset)
+            val entities = getEntities(selectDatum.shortDetail, detail!!, selectDatum.nodeset)
             val headers = EntityMapUtils.getDetailHeaders(detail!!)
 
             iconset = HashSet()
@@ -128,7 +139,12 @@ class EntityMapboxActivity : BaseMapboxActivity() {
                             iconset.add(mapEntity.iconPath)
                         }
                     }
+        } else {
+            mapEntities = ArrayList()
         }
+        pointIndex = MapPointIndex(
+                DoubleArray(mapEntities.size) { i -> mapEntities[i].location.latitude },
+                DoubleArray(mapEntities.size) { i -> mapEntities[i].location.longitude })
     }
 
 
@@ -216,41 +232,110 @@ class EntityMapboxActivity : BaseMapboxActivity() {
 
 
     private fun addEntitiesOnMap(loadedStyle: Style) {
-        val symbolManager = SymbolManager(getMapView(), map, loadedStyle)
+        symbolManager = SymbolManager(getMapView(), map, loadedStyle)
         symbolManager.iconAllowOverlap = true
         symbolManager.iconTranslate = arrayOf(-4f, 5f)
 
         symbolManager.addClickListener { symbol ->
-            showEntityInfo(loadedStyle, symbol)
+            onSymbolClick(loadedStyle, symbol)
         }
 
-        for (mapEntity in mapEntities) {
-            var symbolOptions: SymbolOptions = SymbolOptions()
-                    .withLatLng(LatLng(mapEntity.location.latitude, mapEntity.location.longitude))
+        map.addOnCameraIdleListener { renderVisibleSymbols() }
+        renderVisibleSymbols()
+    }
 
-            symbolOptions = if (TextUtils.isEmpty(mapEntity.iconPath)) {
-                symbolOptions.withIconImage(DEFAULT_CASE_ICON)
-            } else {
-                symbolOptions.withIconImage(mapEntity.iconPath)
+    /**
+     * Draw the clusters in and around the visible region, replacing the symbols of clusters
+     * that have changed since the last time
+     */
+    private fun renderVisibleSymbols() {
+        val visible = map.projection.visibleRegion.latLngBounds
+        // include half a screen around the visible region, so that panning doesn't show gaps
+        val latPadding = (visible.latNorth - visible.latSouth) / 2
+        var width = visible.lonEast - visible.lonWest
+        if (width < 0) {
+            width += 360
+        }
+        var west = -180.0
+        var east = 180.0
+        if (width * 2 < 360) {
+            west = wrapLongitude(visible.lonWest - width / 2)
+            east = wrapLongitude(visible.lonEast + width / 2)
+        }
+        val clusters = pointIndex.cluster(
+                Math.max(-90.0, visible.latSouth - latPadding), west,
+                Math.min(90.0, visible.latNorth + latPadding), east,
+                map.cameraPosition.zoom.toFloat())
+
+        val previousSymbols = HashMap(symbolsByCluster)
+        symbolsByCluster.clear()
+        for (cluster in clusters) {
+            var symbol = previousSymbols.remove(cluster.key)
+            if (symbol != null && symbolClusters[symbol.id]!!.count != cluster.count) {
+                removeSymbol(symbol)
+                symbol = null
             }
-
-            symbolManager.create(symbolOptions)
+            if (symbol == null) {
+                symbol = symbolManager.create(buildSymbol(cluster))
+            }
+            symbolClusters[symbol.id] = cluster
+            symbolsByCluster[cluster.key] = symbol
         }
+        previousSymbols.values.forEach { removeSymbol(it) }
     }
 
-    private fun showEntityInfo(loadedStyle: Style, symbol: Symbol) {
-        if (symbol.id < mapEntities.size) {
-            val mapEntity = mapEntities[symbol.id.toInt()]
+    private fun wrapLongitude(longitude: Double): Double {
+        return ((longitude + 180) % 360 + 360) % 360 - 180
+    }
 
-            jobs.add(GlobalScope.launch(Dispatchers.Default) {
-                val bitmap = generateEntityInfoView(mapEntity)
+    private fun removeSymbol(symbol: Symbol) {
+        symbolClusters.remove(symbol.id)
+        symbolManager.delete(symbol)
+    }
 
-                withContext(Dispatchers.Main) {
-                    loadedStyle.addImage(INFO_IMAGE_ID, bitmap)
-                    source.setGeoJson(Feature.fromGeometry(symbol.geometry, mapEntity.properties))
-                }
-            })
+    private fun buildSymbol(cluster: MapPointIndex.Cluster): SymbolOptions {
+        val symbolOptions = SymbolOptions()
+                .withLatLng(LatLng(cluster.latitude, cluster.longitude))
+        if (cluster.count > 1) {
+            val label = if (cluster.count < 1000) cluster.count.toString() else "${cluster.count / 1000}k+"
+            return symbolOptions.withIconImage(DEFAULT_CASE_ICON)
+                    .withTextField(label)
+                    .withTextAnchor(Property.TEXT_ANCHOR_TOP)
         }
+        val mapEntity = mapEntities[cluster.firstPoint]
+        return if (TextUtils.isEmpty(mapEntity.iconPath)) {
+            symbolOptions.withIconImage(DEFAULT_CASE_ICON)
+        } else {
+            symbolOptions.withIconImage(mapEntity.iconPath)
+        }
+    }
+
+    private fun onSymbolClick(loadedStyle: Style, symbol: Symbol) {
+        val cluster = symbolClusters[symbol.id] ?: return
+        if (cluster.count == 1) {
+            showEntityInfo(loadedStyle, symbol, mapEntities[cluster.firstPoint])
+        } else if (cluster.south == cluster.north && cluster.west == cluster.east) {
+            // every case is in the same place, so zoom in until they're shown on their own
+            map.animateCamera(CameraUpdateFactory.newLatLngZoom(
+                    LatLng(cluster.latitude, cluster.longitude), MapPointIndex.MAX_CLUSTER_ZOOM + 1.0))
+        } else {
+            val bounds = LatLngBounds.Builder()
+                    .include(LatLng(cluster.south, cluster.west))
+                    .include(LatLng(cluster.north, cluster.east))
+                    .build()
+            map.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds, MAP_PADDING))
+        }
+    }
+
+    private fun showEntityInfo(loadedStyle: Style, symbol: Symbol, mapEntity: MapEntity) {
+        jobs.add(GlobalScope.launch(Dispatchers.Default) {
+            val bitmap = generateEntityInfoView(mapEntity)
+
+            withContext(Dispatchers.Main) {
+                loadedStyle.addImage(INFO_IMAGE_ID, bitmap)
+                source.setGeoJson(Feature.fromGeometry(symbol.geometry, mapEntity.properties))
+            }
+        })
     }
 
 
@@ -0,0 +1,275 @@
+package org.commcare.gis;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Grid index over a fixed set of map points, used to find the points in a viewport and group
+ * them into clusters for the current zoom level without walking every point.
+ *
+ * The points' bounding box is split into roughly square cells holding a handful of points
+ * each, and the points of every cell are stored contiguously (cell n's points are the entries
+ * of cellPoints between cellOffsets[n] and cellOffsets[n + 1]). Points are identified by their
+ * position in the arrays the index was built from, so callers keep whatever they show for a
+ * point in a parallel list.
+ *
+ * Clusters group the visible points by square cells of the map's web mercator projection,
+ * sized in screen pixels, so that clusters look the same size at every zoom level.
+ */
+public class MapPointIndex {
+
+    private static final int TARGET_POINTS_PER_CELL = 16;
+    private static final int TILE_SIZE = 256;
+    private static final int CLUSTER_CELL_SIZE = 64;
+
+    /**
+     * Past this zoom level every point is shown on its own
+     */
+    public static final int MAX_CLUSTER_ZOOM = 17;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    private final double minLat;
+    private final double minLng;
+    private final int columns;
+    private final int rows;
+    private final double cellHeight;
+    private final double cellWidth;
+    private final int[] cellOffsets;
+    private final int[] cellPoints;
+
+    public interface PointVisitor {
+        void visit(int point);
+    }
+
+    /**
+     * A group of nearby points, or a single point
+     */
+    public static class Cluster {
+        private final long key;
+        private final int firstPoint;
+        private int count;
+        private double latitudeSum;
+        private double longitudeSum;
+        private double south = Double.MAX_VALUE;
+        private double west = Double.MAX_VALUE;
+        private double north = -Double.MAX_VALUE;
+        private double east = -Double.MAX_VALUE;
+
+        private Cluster(long key, int firstPoint) {
+            this.key = key;
+            this.firstPoint = firstPoint;
+        }
+
+        private void add(double lat, double lng) {
+            count++;
+            latitudeSum += lat;
+            longitudeSum += lng;
+            south = Math.min(south, lat);
+            north = Math.max(north, lat);
+            west = Math.min(west, lng);
+            east = Math.max(east, lng);
+        }
+
+        /**
+         * @return Identifies the cluster's cell and zoom level, so that a cluster can be
+         * matched up with the one shown for the same cell before the map moved
+         */
+        public long getKey() {
+            return key;
+        }
+
+        /**
+         * @return The point this cluster was started from, which is its only point when the
+         * count is one
+         */
+        public int getFirstPoint() {
+            return firstPoint;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getLatitude() {
+            return latitudeSum / count;
+        }
+
+        public double getLongitude() {
+            return longitudeSum / count;
+        }
+
+        public double getSouth() {
+            return south;
+        }
+
+        public double getWest() {
+            return west;
+        }
+
+        public double getNorth() {
+            return north;
+        }
+
+        public double getEast() {
+            return east;
+        }
+    }
+
+    /**
+     * @param latitudes  Latitude of each point
+     * @param longitudes Longitude of each point, at the same position
+     */
+    public MapPointIndex(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("Every point needs both a latitude and a longitude");
+        }
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        int pointCount = latitudes.length;
+
+        double south = Double.MAX_VALUE, west = Double.MAX_VALUE;
+        double north = -Double.MAX_VALUE, east = -Double.MAX_VALUE;
+        for (int i = 0; i < pointCount; i++) {
+            south = Math.min(south, latitudes[i]);
+            north = Math.max(north, latitudes[i]);
+            west = Math.min(west, longitudes[i]);
+            east = Math.max(east, longitudes[i]);
+        }
+        if (pointCount == 0) {
+            south = north = west = east = 0;
+        }
+        minLat = south;
+        minLng = west;
+
+        int sideLength = Math.max(1, (int)Math.ceil(Math.sqrt((double)pointCount / TARGET_POINTS_PER_CELL)));
+        rows = north > south ? sideLength : 1;
+        columns = east > west ? sideLength : 1;
+        // pad the cells a little so that the northern and eastern-most points land in the last cell
+        cellHeight = Math.max((north - south) / rows, Double.MIN_VALUE) * (1 + 1e-9);
+        cellWidth = Math.max((east - west) / columns, Double.MIN_VALUE) * (1 + 1e-9);
+
+        int cellCount = rows * columns;
+        int[] pointCells = new int[pointCount];
+        cellOffsets = new int[cellCount + 1];
+        for (int i = 0; i < pointCount; i++) {
+            pointCells[i] = cellFor(latitudes[i], longitudes[i]);
+            cellOffsets[pointCells[i] + 1]++;
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            cellOffsets[cell + 1] += cellOffsets[cell];
+        }
+        cellPoints = new int[pointCount];
+        int[] next = new int[cellCount];
+        System.arraycopy(cellOffsets, 0, next, 0, cellCount);
+        for (int i = 0; i < pointCount; i++) {
+            cellPoints[next[pointCells[i]]++] = i;
+        }
+    }
+
+    private int cellFor(double lat, double lng) {
+        return rowFor(lat) * columns + columnFor(lng);
+    }
+
+    private int rowFor(double lat) {
+        return clamp((int)((lat - minLat) / cellHeight), rows);
+    }
+
+    private int columnFor(double lng) {
+        return clamp((int)((lng - minLng) / cellWidth), columns);
+    }
+
+    private static int clamp(int value, int count) {
+        return Math.max(0, Math.min(count - 1, value));
+    }
+
+    public int size() {
+        return latitudes.length;
+    }
+
+    public double getLatitude(int point) {
+        return latitudes[point];
+    }
+
+    public double getLongitude(int point) {
+        return longitudes[point];
+    }
+
+    /**
+     * Visit every point inside of the bounds. The bounds cross the antimeridian when west is
+     * greater than east.
+     */
+    public void query(double south, double west, double north, double east, PointVisitor visitor) {
+        if (west > east) {
+            query(south, west, north, 180, visitor);
+            query(south, -180, north, east, visitor);
+            return;
+        }
+        if (size() == 0) {
+            return;
+        }
+        int firstRow = rowFor(south), lastRow = rowFor(north);
+        int firstColumn = columnFor(west), lastColumn = columnFor(east);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                for (int i = cellOffsets[cell]; i < cellOffsets[cell + 1]; i++) {
+                    int point = cellPoints[i];
+                    double lat = latitudes[point], lng = longitudes[point];
+                    if (lat >= south && lat <= north && lng >= west && lng <= east) {
+                        visitor.visit(point);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Group the points inside of the bounds into clusters for the zoom level. Past
+     * MAX_CLUSTER_ZOOM every point is its own cluster.
+     */
+    public List<Cluster> cluster(double south, double west, double north, double east, float zoom) {
+        int zoomLevel = Math.max(0, (int)zoom);
+        LinkedHashMap<Long, Cluster> clusters = new LinkedHashMap<>();
+        if (zoomLevel > MAX_CLUSTER_ZOOM) {
+            query(south, west, north, east, point -> {
+                Cluster cluster = new Cluster(-1L - point, point);
+                cluster.add(latitudes[point], longitudes[point]);
+                clusters.put(cluster.key, cluster);
+            });
+        } else {
+            double cellsAcrossWorld = (double)TILE_SIZE * (1L << zoomLevel) / CLUSTER_CELL_SIZE;
+            query(south, west, north, east, point -> {
+                double lat = latitudes[point], lng = longitudes[point];
+                long x = (long)(mercatorX(lng) * cellsAcrossWorld);
+                long y = (long)(mercatorY(lat) * cellsAcrossWorld);
+                long key = ((long)zoomLevel << 58) | (x << 29) | y;
+                Cluster cluster = clusters.get(key);
+                if (cluster == null) {
+                    cluster = new Cluster(key, point);
+                    clusters.put(key, cluster);
+                }
+                cluster.add(lat, lng);
+            });
+        }
+        return new ArrayList<>(clusters.values());
+    }
+
+    /**
+     * @return Position of the longitude across a web mercator map of the world, from 0 to 1
+     */
+    private static double mercatorX(double lng) {
+        return Math.min(Math.max((lng + 180) / 360, 0), 1 - 1e-12);
+    }
+
+    /**
+     * @return Position of the latitude down a web mercator map of the world, from 0 to 1
+     */
+    private static double mercatorY(double lat) {
+        double sinLat = Math.min(Math.max(Math.sin(Math.toRadians(lat)), -0.9999), 0.9999);
+        double y = 0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI);
+        return Math.min(Math.max(y, 0), 1 - 1e-12);
+    }
+}
@@ -3,12 +3,16 @@ package org.commcare.interfaces;
 import org.commcare.CommCareApplication;
 import org.commcare.cases.entity.AsyncNodeEntityFactory;
 import org.commcare.cases.entity.Entity;
+import org.commcare.cases.entity.EntitySorter;
 import org.commcare.cases.entity.NodeEntityFactory;
 import org.commcare.cases.entity.SortableEntityAdapter;
 import org.commcare.suite.model.Detail;
 import org.commcare.views.notifications.NotificationMessageFactory;
 import org.javarosa.core.model.instance.TreeReference;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -16,9 +20,56 @@ import java.util.List;
  */
 public abstract class AndroidSortableEntityAdapter extends SortableEntityAdapter {
 
+    private final Detail detail;
+    private final boolean sortsEntities;
+
     public AndroidSortableEntityAdapter(List<Entity<TreeReference>> entityList, Detail detail, NodeEntityFactory factory) {
-        super(entityList, detail,
-                !(factory instanceof AsyncNodeEntityFactory) || ((AsyncNodeEntityFactory)factory).isBlockingAsyncMode());
+        super(entityList, detail, shouldSortEntities(factory));
+        this.detail = detail;
+        this.sortsEntities = shouldSortEntities(factory);
+    }
+
+    private static boolean shouldSortEntities(NodeEntityFactory factory) {
+        return !(factory instanceof AsyncNodeEntityFactory) || ((AsyncNodeEntityFactory)factory).isBlockingAsyncMode();
+    }
+
+    /**
+     * Adds entities to an already sorted list, keeping it in the current sort order.
+     */
+    protected void addSorted(List<Entity<TreeReference>> sortedEntities,
+                             List<Entity<TreeReference>> additions) {
+        if (sortsEntities) {
+            mergeSorted(sortedEntities, additions, new EntitySorter(detail.getFields(),
+                    isCurrentSortReversed(), getCurrentSort(), this));
+        } else {
+            sortedEntities.addAll(additions);
+        }
+    }
+
+    /**
+     * Sorts the additions on their own and merges them into the already sorted list in a
+     * single pass, so each batch costs a sort of the batch plus a walk of the list rather than
+     * a sort of the whole list. Existing entries stay ahead of additions that compare equal.
+     */
+    static <T> void mergeSorted(List<T> sorted, List<T> additions, Comparator<? super T> comparator) {
+        List<T> sortedAdditions = new ArrayList<>(additions);
+        Collections.sort(sortedAdditions, comparator);
+
+        List<T> merged = new ArrayList<>(sorted.size() + sortedAdditions.size());
+        int i = 0;
+        int j = 0;
+        while (i < sorted.size() && j < sortedAdditions.size()) {
+            if (comparator.compare(sortedAdditions.get(j), sorted.get(i)) < 0) {
+                merged.add(sortedAdditions.get(j++));
+            } else {
+                merged.add(sorted.get(i++));
+            }
+        }
+        merged.addAll(sorted.subList(i, sorted.size()));
+        merged.addAll(sortedAdditions.subList(j, sortedAdditions.size()));
+
+        sorted.clear();
+        sorted.addAll(merged);
     }
 
     @Override
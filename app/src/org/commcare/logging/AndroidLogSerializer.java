@@ -2,6 +2,7 @@ package org.commcare.logging;
 
 import org.commcare.android.javarosa.AndroidLogEntry;
 import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.SqlStorageIterator;
 import org.javarosa.core.log.LogEntry;
 import org.javarosa.core.log.StreamLogSerializer;
 import org.javarosa.core.model.utils.DateUtils;
@@ -19,6 +20,7 @@ public class AndroidLogSerializer <T extends AndroidLogEntry>
 
     private AndroidLogEntry singleEntry;
     private SqlStorage<T> logStorage;
+    private LogChunkLimit chunkLimit;
 
     public AndroidLogSerializer(AndroidLogEntry entry) {
         this.singleEntry = entry;
@@ -29,6 +31,15 @@ public class AndroidLogSerializer <T extends AndroidLogEntry>
         this.setPurger(new AndroidLogPurger<>(logStorage));
     }
 
+    /**
+     * Serializes entries from storage, in record order, until the limit is reached. Only the
+     * serialized entries are purged, so the rest can go into the next report.
+     */
+    public AndroidLogSerializer(final SqlStorage<T> logStorage, LogChunkLimit chunkLimit) {
+        this(logStorage);
+        this.chunkLimit = chunkLimit;
+    }
+
     @Override
     protected void serializeLog(LogEntry entry) throws IOException {
         String dateString = DateUtils.formatDateTime(entry.getTime(), DateUtils.FORMAT_ISO8601);
@@ -68,8 +79,17 @@ public class AndroidLogSerializer <T extends AndroidLogEntry>
                 serializeLog(singleEntry.getID(), singleEntry);
             }
             else {
-                for (AndroidLogEntry entry : logStorage) {
-                    serializeLog(entry.getID(), entry);
+                SqlStorageIterator<T> iterator = logStorage.iterate();
+                try {
+                    while (iterator.hasNext()) {
+                        T entry = iterator.next();
+                        if (chunkLimit != null && !chunkLimit.tryAdd(entry)) {
+                            break;
+                        }
+                        serializeLog(entry.getID(), entry);
+                    }
+                } finally {
+                    iterator.close();
                 }
             }
         } finally {
@@ -1,7 +1,11 @@
 package org.commcare.logging;
 
+import android.util.Log;
+
 import org.commcare.android.javarosa.AndroidLogEntry;
 import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.SqlStorageIterator;
+import org.commcare.util.LogTypes;
 import org.commcare.utils.CrashUtil;
 import org.javarosa.core.api.ILogger;
 import org.javarosa.core.log.IFullLogSerializer;
@@ -10,47 +14,260 @@ import org.javarosa.core.log.StreamLogSerializer;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Logging engine for CommCare ODK Environments.
  *
+ * In buffered mode entries are queued rather than written by the logging thread, and are
+ * written in batches, one transaction per batch, on a background thread. The queue is
+ * bounded: once it is full further entries are dropped, and the number dropped is recorded
+ * as a single entry with the next batch. Pending entries are written out before logs are
+ * read, on panic() and halt(), and through haltBufferedLogging() before the database holding
+ * them is closed, after which the logger writes each entry as it comes in.
+ *
+ * Writes always happen on the background thread until the logger is halted; reading the logs
+ * waits for that thread to write out what is pending. A batch that can't be written to the
+ * logger's storage, IE: because the user database has been closed, goes to the fallback
+ * storage instead if there is one.
+ *
  * @author ctsims
  */
 public class AndroidLogger implements ILogger {
+    private static final String TAG = AndroidLogger.class.getSimpleName();
+
+    private static final int MAX_PENDING_ENTRIES = 1000;
+    private static final int FLUSH_BATCH_SIZE = 100;
+    private static final long FLUSH_DELAY_MS = 2000;
+    // How long reading the logs waits on pending entries. The background write can be held up
+    // by a transaction the reading thread has open, so the wait can't be unbounded.
+    private static final long FLUSH_WAIT_MS = 2000;
+
+    private static AndroidLogger activeBufferedLogger;
 
     //TODO: Currently assumes that it gets back iterated records in RecordID order.
     //when serializing a limited number of records then clearing
 
     private final SqlStorage<AndroidLogEntry> storage;
+    private final SqlStorage<AndroidLogEntry> fallbackStorage;
 
+    private final ScheduledExecutorService flushExecutor;
+    private final ConcurrentLinkedQueue<AndroidLogEntry> pendingEntries = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Object flushLock = new Object();
+    private volatile boolean halted = false;
 
     public AndroidLogger(SqlStorage<AndroidLogEntry> storage) {
+        this(storage, false);
+    }
+
+    public AndroidLogger(SqlStorage<AndroidLogEntry> storage, boolean buffered) {
+        this(storage, buffered, null);
+    }
+
+    /**
+     * @param fallbackStorage Where buffered entries go if they can't be written to the main
+     *                        storage, or null to only use the main storage
+     */
+    public AndroidLogger(SqlStorage<AndroidLogEntry> storage, boolean buffered,
+                         SqlStorage<AndroidLogEntry> fallbackStorage) {
         this.storage = storage;
+        this.fallbackStorage = fallbackStorage;
+        if (buffered) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "AndroidLogger flush");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            setActiveBufferedLogger(this);
+        } else {
+            flushExecutor = null;
+        }
+    }
+
+    private static void setActiveBufferedLogger(AndroidLogger logger) {
+        AndroidLogger previous;
+        synchronized (AndroidLogger.class) {
+            previous = activeBufferedLogger;
+            activeBufferedLogger = logger;
+        }
+        if (previous != null) {
+            previous.halt();
+        }
+    }
+
+    /**
+     * Writes out any entries the current buffered logger is holding and stops it buffering, so
+     * that nothing is left queued for a database that is about to be closed. Should be called
+     * before the database it logs to is closed.
+     */
+    public static void haltBufferedLogging() {
+        AndroidLogger logger;
+        synchronized (AndroidLogger.class) {
+            logger = activeBufferedLogger;
+            activeBufferedLogger = null;
+        }
+        if (logger != null) {
+            logger.halt();
+        }
     }
 
     @Override
     public void log(String type, String message, Date logDate) {
-        storage.write(new AndroidLogEntry(type, message, logDate));
+        AndroidLogEntry entry = new AndroidLogEntry(type, message, logDate);
+        if (flushExecutor == null) {
+            storage.write(entry);
+        } else if (halted) {
+            writeEntries(Collections.singletonList(entry));
+        } else {
+            enqueue(entry);
+        }
         CrashUtil.log(message);
     }
 
+    private void enqueue(AndroidLogEntry entry) {
+        int pending = pendingCount.incrementAndGet();
+        if (pending > MAX_PENDING_ENTRIES) {
+            pendingCount.decrementAndGet();
+            droppedCount.incrementAndGet();
+            return;
+        }
+        pendingEntries.add(entry);
+        if (halted) {
+            // raced with halt(), which may have already flushed
+            flushQuietly();
+        } else if (pending % FLUSH_BATCH_SIZE == 0) {
+            // a full batch is waiting, so don't hold off on writing it
+            submitFlush(0);
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            submitFlush(FLUSH_DELAY_MS);
+        }
+    }
+
+    private void submitFlush(long delayMs) {
+        try {
+            flushExecutor.schedule(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // halted; whoever halted the logger has already flushed it
+            flushScheduled.set(false);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            // writeEntries already tried the fallback storage
+            Log.e(TAG, "Failed to write buffered log entries: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes out pending entries on the background thread, waiting a bounded amount of time
+     * for it to finish. Once halted there is nothing pending, since entries are written
+     * straight away.
+     */
+    private void flushOnWorker() {
+        if (flushExecutor == null || halted) {
+            return;
+        }
+        try {
+            flushExecutor.submit(this::flushQuietly).get(FLUSH_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // halted in the meantime, which writes out whatever was pending
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // the entries stay queued and are written once the background thread gets to them
+            Log.w(TAG, "Reading logs without waiting on buffered entries: " + e.getMessage());
+        }
+    }
+
+    private void writeEntries(List<AndroidLogEntry> entries) {
+        try {
+            storage.writeAll(entries);
+        } catch (RuntimeException e) {
+            if (fallbackStorage == null) {
+                throw e;
+            }
+            // the failed write may have assigned ids that were then rolled back
+            for (AndroidLogEntry entry : entries) {
+                entry.setID(-1);
+            }
+            fallbackStorage.writeAll(entries);
+        }
+    }
+
+    private void flush() {
+        if (flushExecutor == null) {
+            return;
+        }
+        synchronized (flushLock) {
+            ArrayList<AndroidLogEntry> batch = new ArrayList<>();
+            AndroidLogEntry entry;
+            while ((entry = pendingEntries.poll()) != null) {
+                batch.add(entry);
+            }
+            pendingCount.addAndGet(-batch.size());
+            int dropped = droppedCount.getAndSet(0);
+            if (dropped > 0) {
+                batch.add(new AndroidLogEntry(LogTypes.TYPE_MAINTENANCE,
+                        dropped + " log entries were dropped because logging fell behind", new Date()));
+            }
+            if (!batch.isEmpty()) {
+                writeEntries(batch);
+            }
+        }
+    }
+
     @Override
     public void clearLogs() {
-        storage.removeAll();
+        synchronized (flushLock) {
+            int cleared = 0;
+            while (pendingEntries.poll() != null) {
+                cleared++;
+            }
+            pendingCount.addAndGet(-cleared);
+            droppedCount.set(0);
+            storage.removeAll();
+        }
     }
 
     @Override
     public <T> T serializeLogs(IFullLogSerializer<T> serializer) {
-        ArrayList<LogEntry> logs = new ArrayList<>();
-        for (AndroidLogEntry entry : storage) {
-            logs.add(entry);
+        flushOnWorker();
+        // the serializer takes an array, so fill one directly rather than copying from a list
+        SqlStorageIterator<AndroidLogEntry> iterator = storage.iterate();
+        LogEntry[] logs = new LogEntry[iterator.numRecords()];
+        int count = 0;
+        while (iterator.hasMore() && count < logs.length) {
+            logs[count++] = iterator.nextRecord();
         }
-        return serializer.serializeLogs(logs.toArray(new LogEntry[logs.size()]));
+        iterator.close();
+        return serializer.serializeLogs(count == logs.length ? logs : Arrays.copyOf(logs, count));
     }
 
     @Override
     public void serializeLogs(StreamLogSerializer serializer) throws IOException {
+        flushOnWorker();
         for (AndroidLogEntry entry : storage) {
             serializer.serializeLog(entry.getID(), entry);
         }
@@ -58,6 +275,7 @@ public class AndroidLogger implements ILogger {
 
     @Override
     public void serializeLogs(StreamLogSerializer serializer, int limit) throws IOException {
+        flushOnWorker();
         int count = 0;
         for (AndroidLogEntry entry : storage) {
             serializer.serializeLog(entry.getID(), entry);
@@ -70,16 +288,26 @@ public class AndroidLogger implements ILogger {
 
     @Override
     public void panic() {
-        //Unclear
+        flushQuietly();
     }
 
     @Override
     public int logSize() {
+        flushOnWorker();
         return storage.getNumRecords();
     }
 
+    /**
+     * Writes out pending entries and stops buffering, so that anything logged afterwards is
+     * written straight away
+     */
     @Override
     public void halt() {
-        //Meh.
+        if (flushExecutor == null) {
+            return;
+        }
+        halted = true;
+        flushExecutor.shutdown();
+        flushQuietly();
     }
 }
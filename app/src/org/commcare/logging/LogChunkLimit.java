@@ -0,0 +1,55 @@
+package org.commcare.logging;
+
+import org.javarosa.core.log.LogEntry;
+
+/**
+ * Bounds how many log entries go into a single device report, by entry count and by the
+ * approximate size of their serialized form, so that a backlog of logs is split across
+ * several reports rather than building and uploading one unbounded file.
+ *
+ * Each log source writing to a report gets its own limit, so that one source filling its
+ * share doesn't keep the others out of the report.
+ */
+public class LogChunkLimit {
+
+    // rough allowance for the tags and date written around each entry
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    private int entries = 0;
+    private long bytes = 0;
+    private boolean reached = false;
+
+    public LogChunkLimit(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return Whether the entry fits in the report. The first entry always fits, so that an
+     * oversized entry can't hold up the rest of the logs.
+     */
+    public boolean tryAdd(LogEntry entry) {
+        long size = ENTRY_OVERHEAD_BYTES + length(entry.getType()) + length(entry.getMessage());
+        if (entries > 0 && (entries >= maxEntries || bytes + size > maxBytes)) {
+            reached = true;
+            return false;
+        }
+        entries++;
+        bytes += size;
+        return true;
+    }
+
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    /**
+     * @return Whether any entry was turned away, IE: there are logs left for another report
+     */
+    public boolean wasReached() {
+        return reached;
+    }
+}
@@ -1,6 +1,7 @@
 package org.commcare.logging;
 
 import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.SqlStorageIterator;
 import org.javarosa.core.log.LogEntry;
 import org.javarosa.core.log.StreamLogSerializer;
 import org.javarosa.core.model.utils.DateUtils;
@@ -18,6 +19,7 @@ public class XPathErrorSerializer
         implements DeviceReportElement {
     private final SqlStorage<XPathErrorEntry> errorLogStorage;
     private XmlSerializer serializer;
+    private LogChunkLimit chunkLimit;
 
     /**
      * Report format version for ability to dispatch different parser on server
@@ -29,6 +31,15 @@ public class XPathErrorSerializer
         this.setPurger(new AndroidLogPurger<>(errorLogStorage));
     }
 
+    /**
+     * Serializes errors, in record order, until the limit is reached. Only the serialized
+     * errors are purged, so the rest can go into the next report.
+     */
+    public XPathErrorSerializer(final SqlStorage<XPathErrorEntry> logStorage, LogChunkLimit chunkLimit) {
+        this(logStorage);
+        this.chunkLimit = chunkLimit;
+    }
+
     @Override
     public void writeToDeviceReport(XmlSerializer serializer) throws IOException {
         this.serializer = serializer;
@@ -37,8 +48,17 @@ public class XPathErrorSerializer
         serializer.attribute(null, "version", ERROR_FORMAT_VERSION + "");
 
         try {
-            for (XPathErrorEntry entry : errorLogStorage) {
-                serializeLog(entry.getID(), entry);
+            SqlStorageIterator<XPathErrorEntry> iterator = errorLogStorage.iterate();
+            try {
+                while (iterator.hasNext()) {
+                    XPathErrorEntry entry = iterator.next();
+                    if (chunkLimit != null && !chunkLimit.tryAdd(entry)) {
+                        break;
+                    }
+                    serializeLog(entry.getID(), entry);
+                }
+            } finally {
+                iterator.close();
             }
         } finally {
             serializer.endTag(DeviceReportWriter.XMLNS, "user_error_subreport");
@@ -6,9 +6,13 @@ import org.javarosa.core.util.externalizable.PrototypeFactory;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Hashes are requested once per serialized object, so they are cached in a concurrent map
+ * that serves hits without locking. Digests are only computed on a miss, with one digester
+ * per thread since MessageDigest isn't thread safe.
+ *
  * @author ctsims
  */
 public class AndroidClassHasher extends Hasher {
@@ -16,16 +20,20 @@ public class AndroidClassHasher extends Hasher {
     private static AndroidClassHasher instance;
     private static final int CLASS_HASH_SIZE = 4;
 
-    private final MessageDigest mMessageDigester;
+    private final ThreadLocal<MessageDigest> messageDigesters = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
 
-    private final HashMap<String, byte[]> classNameHashMap = new HashMap<>();
+    private final ConcurrentHashMap<String, byte[]> classNameHashMap = new ConcurrentHashMap<>();
 
     private AndroidClassHasher() {
-        try {
-            mMessageDigester = java.security.MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
     }
 
     public synchronized static AndroidClassHasher getInstance() {
@@ -41,18 +49,29 @@ public class AndroidClassHasher extends Hasher {
     }
 
     @Override
-    public synchronized byte[] getHash(Class c) {
+    public byte[] getHash(Class c) {
         String name = c.getName();
-        if (classNameHashMap.containsKey(name)) {
-            return classNameHashMap.get(name);
+        byte[] hash = classNameHashMap.get(name);
+        if (hash == null) {
+            // racing threads compute the same digest, so whichever lands first is kept
+            byte[] computed = messageDigesters.get().digest(name.getBytes());
+            hash = classNameHashMap.putIfAbsent(name, computed);
+            if (hash == null) {
+                hash = computed;
+            }
         }
-        byte[] hash = mMessageDigester.digest(name.getBytes());
-        classNameHashMap.put(name, hash);
         return hash;
     }
 
-    public synchronized byte[] getClassnameHash(String className) {
-        return Arrays.copyOf(mMessageDigester.digest(className.getBytes()), CLASS_HASH_SIZE);
+    /**
+     * Registers a hash computed ahead of time, IE: at build time, for the named class
+     */
+    public void registerPrecomputedHash(String className, byte[] hash) {
+        classNameHashMap.put(className, hash);
+    }
+
+    public byte[] getClassnameHash(String className) {
+        return Arrays.copyOf(messageDigesters.get().digest(className.getBytes()), CLASS_HASH_SIZE);
     }
 
     @Override
@@ -1,5 +1,7 @@
 package org.commcare.models;
 
+import com.carrotsearch.hppc.IntObjectHashMap;
+
 import org.commcare.android.javarosa.AndroidXFormExtensions;
 import org.commcare.android.javarosa.IntentCallout;
 import org.commcare.android.javarosa.PollSensorAction;
@@ -11,7 +13,6 @@ import org.javarosa.core.util.externalizable.PrototypeFactory;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.Map;
 import java.util.Set;
 
@@ -21,12 +22,18 @@ import java.util.Set;
  * other functionality is the same, except we override how we store and retrieve hashes
  * so that we can use the Map.
  *
+ * Lookups happen once per deserialized object, so the map is keyed by primitive ints and is
+ * read without locking. It is only filled in while initializing, and is published to readers
+ * once complete; classes added after that replace the map with an updated copy.
+ *
  * @author ctsims
  * @author wspride
  */
 public class AndroidPrototypeFactory extends PrototypeFactory {
 
-    private Hashtable<Integer, Class> prototypes;
+    private volatile IntObjectHashMap<Class> prototypes;
+    // map being filled in by an in-progress lazyInit, guarded by this
+    private IntObjectHashMap<Class> pendingPrototypes;
     private static final HashMap<String, Class> migratedClasses = new HashMap<>();
 
     static {
@@ -54,27 +61,51 @@ public class AndroidPrototypeFactory extends PrototypeFactory {
     }
 
     @Override
-    protected void lazyInit() {
+    protected synchronized void lazyInit() {
         initialized = false;
-        prototypes = new Hashtable<>();
-        super.lazyInit();
+        pendingPrototypes = new IntObjectHashMap<>();
+        try {
+            super.lazyInit();
+            prototypes = pendingPrototypes;
+        } finally {
+            pendingPrototypes = null;
+        }
+    }
+
+    private synchronized IntObjectHashMap<Class> awaitInit() {
+        if (!initialized || prototypes == null) {
+            lazyInit();
+        }
+        return prototypes;
     }
 
-    private Integer hashAsInteger(byte[] hash) {
+    private static int hashAsInteger(byte[] hash) {
         return (hash[3]) + (hash[2] << 8) + (hash[1] << 16) + (hash[0] << 24);
     }
 
     @Override
     public Class getClass(byte[] hash) {
-        if (!initialized) {
-            lazyInit();
+        IntObjectHashMap<Class> current = prototypes;
+        if (!initialized || current == null) {
+            current = awaitInit();
         }
-        return prototypes.get(hashAsInteger(hash));
+        return current.get(hashAsInteger(hash));
     }
 
     @Override
     protected void storeHash(Class c, byte[] hash) {
-        prototypes.put(hashAsInteger(hash), c);
+        putPrototype(hashAsInteger(hash), c);
+    }
+
+    private synchronized void putPrototype(int hash, Class c) {
+        if (pendingPrototypes != null) {
+            pendingPrototypes.put(hash, c);
+        } else {
+            IntObjectHashMap<Class> updated =
+                    prototypes == null ? new IntObjectHashMap<Class>() : prototypes.clone();
+            updated.put(hash, c);
+            prototypes = updated;
+        }
     }
 
     @Override
@@ -97,7 +128,7 @@ public class AndroidPrototypeFactory extends PrototypeFactory {
         }
 
         byte[] hashForOldClass = AndroidClassHasher.getInstance().getClassnameHash(oldClassName);
-        prototypes.put(hashAsInteger(hashForOldClass), newClass);
+        putPrototype(hashAsInteger(hashForOldClass), newClass);
     }
 
     /**
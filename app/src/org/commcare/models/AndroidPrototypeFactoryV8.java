@@ -27,7 +27,7 @@ public class AndroidPrototypeFactoryV8 extends AndroidPrototypeFactory {
         }
 
         try {
-            List<String> classes = AndroidPrototypeFactorySetup.getClasses(c);
+            List<String> classes = AndroidPrototypeFactorySetup.getExternalizableClassNames(c);
             classes.remove(XFormAndroidInstaller.class.getName());
             factory = new AndroidPrototypeFactoryV8(new HashSet<>(classes));
         } catch (Exception e) {
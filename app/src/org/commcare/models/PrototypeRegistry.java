@@ -0,0 +1,100 @@
+package org.commcare.models;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads the prototype registry generated at build time by the generatePrototypeRegistry
+ * task: every Externalizable class the app ships with, along with its AndroidClassHasher hash.
+ *
+ * Loading the registry replaces scanning the APK's dex file for prototypes on startup.
+ */
+public class PrototypeRegistry {
+
+    private static final String REGISTRY_RESOURCE = "prototype_registry";
+
+    private final List<String> classNames;
+    private final List<byte[]> classHashes;
+
+    private PrototypeRegistry(List<String> classNames, List<byte[]> classHashes) {
+        this.classNames = classNames;
+        this.classHashes = classHashes;
+    }
+
+    /**
+     * @return The packaged registry, or null if this build doesn't include one, IE: when
+     * running unit tests
+     */
+    @Nullable
+    public static PrototypeRegistry load() throws IOException {
+        InputStream registryStream = PrototypeRegistry.class.getResourceAsStream(REGISTRY_RESOURCE);
+        if (registryStream == null) {
+            return null;
+        }
+        List<String> classNames = new ArrayList<>();
+        List<byte[]> classHashes = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(registryStream, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf(' ');
+                if (separator == -1) {
+                    throw new IOException("Malformed prototype registry entry: " + line);
+                }
+                classNames.add(line.substring(0, separator));
+                classHashes.add(decodeHex(line.substring(separator + 1)));
+            }
+        }
+        return new PrototypeRegistry(classNames, classHashes);
+    }
+
+    private static byte[] decodeHex(String hex) throws IOException {
+        if (hex.length() % 2 != 0) {
+            throw new IOException("Malformed prototype hash: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Drops the classes that can't be loaded, along with their hashes
+     *
+     * @return The names of the classes dropped
+     */
+    public List<String> removeUnresolvableClasses(ClassLoader classLoader) {
+        List<String> missing = new ArrayList<>();
+        for (int i = classNames.size() - 1; i >= 0; i--) {
+            try {
+                Class.forName(classNames.get(i), false, classLoader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                missing.add(classNames.remove(i));
+                classHashes.remove(i);
+            }
+        }
+        return missing;
+    }
+
+    public List<String> getClassNames() {
+        return classNames;
+    }
+
+    /**
+     * Seeds the class hasher with the precomputed hashes, so they aren't digested again
+     */
+    public void registerHashes(AndroidClassHasher hasher) {
+        for (int i = 0; i < classNames.size(); i++) {
+            hasher.registerPrecomputedHash(classNames.get(i), classHashes.get(i));
+        }
+    }
+}
@@ -2,7 +2,6 @@ package org.commcare.models.database;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.util.Log;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
@@ -15,8 +14,9 @@ import org.javarosa.core.services.storage.Persistable;
 import org.javarosa.core.util.externalizable.Externalizable;
 import org.javarosa.core.util.externalizable.PrototypeFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 /**
  * Essentially a wrapper around the Java-generic DatabaseHelper
@@ -27,7 +27,6 @@ import java.util.Map;
  * @author wspride
  */
 public abstract class AndroidDbHelper extends DatabaseHelper {
-    private final static String TAG = AndroidDbHelper.class.getSimpleName();
 
     protected final Context c;
 
@@ -38,17 +37,13 @@ public abstract class AndroidDbHelper extends DatabaseHelper {
     public abstract SQLiteDatabase getHandle();
 
     public ContentValues getContentValues(Externalizable e) {
-        ContentValues contentValues = new ContentValues();
-        HashMap<String, Object> metaFieldsAndValues = DatabaseHelper.getMetaFieldsAndValues(e);
-        copyMetadataIntoContentValues(metaFieldsAndValues, contentValues);
+        ContentValues contentValues = getNonDataContentValues(e);
+        contentValues.put(DATA_COL, toCheckedBlob(e));
         return contentValues;
     }
 
     public ContentValues getContentValuesWithCustomData(Externalizable e, byte[] customData) {
-        ContentValues contentValues = new ContentValues();
-        HashMap<String, Object> metaFieldsAndValues = DatabaseHelper.getNonDataMetaEntries(e);
-
-        copyMetadataIntoContentValues(metaFieldsAndValues, contentValues);
+        ContentValues contentValues = getNonDataContentValues(e);
         contentValues.put(DATA_COL, customData);
 
         return contentValues;
@@ -56,34 +51,29 @@ public abstract class AndroidDbHelper extends DatabaseHelper {
 
     public ContentValues getNonDataContentValues(Externalizable e) {
         ContentValues contentValues = new ContentValues();
-        HashMap<String, Object> metaFieldsAndValues = DatabaseHelper.getNonDataMetaEntries(e);
-
-        copyMetadataIntoContentValues(metaFieldsAndValues, contentValues);
+        MetaDataAccessor accessor = MetaDataAccessor.forRecord(e);
+        accessor.copyValues(accessor.readValues(e), contentValues);
 
         return contentValues;
     }
 
-    private void copyMetadataIntoContentValues(HashMap<String, Object> metaFieldsAndValues,
-                                               ContentValues contentValues) {
-        for (Map.Entry<String, Object> entry : metaFieldsAndValues.entrySet()) {
-            String key = entry.getKey();
-            Object obj = entry.getValue();
-            if (obj instanceof String) {
-                contentValues.put(key, (String)obj);
-            } else if (obj instanceof Integer) {
-                contentValues.put(key, (Integer)obj);
-            } else if (obj instanceof Long) {
-                contentValues.put(key, (Long)obj);
-            } else if (obj instanceof byte[]) {
-                checkBlobSize((byte[]) obj);
-                contentValues.put(key, (byte[])obj);
-            } else {
-                Log.w(TAG, "Couldn't determine type of object: " + obj);
-            }
+    /**
+     * @return The record serialized for the data column
+     * @throws RecordTooLargeException if it's too large to be stored in the database
+     */
+    static byte[] toCheckedBlob(Externalizable e) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            e.writeExternal(new DataOutputStream(bos));
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to serialize " + e.getClass().getName(), ioe);
         }
+        byte[] blob = bos.toByteArray();
+        checkBlobSize(blob);
+        return blob;
     }
 
-    private static void checkBlobSize(byte[] blob) {
+    static void checkBlobSize(byte[] blob) {
         int blobSize = blob.length;
         if (blobSize > HybridFileBackedSqlStorage.ONE_MB_DB_SIZE_LIMIT) {
             throw new RecordTooLargeException(blobSize);
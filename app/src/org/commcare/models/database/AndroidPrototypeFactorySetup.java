@@ -1,8 +1,11 @@
 package org.commcare.models.database;
 
 import android.content.Context;
+import android.util.Log;
 
+import org.commcare.models.AndroidClassHasher;
 import org.commcare.models.AndroidPrototypeFactory;
+import org.commcare.models.PrototypeRegistry;
 import org.javarosa.core.util.externalizable.Externalizable;
 import org.javarosa.core.util.externalizable.PrototypeFactory;
 
@@ -20,6 +23,7 @@ import dalvik.system.DexFile;
  * @author Phillip Mates (pmates@dimagi.com)
  */
 public class AndroidPrototypeFactorySetup {
+    private static final String TAG = AndroidPrototypeFactorySetup.class.getSimpleName();
     private static final String[] packageNames = new String[]{"org.javarosa", "org.commcare", "org.odk.collect"};
     private static PrototypeFactory factory;
 
@@ -32,7 +36,7 @@ public class AndroidPrototypeFactorySetup {
         }
 
         try {
-            factory = new AndroidPrototypeFactory(new HashSet<>(getClasses(c)));
+            factory = new AndroidPrototypeFactory(new HashSet<>(getExternalizableClassNames(c)));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -44,6 +48,24 @@ public class AndroidPrototypeFactorySetup {
         AndroidPrototypeFactorySetup.factory = factory;
     }
 
+    /**
+     * @return Names of all Externalizable classes, read from the registry generated at build
+     * time when it is packaged, falling back to scanning the APK otherwise
+     */
+    public static List<String> getExternalizableClassNames(Context c) throws IOException {
+        PrototypeRegistry registry = PrototypeRegistry.load();
+        if (registry == null) {
+            return getClasses(c);
+        }
+        // The registry is generated before R8 runs, so it can list classes that weren't packaged
+        List<String> missing = registry.removeUnresolvableClasses(AndroidPrototypeFactorySetup.class.getClassLoader());
+        if (!missing.isEmpty()) {
+            Log.w(TAG, "Skipped " + missing.size() + " prototypes missing from the app: " + missing);
+        }
+        registry.registerHashes(AndroidClassHasher.getInstance());
+        return new ArrayList<>(registry.getClassNames());
+    }
+
     /**
      * Scans all classes accessible from the context class loader which belong to the given package and subpackages.
      */
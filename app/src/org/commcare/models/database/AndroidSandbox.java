@@ -37,6 +37,14 @@ public class AndroidSandbox extends UserSandbox {
         return app.getUserStorage(ACase.STORAGE_KEY, ACase.class);
     }
 
+    /**
+     * @return Case storage over the user database's read connection, so that evaluating the
+     * case instance doesn't wait on background writes
+     */
+    public SqlStorage<ACase> getCaseReadStorage() {
+        return app.getUserReadOnlyStorage(ACase.STORAGE_KEY, ACase.class);
+    }
+
     @Override
     public IStorageUtilityIndexed<Ledger> getLedgerStorage() {
         return app.getUserStorage(Ledger.STORAGE_KEY, Ledger.class);
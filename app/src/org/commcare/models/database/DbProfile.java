@@ -0,0 +1,70 @@
+package org.commcare.models.database;
+
+import org.commcare.preferences.DeveloperPreferences;
+
+/**
+ * Connection settings for an encrypted database, applied through DbUtil when the database
+ * is opened.
+ *
+ * The cipher page size has to match the page size the database file was written with, so it
+ * should only differ from DEFAULT_CIPHER_PAGE_SIZE for databases which have always been
+ * opened with the same profile.
+ */
+public class DbProfile {
+
+    // SQLCipher 4's page size, which all of the existing databases were created with
+    public static final int DEFAULT_CIPHER_PAGE_SIZE = 4096;
+
+    private static final int USER_DB_CACHE_SIZE_KB = 8 * 1024;
+
+    /**
+     * Leaves every setting at SQLCipher's defaults
+     */
+    public static final DbProfile DEFAULT = new DbProfile(false, DEFAULT_CIPHER_PAGE_SIZE, 0, false);
+
+    private final boolean writeAheadLogging;
+    private final int cipherPageSize;
+    private final int cacheSizeKb;
+    private final boolean tempStoreInMemory;
+
+    /**
+     * @param writeAheadLogging Use a write-ahead log instead of a rollback journal, which lets
+     *                          reader connections see the last committed data while a write
+     *                          transaction is open
+     * @param cipherPageSize    Page size of the encrypted database file
+     * @param cacheSizeKb       Page cache size per connection, or 0 to keep the default
+     * @param tempStoreInMemory Keep temporary tables and indices used for sorting in memory
+     */
+    public DbProfile(boolean writeAheadLogging, int cipherPageSize, int cacheSizeKb,
+                     boolean tempStoreInMemory) {
+        this.writeAheadLogging = writeAheadLogging;
+        this.cipherPageSize = cipherPageSize;
+        this.cacheSizeKb = cacheSizeKb;
+        this.tempStoreInMemory = tempStoreInMemory;
+    }
+
+    /**
+     * @return The profile for the logged in user's database, which only uses write-ahead
+     * logging when it has been turned on in the developer preferences
+     */
+    public static DbProfile forUserDb() {
+        return new DbProfile(DeveloperPreferences.isUserDbWalEnabled(), DEFAULT_CIPHER_PAGE_SIZE,
+                USER_DB_CACHE_SIZE_KB, true);
+    }
+
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    public int getCipherPageSize() {
+        return cipherPageSize;
+    }
+
+    public int getCacheSizeKb() {
+        return cacheSizeKb;
+    }
+
+    public boolean isTempStoreInMemory() {
+        return tempStoreInMemory;
+    }
+}
@@ -54,6 +54,73 @@ public class DbUtil {
         oldDb.close();
     }
 
+    /**
+     * @return A hook that sets the profile's cipher page size as soon as the database is keyed,
+     * before any pages are read
+     */
+    public static SQLiteDatabaseHook getProfileHook(final DbProfile profile) {
+        return new SQLiteDatabaseHook() {
+
+            @Override
+            public void preKey(SQLiteDatabase database) {
+            }
+
+            @Override
+            public void postKey(SQLiteDatabase database) {
+                if (profile.getCipherPageSize() != DbProfile.DEFAULT_CIPHER_PAGE_SIZE) {
+                    database.rawExecSQL("PRAGMA cipher_page_size = " + profile.getCipherPageSize() + ";");
+                }
+            }
+        };
+    }
+
+    /**
+     * Applies the profile to a newly opened writer connection. Unlike the other settings, the
+     * journal mode is stored in the database file, so this also moves the file in or out of
+     * write-ahead logging.
+     */
+    public static void applyProfile(SQLiteDatabase db, DbProfile profile) {
+        applyConnectionSettings(db, profile);
+
+        String journalMode = profile.isWriteAheadLogging() ? "WAL" : "DELETE";
+        Cursor c = db.rawQuery("PRAGMA journal_mode = " + journalMode + ";", null);
+        try {
+            if (c.moveToFirst() && !journalMode.equalsIgnoreCase(c.getString(0))) {
+                Log.w(TAG, "Unable to switch database to " + journalMode + " journal mode, using " + c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+        if (profile.isWriteAheadLogging()) {
+            // Only risks the last commits on power loss, the database itself stays consistent
+            db.rawExecSQL("PRAGMA synchronous = NORMAL;");
+        }
+    }
+
+    private static void applyConnectionSettings(SQLiteDatabase db, DbProfile profile) {
+        if (profile.getCacheSizeKb() > 0) {
+            // negative sizes are in KiB rather than pages
+            db.rawExecSQL("PRAGMA cache_size = -" + profile.getCacheSizeKb() + ";");
+        }
+        if (profile.isTempStoreInMemory()) {
+            db.rawExecSQL("PRAGMA temp_store = MEMORY;");
+        }
+    }
+
+    /**
+     * Opens a read-only connection alongside the writer connection of a database which uses
+     * write-ahead logging. Reads on it don't wait for the writer's transactions, and see the
+     * data as of the last commit.
+     */
+    public static SQLiteDatabase openReaderConnection(Context context, String dbName, String key,
+                                                      DbProfile profile) {
+        File dbPath = context.getDatabasePath(dbName);
+        SQLiteDatabase reader = SQLiteDatabase.openDatabase(dbPath.getPath(), key, null,
+                SQLiteDatabase.OPEN_READONLY, getProfileHook(profile));
+        applyConnectionSettings(reader, profile);
+        return reader;
+    }
+
     public static void createNumbersTable(SQLiteDatabase db) {
         //Virtual Table
         String dropStatement = "DROP TABLE IF EXISTS integers;";
@@ -27,6 +27,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Vector;
@@ -308,6 +309,27 @@ public class HybridFileBackedSqlStorage<T extends Persistable> extends SqlStorag
         }
     }
 
+    /**
+     * Records may need to be moved between the database and the filesystem depending on their
+     * size, so batched writes go through the per-record path
+     */
+    @Override
+    public void writeAll(Collection<? extends Persistable> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getDbOrThrow();
+        db.beginTransaction();
+        try {
+            for (Persistable p : records) {
+                write(p);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     private ByteArrayOutputStream writeExternalizableToStream(Externalizable extObj) {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         try {
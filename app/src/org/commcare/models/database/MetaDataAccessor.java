@@ -0,0 +1,255 @@
+package org.commcare.models.database;
+
+import android.content.ContentValues;
+
+import net.sqlcipher.database.SQLiteStatement;
+
+import org.commcare.android.storage.framework.Persisted;
+import org.commcare.modern.database.DatabaseHelper;
+import org.commcare.modern.database.TableBuilder;
+import org.commcare.modern.models.MetaField;
+import org.javarosa.core.services.storage.IMetaData;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled form of the metadata columns a record type writes, built once per class so that
+ * writes can bind values straight into a statement instead of going through
+ * DatabaseHelper.getMetaFieldsAndValues.
+ *
+ * Persisted models which rely on the annotation scanning in Persisted.getMetaData have their
+ * MetaField fields and methods resolved up front. Other IMetaData models are still asked for
+ * each field by name, but skip the intermediate map. Like getMetaFieldsAndValues, values are
+ * written as strings and fields without a value are left out of the write entirely.
+ */
+public class MetaDataAccessor {
+
+    private static final ConcurrentHashMap<Class, MetaDataAccessor> accessorsByType =
+            new ConcurrentHashMap<>();
+
+    private static final MetaDataAccessor NO_META_DATA =
+            new MetaDataAccessor(new String[0], null);
+
+    private final String[] declaredFieldNames;
+    // field names, scrubbed column names and members, all in column order
+    private final String[] fieldNames;
+    private final String[] columns;
+    private final AccessibleObject[] members;
+
+    private final ConcurrentHashMap<String, String> insertSql = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> updateSql = new ConcurrentHashMap<>();
+
+    private MetaDataAccessor(String[] declaredFieldNames, AccessibleObject[] declaredMembers) {
+        this.declaredFieldNames = declaredFieldNames;
+
+        Integer[] order = new Integer[declaredFieldNames.length];
+        final String[] scrubbed = new String[declaredFieldNames.length];
+        for (int i = 0; i < declaredFieldNames.length; i++) {
+            order[i] = i;
+            scrubbed[i] = TableBuilder.scrubName(declaredFieldNames[i]);
+        }
+        Arrays.sort(order, (i1, i2) -> scrubbed[i1].compareTo(scrubbed[i2]));
+
+        fieldNames = new String[order.length];
+        columns = new String[order.length];
+        members = declaredMembers == null ? null : new AccessibleObject[order.length];
+        for (int i = 0; i < order.length; i++) {
+            fieldNames[i] = declaredFieldNames[order[i]];
+            columns[i] = scrubbed[order[i]];
+            if (members != null) {
+                members[i] = declaredMembers[order[i]];
+            }
+        }
+    }
+
+    /**
+     * @return The accessor for the record's class, built from the record the first time the
+     * class is seen
+     */
+    public static MetaDataAccessor forRecord(Object record) {
+        if (!(record instanceof IMetaData)) {
+            return NO_META_DATA;
+        }
+        Class type = record.getClass();
+        MetaDataAccessor accessor = accessorsByType.get(type);
+        if (accessor == null) {
+            accessor = usesPersistedMetaData(type) ?
+                    forPersistedType(type) : forMetaData((IMetaData)record);
+            MetaDataAccessor existing = accessorsByType.putIfAbsent(type, accessor);
+            if (existing != null) {
+                accessor = existing;
+            }
+        }
+        if (accessor.members == null) {
+            String[] recordFieldNames = ((IMetaData)record).getMetaDataFields();
+            if (recordFieldNames != accessor.declaredFieldNames
+                    && !Arrays.equals(recordFieldNames, accessor.declaredFieldNames)) {
+                // fields vary between records of this type, so can't use the cached columns
+                return forMetaData((IMetaData)record);
+            }
+        }
+        return accessor;
+    }
+
+    private static boolean usesPersistedMetaData(Class type) {
+        if (!Persisted.class.isAssignableFrom(type)) {
+            return false;
+        }
+        try {
+            return type.getMethod("getMetaData", String.class).getDeclaringClass() == Persisted.class &&
+                    type.getMethod("getMetaDataFields").getDeclaringClass() == Persisted.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static MetaDataAccessor forMetaData(IMetaData record) {
+        return new MetaDataAccessor(record.getMetaDataFields(), null);
+    }
+
+    /**
+     * Resolves members the same way Persisted.getMetaDataFields and Persisted.getMetaData
+     * do: annotated fields come before annotated methods, and only the record's own class
+     * is searched.
+     */
+    private static MetaDataAccessor forPersistedType(Class type) {
+        List<String> names = new ArrayList<>();
+        List<AccessibleObject> resolved = new ArrayList<>();
+        for (Field f : type.getDeclaredFields()) {
+            MetaField mf = f.getAnnotation(MetaField.class);
+            if (mf != null) {
+                f.setAccessible(true);
+                names.add(mf.value());
+                resolved.add(f);
+            }
+        }
+        for (Method m : type.getDeclaredMethods()) {
+            MetaField mf = m.getAnnotation(MetaField.class);
+            if (mf != null) {
+                m.setAccessible(true);
+                names.add(mf.value());
+                resolved.add(m);
+            }
+        }
+        return new MetaDataAccessor(names.toArray(new String[0]),
+                resolved.toArray(new AccessibleObject[0]));
+    }
+
+    /**
+     * @return The value of each column for the record, in column order, with null for
+     * columns the record has no value for
+     */
+    public String[] readValues(Object record) {
+        String[] values = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Object value = members == null ?
+                    ((IMetaData)record).getMetaData(fieldNames[i]) : readMember(members[i], record);
+            if (value != null) {
+                values[i] = value.toString();
+            }
+        }
+        return values;
+    }
+
+    private static Object readMember(AccessibleObject member, Object record) {
+        try {
+            if (member instanceof Field) {
+                return ((Field)member).get(record);
+            } else {
+                return ((Method)member).invoke(record, (Object[])null);
+            }
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    /**
+     * @return Which columns the values cover, identifying the statement to write them with
+     */
+    public BitSet getPresentColumns(String[] values) {
+        BitSet present = new BitSet(values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                present.set(i);
+            }
+        }
+        return present;
+    }
+
+    /**
+     * @return Insert into the provided table, bound with the present columns followed by the
+     * data column
+     */
+    public String getInsertSql(String table, BitSet presentColumns) {
+        String key = table + "|" + presentColumns;
+        String sql = insertSql.get(key);
+        if (sql == null) {
+            StringBuilder names = new StringBuilder();
+            StringBuilder args = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                if (presentColumns.get(i)) {
+                    names.append(columns[i]).append(", ");
+                    args.append("?, ");
+                }
+            }
+            names.append(DatabaseHelper.DATA_COL);
+            args.append('?');
+            sql = "INSERT INTO " + table + " (" + names + ") VALUES (" + args + ")";
+            insertSql.put(key, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * @return Update of a single record in the provided table, bound with the present
+     * columns, the data column and then the record id
+     */
+    public String getUpdateSql(String table, BitSet presentColumns) {
+        String key = table + "|" + presentColumns;
+        String sql = updateSql.get(key);
+        if (sql == null) {
+            StringBuilder assignments = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                if (presentColumns.get(i)) {
+                    assignments.append(columns[i]).append(" = ?, ");
+                }
+            }
+            assignments.append(DatabaseHelper.DATA_COL).append(" = ?");
+            sql = "UPDATE " + table + " SET " + assignments +
+                    " WHERE " + DatabaseHelper.ID_COL + " = ?";
+            updateSql.put(key, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Binds the present columns to the statement, starting at the first argument
+     *
+     * @return The index of the next argument to bind
+     */
+    public int bindValues(SQLiteStatement statement, String[] values, BitSet presentColumns) {
+        int index = 1;
+        for (int i = 0; i < columns.length; i++) {
+            if (presentColumns.get(i)) {
+                statement.bindString(index++, values[i]);
+            }
+        }
+        return index;
+    }
+
+    public void copyValues(String[] values, ContentValues contentValues) {
+        for (int i = 0; i < columns.length; i++) {
+            if (values[i] != null) {
+                contentValues.put(columns[i], values[i]);
+            }
+        }
+    }
+}
@@ -3,14 +3,18 @@ package org.commcare.models.database;
 import android.database.Cursor;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteDoneException;
 import net.sqlcipher.database.SQLiteQueryBuilder;
 import net.sqlcipher.database.SQLiteStatement;
 
+import org.commcare.android.database.user.models.ACase;
 import org.commcare.android.logging.ForceCloseLogger;
+import org.commcare.cases.model.Case;
 import org.commcare.modern.database.DatabaseHelper;
 import org.commcare.modern.database.TableBuilder;
 import org.commcare.modern.models.EncryptedModel;
 import org.commcare.modern.util.Pair;
+import org.commcare.models.database.user.models.CaseDbHashTable;
 import org.commcare.util.LogTypes;
 import org.commcare.utils.SessionUnavailableException;
 import org.javarosa.core.model.condition.RequestAbandonedException;
@@ -29,7 +33,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -49,11 +55,24 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
 
     public static final boolean STORAGE_OUTPUT_DEBUG = false;
 
+    /**
+     * Column positions for queries projecting {ID_COL, DATA_COL}, which let read loops skip
+     * resolving the column by name for every row.
+     */
+    private static final int RECORD_ID_INDEX = 0;
+    private static final int RECORD_DATA_INDEX = 1;
+
     String table;
     private final Class<? extends T> ctype;
     protected final EncryptedModel em;
     protected final AndroidDbHelper helper;
 
+    // set when the storage is shared through a StorageRegistry
+    private StorageRegistry.TableAccessCounter accessCounter;
+
+    // whether this is the case table of a database which tracks the case db hash, set on first write
+    private Boolean maintainsCaseDbHash;
+
     protected SqlStorage() {
         em = null;
         helper = null;
@@ -82,6 +101,46 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
     }
 
 
+    void setAccessCounter(StorageRegistry.TableAccessCounter accessCounter) {
+        this.accessCounter = accessCounter;
+    }
+
+    private void recordWrites(int count) {
+        if (accessCounter != null) {
+            accessCounter.recordWrites(count);
+        }
+    }
+
+    private boolean maintainsCaseDbHash(SQLiteDatabase db) {
+        if (maintainsCaseDbHash == null) {
+            maintainsCaseDbHash = ACase.STORAGE_KEY.equals(table) && CaseDbHashTable.isTableExist(db);
+        }
+        return maintainsCaseDbHash;
+    }
+
+    /**
+     * Fold newly inserted cases into the case db hash, if this storage maintains it
+     */
+    private void recordCaseInserts(SQLiteDatabase db, Collection<? extends Externalizable> inserted) {
+        if (inserted.isEmpty() || !maintainsCaseDbHash(db)) {
+            return;
+        }
+        List<String> caseIds = new ArrayList<>(inserted.size());
+        for (Externalizable e : inserted) {
+            caseIds.add(((Case)e).getCaseId());
+        }
+        CaseDbHashTable.recordInserts(db, caseIds);
+    }
+
+    /**
+     * Fold the cases about to be deleted out of the case db hash, if this storage maintains it
+     */
+    private void recordCaseRemovals(SQLiteDatabase db, String whereClause, String[] whereArgs) {
+        if (maintainsCaseDbHash(db)) {
+            CaseDbHashTable.recordRemovals(db, table, whereClause, whereArgs);
+        }
+    }
+
     @Override
     public Vector<Integer> getIDsForValue(String fieldName, Object value) {
         return getIDsForValues(new String[]{fieldName}, new Object[]{value});
@@ -156,10 +215,9 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
             } else {
                 c.moveToFirst();
                 Vector<T> indices = new Vector<>();
-                int index = c.getColumnIndexOrThrow(DatabaseHelper.DATA_COL);
                 while (!c.isAfterLast()) {
-                    byte[] data = c.getBlob(index);
-                    indices.add(newObject(data, c.getInt(c.getColumnIndexOrThrow(DatabaseHelper.ID_COL))));
+                    byte[] data = c.getBlob(RECORD_DATA_INDEX);
+                    indices.add(newObject(data, c.getInt(RECORD_ID_INDEX)));
                     c.moveToNext();
                 }
                 return indices;
@@ -170,17 +228,11 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
     }
 
     public String getMetaDataFieldForRecord(int recordId, String rawFieldName) {
-        String rid = String.valueOf(recordId);
         String scrubbedName = TableBuilder.scrubName(rawFieldName);
-        Cursor c = helper.getHandle().query(table, new String[]{scrubbedName}, DatabaseHelper.ID_COL + "=?", new String[]{rid}, null, null, null);
         try {
-            if (c.getCount() == 0) {
-                throw new NoSuchElementException("No record in table " + table + " for ID " + recordId);
-            }
-            c.moveToFirst();
-            return c.getString(c.getColumnIndexOrThrow(scrubbedName));
-        } finally {
-            c.close();
+            return getStatementCache().readMetaDataField(scrubbedName, recordId);
+        } catch (SQLiteDoneException e) {
+            throw new NoSuchElementException("No record in table " + table + " for ID " + recordId);
         }
     }
 
@@ -188,15 +240,15 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
     public String[] getMetaDataForRecord(int recordId, String[] metaDataNames) {
         String rid = String.valueOf(recordId);
         String[] scrubbedNames = scrubMetadataNames(metaDataNames);
-        String[] projection = getProjectedFieldsWithId(false, scrubbedNames);
-        Cursor c = helper.getHandle().query(table, projection, DatabaseHelper.ID_COL + "=?", new String[]{rid}, null, null, null);
+        SQLiteDatabase db = helper.getHandle();
+        String sql = getStatementCache(db).getReadMetaDataSql(scrubbedNames);
+        Cursor c = db.rawQuery(sql, new String[]{rid});
         try {
-            if (c.getCount() == 0) {
+            if (!c.moveToFirst()) {
                 throw new NoSuchElementException("No record in table " + table + " for ID " + recordId);
             }
-            c.moveToFirst();
 
-            return readMetaDataFromCursor(c, scrubbedNames);
+            return readMetaDataFromCursor(c, getMetaDataColumnIndices(scrubbedNames));
         } finally {
             c.close();
         }
@@ -216,8 +268,8 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
                 throw new InvalidIndexException("Invalid unique column set" + Arrays.toString(rawFieldNames) + ". Multiple records found with value " + Arrays.toString(values), Arrays.toString(rawFieldNames));
             }
             c.moveToFirst();
-            byte[] data = c.getBlob(c.getColumnIndexOrThrow(DatabaseHelper.DATA_COL));
-            return newObject(data, c.getInt(c.getColumnIndexOrThrow(DatabaseHelper.ID_COL)));
+            byte[] data = c.getBlob(RECORD_DATA_INDEX);
+            return newObject(data, c.getInt(RECORD_ID_INDEX));
         } finally {
             c.close();
         }
@@ -238,6 +290,9 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
             e.readExternal(new DataInputStream(serializedObjectInputStream),
                     helper.getPrototypeFactory());
             e.setID(dbEntryId);
+            if (accessCounter != null) {
+                accessCounter.recordRead();
+            }
             return e;
         } catch (IllegalAccessException e) {
             throw logAndWrap(e, "Illegal Access Exception");
@@ -274,14 +329,8 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
         int i = -1;
         db.beginTransaction();
         try {
-            long ret = db.insertOrThrow(table, DatabaseHelper.DATA_COL, helper.getContentValues(e));
-
-            if (ret > Integer.MAX_VALUE) {
-                throw new RuntimeException("Waaaaaaaaaay too many values");
-            }
-
-            i = (int)ret;
-
+            i = insertWithCompiledStatement(getStatementCache(db), e);
+            recordCaseInserts(db, Collections.singletonList(e));
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -301,17 +350,11 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
 
     @Override
     public boolean exists(int id) {
-        Cursor c = helper.getHandle().query(table, new String[]{DatabaseHelper.ID_COL}, DatabaseHelper.ID_COL + "= ? ", new String[]{String.valueOf(id)}, null, null, null);
-
-        try {
-            int queryCount = c.getCount();
-            if (queryCount == 0) {
-                return false;
-            } else if (queryCount > 1) {
-                throw new InvalidIndexException("Invalid ID column. Multiple records found with value " + id, "ID");
-            }
-        } finally {
-            c.close();
+        long queryCount = getStatementCache().countRecordsWithId(id);
+        if (queryCount == 0) {
+            return false;
+        } else if (queryCount > 1) {
+            throw new InvalidIndexException("Invalid ID column. Multiple records found with value " + id, "ID");
         }
         return true;
     }
@@ -461,13 +504,14 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
 
     @Override
     public byte[] readBytes(int id) {
-        Cursor c = helper.getHandle().query(table, new String[]{DatabaseHelper.ID_COL, DatabaseHelper.DATA_COL}, DatabaseHelper.ID_COL + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        SQLiteDatabase db = helper.getHandle();
+        Cursor c = db.rawQuery(getStatementCache(db).getReadRecordSql(), new String[]{String.valueOf(id)});
 
         try {
             if (!c.moveToFirst()) {
                 throw new NoSuchElementException("No record in table " + table + " for ID " + id);
             }
-            return c.getBlob(c.getColumnIndexOrThrow(DatabaseHelper.DATA_COL));
+            return c.getBlob(RECORD_DATA_INDEX);
         } finally {
             c.close();
         }
@@ -478,7 +522,9 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
         SQLiteDatabase db = helper.getHandle();
         db.beginTransaction();
         try {
-            db.delete(table, DatabaseHelper.ID_COL + "=?", new String[]{String.valueOf(id)});
+            String[] whereArgs = new String[]{String.valueOf(id)};
+            recordCaseRemovals(db, DatabaseHelper.ID_COL + "=?", whereArgs);
+            recordWrites(db.delete(table, DatabaseHelper.ID_COL + "=?", whereArgs));
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -494,7 +540,8 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
         try {
             List<Pair<String, String[]>> whereParamList = TableBuilder.sqlList(ids);
             for (Pair<String, String[]> whereParams : whereParamList) {
-                db.delete(table, DatabaseHelper.ID_COL + " IN " + whereParams.first, whereParams.second);
+                recordCaseRemovals(db, DatabaseHelper.ID_COL + " IN " + whereParams.first, whereParams.second);
+                recordWrites(db.delete(table, DatabaseHelper.ID_COL + " IN " + whereParams.first, whereParams.second));
             }
             db.setTransactionSuccessful();
         } finally {
@@ -509,7 +556,19 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
 
     @Override
     public void removeAll() {
-        wipeTable(helper.getHandle(), table);
+        SQLiteDatabase db = helper.getHandle();
+        if (!maintainsCaseDbHash(db)) {
+            wipeTable(db, table);
+            return;
+        }
+        db.beginTransaction();
+        try {
+            wipeTable(db, table);
+            CaseDbHashTable.clear(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     public static void wipeTableWithoutCommit(SQLiteDatabase db, String table) {
@@ -578,7 +637,8 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
         db.beginTransaction();
         try {
             for (Pair<String, String[]> whereParams : whereParamList) {
-                db.delete(table, DatabaseHelper.ID_COL + " IN " + whereParams.first, whereParams.second);
+                recordCaseRemovals(db, DatabaseHelper.ID_COL + " IN " + whereParams.first, whereParams.second);
+                recordWrites(db.delete(table, DatabaseHelper.ID_COL + " IN " + whereParams.first, whereParams.second));
             }
             db.setTransactionSuccessful();
         } finally {
@@ -613,7 +673,7 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
         SQLiteDatabase db = helper.getHandle();
         db.beginTransaction();
         try {
-            db.update(table, helper.getContentValues(e), DatabaseHelper.ID_COL + "=?", new String[]{String.valueOf(id)});
+            updateWithCompiledStatement(getStatementCache(db), id, e);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -629,14 +689,10 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
         SQLiteDatabase db = helper.getHandle();
         db.beginTransaction();
         try {
-            long ret = db.insertOrThrow(table, DatabaseHelper.DATA_COL, helper.getContentValues(p));
-
-            if (ret > Integer.MAX_VALUE) {
-                throw new RuntimeException("Waaaaaaaaaay too many values");
-            }
             // won't effect already stored obj id, which is set when reading out of db.
             // rather, needed in case persistable object is used after being written to storage.
-            p.setID((int)ret);
+            p.setID(insertWithCompiledStatement(getStatementCache(db), p));
+            recordCaseInserts(db, Collections.singletonList(p));
 
             db.setTransactionSuccessful();
         } finally {
@@ -644,6 +700,83 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
         }
     }
 
+    /**
+     * Writes all of the provided records in a single transaction. New records are inserted and
+     * existing ones (with an id already set) are updated, reusing one compiled insert or update
+     * statement for every record which shares the same set of columns rather than opening a
+     * nested transaction per record.
+     */
+    public void writeAll(Collection<? extends Persistable> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = helper.getHandle();
+        SqlStorageStatementCache statementCache = getStatementCache(db);
+        List<Persistable> inserted = new ArrayList<>();
+        db.beginTransaction();
+        try {
+            for (Persistable p : records) {
+                if (p.getID() == -1) {
+                    p.setID(insertWithCompiledStatement(statementCache, p));
+                    inserted.add(p);
+                } else {
+                    updateWithCompiledStatement(statementCache, p.getID(), p);
+                }
+            }
+            recordCaseInserts(db, inserted);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Inserts the record with a statement reused across records of the same type and set of
+     * metadata columns, binding values straight from the record's MetaDataAccessor.
+     *
+     * @return The id of the new record
+     */
+    private int insertWithCompiledStatement(SqlStorageStatementCache statementCache, Externalizable e) {
+        MetaDataAccessor accessor = MetaDataAccessor.forRecord(e);
+        String[] values = accessor.readValues(e);
+        BitSet presentColumns = accessor.getPresentColumns(values);
+        byte[] data = AndroidDbHelper.toCheckedBlob(e);
+
+        String sql = accessor.getInsertSql(table, presentColumns);
+        SQLiteStatement statement = statementCache.acquireStatement(sql);
+        try {
+            int next = accessor.bindValues(statement, values, presentColumns);
+            statement.bindBlob(next, data);
+            long ret = statement.executeInsert();
+            if (ret > Integer.MAX_VALUE) {
+                throw new RuntimeException("Waaaaaaaaaay too many values");
+            }
+            recordWrites(1);
+            return (int)ret;
+        } finally {
+            statementCache.releaseStatement(sql, statement);
+        }
+    }
+
+    private void updateWithCompiledStatement(SqlStorageStatementCache statementCache, int id, Externalizable e) {
+        MetaDataAccessor accessor = MetaDataAccessor.forRecord(e);
+        String[] values = accessor.readValues(e);
+        BitSet presentColumns = accessor.getPresentColumns(values);
+        byte[] data = AndroidDbHelper.toCheckedBlob(e);
+
+        String sql = accessor.getUpdateSql(table, presentColumns);
+        SQLiteStatement statement = statementCache.acquireStatement(sql);
+        try {
+            int next = accessor.bindValues(statement, values, presentColumns);
+            statement.bindBlob(next, data);
+            statement.bindLong(next + 1, id);
+            statement.execute();
+            recordWrites(1);
+        } finally {
+            statementCache.releaseStatement(sql, statement);
+        }
+    }
+
     /**
      * @return An iterator which can provide a list of all of the indices in this table.
      */
@@ -675,38 +808,58 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
         return new IndexSpanningIterator<>(c, this, minValue, maxValue, countValue);
     }
 
+    /**
+     * The record group loads behind the case list and entity evaluation come through here,
+     * filling the query context's record cache, so they go through the streaming read and each
+     * record lands in the cache as soon as it is deserialized, with no intermediate result set.
+     */
     @Override
-    public void bulkRead(LinkedHashSet cuedCases, HashMap recordMap) throws RequestAbandonedException {
-        List<Pair<String, String[]>> whereParamList = TableBuilder.sqlList(cuedCases);
+    public void bulkRead(LinkedHashSet cuedCases, final HashMap recordMap) throws RequestAbandonedException {
+        bulkRead((Collection<Integer>)cuedCases, (recordId, record) -> recordMap.put(recordId, record));
+    }
+
+    /**
+     * Streaming version of bulkRead(LinkedHashSet, HashMap). Records are read in the same
+     * TableBuilder.sqlList chunks, but each record is handed to the consumer as soon as it is
+     * deserialized rather than being collected first, so only one chunk's cursor window is
+     * ever held by this method.
+     *
+     * @throws RequestAbandonedException if the reading thread is interrupted
+     */
+    public void bulkRead(Collection<Integer> recordIds, StorageRecordConsumer<T> consumer) throws RequestAbandonedException {
+        List<Pair<String, String[]>> whereParamList = TableBuilder.sqlList(recordIds);
+        SQLiteDatabase db = helper.getHandle();
+        SqlStorageStatementCache statementCache = getStatementCache(db);
         for (Pair<String, String[]> querySet : whereParamList) {
-            Cursor c = helper.getHandle().query(table, new String[]{DatabaseHelper.ID_COL, DatabaseHelper.DATA_COL}, DatabaseHelper.ID_COL + " IN " + querySet.first, querySet.second, null, null, null);
+            Cursor c = db.rawQuery(statementCache.getBulkReadSql(querySet.first), querySet.second);
             try {
-                if (c.getCount() == 0) {
-                    return;
-                } else {
-                    c.moveToFirst();
-                    int index = c.getColumnIndexOrThrow(DatabaseHelper.DATA_COL);
-                    while (!c.isAfterLast()) {
-                        if (Thread.interrupted()) {
-                            throw new RequestAbandonedException();
-                        }
-                        byte[] data = c.getBlob(index);
-                        recordMap.put(c.getInt(c.getColumnIndexOrThrow(DatabaseHelper.ID_COL)),
-                                newObject(data, c.getInt(c.getColumnIndexOrThrow(DatabaseHelper.ID_COL))));
-                        c.moveToNext();
-                    }
-                }
+                consumeRecords(c, consumer);
             } finally {
                 c.close();
             }
         }
     }
 
+    private void consumeRecords(Cursor c, StorageRecordConsumer<T> consumer) throws RequestAbandonedException {
+        if (!c.moveToFirst()) {
+            return;
+        }
+        while (!c.isAfterLast()) {
+            if (Thread.interrupted()) {
+                throw new RequestAbandonedException();
+            }
+            int id = c.getInt(RECORD_ID_INDEX);
+            consumer.consume(id, newObject(c.getBlob(RECORD_DATA_INDEX), id));
+            c.moveToNext();
+        }
+    }
+
     @Override
     public void bulkReadMetadata(LinkedHashSet cuedCases, String[] metaDataIds, HashMap metadataMap) {
         List<Pair<String, String[]>> whereParamList = TableBuilder.sqlList(cuedCases);
         String[] scrubbedNames = scrubMetadataNames(metaDataIds);
         String[] projection = getProjectedFieldsWithId(false, scrubbedNames);
+        int[] columnIndices = getMetaDataColumnIndices(scrubbedNames);
 
         for (Pair<String, String[]> querySet : whereParamList) {
             Cursor c = helper.getHandle().query(table, projection, DatabaseHelper.ID_COL + " IN " + querySet.first, querySet.second, null, null, null);
@@ -715,10 +868,9 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
                     return;
                 } else {
                     c.moveToFirst();
-                    int idIndex = c.getColumnIndexOrThrow(DatabaseHelper.ID_COL);
                     while (!c.isAfterLast()) {
-                        String[] metaRead = readMetaDataFromCursor(c, scrubbedNames);
-                        metadataMap.put(c.getInt(idIndex), metaRead);
+                        String[] metaRead = readMetaDataFromCursor(c, columnIndices);
+                        metadataMap.put(c.getInt(RECORD_ID_INDEX), metaRead);
                         c.moveToNext();
                     }
                 }
@@ -729,49 +881,65 @@ public class SqlStorage<T extends Persistable> implements IStorageUtilityIndexed
     }
 
     /**
-     * Reads out the metadata columns from the provided cursor.
-     *
-     * NOTE: The column names _must be scrubbed here_ before the method is called
+     * Reads out the metadata columns at the provided positions from the provided cursor.
      */
-    private String[] readMetaDataFromCursor(Cursor c, String[] columnNames) {
-        String[] results = new String[columnNames.length];
-        int i = 0;
-        for (String columnName : columnNames) {
-            results[i] = c.getString(c.getColumnIndexOrThrow(columnName));
-            i++;
+    private static String[] readMetaDataFromCursor(Cursor c, int[] columnIndices) {
+        String[] results = new String[columnIndices.length];
+        for (int i = 0; i < columnIndices.length; ++i) {
+            results[i] = c.getString(columnIndices[i]);
         }
         return results;
     }
 
+    /**
+     * @return The cursor positions of the provided metadata columns for a query whose
+     * projection was built by getProjectedFieldsWithId without the data column
+     */
+    private static int[] getMetaDataColumnIndices(String[] scrubbedNames) {
+        int[] columnIndices = new int[scrubbedNames.length];
+        for (int i = 0; i < scrubbedNames.length; ++i) {
+            columnIndices[i] = i + 1;
+        }
+        return columnIndices;
+    }
+
+    protected SqlStorageStatementCache getStatementCache() {
+        return getStatementCache(helper.getHandle());
+    }
+
+    protected SqlStorageStatementCache getStatementCache(SQLiteDatabase db) {
+        return SqlStorageStatementCache.getCache(db, table);
+    }
+
     /**
      * Retrieves a set of the models in storage based on a list of values matching one of the
      * indexes of this storage
      */
     @Override
     public Vector<T> getBulkRecordsForIndex(String indexName, Collection matchingValues) {
-        Vector<T> returnSet = new Vector<>();
+        final Vector<T> returnSet = new Vector<>();
+        getBulkRecordsForIndex(indexName, matchingValues, (recordId, record) -> returnSet.add(record));
+        return returnSet;
+    }
+
+    /**
+     * Streaming version of getBulkRecordsForIndex(String, Collection) which hands each
+     * matching record to the consumer as soon as it is deserialized.
+     *
+     * @throws RequestAbandonedException if the reading thread is interrupted
+     */
+    public void getBulkRecordsForIndex(String indexName, Collection matchingValues,
+                                       StorageRecordConsumer<T> consumer) throws RequestAbandonedException {
         String fieldName = TableBuilder.scrubName(indexName);
         List<Pair<String, String[]>> whereParamList = TableBuilder.sqlList(matchingValues, "?");
         for (Pair<String, String[]> querySet : whereParamList) {
-            Cursor c = helper.getHandle().query(table, new String[]{DatabaseHelper.ID_COL, DatabaseHelper.DATA_COL, fieldName}, fieldName + " IN " + querySet.first, querySet.second, null, null, null);
+            Cursor c = helper.getHandle().query(table, new String[]{DatabaseHelper.ID_COL, DatabaseHelper.DATA_COL}, fieldName + " IN " + querySet.first, querySet.second, null, null, null);
             try {
-                if (c.getCount() == 0) {
-                    return returnSet;
-                } else {
-                    c.moveToFirst();
-                    int index = c.getColumnIndexOrThrow(DatabaseHelper.DATA_COL);
-                    while (!c.isAfterLast()) {
-                        byte[] data = c.getBlob(index);
-
-                        returnSet.add(newObject(data, c.getInt(c.getColumnIndexOrThrow(DatabaseHelper.ID_COL))));
-                        c.moveToNext();
-                    }
-                }
+                consumeRecords(c, consumer);
             } finally {
                 c.close();
             }
         }
-        return returnSet;
     }
 
     @Override
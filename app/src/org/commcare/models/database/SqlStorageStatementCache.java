@@ -0,0 +1,252 @@
+package org.commcare.models.database;
+
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteDoneException;
+import net.sqlcipher.database.SQLiteStatement;
+
+import org.commcare.modern.database.DatabaseHelper;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-table cache of the SQL used by the single row and bulk read paths of SqlStorage,
+ * along with any statements which have been compiled against the table's database handle.
+ *
+ * Only the scalar lookups (record existence and single metadata fields) run on compiled
+ * statements from this cache. A compiled statement can only hand back a single long or string,
+ * so reads of record blobs and of several metadata columns still go through a cursor from
+ * rawQuery. Those only get fixed SQL text from here, with the values left to bind, which lets
+ * the database reuse its own compiled program for the query rather than this cache.
+ *
+ * SqlStorage objects are cheap and are frequently re-created, so the cache is keyed off of the
+ * database handle and table name rather than the storage object itself. Statements are only
+ * valid for the handle they were compiled against, so the cache for a handle is dropped as
+ * soon as that handle is closed (IE: when a user session ends).
+ *
+ * Each cache holds on to its handle in order to compile statements, so handles are kept
+ * strongly rather than weakly and nothing is dropped by the garbage collector. Whoever closes
+ * a handle that statements may have been compiled against calls releaseStatementsForHandle
+ * first; any handle that was closed without doing so is pruned the next time a new handle is
+ * seen.
+ *
+ * A statement is checked out of the cache for as long as it is being bound and executed, so
+ * that no lock is held while waiting on the database. A thread which asks for a statement
+ * that is already checked out gets a freshly compiled one, which is kept if the cache has no
+ * idle copy of that statement once it's released.
+ */
+public class SqlStorageStatementCache {
+
+    private static final Map<SQLiteDatabase, HashMap<String, SqlStorageStatementCache>> cachesByHandle =
+            new HashMap<>();
+
+    private static final AtomicLong totalStatementsCompiled = new AtomicLong();
+    private static final AtomicLong totalStatementsReused = new AtomicLong();
+
+    private final SQLiteDatabase handle;
+    private final String table;
+
+    private final String readRecordSql;
+    private final String existsSql;
+    private final String bulkReadSqlPrefix;
+
+    private final HashMap<String, SQLiteStatement> idleStatements = new HashMap<>();
+    private boolean released = false;
+    private final HashMap<String, String> metaDataQueries = new HashMap<>();
+
+    private final AtomicLong statementsCompiled = new AtomicLong();
+    private final AtomicLong statementsReused = new AtomicLong();
+
+    private SqlStorageStatementCache(SQLiteDatabase handle, String table) {
+        this.handle = handle;
+        this.table = table;
+
+        String recordColumns = DatabaseHelper.ID_COL + ", " + DatabaseHelper.DATA_COL;
+        this.readRecordSql = "SELECT " + recordColumns + " FROM " + table +
+                " WHERE " + DatabaseHelper.ID_COL + " = ?";
+        this.existsSql = "SELECT COUNT(" + DatabaseHelper.ID_COL + ") FROM " + table +
+                " WHERE " + DatabaseHelper.ID_COL + " = ?";
+        this.bulkReadSqlPrefix = "SELECT " + recordColumns + " FROM " + table +
+                " WHERE " + DatabaseHelper.ID_COL + " IN ";
+    }
+
+    /**
+     * @return The statement cache for the provided table in the provided database. A new cache
+     * is created if the handle hasn't been seen before or if it has been re-opened.
+     */
+    public static SqlStorageStatementCache getCache(SQLiteDatabase handle, String table) {
+        synchronized (cachesByHandle) {
+            HashMap<String, SqlStorageStatementCache> tableCaches = cachesByHandle.get(handle);
+            if (tableCaches == null) {
+                pruneClosedHandles();
+                tableCaches = new HashMap<>();
+                cachesByHandle.put(handle, tableCaches);
+            }
+            SqlStorageStatementCache cache = tableCaches.get(table);
+            if (cache == null) {
+                cache = new SqlStorageStatementCache(handle, table);
+                tableCaches.put(table, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Release every statement compiled against the provided handle. Should be called before
+     * a handle which statements may have been compiled against is closed.
+     */
+    public static void releaseStatementsForHandle(SQLiteDatabase handle) {
+        HashMap<String, SqlStorageStatementCache> tableCaches;
+        synchronized (cachesByHandle) {
+            tableCaches = cachesByHandle.remove(handle);
+        }
+        if (tableCaches != null) {
+            for (SqlStorageStatementCache cache : tableCaches.values()) {
+                cache.releaseStatements();
+            }
+        }
+    }
+
+    private static void pruneClosedHandles() {
+        for (SQLiteDatabase handle : cachesByHandle.keySet().toArray(new SQLiteDatabase[0])) {
+            if (!handle.isOpen()) {
+                // statements against a closed handle were already released by sqlcipher
+                cachesByHandle.remove(handle);
+            }
+        }
+    }
+
+    /**
+     * @return Query selecting the id and data columns of a single record, to be bound with the
+     * record id.
+     */
+    public String getReadRecordSql() {
+        return readRecordSql;
+    }
+
+    /**
+     * @return Query selecting the id and data columns of all records whose id is in the
+     * provided sql list (as generated by TableBuilder.sqlList)
+     */
+    public String getBulkReadSql(String idList) {
+        return bulkReadSqlPrefix + idList;
+    }
+
+    /**
+     * @return Query selecting the id column followed by the provided (scrubbed) metadata
+     * columns for a single record, to be bound with the record id.
+     */
+    public synchronized String getReadMetaDataSql(String[] scrubbedNames) {
+        String key = Arrays.toString(scrubbedNames);
+        String sql = metaDataQueries.get(key);
+        if (sql == null) {
+            StringBuilder builder = new StringBuilder("SELECT ").append(DatabaseHelper.ID_COL);
+            for (String name : scrubbedNames) {
+                builder.append(", ").append(name);
+            }
+            builder.append(" FROM ").append(table)
+                    .append(" WHERE ").append(DatabaseHelper.ID_COL).append(" = ?");
+            sql = builder.toString();
+            metaDataQueries.put(key, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * @return The number of rows in the table with the provided record id
+     */
+    public long countRecordsWithId(int id) {
+        return simpleQueryForLong(existsSql, id);
+    }
+
+    /**
+     * @return The value of the provided (scrubbed) column for the provided record.
+     * @throws SQLiteDoneException If there is no record for the id
+     */
+    public String readMetaDataField(String scrubbedName, int id) throws SQLiteDoneException {
+        String sql = "SELECT " + scrubbedName + " FROM " + table +
+                " WHERE " + DatabaseHelper.ID_COL + " = ?";
+        SQLiteStatement statement = acquireStatement(sql);
+        try {
+            statement.bindLong(1, id);
+            return statement.simpleQueryForString();
+        } finally {
+            releaseStatement(sql, statement);
+        }
+    }
+
+    private long simpleQueryForLong(String sql, long arg) {
+        SQLiteStatement statement = acquireStatement(sql);
+        try {
+            statement.bindLong(1, arg);
+            return statement.simpleQueryForLong();
+        } finally {
+            releaseStatement(sql, statement);
+        }
+    }
+
+    /**
+     * @return A statement compiled from the provided sql, for the exclusive use of the caller
+     * until it is handed back through releaseStatement
+     */
+    public SQLiteStatement acquireStatement(String sql) {
+        synchronized (this) {
+            SQLiteStatement statement = idleStatements.remove(sql);
+            if (statement != null) {
+                statementsReused.incrementAndGet();
+                totalStatementsReused.incrementAndGet();
+                return statement;
+            }
+        }
+        SQLiteStatement statement = handle.compileStatement(sql);
+        statementsCompiled.incrementAndGet();
+        totalStatementsCompiled.incrementAndGet();
+        return statement;
+    }
+
+    /**
+     * Hands back a statement from acquireStatement, keeping it for reuse if the cache doesn't
+     * already have an idle copy
+     */
+    public void releaseStatement(String sql, SQLiteStatement statement) {
+        statement.clearBindings();
+        synchronized (this) {
+            if (!released && !idleStatements.containsKey(sql)) {
+                idleStatements.put(sql, statement);
+                return;
+            }
+        }
+        statement.close();
+    }
+
+    private synchronized void releaseStatements() {
+        released = true;
+        for (SQLiteStatement statement : idleStatements.values()) {
+            statement.close();
+        }
+        idleStatements.clear();
+    }
+
+    public long getStatementsCompiled() {
+        return statementsCompiled.get();
+    }
+
+    public long getStatementsReused() {
+        return statementsReused.get();
+    }
+
+    public static long getTotalStatementsCompiled() {
+        return totalStatementsCompiled.get();
+    }
+
+    public static long getTotalStatementsReused() {
+        return totalStatementsReused.get();
+    }
+
+    public static String getStatsSummary() {
+        return "SqlStorage statements compiled: " + getTotalStatementsCompiled() +
+                ", reused: " + getTotalStatementsReused();
+    }
+}
@@ -0,0 +1,18 @@
+package org.commcare.models.database;
+
+import org.javarosa.core.model.condition.RequestAbandonedException;
+import org.javarosa.core.services.storage.Persistable;
+
+/**
+ * Receives records from a streaming SqlStorage bulk read as soon as each one is deserialized,
+ * so callers that don't need the full result set in memory at once never have to hold it.
+ */
+public interface StorageRecordConsumer<T extends Persistable> {
+
+    /**
+     * @param recordId The storage id of the record
+     * @param record   The freshly deserialized record
+     * @throws RequestAbandonedException to stop the bulk read early
+     */
+    void consume(int recordId, T record) throws RequestAbandonedException;
+}
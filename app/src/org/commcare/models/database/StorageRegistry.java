@@ -0,0 +1,97 @@
+package org.commcare.models.database;
+
+import org.javarosa.core.services.storage.Persistable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out one shared storage per table and model class for a single database, instead of
+ * building a new SqlStorage (and resolving whether its model is encrypted) on every storage
+ * request. SqlStorage doesn't hold any per-call state, so the shared instances can be used
+ * from any thread.
+ *
+ * Registries live as long as the database they front: the user registry is dropped when the
+ * user session closes, app registries belong to their CommCareApp.
+ *
+ * Also counts the records read and written through each table's storage.
+ */
+public class StorageRegistry {
+
+    private final AndroidDbHelper helper;
+
+    private final ConcurrentHashMap<String, SqlStorage<?>> storages = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TableAccessCounter> counters = new ConcurrentHashMap<>();
+
+    public StorageRegistry(AndroidDbHelper helper) {
+        this.helper = helper;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Persistable> SqlStorage<T> getStorage(String table, Class<T> c) {
+        String key = table + "|" + c.getName();
+        SqlStorage<?> storage = storages.get(key);
+        if (storage == null) {
+            SqlStorage<T> newStorage = new SqlStorage<>(table, c, helper);
+            newStorage.setAccessCounter(getAccessCounter(table));
+            storage = storages.putIfAbsent(key, newStorage);
+            if (storage == null) {
+                storage = newStorage;
+            }
+        }
+        return (SqlStorage<T>)storage;
+    }
+
+    public TableAccessCounter getAccessCounter(String table) {
+        TableAccessCounter counter = counters.get(table);
+        if (counter == null) {
+            counter = new TableAccessCounter();
+            TableAccessCounter existing = counters.putIfAbsent(table, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return A snapshot of the access counts for every table which has handed out a storage
+     */
+    public Map<String, TableAccessCounter> getAccessCounters() {
+        return new HashMap<>(counters);
+    }
+
+    public static class TableAccessCounter {
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong writes = new AtomicLong();
+
+        void recordRead() {
+            reads.incrementAndGet();
+        }
+
+        void recordWrites(int count) {
+            writes.addAndGet(count);
+        }
+
+        /**
+         * @return The number of records deserialized out of the table
+         */
+        public long getReads() {
+            return reads.get();
+        }
+
+        /**
+         * @return The number of records inserted, updated or removed in the table
+         */
+        public long getWrites() {
+            return writes.get();
+        }
+
+        @Override
+        public String toString() {
+            return "reads: " + reads.get() + ", writes: " + writes.get();
+        }
+    }
+}
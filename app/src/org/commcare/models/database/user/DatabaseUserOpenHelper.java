@@ -16,10 +16,12 @@ import org.commcare.logging.DataChangeLog;
 import org.commcare.logging.DataChangeLogger;
 import org.commcare.logging.XPathErrorEntry;
 import org.commcare.modern.database.TableBuilder;
+import org.commcare.models.database.DbProfile;
 import org.commcare.models.database.DbUtil;
 import org.commcare.models.database.IndexedFixturePathUtils;
 import org.commcare.android.database.user.models.ACase;
 import org.commcare.models.database.user.models.AndroidCaseIndexTable;
+import org.commcare.models.database.user.models.CaseDbHashTable;
 import org.commcare.models.database.user.models.CommCareEntityStorageCache;
 import org.commcare.android.database.user.models.FormRecord;
 import org.commcare.android.database.user.models.SessionStateDescriptor;
@@ -66,21 +68,32 @@ public class DatabaseUserOpenHelper extends SQLiteOpenHelper {
      * v.26 - Adds a column for 'last_sync' in IndexedFixtureIndex
      * v.27 - Adds a column `descriptor` in FormRecord.
      * v.28 - Adds and indexes columns for Case state and category
+     * v.29 - Adds a table for the running case db hash
      */
 
-    private static final int USER_DB_VERSION = 28;
+    private static final int USER_DB_VERSION = 29;
 
     private static final String USER_DB_LOCATOR = "database_sandbox_";
 
     private final Context context;
 
     private final String mUserId;
+    private final DbProfile profile;
     private byte[] fileMigrationKeySeed = null;
 
     public DatabaseUserOpenHelper(Context context, String userKeyRecordId) {
-        super(context, getDbName(userKeyRecordId), null, USER_DB_VERSION);
+        this(context, userKeyRecordId, DbProfile.DEFAULT);
+    }
+
+    /**
+     * @param profile Connection settings applied to the database once it is open. The default
+     *                profile leaves the database (including its journal mode) untouched.
+     */
+    public DatabaseUserOpenHelper(Context context, String userKeyRecordId, DbProfile profile) {
+        super(context, getDbName(userKeyRecordId), null, USER_DB_VERSION, DbUtil.getProfileHook(profile));
         this.context = context;
         this.mUserId = userKeyRecordId;
+        this.profile = profile;
     }
 
     public static String getDbName(String sandboxId) {
@@ -168,6 +181,9 @@ public class DatabaseUserOpenHelper extends SQLiteOpenHelper {
             database.execSQL(AndroidCaseIndexTable.getTableDefinition());
             AndroidCaseIndexTable.createIndexes(database);
 
+            database.execSQL(CaseDbHashTable.getTableDefinition());
+            CaseDbHashTable.clear(database);
+
             database.setVersion(USER_DB_VERSION);
 
             database.setTransactionSuccessful();
@@ -180,12 +196,17 @@ public class DatabaseUserOpenHelper extends SQLiteOpenHelper {
     public SQLiteDatabase getWritableDatabase(String key) {
         fileMigrationKeySeed = key.getBytes();
 
+        SQLiteDatabase database;
         try {
-            return super.getWritableDatabase(key);
+            database = super.getWritableDatabase(key);
         } catch (SQLiteException sqle) {
             DbUtil.trySqlCipherDbUpdate(key, context, getDbName(mUserId));
-            return super.getWritableDatabase(key);
+            database = super.getWritableDatabase(key);
+        }
+        if (profile != DbProfile.DEFAULT) {
+            DbUtil.applyProfile(database, profile);
         }
+        return database;
     }
 
     @Override
@@ -30,6 +30,7 @@ import org.commcare.android.database.user.models.ACase;
 import org.commcare.android.database.user.models.ACasePreV6Model;
 import org.commcare.android.database.user.models.AUser;
 import org.commcare.models.database.user.models.AndroidCaseIndexTable;
+import org.commcare.models.database.user.models.CaseDbHashTable;
 import org.commcare.models.database.user.models.CommCareEntityStorageCache;
 import org.commcare.android.database.user.models.FormRecord;
 import org.commcare.android.database.user.models.FormRecordV1;
@@ -230,6 +231,12 @@ class UserDatabaseUpgrader {
                 oldVersion = 28;
             }
         }
+
+        if (oldVersion == 28) {
+            if (updateTwentyEightTwentyNine(db)) {
+                oldVersion = 29;
+            }
+        }
     }
 
     private boolean upgradeOneTwo(final SQLiteDatabase db) {
@@ -791,6 +798,21 @@ class UserDatabaseUpgrader {
         }
     }
 
+    /**
+     * Add the case db hash table. It's left empty, so the hash gets built from a scan of the
+     * cases the first time it's needed.
+     */
+    private boolean updateTwentyEightTwentyNine(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL(CaseDbHashTable.getTableDefinition());
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     private void migrateV2FormRecordsForSingleApp(String appId,
                                                   SqlStorage<FormRecordV2> oldStorage,
                                                   Vector<FormRecordV3> upgradedRecords) {
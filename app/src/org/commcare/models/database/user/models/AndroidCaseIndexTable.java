@@ -4,6 +4,7 @@ import android.content.ContentValues;
 
 import net.sqlcipher.Cursor;
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.commcare.CommCareApplication;
 import org.commcare.android.database.user.models.ACase;
@@ -13,13 +14,17 @@ import org.commcare.cases.query.queryset.DualTableSingleMatchModelQuerySet;
 import org.commcare.modern.database.TableBuilder;
 import org.commcare.models.database.DbUtil;
 import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.SqlStorageStatementCache;
 import org.commcare.modern.database.DatabaseHelper;
 import org.commcare.modern.database.DatabaseIndexingUtils;
 import org.commcare.modern.engine.cases.CaseIndexTable;
 import org.commcare.modern.util.Pair;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Vector;
@@ -36,17 +41,34 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
     private static final String COL_INDEX_TARGET = "target";
     private static final String COL_INDEX_RELATIONSHIP = "relationship";
 
+    private static final String INSERT_INDEX_SQL = "INSERT INTO " + TABLE_NAME + " (" +
+            COL_CASE_RECORD_ID + ", " + COL_INDEX_NAME + ", " + COL_INDEX_TYPE + ", " +
+            COL_INDEX_TARGET + ", " + COL_INDEX_RELATIONSHIP + ") VALUES (?, ?, ?, ?, ?)";
+
     private final SQLiteDatabase db;
 
+    // The session's in-memory copy of this table, if this table is the user's writer connection
+    private final CaseIndexGraph graph;
+
     //TODO: We should do some synchronization to make it the case that nothing can hold
     //an object for the same cache at once and let us manage the lifecycle
 
     public AndroidCaseIndexTable() {
-        this.db = CommCareApplication.instance().getUserDbHandle();
+        this(CommCareApplication.instance().getUserDbHandle(),
+                CommCareApplication.instance().getCaseIndexGraph());
     }
 
     public AndroidCaseIndexTable(SQLiteDatabase dbHandle) {
+        this(dbHandle, null);
+    }
+
+    /**
+     * @param graph In-memory copy of the table to answer queries from and keep up to date with
+     *              writes, or null to always go to the database
+     */
+    public AndroidCaseIndexTable(SQLiteDatabase dbHandle, CaseIndexGraph graph) {
         this.db = dbHandle;
+        this.graph = graph;
     }
 
     public static String getTableDefinition() {
@@ -86,12 +108,57 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
                 cv.put(COL_INDEX_RELATIONSHIP, ci.getRelationship());
                 db.insert(TABLE_NAME, null, cv);
             }
+            if (graph != null) {
+                graph.onCasesIndexed(db, Collections.singletonList(c));
+            }
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
     }
 
+    /**
+     * Creates all indexes for each of the provided cases in a single transaction, reusing the
+     * table's cached insert statement for every index row. Like indexCase, this doesn't
+     * ensure any sort of uniqueness.
+     */
+    public void indexCases(Collection<? extends Case> cases) {
+        if (cases.isEmpty()) {
+            return;
+        }
+        SqlStorageStatementCache statementCache = SqlStorageStatementCache.getCache(db, TABLE_NAME);
+        db.beginTransaction();
+        SQLiteStatement insert = statementCache.acquireStatement(INSERT_INDEX_SQL);
+        try {
+            for (Case c : cases) {
+                for (CaseIndex ci : c.getIndices()) {
+                    insert.bindLong(1, c.getID());
+                    bindStringOrNull(insert, 2, ci.getName());
+                    bindStringOrNull(insert, 3, ci.getTargetType());
+                    bindStringOrNull(insert, 4, ci.getTarget());
+                    bindStringOrNull(insert, 5, ci.getRelationship());
+                    insert.executeInsert();
+                    insert.clearBindings();
+                }
+            }
+            if (graph != null) {
+                graph.onCasesIndexed(db, cases);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            statementCache.releaseStatement(INSERT_INDEX_SQL, insert);
+            db.endTransaction();
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
     public HashMap<Integer,Vector<Pair<String, String>>> getCaseIndexMap() {
         String[] projection = new String[] {COL_CASE_RECORD_ID, COL_INDEX_TARGET, COL_INDEX_RELATIONSHIP};
         HashMap<Integer,Vector<Pair<String, String>>> caseIndexMap = new HashMap<>();
@@ -128,6 +195,29 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
         }
     }
 
+    /**
+     * Reads every index with its target resolved to a case record id, rather than building
+     * a map keyed by case id strings.
+     *
+     * @return A cursor over (indexing case record id, target case record id, relationship)
+     * for every index. The target record id is null when the target case isn't in storage.
+     */
+    public Cursor getResolvedIndexCursor() {
+        String query = String.format(
+                "SELECT %s, %s, %s " +
+                        "FROM %s " +
+                        "LEFT JOIN %s " +
+                        "ON %s = %s",
+                TABLE_NAME + "." + COL_CASE_RECORD_ID,
+                ACase.STORAGE_KEY + "." + DatabaseHelper.ID_COL,
+                TABLE_NAME + "." + COL_INDEX_RELATIONSHIP,
+                TABLE_NAME,
+                ACase.STORAGE_KEY,
+                TABLE_NAME + "." + COL_INDEX_TARGET,
+                ACase.STORAGE_KEY + "." + TableBuilder.scrubName(Case.INDEX_CASE_ID));
+        return db.rawQuery(query, null);
+    }
+
 
     public void clearCaseIndices(Case c) {
         clearCaseIndices(c.getID());
@@ -144,6 +234,9 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
             //NOTE: The cast is very necessary, SQLite's type coercion has problems here because
             //we can't provide arguments in any format other than a string
             db.delete(TABLE_NAME, COL_CASE_RECORD_ID + "= CAST(? as INT)", new String[]{recordIdString});
+            if (graph != null) {
+                graph.onIndicesCleared(db, Collections.singletonList(recordId));
+            }
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -160,6 +253,9 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
             for (Pair<String, String[]> whereParams : whereParamList) {
                 db.delete(TABLE_NAME, COL_CASE_RECORD_ID + " IN " + whereParams.first, whereParams.second);
             }
+            if (graph != null) {
+                graph.onIndicesCleared(db, idsToClear);
+            }
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -169,6 +265,9 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
     @Override
     public void delete() {
         SqlStorage.dropTable(db, TABLE_NAME);
+        if (graph != null) {
+            graph.invalidate();
+        }
     }
 
     @Override
@@ -180,7 +279,24 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
      * Removes all records from the case index table
      */
     public void wipeTable() {
-        SqlStorage.wipeTable(db, TABLE_NAME);
+        db.beginTransaction();
+        try {
+            SqlStorage.wipeTable(db, TABLE_NAME);
+            if (graph != null) {
+                graph.onTableWiped(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return A cursor over (case record id, index name, index target) for every index
+     */
+    Cursor queryIndexRows() {
+        return db.query(TABLE_NAME, new String[]{COL_CASE_RECORD_ID, COL_INDEX_NAME, COL_INDEX_TARGET},
+                null, null, null, null, null);
     }
 
     /**
@@ -191,6 +307,12 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
      * @return An integer array of indexed case record ids
      */
     public LinkedHashSet<Integer> getCasesMatchingIndex(String indexName, String targetValue) {
+        if (graph != null) {
+            graph.ensureCurrent(db, this);
+            LinkedHashSet<Integer> ret = new LinkedHashSet<>();
+            graph.addCasesMatchingIndex(indexName, targetValue, ret);
+            return ret;
+        }
         String[] args = new String[]{indexName, targetValue};
         if (SqlStorage.STORAGE_OUTPUT_DEBUG) {
             String query = String.format("SELECT %s FROM %s WHERE %s = ? AND %s = ?", COL_CASE_RECORD_ID, TABLE_NAME, COL_INDEX_NAME, COL_INDEX_TARGET);
@@ -210,6 +332,14 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
      * @return An integer array of indexed case record ids
      */
     public LinkedHashSet<Integer> getCasesMatchingValueSet(String indexName, String[] targetValueSet) {
+        if (graph != null) {
+            graph.ensureCurrent(db, this);
+            LinkedHashSet<Integer> ret = new LinkedHashSet<>();
+            for (String targetValue : targetValueSet) {
+                graph.addCasesMatchingIndex(indexName, targetValue, ret);
+            }
+            return ret;
+        }
         String[] args = new String[1 + targetValueSet.length];
         args[0] = indexName;
         for (int i = 0; i < targetValueSet.length; ++i) {
@@ -232,6 +362,10 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
     }
 
     public int loadIntoIndexTable(HashMap<String, Vector<Integer>> indexCache, String indexName) {
+        if (graph != null) {
+            graph.ensureCurrent(db, this);
+            return graph.loadIntoIndexCache(indexCache, indexName);
+        }
         int resultsReturned = 0;
         String[] args = new String[]{indexName};
         if (SqlStorage.STORAGE_OUTPUT_DEBUG) {
@@ -278,6 +412,20 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
      */
     public DualTableSingleMatchModelQuerySet bulkReadIndexToCaseIdMatch(String indexName, Collection<Integer> cuedCases) {
         DualTableSingleMatchModelQuerySet set = new DualTableSingleMatchModelQuerySet();
+        if (graph != null) {
+            graph.ensureCurrent(db, this);
+            List<Integer> indexingCases = new ArrayList<>();
+            List<String> targets = new ArrayList<>();
+            graph.getIndexTargets(indexName, cuedCases, indexingCases, targets);
+            HashMap<String, Integer> targetRecordIds = getRecordIdsForCaseIds(new HashSet<>(targets));
+            for (int i = 0; i < indexingCases.size(); i++) {
+                Integer targetCase = targetRecordIds.get(targets.get(i));
+                if (targetCase != null) {
+                    set.loadResult(indexingCases.get(i), targetCase);
+                }
+            }
+            return set;
+        }
         String caseIdIndex = TableBuilder.scrubName(Case.INDEX_CASE_ID);
 
         //NOTE: This is possibly slower than it appears. I think the cast screws up sqlites's
@@ -324,6 +472,30 @@ public class AndroidCaseIndexTable implements CaseIndexTable {
 
 
 
+    /**
+     * @return The record ids of the provided cases, keyed by case id, read through the case
+     * table's case id index
+     */
+    private HashMap<String, Integer> getRecordIdsForCaseIds(Collection<String> caseIds) {
+        HashMap<String, Integer> recordIds = new HashMap<>();
+        if (caseIds.isEmpty()) {
+            return recordIds;
+        }
+        String caseIdColumn = TableBuilder.scrubName(Case.INDEX_CASE_ID);
+        for (Pair<String, String[]> querySet : TableBuilder.sqlList(caseIds)) {
+            Cursor c = db.query(ACase.STORAGE_KEY, new String[]{DatabaseHelper.ID_COL, caseIdColumn},
+                    caseIdColumn + " IN " + querySet.first, querySet.second, null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    recordIds.put(c.getString(1), c.getInt(0));
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return recordIds;
+    }
+
     public static String getArgumentBasedVariableSet(int number) {
         StringBuffer sb = new StringBuffer();
         sb.append("(");
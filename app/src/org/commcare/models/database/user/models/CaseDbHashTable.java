@@ -0,0 +1,174 @@
+package org.commcare.models.database.user.models;
+
+import android.content.ContentValues;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.commcare.cases.model.Case;
+import org.commcare.modern.database.DatabaseHelper;
+import org.commcare.modern.database.TableBuilder;
+import org.commcare.models.database.SqlStorage;
+import org.javarosa.core.util.MD5;
+
+import java.util.Collection;
+
+import static org.commcare.cases.util.CaseDBUtils.xordata;
+
+/**
+ * Holds a running digest of the case database: the XOR of the MD5 hashes of every case id in
+ * the case table, which is the case db hash sent along with sync requests. Since XOR is its
+ * own inverse, adding or removing a case only needs that case's hash rather than a scan of
+ * every case.
+ *
+ * The digest is a single row which case storage updates in the same transaction as its
+ * inserts and deletes. When the row is missing (before the first hash is computed after an
+ * upgrade, for instance) the digest isn't tracked, and CaseUtils rebuilds it from a full scan
+ * the next time the hash is needed.
+ *
+ * All of the methods here are expected to be called inside of a transaction on the provided
+ * database.
+ */
+public class CaseDbHashTable {
+    public static final String TABLE_NAME = "case_db_hash";
+
+    private static final String COL_DIGEST = "digest";
+    private static final String COL_CASE_COUNT = "case_count";
+
+    private static final int DIGEST_ROW_ID = 1;
+
+    public static String getTableDefinition() {
+        return "CREATE TABLE " + TABLE_NAME + "(" +
+                DatabaseHelper.ID_COL + " INTEGER PRIMARY KEY, " +
+                COL_DIGEST + " BLOB, " +
+                COL_CASE_COUNT + " INTEGER" +
+                ")";
+    }
+
+    public static boolean isTableExist(SQLiteDatabase db) {
+        return SqlStorage.isTableExist(db, TABLE_NAME);
+    }
+
+    /**
+     * @return The hash of the case database, "" if there are no cases, or null if the digest
+     * isn't being tracked
+     */
+    public static String readHash(SQLiteDatabase db) {
+        if (!isTableExist(db)) {
+            return null;
+        }
+        Digest digest = readDigest(db);
+        if (digest == null) {
+            return null;
+        }
+        return toHash(digest.data, digest.caseCount);
+    }
+
+    /**
+     * @return The hash for a digest over the provided number of cases, in the format sent to
+     * the server
+     */
+    public static String toHash(byte[] digest, long caseCount) {
+        // In the base case (with no cases), the case hash is empty
+        if (caseCount == 0) {
+            return "";
+        }
+        return MD5.toHex(digest);
+    }
+
+    public static byte[] emptyDigest() {
+        return new byte[MD5.length];
+    }
+
+    /**
+     * @return The provided digest with the case id folded in or out of it
+     */
+    public static byte[] foldCaseId(byte[] digest, String caseId) {
+        return xordata(digest, MD5.hash(caseId.getBytes()));
+    }
+
+    /**
+     * Replaces the digest, which starts it being tracked if it wasn't already
+     */
+    public static void writeDigest(SQLiteDatabase db, byte[] digest, long caseCount) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.ID_COL, DIGEST_ROW_ID);
+        values.put(COL_DIGEST, digest);
+        values.put(COL_CASE_COUNT, caseCount);
+        db.replaceOrThrow(TABLE_NAME, null, values);
+    }
+
+    /**
+     * Resets the digest to that of an empty case table
+     */
+    public static void clear(SQLiteDatabase db) {
+        writeDigest(db, emptyDigest(), 0);
+    }
+
+    /**
+     * Folds newly inserted cases into the digest
+     */
+    public static void recordInserts(SQLiteDatabase db, Collection<String> caseIds) {
+        if (caseIds.isEmpty()) {
+            return;
+        }
+        Digest digest = readDigest(db);
+        if (digest == null) {
+            return;
+        }
+        byte[] data = digest.data;
+        for (String caseId : caseIds) {
+            data = foldCaseId(data, caseId);
+        }
+        writeDigest(db, data, digest.caseCount + caseIds.size());
+    }
+
+    /**
+     * Folds the cases matching the where clause out of the digest. Has to be called before
+     * the cases are deleted.
+     */
+    public static void recordRemovals(SQLiteDatabase db, String caseTable,
+                                      String whereClause, String[] whereArgs) {
+        Digest digest = readDigest(db);
+        if (digest == null) {
+            return;
+        }
+        byte[] data = digest.data;
+        long caseCount = digest.caseCount;
+        Cursor c = db.query(caseTable, new String[]{TableBuilder.scrubName(Case.INDEX_CASE_ID)},
+                whereClause, whereArgs, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                data = foldCaseId(data, c.getString(0));
+                caseCount--;
+            }
+        } finally {
+            c.close();
+        }
+        writeDigest(db, data, caseCount);
+    }
+
+    private static Digest readDigest(SQLiteDatabase db) {
+        Cursor c = db.query(TABLE_NAME, new String[]{COL_DIGEST, COL_CASE_COUNT},
+                DatabaseHelper.ID_COL + " = ?", new String[]{String.valueOf(DIGEST_ROW_ID)},
+                null, null, null);
+        try {
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            return new Digest(c.getBlob(0), c.getLong(1));
+        } finally {
+            c.close();
+        }
+    }
+
+    private static class Digest {
+        final byte[] data;
+        final long caseCount;
+
+        Digest(byte[] data, long caseCount) {
+            this.data = data;
+            this.caseCount = caseCount;
+        }
+    }
+}
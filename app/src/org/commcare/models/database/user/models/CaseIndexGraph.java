@@ -0,0 +1,339 @@
+package org.commcare.models.database.user.models;
+
+import android.util.SparseArray;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteException;
+
+import org.commcare.cases.model.Case;
+import org.commcare.cases.model.CaseIndex;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * An in-memory copy of the case index table for the logged in user's session, which answers
+ * the index table's relationship queries without going back to SQLite.
+ *
+ * Index names and target case ids are interned to ints. For every index name, the record ids
+ * of the cases indexing each target are held in an int array indexed by the target's id, and
+ * every case's own indices are held as packed (name, target) pairs keyed by its record id.
+ *
+ * The graph is built from the index table on first use and then kept up to date by the
+ * AndroidCaseIndexTable calls which write to the table. Those writes can be part of a larger
+ * transaction which is later rolled back, so each one also stamps a version into a temporary
+ * table on the same connection. The stamp is rolled back along with everything else, and the
+ * first query after a write checks it, rebuilding the graph if it no longer matches.
+ *
+ * Only the writer connection's view of the table is held here, so readers on a separate read
+ * connection have to query the table directly.
+ */
+public class CaseIndexGraph {
+
+    private static final String VERSION_TABLE = "case_index_graph_version";
+
+    private final HashMap<String, Integer> nameIds = new HashMap<>();
+    private final HashMap<String, Integer> targetIds = new HashMap<>();
+    private String[] targets = new String[64];
+
+    // [name id][target id] -> {count, record ids...}, for the cases holding that index
+    private int[][][] casesByTarget = new int[0][][];
+
+    // record id -> {count, name id, target id, name id, target id...}, for the case's own indices
+    private final SparseArray<int[]> indicesByCase = new SparseArray<>();
+
+    private boolean built;
+    private boolean unverified;
+    private long version;
+
+    /**
+     * Make sure the graph matches the index table, building it if it hasn't been yet, and
+     * rebuilding it if a write was rolled back since it was last checked
+     */
+    void ensureCurrent(SQLiteDatabase db, AndroidCaseIndexTable table) {
+        synchronized (this) {
+            if (built && !unverified) {
+                return;
+            }
+        }
+        // Writes notify the graph while holding the database lock, so take that lock before
+        // the graph's to keep the same order. This also waits out any write transaction on
+        // another thread, so the version read below is the one it finished with.
+        boolean inWriteTransaction = db.inTransaction();
+        db.beginTransaction();
+        try {
+            synchronized (this) {
+                if (built && unverified) {
+                    if (readVersion(db) != version) {
+                        built = false;
+                    } else if (!inWriteTransaction) {
+                        unverified = false;
+                    }
+                }
+                if (!built) {
+                    build(db, table, inWriteTransaction);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void build(SQLiteDatabase db, AndroidCaseIndexTable table, boolean inWriteTransaction) {
+        clear();
+        Cursor c = table.queryIndexRows();
+        try {
+            while (c.moveToNext()) {
+                addIndex(c.getInt(0), c.getString(1), c.getString(2));
+            }
+        } finally {
+            c.close();
+        }
+        built = true;
+        version++;
+        db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + VERSION_TABLE + " (version INTEGER)");
+        writeVersion(db);
+        // a graph built inside of a write transaction is only good if that transaction commits
+        unverified = inWriteTransaction;
+    }
+
+    private void clear() {
+        nameIds.clear();
+        targetIds.clear();
+        targets = new String[64];
+        casesByTarget = new int[0][][];
+        indicesByCase.clear();
+    }
+
+    /**
+     * Drop the graph, so that it's rebuilt from the index table on next use
+     */
+    public synchronized void invalidate() {
+        built = false;
+        clear();
+    }
+
+    synchronized void onCasesIndexed(SQLiteDatabase db, Collection<? extends Case> cases) {
+        if (!built) {
+            return;
+        }
+        for (Case c : cases) {
+            for (CaseIndex ci : c.getIndices()) {
+                addIndex(c.getID(), ci.getName(), ci.getTarget());
+            }
+        }
+        onWrite(db);
+    }
+
+    synchronized void onIndicesCleared(SQLiteDatabase db, Collection<Integer> recordIds) {
+        if (!built) {
+            return;
+        }
+        int[] removed = new int[recordIds.size()];
+        int count = 0;
+        HashSet<Long> touchedLists = new HashSet<>();
+        for (int recordId : recordIds) {
+            int[] indices = indicesByCase.get(recordId);
+            if (indices == null) {
+                continue;
+            }
+            indicesByCase.remove(recordId);
+            removed[count++] = recordId;
+            for (int i = 1; i < indices[0]; i += 2) {
+                touchedLists.add(((long)indices[i] << 32) | indices[i + 1]);
+            }
+        }
+        Arrays.sort(removed, 0, count);
+        // filter every affected list once, rather than once per removed case
+        for (long key : touchedLists) {
+            int[] cases = casesByTarget[(int)(key >>> 32)][(int)key];
+            int kept = 1;
+            for (int i = 1; i < cases[0]; i++) {
+                if (Arrays.binarySearch(removed, 0, count, cases[i]) < 0) {
+                    cases[kept++] = cases[i];
+                }
+            }
+            cases[0] = kept;
+        }
+        onWrite(db);
+    }
+
+    synchronized void onTableWiped(SQLiteDatabase db) {
+        if (!built) {
+            return;
+        }
+        clear();
+        onWrite(db);
+    }
+
+    private void onWrite(SQLiteDatabase db) {
+        version++;
+        unverified = true;
+        try {
+            writeVersion(db);
+        } catch (SQLiteException e) {
+            // the version table was rolled back with the transaction that created it
+            invalidate();
+        }
+    }
+
+    private void writeVersion(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + VERSION_TABLE);
+        db.execSQL("INSERT INTO " + VERSION_TABLE + " (version) VALUES (?)", new Object[]{version});
+    }
+
+    private static long readVersion(SQLiteDatabase db) {
+        try {
+            Cursor c = db.rawQuery("SELECT version FROM " + VERSION_TABLE, null);
+            try {
+                return c.moveToFirst() ? c.getLong(0) : -1;
+            } finally {
+                c.close();
+            }
+        } catch (SQLiteException e) {
+            return -1;
+        }
+    }
+
+    private void addIndex(int recordId, String name, String target) {
+        if (name == null || target == null) {
+            return;
+        }
+        int nameId = internName(name);
+        int targetId = internTarget(target);
+
+        int[][] lists = casesByTarget[nameId];
+        if (targetId >= lists.length) {
+            lists = Arrays.copyOf(lists, Math.max(targetId + 1, lists.length * 2));
+            casesByTarget[nameId] = lists;
+        }
+        lists[targetId] = append(lists[targetId], recordId);
+
+        int[] indices = indicesByCase.get(recordId);
+        int[] updated = append(append(indices, nameId), targetId);
+        if (updated != indices) {
+            indicesByCase.put(recordId, updated);
+        }
+    }
+
+    private int internName(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = nameIds.size();
+            nameIds.put(name, id);
+            casesByTarget = Arrays.copyOf(casesByTarget, id + 1);
+            casesByTarget[id] = new int[Math.max(16, targetIds.size())][];
+        }
+        return id;
+    }
+
+    private int internTarget(String target) {
+        Integer id = targetIds.get(target);
+        if (id == null) {
+            id = targetIds.size();
+            targetIds.put(target, id);
+            if (id == targets.length) {
+                targets = Arrays.copyOf(targets, id * 2);
+            }
+            targets[id] = target;
+        }
+        return id;
+    }
+
+    /**
+     * @return The provided list with the value appended, which is a new array if it had to grow
+     */
+    private static int[] append(int[] list, int value) {
+        if (list == null) {
+            list = new int[4];
+            list[0] = 1;
+        } else if (list[0] == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+        }
+        list[list[0]++] = value;
+        return list;
+    }
+
+    private int[] getCasesFor(String indexName, String target) {
+        Integer nameId = nameIds.get(indexName);
+        Integer targetId = targetIds.get(target);
+        if (nameId == null || targetId == null || targetId >= casesByTarget[nameId].length) {
+            return null;
+        }
+        return casesByTarget[nameId][targetId];
+    }
+
+    synchronized void addCasesMatchingIndex(String indexName, String target, LinkedHashSet<Integer> result) {
+        int[] cases = getCasesFor(indexName, target);
+        if (cases != null) {
+            for (int i = 1; i < cases[0]; i++) {
+                result.add(cases[i]);
+            }
+        }
+    }
+
+    /**
+     * Fill the cache with the record ids of the cases holding each index with the provided
+     * name, keyed by "name|target" the same way the index table does
+     *
+     * @return The number of indices loaded
+     */
+    synchronized int loadIntoIndexCache(HashMap<String, Vector<Integer>> indexCache, String indexName) {
+        Integer nameId = nameIds.get(indexName);
+        if (nameId == null) {
+            return 0;
+        }
+        int loaded = 0;
+        int[][] lists = casesByTarget[nameId];
+        for (int targetId = 0; targetId < lists.length; targetId++) {
+            int[] cases = lists[targetId];
+            if (cases == null || cases[0] == 1) {
+                continue;
+            }
+            String cacheId = indexName + "|" + targets[targetId];
+            Vector<Integer> cache = indexCache.get(cacheId);
+            if (cache == null) {
+                cache = new Vector<>();
+                indexCache.put(cacheId, cache);
+            }
+            for (int i = 1; i < cases[0]; i++) {
+                cache.add(cases[i]);
+            }
+            loaded += cases[0] - 1;
+        }
+        return loaded;
+    }
+
+    /**
+     * Collect the targets of the provided cases' indices with the provided name
+     *
+     * @param caseRecordIds Filled with the record id of the indexing case for each target
+     * @param targetCaseIds Filled with the target case id, at the same position
+     */
+    synchronized void getIndexTargets(String indexName, Collection<Integer> cuedCases,
+                                      List<Integer> caseRecordIds, List<String> targetCaseIds) {
+        Integer nameId = nameIds.get(indexName);
+        if (nameId == null) {
+            return;
+        }
+        for (int recordId : cuedCases) {
+            int[] indices = indicesByCase.get(recordId);
+            if (indices == null) {
+                continue;
+            }
+            for (int i = 1; i < indices[0]; i += 2) {
+                if (indices[i] == nameId) {
+                    caseRecordIds.add(recordId);
+                    targetCaseIds.add(targets[indices[i + 1]]);
+                }
+            }
+        }
+    }
+}
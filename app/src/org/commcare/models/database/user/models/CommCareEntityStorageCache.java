@@ -41,9 +41,16 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
     private static final String COL_TIMESTAMP = "timestamp";
     private static final String ENTITY_CACHE_WIPED_PREF_SUFFIX = "enity_cache_wiped";
 
+    /**
+     * Number of cache rows pulled per query while priming, keeps each cursor window well
+     * under the size at which sqlite would start truncating results
+     */
+    private static final int PRIME_PAGE_SIZE = 2000;
+
     private final SQLiteDatabase db;
     private final String mCacheName;
     private final String mAppId;
+    private final EntityCacheMemoryLayer memoryLayer;
 
     public CommCareEntityStorageCache(String cacheName) {
         this(cacheName, CommCareApplication.instance().getUserDbHandle(), AppUtils.getCurrentAppId());
@@ -53,6 +60,7 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
         this.db = db;
         this.mCacheName = cacheName;
         this.mAppId = appId;
+        this.memoryLayer = EntityCacheMemoryLayer.getLayer(db);
     }
 
     public static String getTableDefinition() {
@@ -76,8 +84,13 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
     public Closeable lockCache() {
         //Get a db handle so we can get an outer lock
         SQLiteDatabase db = CommCareApplication.instance().getUserDbHandle();
-        //get the db lock
-        db.beginTransaction();
+        //get the db lock. If this is the outermost transaction the memory layer is told whether
+        //it commits, so values cached under the lock can be kept in memory afterwards
+        if (db.inTransaction()) {
+            db.beginTransaction();
+        } else {
+            db.beginTransactionWithListener(EntityCacheMemoryLayer.getLayer(db));
+        }
         return () -> {
             db.setTransactionSuccessful();
             db.endTransaction();
@@ -97,6 +110,11 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
         cv.put(COL_VALUE, value);
         cv.put(COL_TIMESTAMP, System.currentTimeMillis());
         db.insertWithOnConflict(TABLE_NAME, null, cv, SQLiteDatabase.CONFLICT_REPLACE);
+        if (db.inTransaction()) {
+            memoryLayer.stage(mAppId, mCacheName, entityKey, cacheKey, value);
+        } else {
+            memoryLayer.put(mAppId, mCacheName, entityKey, cacheKey, value);
+        }
 
         if (SqlStorage.STORAGE_OUTPUT_DEBUG) {
             Log.d(TAG, "Cached value|" + entityKey + "|" + cacheKey);
@@ -104,12 +122,20 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
     }
 
     public String retrieveCacheValue(String entityKey, String cacheKey) {
+        String cachedValue = memoryLayer.get(mAppId, mCacheName, entityKey, cacheKey);
+        if (cachedValue != null) {
+            return cachedValue;
+        }
+
         String whereClause = String.format("%s = ? AND %s = ? AND %s = ? AND %s = ?", COL_APP_ID, COL_CACHE_NAME, COL_ENTITY_KEY, COL_CACHE_KEY);
 
+        long readGeneration = memoryLayer.getWriteGeneration();
         Cursor c = db.query(TABLE_NAME, new String[]{COL_VALUE}, whereClause, new String[]{mAppId, mCacheName, entityKey, cacheKey}, null, null, null);
         try {
             if (c.moveToNext()) {
-                return c.getString(0);
+                String value = c.getString(0);
+                rememberReadValue(entityKey, cacheKey, value, readGeneration);
+                return value;
             } else {
                 return null;
             }
@@ -118,10 +144,26 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
         }
     }
 
+    /**
+     * Keeps a value which was just read from the table in the memory layer. Inside of a
+     * transaction the value is only staged, since it isn't safe to serve from memory until the
+     * transaction commits. Outside of one it is dropped if anything was written to the layer
+     * since the read started.
+     */
+    private void rememberReadValue(String entityKey, String cacheKey, String value,
+                                   long readGeneration) {
+        if (db.inTransaction()) {
+            memoryLayer.stage(mAppId, mCacheName, entityKey, cacheKey, value);
+        } else {
+            memoryLayer.putRead(mAppId, mCacheName, entityKey, cacheKey, value, readGeneration);
+        }
+    }
+
     /**
      * Removes cache records associated with the provided ID
      */
     public void invalidateCache(String recordId) {
+        memoryLayer.invalidate(mCacheName, recordId);
         int removed = db.delete(TABLE_NAME, COL_CACHE_NAME + " = ? AND " + COL_ENTITY_KEY + " = ?", new String[]{mCacheName, recordId});
         if (SqlStorage.STORAGE_OUTPUT_DEBUG) {
             Log.d(TAG, "Invalidated " + removed + " cached values for entity " + recordId);
@@ -132,6 +174,7 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
      * Removes cache records associated with the provided IDs
      */
     public void invalidateCaches(Collection<Integer> recordIds) {
+        memoryLayer.invalidate(mCacheName, recordIds);
         List<Pair<String, String[]>> whereParamList = TableBuilder.sqlList(recordIds);
         int removed = 0;
         for (Pair<String, String[]> querySet : whereParamList) {
@@ -155,6 +198,7 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
     }
 
     public static void wipeCacheForCurrentAppWithoutCommit(SQLiteDatabase userDb) {
+        EntityCacheMemoryLayer.getLayer(userDb).clear();
         userDb.delete(TABLE_NAME, COL_APP_ID + " = ?", new String[]{AppUtils.getCurrentAppId()});
         setEntityCacheWipedPref();
     }
@@ -163,6 +207,7 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
         SQLiteDatabase userDb = CommCareApplication.instance().getUserDbHandle();
         userDb.beginTransaction();
         try {
+            EntityCacheMemoryLayer.getLayer(userDb).clear();
             userDb.delete(TABLE_NAME, COL_APP_ID + " = ?", new String[]{AppUtils.getCurrentAppId()});
             setEntityCacheWipedPref();
             userDb.setTransactionSuccessful();
@@ -204,15 +249,28 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
         String[] names = cachePrimeKeys[0];
         String whereClause = buildKeyNameWhereClause(names);
         long now = System.currentTimeMillis();
-        String sqlStatement = "SELECT entity_key, cache_key, value FROM entity_cache JOIN AndroidCase ON entity_cache.entity_key = AndroidCase.commcare_sql_id WHERE " +
+        // Pages are walked by the cache row id rather than by offset, so each page query can
+        // seek straight to where the last one left off
+        String sqlStatement = "SELECT entity_cache.commcare_sql_id, entity_key, cache_key, value FROM entity_cache JOIN AndroidCase ON entity_cache.entity_key = AndroidCase.commcare_sql_id WHERE " +
                 whereClause + " AND " + CommCareEntityStorageCache.COL_APP_ID + " = '" + AppUtils.getCurrentAppId() +
-                "' AND cache_key IN " + validKeys;
+                "' AND " + COL_CACHE_NAME + " = '" + mCacheName +
+                "' AND cache_key IN " + validKeys +
+                " AND entity_cache.commcare_sql_id > CAST(? as INT)" +
+                " ORDER BY entity_cache.commcare_sql_id LIMIT " + PRIME_PAGE_SIZE;
+        String[] pageArgs = new String[args.length + 1];
+        System.arraycopy(args, 0, pageArgs, 0, args.length);
+        pageArgs[args.length] = "-1";
+
         SQLiteDatabase db = CommCareApplication.instance().getUserDbHandle();
         if (SqlStorage.STORAGE_OUTPUT_DEBUG) {
-            DbUtil.explainSql(db, sqlStatement, args);
+            DbUtil.explainSql(db, sqlStatement, pageArgs);
         }
 
-        populateEntitySet(db, sqlStatement, args, entitySet);
+        long lastRowId;
+        do {
+            lastRowId = populateEntitySetPage(db, sqlStatement, pageArgs, entitySet);
+            pageArgs[args.length] = String.valueOf(lastRowId);
+        } while (lastRowId != -1);
 
         if (SqlStorage.STORAGE_OUTPUT_DEBUG) {
             Log.d(TAG, "Sequential Cache Load: " + (System.currentTimeMillis() - now) + "ms");
@@ -252,20 +310,36 @@ public class CommCareEntityStorageCache implements EntityStorageCache {
         return whereClause;
     }
 
-    private static void populateEntitySet(SQLiteDatabase db, String sqlStatement, String[] args,
-            Hashtable<String, AsyncEntity> entitySet) {
-        //TODO: This will _only_ query up to about a meg of data, which is an un-great limitation.
-        //Should probably split this up SQL LIMIT based looped
-        //For reference the current limitation is about 10k rows with 1 field each.
+    /**
+     * Loads one page of primed cache values into the entity set (and the memory layer)
+     *
+     * @return The cache row id of the last row in the page, or -1 if this was the final page
+     */
+    private long populateEntitySetPage(SQLiteDatabase db, String sqlStatement, String[] args,
+                                       Hashtable<String, AsyncEntity> entitySet) {
+        long readGeneration = memoryLayer.getWriteGeneration();
         Cursor walker = db.rawQuery(sqlStatement, args);
-        while (walker.moveToNext()) {
-            String entityId = walker.getString(walker.getColumnIndex("entity_key"));
-            String cacheId = walker.getString(walker.getColumnIndex("cache_key"));
-            String val = walker.getString(walker.getColumnIndex("value"));
-            if (entitySet.containsKey(entityId)) {
-                entitySet.get(entityId).setSortData(cacheId, val);
+        try {
+            int rowIdIndex = walker.getColumnIndex(DatabaseHelper.ID_COL);
+            int entityKeyIndex = walker.getColumnIndex(COL_ENTITY_KEY);
+            int cacheKeyIndex = walker.getColumnIndex(COL_CACHE_KEY);
+            int valueIndex = walker.getColumnIndex(COL_VALUE);
+            long lastRowId = -1;
+            int rowsRead = 0;
+            while (walker.moveToNext()) {
+                rowsRead++;
+                lastRowId = walker.getLong(rowIdIndex);
+                String entityId = walker.getString(entityKeyIndex);
+                String cacheId = walker.getString(cacheKeyIndex);
+                String val = walker.getString(valueIndex);
+                rememberReadValue(entityId, cacheId, val, readGeneration);
+                if (entitySet.containsKey(entityId)) {
+                    entitySet.get(entityId).setSortData(cacheId, val);
+                }
             }
+            return rowsRead < PRIME_PAGE_SIZE ? -1 : lastRowId;
+        } finally {
+            walker.close();
         }
-        walker.close();
     }
 }
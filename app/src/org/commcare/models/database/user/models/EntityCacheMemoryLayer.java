@@ -0,0 +1,235 @@
+package org.commcare.models.database.user.models;
+
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteTransactionListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import androidx.collection.LruCache;
+
+/**
+ * Bounded in-memory layer in front of the entity_cache table, shared by every
+ * CommCareEntityStorageCache opened against the same user database.
+ *
+ * Values are grouped per entity so that invalidating an entity (which happens whenever its
+ * case is written) is a single removal. The LRU is bounded by the approximate number of bytes
+ * held in keys and values rather than by entry count, since sort values can be arbitrarily long.
+ *
+ * Values read or written inside of a transaction mustn't show up here until it commits, since a
+ * rollback would leave them behind. They are staged per thread instead, and are moved into the
+ * cache when the layer is told that the transaction committed (it acts as the listener for the
+ * transactions CommCareEntityStorageCache.lockCache starts) or dropped when it rolls back.
+ * Values staged in a transaction the layer never hears about are dropped the next time the
+ * thread uses the layer outside of a transaction.
+ *
+ * A value read outside of a transaction can be overtaken by a write that commits before the
+ * reader gets around to caching it. Every change to the layer moves it to a new write
+ * generation, so readers note the generation before going to the database and their value is
+ * only cached if nothing was written in the meantime.
+ */
+public class EntityCacheMemoryLayer implements SQLiteTransactionListener {
+
+    private static final int MAX_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final int MEMORY_FRACTION = 32;
+
+    private static final Map<SQLiteDatabase, EntityCacheMemoryLayer> layersByHandle = new WeakHashMap<>();
+
+    private final LruCache<String, HashMap<String, String>> entities;
+    private final HashMap<Thread, HashMap<String, HashMap<String, String>>> stagedEntities =
+            new HashMap<>();
+    private long writeGeneration = 0;
+
+    private EntityCacheMemoryLayer(int maxBytes) {
+        entities = new LruCache<String, HashMap<String, String>>(maxBytes) {
+            @Override
+            protected int sizeOf(String entityScope, HashMap<String, String> values) {
+                int size = entityScope.length();
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    size += entry.getKey().length() + entry.getValue().length();
+                }
+                // two bytes per char
+                return size * 2;
+            }
+        };
+    }
+
+    /**
+     * @return The memory layer for the provided user database handle. A closed or different
+     * user database gets a fresh layer, so entries never outlive the session they came from.
+     */
+    public static EntityCacheMemoryLayer getLayer(SQLiteDatabase db) {
+        synchronized (layersByHandle) {
+            EntityCacheMemoryLayer layer = layersByHandle.get(db);
+            if (layer == null) {
+                long memoryBudget = Runtime.getRuntime().maxMemory() / MEMORY_FRACTION;
+                layer = new EntityCacheMemoryLayer((int)Math.min(MAX_CACHE_BYTES, memoryBudget));
+                layersByHandle.put(db, layer);
+            }
+            return layer;
+        }
+    }
+
+    private static String getEntityScope(String cacheName, String entityKey) {
+        return cacheName + "|" + entityKey;
+    }
+
+    private static String getValueKey(String appId, String cacheKey) {
+        return appId + "|" + cacheKey;
+    }
+
+    /**
+     * Drops every layer. Should be called when the user databases are closed, so that the
+     * layers don't hold on to the closed handles or their values.
+     */
+    public static void clearLayers() {
+        synchronized (layersByHandle) {
+            for (EntityCacheMemoryLayer layer : layersByHandle.values()) {
+                layer.clear();
+            }
+            layersByHandle.clear();
+        }
+    }
+
+    /**
+     * @return The cached value, or null if it isn't held in memory
+     */
+    public String get(String appId, String cacheName, String entityKey, String cacheKey) {
+        HashMap<String, String> values = entities.get(getEntityScope(cacheName, entityKey));
+        return values == null ? null : values.get(getValueKey(appId, cacheKey));
+    }
+
+    /**
+     * @return The current write generation, to be noted before reading a value from the
+     * database that will be passed to putRead
+     */
+    public synchronized long getWriteGeneration() {
+        return writeGeneration;
+    }
+
+    /**
+     * Caches a value that was just written to the database outside of a transaction
+     */
+    public synchronized void put(String appId, String cacheName, String entityKey,
+                                 String cacheKey, String value) {
+        writeGeneration++;
+        putValue(appId, cacheName, entityKey, cacheKey, value);
+    }
+
+    /**
+     * Caches a value read from the database outside of a transaction, unless anything was
+     * written since the provided generation, in which case the value may already be stale
+     */
+    public synchronized void putRead(String appId, String cacheName, String entityKey,
+                                     String cacheKey, String value, long readGeneration) {
+        if (readGeneration != writeGeneration) {
+            stagedEntities.remove(Thread.currentThread());
+            return;
+        }
+        putValue(appId, cacheName, entityKey, cacheKey, value);
+    }
+
+    private void putValue(String appId, String cacheName, String entityKey,
+                          String cacheKey, String value) {
+        stagedEntities.remove(Thread.currentThread());
+        if (value == null) {
+            return;
+        }
+        String entityScope = getEntityScope(cacheName, entityKey);
+        HashMap<String, String> values = new HashMap<>();
+        values.put(getValueKey(appId, cacheKey), value);
+        putValues(entityScope, values);
+    }
+
+    /**
+     * Holds on to a value read or written inside of a transaction until that transaction ends.
+     * Anything already cached for the entity is dropped right away, since it may no longer
+     * match the database.
+     */
+    public synchronized void stage(String appId, String cacheName, String entityKey,
+                                   String cacheKey, String value) {
+        String entityScope = getEntityScope(cacheName, entityKey);
+        writeGeneration++;
+        entities.remove(entityScope);
+        if (value == null) {
+            return;
+        }
+        HashMap<String, HashMap<String, String>> staged = stagedEntities.get(Thread.currentThread());
+        if (staged == null) {
+            staged = new HashMap<>();
+            stagedEntities.put(Thread.currentThread(), staged);
+        }
+        HashMap<String, String> values = staged.get(entityScope);
+        if (values == null) {
+            values = new HashMap<>();
+            staged.put(entityScope, values);
+        }
+        values.put(getValueKey(appId, cacheKey), value);
+    }
+
+    @Override
+    public void onBegin() {
+    }
+
+    @Override
+    public synchronized void onCommit() {
+        HashMap<String, HashMap<String, String>> staged = stagedEntities.remove(Thread.currentThread());
+        if (staged != null) {
+            writeGeneration++;
+            for (Map.Entry<String, HashMap<String, String>> entity : staged.entrySet()) {
+                putValues(entity.getKey(), entity.getValue());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onRollback() {
+        stagedEntities.remove(Thread.currentThread());
+    }
+
+    private void putValues(String entityScope, HashMap<String, String> newValues) {
+        HashMap<String, String> existing = entities.get(entityScope);
+        // Entries are replaced rather than mutated so that the LRU re-measures their size
+        HashMap<String, String> values =
+                existing == null ? new HashMap<String, String>() : new HashMap<>(existing);
+        values.putAll(newValues);
+        entities.put(entityScope, values);
+    }
+
+    /**
+     * Drops every value cached for the entity, across all apps, mirroring how invalidation
+     * works for the entity_cache table
+     */
+    public synchronized void invalidate(String cacheName, String entityKey) {
+        dropEntity(getEntityScope(cacheName, entityKey));
+    }
+
+    public synchronized void invalidate(String cacheName, Iterable<Integer> entityKeys) {
+        for (Integer entityKey : entityKeys) {
+            dropEntity(getEntityScope(cacheName, String.valueOf(entityKey)));
+        }
+    }
+
+    private void dropEntity(String entityScope) {
+        writeGeneration++;
+        entities.remove(entityScope);
+        for (HashMap<String, HashMap<String, String>> staged : stagedEntities.values()) {
+            staged.remove(entityScope);
+        }
+    }
+
+    public synchronized void clear() {
+        writeGeneration++;
+        stagedEntities.clear();
+        entities.evictAll();
+    }
+
+    public int getHitCount() {
+        return entities.hitCount();
+    }
+
+    public int getMissCount() {
+        return entities.missCount();
+    }
+}
@@ -1,22 +1,63 @@
 package org.commcare.models.encryption;
 
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.util.HashSet;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.Cipher;
 
 /**
+ * A pool of ciphers which can be shared between threads. Ciphers are only generated outside
+ * of the pool's lock, which is held just long enough to hand a cipher out or take it back.
+ *
+ * A borrower that finds the pool dry gets a single newly generated cipher, and the pool is
+ * topped up with a small batch on a background thread, up to MAX_POOLED_CIPHERS. Past that
+ * point borrowers still get a cipher, but it is discarded when remitted instead of being kept. Once
+ * the pool has gone a while without running dry, remitted ciphers beyond the initial batch are
+ * dropped so that a burst of parallel work doesn't hold on to its ciphers forever.
+ *
+ * Each cipher is stamped with the pool's generation when it is made, and expire() moves the
+ * pool to a new generation. A cipher from an older generation was made with a key that may
+ * since have changed, so it is never lent out or taken back once the pool has expired. Pools
+ * made for a single job should be expired when it ends, which also stops any pending refill.
+ *
  * @author ctsims
  */
 public abstract class CipherPool {
     private static final String TAG = CipherPool.class.getSimpleName();
 
     private static final int GROWTH_FACTOR = 5;
+    private static final int MAX_POOLED_CIPHERS = 32;
+    private static final long IDLE_SHRINK_DELAY_MS = 30 * 1000;
 
-    private final HashSet<Cipher> issued = new HashSet<>();
-    private final Stack<Cipher> free = new Stack<>();
+    private static final ExecutorService refiller = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Cipher pool refill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Lent ciphers owned by the pool, with the generation they were made in
+    private final ConcurrentHashMap<Cipher, Integer> issued = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Cipher> free = new ConcurrentLinkedQueue<>();
+
+    // Number of ciphers owned by the pool, whether they are issued or free
+    private final AtomicInteger poolSize = new AtomicInteger();
+    private final AtomicInteger freeCount = new AtomicInteger();
+    private final AtomicLong lastMissTime = new AtomicLong();
+    private final AtomicBoolean refillPending = new AtomicBoolean();
+    // Changed on expire, so that ciphers made before then aren't pooled
+    private int generation = 0;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong totalBorrowNanos = new AtomicLong();
 
     //TODO: Pass in factory and finalize all API's rather than
     //leaving the class to be anonymous?
@@ -24,36 +65,179 @@ public abstract class CipherPool {
 
     }
 
-    public synchronized final void init() {
-        grow();
+    public final void init() {
+        grow(GROWTH_FACTOR, getGeneration());
     }
 
-    public synchronized final Cipher borrow() {
-        if (free.isEmpty()) {
-            grow();
-            Log.d(TAG, "Growing cipher pool. Current size is: " + free.size() + issued.size());
+    public final Cipher borrow() {
+        long start = System.nanoTime();
+        Cipher toLend;
+        synchronized (this) {
+            toLend = free.poll();
+            if (toLend != null) {
+                freeCount.decrementAndGet();
+                issued.put(toLend, generation);
+            }
+        }
+        if (toLend == null) {
+            missCount.incrementAndGet();
+            lastMissTime.set(SystemClock.elapsedRealtime());
+            toLend = generateForBorrower();
+            scheduleRefill();
         }
-        Cipher toLend = free.pop();
-        issued.add(toLend);
+        borrowCount.incrementAndGet();
+        totalBorrowNanos.addAndGet(System.nanoTime() - start);
         return toLend;
     }
 
-    public synchronized final void remit(Cipher cipher) {
-        issued.remove(cipher);
-        free.push(cipher);
+    /**
+     * Generates a cipher for a borrower who found the pool dry, trying again if the pool
+     * expired while it was being made
+     */
+    private Cipher generateForBorrower() {
+        while (true) {
+            int cipherGeneration = getGeneration();
+            Cipher cipher = generateNewCipher();
+            synchronized (this) {
+                if (cipherGeneration != generation) {
+                    continue;
+                }
+                // Past capacity the cipher is never marked as issued, so remit will drop it
+                if (cipher != null && reserveSlot()) {
+                    issued.put(cipher, cipherGeneration);
+                }
+                return cipher;
+            }
+        }
+    }
+
+    public final synchronized void remit(Cipher cipher) {
+        Integer cipherGeneration = cipher == null ? null : issued.remove(cipher);
+        if (cipherGeneration == null || cipherGeneration != generation) {
+            // Either lent before the pool expired or lent past capacity, so don't keep it
+            return;
+        }
+        if (shouldShrink()) {
+            poolSize.decrementAndGet();
+            return;
+        }
+        free.offer(cipher);
+        freeCount.incrementAndGet();
+    }
+
+    /**
+     * Takes back a cipher whose state can't be trusted, IE: one left part way through an
+     * operation, without returning it to the free list
+     */
+    public final synchronized void discard(Cipher cipher) {
+        Integer cipherGeneration = cipher == null ? null : issued.remove(cipher);
+        if (cipherGeneration != null && cipherGeneration == generation) {
+            poolSize.decrementAndGet();
+        }
+    }
+
+    private boolean shouldShrink() {
+        return freeCount.get() >= GROWTH_FACTOR &&
+                SystemClock.elapsedRealtime() - lastMissTime.get() > IDLE_SHRINK_DELAY_MS;
+    }
+
+    private void scheduleRefill() {
+        if (poolSize.get() >= MAX_POOLED_CIPHERS || !refillPending.compareAndSet(false, true)) {
+            return;
+        }
+        final int refillGeneration = getGeneration();
+        refiller.execute(() -> {
+            try {
+                grow(GROWTH_FACTOR - 1, refillGeneration);
+                Log.d(TAG, "Grew cipher pool. Current size is: " + poolSize.get());
+            } catch (RuntimeException e) {
+                // IE: the key went away with the session; borrowers still generate their own
+                Log.w(TAG, "Stopped refilling cipher pool: " + e.getMessage());
+            } finally {
+                refillPending.set(false);
+            }
+        });
+    }
+
+    /**
+     * Adds up to the requested number of ciphers to the free list, without exceeding the
+     * pool's capacity. Ciphers are generated outside of the lock, and growth stops once the
+     * pool has been expired since it was requested.
+     */
+    private void grow(int count, int growthGeneration) {
+        for (int i = 0; i < count && poolSize.get() < MAX_POOLED_CIPHERS; ++i) {
+            if (growthGeneration != getGeneration()) {
+                return;
+            }
+            Cipher cipher = generateNewCipher();
+            if (cipher == null) {
+                return;
+            }
+            synchronized (this) {
+                if (growthGeneration != generation || !reserveSlot()) {
+                    return;
+                }
+                free.offer(cipher);
+                freeCount.incrementAndGet();
+            }
+        }
     }
 
-    private synchronized void grow() {
-        for (int i = 0; i < GROWTH_FACTOR; ++i) {
-            free.push(generateNewCipher());
+    private synchronized int getGeneration() {
+        return generation;
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int size = poolSize.get();
+            if (size >= MAX_POOLED_CIPHERS) {
+                return false;
+            }
+            if (poolSize.compareAndSet(size, size + 1)) {
+                return true;
+            }
         }
     }
 
     protected abstract Cipher generateNewCipher();
 
-    public synchronized final void expire() {
+    public final synchronized void expire() {
         //do we want to try to destroy the final object here?
+        generation++;
         issued.clear();
         free.clear();
+        freeCount.set(0);
+        poolSize.set(0);
+    }
+
+    /**
+     * @return Number of ciphers currently owned by the pool, both issued and free
+     */
+    public int getPoolSize() {
+        return poolSize.get();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return Fraction of borrows which found no free cipher and had to generate one
+     */
+    public double getMissRate() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : missCount.get() / (double)borrows;
+    }
+
+    public long getAverageBorrowLatencyNanos() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : totalBorrowNanos.get() / borrows;
+    }
+
+    @Override
+    public String toString() {
+        return "CipherPool[size=" + getPoolSize() + ", borrows=" + getBorrowCount() +
+                ", missRate=" + getMissRate() +
+                ", avgBorrowNanos=" + getAverageBorrowLatencyNanos() + "]";
     }
 }
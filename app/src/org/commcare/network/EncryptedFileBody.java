@@ -1,5 +1,6 @@
 package org.commcare.network;
 
+import org.commcare.models.encryption.CipherPool;
 import org.javarosa.core.io.StreamsUtil;
 import org.javarosa.core.io.StreamsUtil.InputIOException;
 import org.javarosa.core.io.StreamsUtil.OutputIOException;
@@ -7,6 +8,8 @@ import org.javarosa.core.io.StreamsUtil.OutputIOException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
 
 import javax.annotation.Nullable;
 import javax.crypto.Cipher;
@@ -17,31 +20,93 @@ import okhttp3.RequestBody;
 import okio.BufferedSink;
 
 /**
+ * Request body that streams the decrypted contents of an encrypted file.
+ *
+ * Ciphers are borrowed from a pool for each write rather than held by the body, so the same
+ * body can be written again when a submission is retried.
+ *
  * @author ctsims
  */
 public class EncryptedFileBody extends RequestBody {
+    private static final long LENGTH_NOT_COMPUTED = -2;
+
     private final File file;
-    private final Cipher cipher;
+    private final CipherPool ciphers;
     private final MediaType contentType;
+    private long contentLength = LENGTH_NOT_COMPUTED;
 
-    public EncryptedFileBody(MediaType contentType, File file, Cipher cipher) {
+    public EncryptedFileBody(MediaType contentType, File file, CipherPool ciphers) {
         this.contentType = contentType;
         this.file = file;
-        this.cipher = cipher;
+        this.ciphers = ciphers;
     }
 
+    /**
+     * @return Length of the decrypted file, or -1 if it can't be determined without decrypting
+     * the whole file, in which case the body is sent chunked
+     */
     @Override
-    public long contentLength() {
-        return -1;
+    public synchronized long contentLength() {
+        if (contentLength == LENGTH_NOT_COMPUTED) {
+            Cipher cipher = ciphers.borrow();
+            try {
+                contentLength = computeDecryptedLength(file, cipher);
+                ciphers.remit(cipher);
+            } catch (GeneralSecurityException e) {
+                // a failed doFinal may not have reset the cipher
+                contentLength = -1;
+                ciphers.discard(cipher);
+            }
+        }
+        return contentLength;
+    }
+
+    /**
+     * In ECB mode every block decrypts independently, so the decrypted length is the encrypted
+     * length minus the padding, which only the final block needs to be decrypted to find.
+     */
+    private static long computeDecryptedLength(File file, Cipher cipher)
+            throws GeneralSecurityException {
+        if (cipher == null || !isEcbMode(cipher)) {
+            return -1;
+        }
+        int blockSize = cipher.getBlockSize();
+        long encryptedLength = file.length();
+        if (blockSize <= 0 || encryptedLength == 0 || encryptedLength % blockSize != 0) {
+            return -1;
+        }
+        byte[] finalBlock = new byte[blockSize];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(encryptedLength - blockSize);
+            raf.readFully(finalBlock);
+            return encryptedLength - blockSize + cipher.doFinal(finalBlock).length;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isEcbMode(Cipher cipher) {
+        // Providers default a bare "AES" transformation to ECB with PKCS5 padding
+        String algorithm = cipher.getAlgorithm();
+        return "AES".equalsIgnoreCase(algorithm) || algorithm.toUpperCase().contains("/ECB/");
     }
 
     @Override
     public void writeTo(BufferedSink sink) throws IOException {
         //The only time this can cause issues is if the body has disappeared since construction. Don't worry about that, since
         //it'll get caught when we initialize.
-        CipherInputStream cis = new CipherInputStream(new FileInputStream(file), cipher);
+        Cipher cipher = ciphers.borrow();
+        CipherInputStream cis;
+        try {
+            cis = new CipherInputStream(new FileInputStream(file), cipher);
+        } catch (IOException e) {
+            ciphers.remit(cipher);
+            throw e;
+        }
+        boolean finished = false;
         try {
             StreamsUtil.writeFromInputToOutputUnmanaged(cis, sink.outputStream());
+            finished = true;
         } catch (InputIOException iioe) {
             //Here we want to retain the fundamental problem of the _input_ being responsible for the issue
             //so we can differentiate between bad reads and bad network
@@ -50,7 +115,17 @@ public class EncryptedFileBody extends RequestBody {
             //We want the original exception here.
             throw oe.getWrapped();
         } finally {
-            cis.close();
+            try {
+                cis.close();
+            } finally {
+                if (finished) {
+                    // reading to the end finalized the cipher, leaving it ready for reuse
+                    ciphers.remit(cipher);
+                } else {
+                    // an abandoned read can leave the cipher part way through a block
+                    ciphers.discard(cipher);
+                }
+            }
         }
     }
 
@@ -0,0 +1,175 @@
+package org.commcare.network;
+
+import org.javarosa.core.io.StreamsUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Input stream which downloads its source on a background thread into a bounded ring buffer,
+ * so that a consumer (IE: the restore parser) can process the beginning of a response while
+ * the rest of it is still coming in over the network.
+ *
+ * The download thread blocks whenever the buffer is full, so memory use is capped at the
+ * buffer size no matter how large the response is. Errors hit while downloading are rethrown
+ * to the reader once it has consumed everything read before the error.
+ */
+public class PipelinedDownloadStream extends InputStream {
+
+    private static final int DEFAULT_BUFFER_SIZE = 512 * 1024;
+    private static final int DOWNLOAD_CHUNK_SIZE = 8 * 1024;
+
+    private final InputStream source;
+    private final StreamsUtil.StreamReadObserver observer;
+    private final Thread downloadThread;
+    private Runnable completionCallback;
+
+    private final byte[] buffer;
+    private int readPosition = 0;
+    private int bufferedCount = 0;
+
+    private boolean downloadComplete = false;
+    private IOException downloadError;
+    private boolean closed = false;
+
+    public PipelinedDownloadStream(InputStream source, StreamsUtil.StreamReadObserver observer) {
+        this(source, observer, DEFAULT_BUFFER_SIZE);
+    }
+
+    public PipelinedDownloadStream(InputStream source, StreamsUtil.StreamReadObserver observer,
+                                   int bufferSize) {
+        this.source = source;
+        this.observer = observer;
+        this.buffer = new byte[bufferSize];
+        this.downloadThread = new Thread(this::download, "pipelined-restore-download");
+    }
+
+    /**
+     * @param callback Run on the download thread once the whole response has been read into
+     *                 the buffer, which can be well before the reader gets to the end of it.
+     *                 Not run if the download fails or the stream is closed first.
+     */
+    public PipelinedDownloadStream whenDownloadComplete(Runnable callback) {
+        this.completionCallback = callback;
+        return this;
+    }
+
+    public PipelinedDownloadStream start() {
+        downloadThread.start();
+        return this;
+    }
+
+    private void download() {
+        byte[] chunk = new byte[DOWNLOAD_CHUNK_SIZE];
+        long totalRead = 0;
+        IOException error = null;
+        try {
+            int read;
+            while ((read = source.read(chunk)) != -1) {
+                writeToBuffer(chunk, read);
+                totalRead += read;
+                if (observer != null) {
+                    observer.notifyCurrentCount(totalRead);
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException("Restore download interrupted");
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                // nothing left to read from it anyway
+            }
+            finishDownload(error);
+        }
+        if (error == null && completionCallback != null) {
+            completionCallback.run();
+        }
+    }
+
+    private synchronized void writeToBuffer(byte[] chunk, int length)
+            throws IOException, InterruptedException {
+        int offset = 0;
+        while (offset < length) {
+            while (bufferedCount == buffer.length && !closed) {
+                wait();
+            }
+            if (closed) {
+                throw new IOException("Restore stream was closed by the reader");
+            }
+            int writePosition = (readPosition + bufferedCount) % buffer.length;
+            int toCopy = Math.min(length - offset,
+                    Math.min(buffer.length - bufferedCount, buffer.length - writePosition));
+            System.arraycopy(chunk, offset, buffer, writePosition, toCopy);
+            bufferedCount += toCopy;
+            offset += toCopy;
+            notifyAll();
+        }
+    }
+
+    private synchronized void finishDownload(IOException error) {
+        downloadComplete = true;
+        downloadError = error;
+        notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (bufferedCount == 0) {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (downloadComplete) {
+                if (downloadError != null) {
+                    throw downloadError;
+                }
+                return -1;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting on restore download");
+            }
+        }
+        int toCopy = Math.min(len, Math.min(bufferedCount, buffer.length - readPosition));
+        System.arraycopy(buffer, readPosition, b, off, toCopy);
+        readPosition = (readPosition + toCopy) % buffer.length;
+        bufferedCount -= toCopy;
+        notifyAll();
+        return toCopy;
+    }
+
+    @Override
+    public synchronized int available() {
+        return bufferedCount;
+    }
+
+    /**
+     * Stops the download if it is still in progress and discards anything buffered
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        downloadThread.interrupt();
+    }
+}
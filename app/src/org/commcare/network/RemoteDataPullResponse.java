@@ -62,43 +62,7 @@ public class RemoteDataPullResponse {
 
             Log.i("commcare-network", "Starting network read, expected content size: " + dataSizeGuess + "b");
             StreamsUtil.writeFromInputToOutputNew(new BufferedInputStream(input),
-                    cacheOut,
-                    new StreamsUtil.StreamReadObserver() {
-                        long lastOutput = 0;
-
-                        /** The notification threshold. **/
-                        static final int PERCENT_INCREASE_THRESHOLD = 4;
-
-                        @Override
-                        public void notifyCurrentCount(long bytesRead) {
-                            boolean notify;
-
-                            //We always wanna notify when we get our first bytes
-                            if (lastOutput == 0) {
-                                Log.i("commcare-network", "First" + bytesRead + " bytes received from network: ");
-                            }
-                            //After, if we don't know how much data to expect, we can't do
-                            //anything useful
-                            if (dataSizeGuess == -1) {
-                                //set this so the first notification up there doesn't keep firing
-                                lastOutput = bytesRead;
-                                return;
-                            }
-
-                            int percentIncrease = (int)(((bytesRead - lastOutput) * 100) / dataSizeGuess);
-
-                            //Now see if we're over the reporting threshold
-                            //TODO: Is this actually necessary? In theory this shouldn't
-                            //matter due to android task polling magic?
-                            notify = percentIncrease > PERCENT_INCREASE_THRESHOLD;
-
-                            if (notify && task != null) {
-                                lastOutput = bytesRead;
-                                int totalRead = (int)(((bytesRead) * 100) / dataSizeGuess);
-                                task.reportDownloadProgress(totalRead);
-                            }
-                        }
-                    });
+                    cacheOut, getProgressObserver(dataSizeGuess));
 
             return cache;
 
@@ -110,6 +74,64 @@ public class RemoteDataPullResponse {
         }
     }
 
+    /**
+     * Opens the response stream for parsing while it is still being downloaded. The response
+     * is read into a bounded buffer on a background thread, so unlike writeResponseToCache the
+     * full payload is never held locally; a download failure surfaces as an IOException from
+     * the returned stream's reads. The task is told when the download finishes, which happens
+     * while the parse is still running.
+     */
+    public InputStream openPipelinedStream() throws IOException {
+        final long dataSizeGuess = ModernHttpRequester.getContentLength(response);
+        Log.i("commcare-network", "Starting pipelined network read, expected content size: " + dataSizeGuess + "b");
+        return new PipelinedDownloadStream(getInputStream(), getProgressObserver(dataSizeGuess))
+                .whenDownloadComplete(() -> {
+                    if (task != null) {
+                        task.reportDownloadComplete();
+                    }
+                })
+                .start();
+    }
+
+    private StreamsUtil.StreamReadObserver getProgressObserver(final long dataSizeGuess) {
+        return new StreamsUtil.StreamReadObserver() {
+            long lastOutput = 0;
+
+            /** The notification threshold. **/
+            static final int PERCENT_INCREASE_THRESHOLD = 4;
+
+            @Override
+            public void notifyCurrentCount(long bytesRead) {
+                boolean notify;
+
+                //We always wanna notify when we get our first bytes
+                if (lastOutput == 0) {
+                    Log.i("commcare-network", "First" + bytesRead + " bytes received from network: ");
+                }
+                //After, if we don't know how much data to expect, we can't do
+                //anything useful
+                if (dataSizeGuess == -1) {
+                    //set this so the first notification up there doesn't keep firing
+                    lastOutput = bytesRead;
+                    return;
+                }
+
+                int percentIncrease = (int)(((bytesRead - lastOutput) * 100) / dataSizeGuess);
+
+                //Now see if we're over the reporting threshold
+                //TODO: Is this actually necessary? In theory this shouldn't
+                //matter due to android task polling magic?
+                notify = percentIncrease > PERCENT_INCREASE_THRESHOLD;
+
+                if (notify && task != null) {
+                    lastOutput = bytesRead;
+                    int totalRead = (int)(((bytesRead) * 100) / dataSizeGuess);
+                    task.reportDownloadProgress(totalRead);
+                }
+            }
+        };
+    }
+
     protected InputStream getInputStream() throws IOException {
         return response.body().byteStream();
     }
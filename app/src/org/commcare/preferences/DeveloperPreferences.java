@@ -60,6 +60,11 @@ public class DeveloperPreferences extends CommCarePreferenceFragment {
     private final static String ENFORCE_SECURE_ENDPOINT = "cc-enforce-secure-endpoint";
     private final static String ALLOW_SPACE_IN_SELECT_CHOICES = "cc-allow-space-in-select-choices";
     private final static String USE_EXPRESSION_CACHING_IN_FORMS = "use-expression-caching-in-forms";
+    private final static String PIPELINED_RESTORE_ENABLED = "cc-pipelined-restore-enabled";
+    private final static String ENTITY_LIST_STREAMING_ENABLED = "cc-entity-list-streaming-enabled";
+    private final static String PARALLEL_ENTITY_LOADING_ENABLED = "cc-parallel-entity-loading-enabled";
+    private final static String BUFFERED_LOGGING_ENABLED = "cc-buffered-logging-enabled";
+    private final static String USER_DB_WAL_ENABLED = "cc-user-db-wal-enabled";
 
     public final static String PROJECT_SET_ACCESS_CODE = "cc-dev-prefs-access-code";
     public final static String USER_ENTERED_ACCESS_CODE = "cc-dev-prefs-user-entered-code";
@@ -392,6 +397,42 @@ public class DeveloperPreferences extends CommCarePreferenceFragment {
         return doesPropertyMatch(ENABLE_BULK_PERFORMANCE, PrefValues.NO, PrefValues.YES);
     }
 
+    /**
+     * Feature flag to parse restore payloads while they are still being downloaded, rather
+     * than caching the full payload before parsing starts
+     */
+    public static boolean isPipelinedRestoreEnabled() {
+        return doesPropertyMatch(PIPELINED_RESTORE_ENABLED, PrefValues.NO, PrefValues.YES);
+    }
+
+    /**
+     * Feature flag to show the first page of a case list while the rest of it is still loading
+     */
+    public static boolean isEntityListStreamingEnabled() {
+        return doesPropertyMatch(ENTITY_LIST_STREAMING_ENABLED, PrefValues.NO, PrefValues.YES);
+    }
+
+    /**
+     * Feature flag to build case list entities on several worker threads
+     */
+    public static boolean isParallelEntityLoadingEnabled() {
+        return doesPropertyMatch(PARALLEL_ENTITY_LOADING_ENABLED, PrefValues.NO, PrefValues.YES);
+    }
+
+    /**
+     * Feature flag to write log entries in batches on a background thread
+     */
+    public static boolean isBufferedLoggingEnabled() {
+        return doesPropertyMatch(BUFFERED_LOGGING_ENABLED, PrefValues.NO, PrefValues.YES);
+    }
+
+    /**
+     * Feature flag to open the user database in write-ahead logging mode with a reader connection
+     */
+    public static boolean isUserDbWalEnabled() {
+        return doesPropertyMatch(USER_DB_WAL_ENABLED, PrefValues.NO, PrefValues.YES);
+    }
+
     public static boolean shouldShowUpdateOptionsSetting() {
         return doesPropertyMatch(SHOW_UPDATE_OPTIONS_SETTING, PrefValues.NO,
                 PrefValues.YES) || BuildConfig.DEBUG;
@@ -44,7 +44,10 @@ class CaseDataAPI {
      * Can be queried for an individual case (NOTE: by case ID not by content provider ID)
      * or for all cases.
      *
-     * Projections and Filtering are unsupported for this type
+     * Projections are supported, and filtering is supported as an AND of equality checks on
+     * the case id, type, status and owner id. Results can be paged with the limit and offset
+     * query parameters. Queries which only project id, case id, type, status and owner id
+     * are answered straight from the case table's indexes.
      *
      * @author ctsims
      */
@@ -64,6 +67,8 @@ class CaseDataAPI {
         public static final String DATE_OPENED = "date_opened";
         public static final String LAST_MODIFIED = "last_modified";
 
+        public static final String QUERY_LIMIT = "limit";
+        public static final String QUERY_OFFSET = "offset";
 
         public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/casedb/case");
 
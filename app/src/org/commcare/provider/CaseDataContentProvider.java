@@ -7,10 +7,14 @@ import android.database.MatrixCursor;
 import android.net.Uri;
 import androidx.annotation.NonNull;
 
+import net.sqlcipher.database.SQLiteDatabase;
+
 import org.commcare.CommCareApplication;
 import org.commcare.cases.model.Case;
 import org.commcare.models.database.SqlStorage;
 import org.commcare.android.database.user.models.ACase;
+import org.commcare.modern.database.DatabaseHelper;
+import org.commcare.modern.database.TableBuilder;
 import org.commcare.utils.SessionUnavailableException;
 import org.javarosa.core.reference.InvalidReferenceException;
 import org.javarosa.core.reference.ReferenceManager;
@@ -38,11 +42,20 @@ import java.util.Vector;
  */
 public class CaseDataContentProvider extends ContentProvider {
     
-    //Valid sql selectors
+    private static final String[] DEFAULT_CASE_PROJECTION = new String[] {CaseDataAPI.MetadataColumns._ID,
+                                                                           CaseDataAPI.MetadataColumns.CASE_ID,
+                                                                           CaseDataAPI.MetadataColumns.CASE_NAME,
+                                                                           CaseDataAPI.MetadataColumns.CASE_TYPE,
+                                                                           CaseDataAPI.MetadataColumns.DATE_OPENED,
+                                                                           CaseDataAPI.MetadataColumns.LAST_MODIFIED,
+                                                                           CaseDataAPI.MetadataColumns.OWNER_ID,
+                                                                           CaseDataAPI.MetadataColumns.STATUS};
+
+    //Valid sql selectors, keyed by their lower case name since selections are matched case insensitively
     private final HashMap<String, String> caseMetaIndexTable = new HashMap<>();
-    
-    
-    //TODO: Caching - Use a cache table here or use an LRU or other system provided cache?
+
+    //Metadata columns which can be read straight out of a column of the case table
+    private final HashMap<String, String> indexedCaseColumns = new HashMap<>();
     
     @Override
     public String getType(@NonNull Uri uri) {
@@ -70,7 +83,13 @@ public class CaseDataContentProvider extends ContentProvider {
         caseMetaIndexTable.put(CaseDataAPI.MetadataColumns.CASE_ID, Case.INDEX_CASE_ID);
         caseMetaIndexTable.put(CaseDataAPI.MetadataColumns.CASE_TYPE, Case.INDEX_CASE_TYPE);
         caseMetaIndexTable.put(CaseDataAPI.MetadataColumns.STATUS, Case.INDEX_CASE_STATUS);
-        caseMetaIndexTable.put(CaseDataAPI.MetadataColumns.OWNER_ID, Case.INDEX_OWNER_ID);
+        caseMetaIndexTable.put(CaseDataAPI.MetadataColumns.OWNER_ID.toLowerCase(), Case.INDEX_OWNER_ID);
+
+        indexedCaseColumns.put(CaseDataAPI.MetadataColumns._ID, DatabaseHelper.ID_COL);
+        indexedCaseColumns.put(CaseDataAPI.MetadataColumns.CASE_ID, TableBuilder.scrubName(Case.INDEX_CASE_ID));
+        indexedCaseColumns.put(CaseDataAPI.MetadataColumns.CASE_TYPE, TableBuilder.scrubName(Case.INDEX_CASE_TYPE));
+        indexedCaseColumns.put(CaseDataAPI.MetadataColumns.STATUS, TableBuilder.scrubName(Case.INDEX_CASE_STATUS));
+        indexedCaseColumns.put(CaseDataAPI.MetadataColumns.OWNER_ID, TableBuilder.scrubName(Case.INDEX_OWNER_ID));
         return true;
     }
 
@@ -91,7 +110,7 @@ public class CaseDataContentProvider extends ContentProvider {
         switch(match) {
         case CaseDataAPI.MetadataColumns.MATCH_CASES:
         case CaseDataAPI.MetadataColumns.MATCH_CASE:
-            return queryCaseList(uri, selection, selectionArgs);
+            return queryCaseList(uri, projection, selection, selectionArgs);
         case CaseDataAPI.DataColumns.MATCH_DATA:
             return queryCaseData(uri.getLastPathSegment());
         case CaseDataAPI.AttachmentColumns.MATCH_ATTACHMENTS:
@@ -107,94 +126,173 @@ public class CaseDataContentProvider extends ContentProvider {
 
 
     //this is the complex case. Querying the full case database for metadata.
-    private Cursor queryCaseList(Uri uri, String selection, String[] selectionArgs) {
+    private Cursor queryCaseList(Uri uri, String[] projection, String selection, String[] selectionArgs) {
+        String[] columns = projection == null ? DEFAULT_CASE_PROJECTION : projection;
+
+        //Only name and dates need the case model itself, everything else is in an indexed column
+        boolean needsRecord = false;
+        for (String column : columns) {
+            if (!indexedCaseColumns.containsKey(column)) {
+                if (!isCaseMetadataColumn(column)) {
+                    throw new IllegalArgumentException("Invalid column for case metadata: " + column);
+                }
+                needsRecord = true;
+            }
+        }
 
-        //Not cached yet. Long term this should be a priority.
-        SqlStorage<ACase> storage = CommCareApplication.instance().getUserStorage(ACase.STORAGE_KEY, ACase.class);
-        
-        //What we'd really like to do here is raw DB queries, but sadly it looks like we don't actually index 
-        //enough of the right fields for that, so we're going to deserialize the models. We'll consider 
-        //revising this API
-        
-        MatrixCursor retCursor = new MatrixCursor(new String[] {CaseDataAPI.MetadataColumns._ID,
-                                                                CaseDataAPI.MetadataColumns.CASE_ID, 
-                                                                CaseDataAPI.MetadataColumns.CASE_NAME,
-                                                                CaseDataAPI.MetadataColumns.CASE_TYPE,
-                                                                CaseDataAPI.MetadataColumns.DATE_OPENED,
-                                                                CaseDataAPI.MetadataColumns.LAST_MODIFIED,
-                                                                CaseDataAPI.MetadataColumns.OWNER_ID,
-                                                                CaseDataAPI.MetadataColumns.STATUS});
-        
         //Allow for some selection processing, basically very simple AND filtering on indexes
-        
         Vector<String> keys = new Vector<>();
         Vector<String> values = new Vector<>();
+        parseSelection(selection, selectionArgs, keys, values);
 
-        //If we don't have any selection args, skip all of this
-        if(selection != null) {
-            int currentArgVal = 0;
-            String[] selections = selection.toLowerCase().split("\\sand\\s");
-            for(String individualSelection : selections) {
-                String[] parts = individualSelection.split("=");
-                
-                if(parts.length != 2) { throw new RuntimeException("Malformed content provider selection string component: " + individualSelection); }
-                String key = parts[0].trim();
-                if(!caseMetaIndexTable.containsKey(key)) {
-                    throw new RuntimeException("Invalid selection key for case metadata: " + key);
-                }
-                
-                String indexName = caseMetaIndexTable.get(key);
-                
-                //remove any quotation marks and trim
-                String value = parts[1].replace("\"","").replace("'", "").trim();
-                
-
-                //replace all "?"'s with arguments
-                while(value.contains("?")) {
-                    if(currentArgVal >= selectionArgs.length) { throw new RuntimeException("Selection string missing required arguments" + selection); }
-                    value = value.substring(0, value.indexOf("?")) + selectionArgs[currentArgVal] + value.substring(value.indexOf("?") + 1);
-                    currentArgVal++;
-                }
-                
-                keys.add(indexName);
-                values.add(value);
+        //If we're matching a specific case (or trying to), add that as well
+        if (CaseDataAPI.UriMatch(uri) != CaseDataAPI.MetadataColumns.MATCH_CASES) {
+            keys.add(ACase.INDEX_CASE_ID);
+            values.add(uri.getLastPathSegment());
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        String separator = "";
+        for (String column : columns) {
+            if (indexedCaseColumns.containsKey(column)) {
+                sql.append(separator).append(indexedCaseColumns.get(column)).append(" AS ").append(column);
+                separator = ", ";
             }
-        
-            //If we're matching a specific case (or trying to), add that as well)
-            if(CaseDataAPI.UriMatch(uri) != CaseDataAPI.MetadataColumns.MATCH_CASES)  {
-                keys.add(ACase.INDEX_CASE_ID);
-                values.add(uri.getLastPathSegment());
+        }
+        if (needsRecord) {
+            sql.append(separator).append(DatabaseHelper.ID_COL).append(", ").append(DatabaseHelper.DATA_COL);
+        }
+        sql.append(" FROM ").append(ACase.STORAGE_KEY);
+
+        Vector<String> args = new Vector<>();
+        for (int i = 0; i < keys.size(); i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ").append(TableBuilder.scrubName(keys.get(i))).append(" = ?");
+            args.add(values.get(i));
+        }
+        sql.append(" ORDER BY ").append(DatabaseHelper.ID_COL);
+        appendPaging(uri, sql, args);
+
+        SQLiteDatabase db = CommCareApplication.instance().getUserDbReadHandle();
+        Cursor cursor = db.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+        if (!needsRecord) {
+            return cursor;
+        }
+
+        //Fill in the remaining columns from the case models, one at a time so as to not overload
+        //our working memory
+        SqlStorage<ACase> storage = CommCareApplication.instance().getUserReadOnlyStorage(ACase.STORAGE_KEY, ACase.class);
+        MatrixCursor retCursor = new MatrixCursor(columns);
+        try {
+            int idIndex = cursor.getColumnIndexOrThrow(DatabaseHelper.ID_COL);
+            int dataIndex = cursor.getColumnIndexOrThrow(DatabaseHelper.DATA_COL);
+            while (cursor.moveToNext()) {
+                Case c = storage.newObject(cursor.getBlob(dataIndex), cursor.getInt(idIndex));
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    row[i] = getCaseColumnValue(c, columns[i]);
+                }
+                retCursor.addRow(row);
             }
-            
-            //Do the db records fetch (one at a time, so as to not overload our working memory)
-            Vector<Integer> recordIds = storage.getIDsForValues(keys.toArray(new String[keys.size()]), values.toArray(new String[values.size()]));
-            for(int i : recordIds) {
-                Case c = storage.read(i);
-                retCursor.addRow(new Object[] {c.getID(), c.getCaseId(), c.getName(), c.getTypeId(), c.getDateOpened(), c.getLastModified(), c.getUserId(), c.isClosed() ? "closed" : "open"});
+        } finally {
+            cursor.close();
+        }
+        return retCursor;
+    }
+
+    private static boolean isCaseMetadataColumn(String column) {
+        for (String caseColumn : DEFAULT_CASE_PROJECTION) {
+            if (caseColumn.equals(column)) {
+                return true;
             }
-            return retCursor;
-            
         }
-        
-        //Otherwise we either need to iterate over all cases, or just get back the one (these are actually both generalizations of the above
-        //that should get centralized)
+        return false;
+    }
+
+    private static Object getCaseColumnValue(Case c, String column) {
+        switch (column) {
+            case CaseDataAPI.MetadataColumns._ID:
+                return c.getID();
+            case CaseDataAPI.MetadataColumns.CASE_ID:
+                return c.getCaseId();
+            case CaseDataAPI.MetadataColumns.CASE_NAME:
+                return c.getName();
+            case CaseDataAPI.MetadataColumns.CASE_TYPE:
+                return c.getTypeId();
+            case CaseDataAPI.MetadataColumns.DATE_OPENED:
+                return c.getDateOpened();
+            case CaseDataAPI.MetadataColumns.LAST_MODIFIED:
+                return c.getLastModified();
+            case CaseDataAPI.MetadataColumns.OWNER_ID:
+                return c.getUserId();
+            default:
+                return c.isClosed() ? "closed" : "open";
+        }
+    }
 
-        //No Case
-        if(CaseDataAPI.UriMatch(uri) == CaseDataAPI.MetadataColumns.MATCH_CASES)  {
-            for(Case c: storage) {
-                retCursor.addRow(new Object[] {c.getID(), c.getCaseId(), c.getName(), c.getTypeId(), c.getDateOpened(), c.getLastModified(), c.getUserId(), c.isClosed() ? "closed" : "open"});
+    /**
+     * Splits a selection of the form "key = value and key = ?" into the case metadata
+     * indexes and the values to match them against
+     */
+    private void parseSelection(String selection, String[] selectionArgs,
+                                Vector<String> keys, Vector<String> values) {
+        //If we don't have any selection args, skip all of this
+        if (selection == null) {
+            return;
+        }
+        int currentArgVal = 0;
+        String[] selections = selection.toLowerCase().split("\\sand\\s");
+        for (String individualSelection : selections) {
+            String[] parts = individualSelection.split("=");
+
+            if (parts.length != 2) {
+                throw new RuntimeException("Malformed content provider selection string component: " + individualSelection);
             }
-        } else {
-            //Case defined.
-            try {
-                Case c = storage.getRecordForValue(ACase.INDEX_CASE_ID, uri.getLastPathSegment());
-                retCursor.addRow(new Object[] {c.getID(), c.getCaseId(), c.getName(), c.getTypeId(), c.getDateOpened(), c.getLastModified(), c.getUserId(), c.isClosed() ? "closed" : "open"});
-            } catch(NoSuchElementException nsee) {
-                //No cases with a matching index.
-                return retCursor;
+            String key = parts[0].trim();
+            if (!caseMetaIndexTable.containsKey(key)) {
+                throw new RuntimeException("Invalid selection key for case metadata: " + key);
             }
+
+            String indexName = caseMetaIndexTable.get(key);
+
+            //remove any quotation marks and trim
+            String value = parts[1].replace("\"", "").replace("'", "").trim();
+
+            //replace all "?"'s with arguments
+            while (value.contains("?")) {
+                if (selectionArgs == null || currentArgVal >= selectionArgs.length) {
+                    throw new RuntimeException("Selection string missing required arguments" + selection);
+                }
+                value = value.substring(0, value.indexOf("?")) + selectionArgs[currentArgVal] + value.substring(value.indexOf("?") + 1);
+                currentArgVal++;
+            }
+
+            keys.add(indexName);
+            values.add(value);
         }
-        return retCursor;
+    }
+
+    private static void appendPaging(Uri uri, StringBuilder sql, Vector<String> args) {
+        String limit = uri.getQueryParameter(CaseDataAPI.MetadataColumns.QUERY_LIMIT);
+        String offset = uri.getQueryParameter(CaseDataAPI.MetadataColumns.QUERY_OFFSET);
+        if (limit == null && offset == null) {
+            return;
+        }
+        //sqlite needs a limit to apply an offset, and treats a negative one as no limit
+        sql.append(" LIMIT ? OFFSET ?");
+        args.add(String.valueOf(limit == null ? -1 : parsePagingParameter(limit)));
+        args.add(String.valueOf(offset == null ? 0 : parsePagingParameter(offset)));
+    }
+
+    private static int parsePagingParameter(String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the error below
+        }
+        throw new IllegalArgumentException("Invalid paging parameter for case metadata: " + value);
     }
 
     /**
@@ -39,7 +39,9 @@ public class FixtureDataAPI {
      * Can be queried for an individual case (NOTE: by case ID not by content provider ID)
      * or for all cases.
      *
-     * Projections and Filtering are unsupported for this type
+     * Projections and Filtering are unsupported for this type. The content column is only
+     * filled in for small fixtures, the full serialized fixture for an instance id can always
+     * be read by opening an input stream on its uri.
      *
      * @author ctsims
      */
@@ -48,7 +50,7 @@ public class FixtureDataAPI {
         private MetadataColumns() {
         }
 
-        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/fixture_db");
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/fixturedb");
 
         public static final int MATCH_ID = 1;
         public static final int MATCH_INSTANCE_ID = 2;
@@ -56,5 +58,8 @@ public class FixtureDataAPI {
 
         public static final String FIXTURE_ID = "instance_id";
         public static final String USER_ID = "user_id";
+        public static final String CONTENT = "content";
+
+        public static final String CONTENT_TYPE_XML = "text/xml";
     }
 }
@@ -5,17 +5,25 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import androidx.annotation.NonNull;
 
 import org.commcare.CommCareApplication;
+import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.SqlStorageIterator;
 import org.commcare.utils.AndroidInstanceInitializer;
 import org.javarosa.core.model.instance.FormInstance;
-import org.javarosa.core.services.storage.IStorageIterator;
 import org.javarosa.core.services.storage.IStorageUtilityIndexed;
 import org.javarosa.model.xform.DataModelSerializer;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Vector;
 
 /**
  * The fixture content provider defines the interface for external applications
@@ -34,6 +42,11 @@ import java.io.IOException;
  */
 public class FixtureDataContentProvider extends ContentProvider {
 
+    private static final String FIXTURE_STORAGE = "fixture";
+
+    // Keeps fixture content returned in a cursor well clear of the binder transaction limit
+    private static final int MAX_INLINE_CONTENT_BYTES = 256 * 1024;
+
     @Override
     public boolean onCreate() {
         return true;
@@ -70,54 +83,129 @@ public class FixtureDataContentProvider extends ContentProvider {
     }
 
     /**
-     * Return a cursor over the list of all fixture IDs and names
+     * Return a cursor over the list of all fixture IDs and names, read from the instance id
+     * index without deserializing any of the fixtures
      */
     private Cursor getFixtureNames() {
         MatrixCursor retCursor = new MatrixCursor(new String[]{FixtureDataAPI.MetadataColumns._ID, FixtureDataAPI.MetadataColumns.FIXTURE_ID});
 
-        IStorageUtilityIndexed<FormInstance> userFixtureStorage = CommCareApplication.instance().getUserStorage("fixture", FormInstance.class);
+        SqlStorage<FormInstance> userFixtureStorage = CommCareApplication.instance().getUserStorage(FIXTURE_STORAGE, FormInstance.class);
 
-        for (IStorageIterator<FormInstance> userFixtures = userFixtureStorage.iterate(); userFixtures.hasMore(); ) {
-            FormInstance fi = userFixtures.nextRecord();
-            String instanceId = fi.getInstanceId();
-            retCursor.addRow(new Object[]{fi.getID(), instanceId});
+        SqlStorageIterator<FormInstance> userFixtures =
+                userFixtureStorage.iterate(false, new String[]{FormInstance.META_ID});
+        try {
+            while (userFixtures.hasMore()) {
+                String instanceId = userFixtures.peekIncludedMetadata(FormInstance.META_ID);
+                retCursor.addRow(new Object[]{userFixtures.nextID(), instanceId});
+            }
+        } finally {
+            userFixtures.close();
         }
 
         return retCursor;
     }
 
     /**
-     * Return a cursor to the fixture associated with this id
+     * Return a cursor to the fixtures associated with this id. The serialized fixture is only
+     * included if it fits in MAX_INLINE_CONTENT_BYTES, larger fixtures have to be read through
+     * openFile.
      */
     private Cursor getFixtureForId(String instanceId) {
-        MatrixCursor retCursor = new MatrixCursor(new String[]{FixtureDataAPI.MetadataColumns._ID, FixtureDataAPI.MetadataColumns.FIXTURE_ID, "content"});
-
-        IStorageUtilityIndexed<FormInstance> userFixtureStorage = CommCareApplication.instance().getUserStorage("fixture", FormInstance.class);
+        MatrixCursor retCursor = new MatrixCursor(new String[]{FixtureDataAPI.MetadataColumns._ID, FixtureDataAPI.MetadataColumns.FIXTURE_ID, FixtureDataAPI.MetadataColumns.CONTENT});
 
-        for (IStorageIterator<FormInstance> userFixtures = userFixtureStorage.iterate(); userFixtures.hasMore(); ) {
+        IStorageUtilityIndexed<FormInstance> userFixtureStorage = CommCareApplication.instance().getFileBackedUserStorage(FIXTURE_STORAGE, FormInstance.class);
 
+        for (int id : userFixtureStorage.getIDsForValue(FormInstance.META_ID, instanceId)) {
+            FormInstance fi = userFixtureStorage.read(id);
+            String dump = null;
             try {
-                FormInstance fi = userFixtures.nextRecord();
+                BoundedByteArrayOutputStream bos = new BoundedByteArrayOutputStream(MAX_INLINE_CONTENT_BYTES);
+                serializeFixture(fi, bos);
+                dump = new String(bos.toByteArray());
+            } catch (ContentTooLargeException e) {
+                // leave the content out, the caller has to stream it
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            retCursor.addRow(new Object[]{fi.getID(), fi.getInstanceId(), dump});
+        }
+
+        return retCursor;
+    }
+
+    /**
+     * Streams the serialized fixture for the instance id in the uri through a pipe, so that
+     * fixtures of any size can be read without holding them in memory or in a cursor window.
+     * If several fixtures share the instance id, the first one stored is returned.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (FixtureDataAPI.UriMatch(uri) != FixtureDataAPI.MetadataColumns.MATCH_INSTANCE_ID) {
+            throw new FileNotFoundException("URI: " + uri.toString() + " is not a valid fixture path");
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Fixture content is read only");
+        }
+
+        IStorageUtilityIndexed<FormInstance> userFixtureStorage = CommCareApplication.instance().getFileBackedUserStorage(FIXTURE_STORAGE, FormInstance.class);
+        Vector<Integer> ids = userFixtureStorage.getIDsForValue(FormInstance.META_ID, uri.getLastPathSegment());
+        if (ids.isEmpty()) {
+            throw new FileNotFoundException("No fixture with id " + uri.getLastPathSegment());
+        }
+        FormInstance fixture = userFixtureStorage.read(Collections.min(ids));
+
+        return openPipeHelper(uri, FixtureDataAPI.MetadataColumns.CONTENT_TYPE_XML, null, fixture,
+                (output, pipeUri, mimeType, opts, fi) -> {
+                    try (FileOutputStream fos = new FileOutputStream(output.getFileDescriptor());
+                         BufferedOutputStream bos = new BufferedOutputStream(fos)) {
+                        serializeFixture(fi, bos);
+                    } catch (IOException e) {
+                        // the reader went away before the fixture was fully written
+                        e.printStackTrace();
+                    }
+                });
+    }
 
-                String currentInstanceId = fi.getInstanceId();
+    private static void serializeFixture(FormInstance fi, OutputStream output) throws IOException {
+        DataModelSerializer s = new DataModelSerializer(output, new AndroidInstanceInitializer(null));
+        s.serialize(fi, fi.getRoot().getRef());
+    }
+
+    private static class ContentTooLargeException extends IOException {
+    }
 
-                if (instanceId.equals(currentInstanceId)) {
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    /**
+     * Gives up on the write once more than the provided number of bytes has been written
+     */
+    private static class BoundedByteArrayOutputStream extends OutputStream {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final int maxBytes;
 
-                    DataModelSerializer s = new DataModelSerializer(bos, new AndroidInstanceInitializer(null));
+        BoundedByteArrayOutputStream(int maxBytes) {
+            this.maxBytes = maxBytes;
+        }
 
-                    s.serialize(fi, fi.getRoot().getRef());
+        @Override
+        public void write(int b) throws IOException {
+            checkCapacity(1);
+            buffer.write(b);
+        }
 
-                    String dump = new String(bos.toByteArray());
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            checkCapacity(len);
+            buffer.write(b, off, len);
+        }
 
-                    retCursor.addRow(new Object[]{fi.getID(), fi.getInstanceId(), dump});
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+        private void checkCapacity(int len) throws ContentTooLargeException {
+            if (buffer.size() + len > maxBytes) {
+                throw new ContentTooLargeException();
             }
         }
 
-        return retCursor;
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
     }
 
     /**
@@ -25,6 +25,10 @@ import org.commcare.core.encryption.CryptUtil;
 import org.commcare.dalvik.R;
 import org.commcare.heartbeat.HeartbeatLifecycleManager;
 import org.commcare.interfaces.FormSaveCallback;
+import org.commcare.logging.AndroidLogger;
+import org.commcare.models.database.DbProfile;
+import org.commcare.models.database.DbUtil;
+import org.commcare.models.database.SqlStorageStatementCache;
 import org.commcare.models.database.user.DatabaseUserOpenHelper;
 import org.commcare.models.database.user.UserSandboxUtils;
 import org.commcare.models.encryption.CipherPool;
@@ -96,6 +100,8 @@ public class CommCareSessionService extends Service {
     private int userKeyRecordID;
 
     private SQLiteDatabase userDatabase;
+    // read-only connection to the user database, only open when it uses write-ahead logging
+    private SQLiteDatabase userReadDatabase;
 
     // unique id for logged in notification
     private final static int NOTIFICATION = org.commcare.dalvik.R.string.notificationtitle;
@@ -279,6 +285,26 @@ public class CommCareSessionService extends Service {
         }
     }
 
+    /**
+     * @return A connection for reads which shouldn't wait on writes to the user database.
+     * Falls back to the writer connection when the database isn't in write-ahead logging mode.
+     */
+    public SQLiteDatabase getUserDbReadHandle() {
+        synchronized (lock) {
+            return userReadDatabase != null ? userReadDatabase : userDatabase;
+        }
+    }
+
+    private void closeUserReadDatabase() {
+        if (userReadDatabase != null) {
+            if (userReadDatabase.isOpen()) {
+                SqlStorageStatementCache.releaseStatementsForHandle(userReadDatabase);
+                userReadDatabase.close();
+            }
+            userReadDatabase = null;
+        }
+    }
+
     /**
      * (Re-)open user database
      */
@@ -287,12 +313,21 @@ public class CommCareSessionService extends Service {
             this.userKeyRecordUUID = record.getUuid();
             this.key = symetricKey;
             pool.init();
+            closeUserReadDatabase();
             if (userDatabase != null && userDatabase.isOpen()) {
+                AndroidLogger.haltBufferedLogging();
+                SqlStorageStatementCache.releaseStatementsForHandle(userDatabase);
                 userDatabase.close();
             }
 
-            userDatabase = new DatabaseUserOpenHelper(CommCareApplication.instance(), userKeyRecordUUID)
-                    .getWritableDatabase(UserSandboxUtils.getSqlCipherEncodedKey(key));
+            DbProfile profile = DbProfile.forUserDb();
+            String encodedKey = UserSandboxUtils.getSqlCipherEncodedKey(key);
+            userDatabase = new DatabaseUserOpenHelper(CommCareApplication.instance(), userKeyRecordUUID, profile)
+                    .getWritableDatabase(encodedKey);
+            if (profile.isWriteAheadLogging()) {
+                userReadDatabase = DbUtil.openReaderConnection(CommCareApplication.instance(),
+                        DatabaseUserOpenHelper.getDbName(userKeyRecordUUID), encodedKey, profile);
+            }
         }
     }
 
@@ -476,8 +511,11 @@ public class CommCareSessionService extends Service {
             key = null;
             user = null;
 
+            closeUserReadDatabase();
             if (userDatabase != null) {
                 if (userDatabase.isOpen()) {
+                    AndroidLogger.haltBufferedLogging();
+                    SqlStorageStatementCache.releaseStatementsForHandle(userDatabase);
                     userDatabase.close();
                 }
                 userDatabase = null;
@@ -306,33 +306,39 @@ public class FormSubmissionHelper implements DataSubmissionListener {
                         }
 
                         User user = CommCareApplication.instance().getSession().getLoggedInUser();
+                        // Built once so that retries don't re-read and re-measure the attachments
+                        FormUploadUtil.PreparedInstance preparedInstance = FormUploadUtil.prepareInstance(
+                                folder, new SecretKeySpec(record.getAesKey(), "AES"));
                         int attemptsMade = 0;
                         logSubmissionAttempt(record);
-                        while (attemptsMade < SUBMISSION_ATTEMPTS) {
-
-                            if (isCancelled()) {
-                                Logger.log(LogTypes.TYPE_USER, "Cancelling submission due to a manual stop. " + (i - 1) + " forms succesfully sent.");
-                                throw new TaskCancelledException();
-                            }
-
-                            mResults[i] = FormUploadUtil.sendInstance(i, folder,
-                                    new SecretKeySpec(record.getAesKey(), "AES"), mUrl, this, user);
-                            if (mResults[i] == FormUploadResult.FULL_SUCCESS) {
-                                logSubmissionSuccess(record);
-                                break;
-                            } else if (mResults[i] == FormUploadResult.PROCESSING_FAILURE) {
-                                // A processing failure indicates that there there is no point in
-                                // trying that submission again immediately
-                                break;
-                            } else if (mResults[i] == FormUploadResult.RATE_LIMITED) {
-                                // Don't keep retrying, the server is rate limiting submissions
-                                break;
-                            } else if (mResults[i] == FormUploadResult.CAPTIVE_PORTAL) {
-                                // User is behind a captive portal, no need to re-try.
-                                break;
-                            } else {
-                                attemptsMade++;
+                        try {
+                            while (attemptsMade < SUBMISSION_ATTEMPTS) {
+
+                                if (isCancelled()) {
+                                    Logger.log(LogTypes.TYPE_USER, "Cancelling submission due to a manual stop. " + (i - 1) + " forms succesfully sent.");
+                                    throw new TaskCancelledException();
+                                }
+
+                                mResults[i] = FormUploadUtil.sendInstance(i, preparedInstance, mUrl, this, user);
+                                if (mResults[i] == FormUploadResult.FULL_SUCCESS) {
+                                    logSubmissionSuccess(record);
+                                    break;
+                                } else if (mResults[i] == FormUploadResult.PROCESSING_FAILURE) {
+                                    // A processing failure indicates that there there is no point in
+                                    // trying that submission again immediately
+                                    break;
+                                } else if (mResults[i] == FormUploadResult.RATE_LIMITED) {
+                                    // Don't keep retrying, the server is rate limiting submissions
+                                    break;
+                                } else if (mResults[i] == FormUploadResult.CAPTIVE_PORTAL) {
+                                    // User is behind a captive portal, no need to re-try.
+                                    break;
+                                } else {
+                                    attemptsMade++;
+                                }
                             }
+                        } finally {
+                            preparedInstance.release();
                         }
                         if (mResults[i] == FormUploadResult.RECORD_FAILURE ||
                                 mResults[i] == FormUploadResult.PROCESSING_FAILURE) {
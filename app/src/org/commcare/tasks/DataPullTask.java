@@ -22,12 +22,14 @@ import org.commcare.google.services.analytics.AnalyticsParamValue;
 import org.commcare.interfaces.CommcareRequestEndpoints;
 import org.commcare.models.database.SqlStorage;
 import org.commcare.models.database.user.models.AndroidCaseIndexTable;
+import org.commcare.models.database.user.models.CaseDbHashTable;
 import org.commcare.models.database.user.models.CommCareEntityStorageCache;
 import org.commcare.models.encryption.ByteEncrypter;
 import org.commcare.modern.models.RecordTooLargeException;
 import org.commcare.network.DataPullRequester;
 import org.commcare.network.HttpUtils;
 import org.commcare.network.RemoteDataPullResponse;
+import org.commcare.preferences.DeveloperPreferences;
 import org.commcare.preferences.HiddenPreferences;
 import org.commcare.preferences.ServerUrls;
 import org.commcare.resources.model.CommCareOTARestoreListener;
@@ -49,8 +51,10 @@ import org.javarosa.xml.util.InvalidStructureException;
 import org.javarosa.xml.util.UnfullfilledRequirementsException;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.Date;
@@ -74,6 +78,8 @@ public abstract class DataPullTask<R>
     private int mCurrentProgress;
     private int mTotalItems;
     private long mSyncStartTime;
+    // Set once the parser starts reporting progress, after which download progress is dropped
+    private volatile boolean processingStarted;
 
     public static final int DATA_PULL_TASK_ID = 10;
 
@@ -98,6 +104,7 @@ public abstract class DataPullTask<R>
     private UserKeyRecord ukrForLogin;
     private boolean wasKeyLoggedIn;
     private boolean skipFixtures;
+    private boolean pipelinedRestoreAllowed;
 
     public DataPullTask(String username, String password, String userId,
                         String server, Context context, DataPullRequester dataPullRequester,
@@ -154,6 +161,7 @@ public abstract class DataPullTask<R>
         HiddenPreferences.setPostUpdateSyncNeeded(false);
         Logger.log(LogTypes.TYPE_USER, "Starting Sync");
         determineIfLoginNeeded();
+        pipelinedRestoreAllowed = DeveloperPreferences.isPipelinedRestoreEnabled();
 
         AndroidTransactionParserFactory factory = getTransactionParserFactory();
         byte[] wrappedEncryptionKey = getEncryptionKey();
@@ -263,6 +271,8 @@ public abstract class DataPullTask<R>
         try {
             ResultAndError<PullTaskResult> result = makeRequestAndHandleResponse(factory);
             if (PullTaskResult.RETRY_NEEDED.equals(result.data)) {
+                // Retried restores are read through the local cache
+                pipelinedRestoreAllowed = false;
                 asyncRestoreHelper.startReportingServerProgress();
                 return getRequestResultOrRetry(factory);
             } else {
@@ -363,12 +373,26 @@ public abstract class DataPullTask<R>
             return new ResultAndError<>(PullTaskResult.CANCELLED);
         }
 
-        this.publishProgress(PROGRESS_DOWNLOADING_COMPLETE, 0);
+        if (!pipelinedRestoreAllowed) {
+            this.publishProgress(PROGRESS_DOWNLOADING_COMPLETE, 0);
+        }
         Logger.log(LogTypes.TYPE_USER, "Remote Auth Successful|" + username);
 
         try {
-            BitCache cache = pullResponse.writeResponseToCache(context);
-            String syncToken = readInput(cache.retrieveCache(), factory);
+            String syncToken;
+            if (pipelinedRestoreAllowed) {
+                // Parse while downloading, inside of the user db transaction, so the transaction
+                // stays open for as long as the download takes. Any download failure or
+                // cancellation aborts the parse, which rolls back the restore transaction the
+                // same way a bad payload would. Download completion is reported by the stream
+                // once the last bytes arrive.
+                try (InputStream pipelinedStream = abortOnCancel(pullResponse.openPipelinedStream())) {
+                    syncToken = readInput(pipelinedStream, factory);
+                }
+            } else {
+                BitCache cache = pullResponse.writeResponseToCache(context);
+                syncToken = readInput(cache.retrieveCache(), factory);
+            }
             updateUserSyncToken(syncToken);
 
             onSuccessfulSync();
@@ -411,6 +435,32 @@ public abstract class DataPullTask<R>
         }
     }
 
+    /**
+     * The task can still be cancelled while a pipelined restore is downloading, so its reads
+     * fail once that happens rather than letting the restore go on to commit
+     */
+    private InputStream abortOnCancel(InputStream stream) {
+        return new FilterInputStream(stream) {
+            @Override
+            public int read() throws IOException {
+                checkCancelled();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                checkCancelled();
+                return super.read(b, off, len);
+            }
+
+            private void checkCancelled() throws InterruptedIOException {
+                if (isCancelled()) {
+                    throw new InterruptedIOException("Restore cancelled while downloading");
+                }
+            }
+        };
+    }
+
     private void handleLoginNeededOnSuccess() {
         if (loginNeeded) {
             // This is currently necessary to make sure that data is encoded, but there is
@@ -430,6 +480,10 @@ public abstract class DataPullTask<R>
             throws UnknownSyncError {
         this.publishProgress(PROGRESS_RECOVERY_NEEDED);
         Logger.log(LogTypes.TYPE_USER, "Sync Recovery Triggered");
+        // Logs whether the running case db hash had drifted from the cases on the device, and
+        // leaves a rebuilt one in place if the recovery doesn't go through
+        CaseUtils.verifyCaseDbHash(
+                CommCareApplication.instance().getUserStorage(ACase.STORAGE_KEY, ACase.class));
         Pair<Integer, String> returnCodeAndMessageFromRecovery = recover(requestor, factory);
         int returnCode = returnCodeAndMessageFromRecovery.first;
         String failureReason = returnCodeAndMessageFromRecovery.second;
@@ -578,7 +632,8 @@ public abstract class DataPullTask<R>
     private void wipeStorageForFourTwelveSync(SQLiteDatabase userDb) {
         SqlStorage.wipeTableWithoutCommit(userDb, ACase.STORAGE_KEY);
         SqlStorage.wipeTableWithoutCommit(userDb, Ledger.STORAGE_KEY);
-        SqlStorage.wipeTableWithoutCommit(userDb, AndroidCaseIndexTable.TABLE_NAME);
+        new AndroidCaseIndexTable(userDb, CommCareApplication.instance().getCaseIndexGraph()).wipeTable();
+        CaseDbHashTable.clear(userDb);
         CommCareEntityStorageCache.wipeCacheForCurrentAppWithoutCommit(userDb);
     }
 
@@ -657,6 +712,7 @@ public abstract class DataPullTask<R>
         mTotalItems = totalItemCount;
         mCurrentProgress = 0;
         mSyncStartTime = System.currentTimeMillis();
+        processingStarted = true;
         this.publishProgress(PROGRESS_PROCESSING, mCurrentProgress, mTotalItems, 0);
     }
 
@@ -665,7 +721,15 @@ public abstract class DataPullTask<R>
     }
 
     public void reportDownloadProgress(int totalRead) {
-        publishProgress(PROGRESS_DOWNLOADING, totalRead);
+        // a pipelined restore keeps downloading while it parses, and the processing progress
+        // is the one worth showing by then
+        if (!processingStarted) {
+            publishProgress(PROGRESS_DOWNLOADING, totalRead);
+        }
+    }
+
+    public void reportDownloadComplete() {
+        publishProgress(PROGRESS_DOWNLOADING_COMPLETE, 0);
     }
 
     public AsyncRestoreHelper getAsyncRestoreHelper() {
@@ -9,6 +9,21 @@ import java.util.List;
 public interface EntityLoaderListener {
     void attachLoader(EntityLoaderTask task);
 
+    /**
+     * Called when a streaming load has built the first page of entities, before the rest of
+     * the list is available. Followed by any number of deliverLoadBatch calls and then by
+     * deliverLoadResult with the complete list.
+     */
+    default void deliverFirstPage(List<Entity<TreeReference>> entities, List<TreeReference> references,
+                                  NodeEntityFactory factory) {
+    }
+
+    /**
+     * Called with entities built since the last partial delivery of a streaming load
+     */
+    default void deliverLoadBatch(List<Entity<TreeReference>> entities) {
+    }
+
     void deliverLoadResult(List<Entity<TreeReference>> entities, List<TreeReference> references,
                            NodeEntityFactory factory, int focusTargetIndex);
 
@@ -2,7 +2,9 @@ package org.commcare.tasks;
 
 import android.util.Pair;
 
+import org.commcare.CommCareApplication;
 import org.commcare.activities.EntitySelectActivity;
+import org.commcare.adapters.EntityFilterScheduler;
 import org.commcare.android.logging.ForceCloseLogger;
 import org.commcare.cases.entity.AsyncNodeEntityFactory;
 import org.commcare.cases.entity.Entity;
@@ -12,7 +14,9 @@ import org.commcare.logging.XPathErrorLogger;
 import org.commcare.models.database.user.models.CommCareEntityStorageCache;
 import org.commcare.preferences.DeveloperPreferences;
 import org.commcare.suite.model.Detail;
+import org.commcare.session.CommCareSession;
 import org.commcare.tasks.templates.ManagedAsyncTask;
+import org.commcare.utils.AndroidInstanceInitializer;
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.core.services.Logger;
@@ -20,22 +24,55 @@ import org.javarosa.xpath.XPathException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 
 /**
+ * Builds the entities for a case list in the background.
+ *
+ * When streaming is enabled, the first page of entities is handed to the listener as soon as
+ * it is built and the rest follow in batches, so the list can be shown before every entity has
+ * been evaluated. The complete, prepared list is still delivered through deliverLoadResult once
+ * loading finishes.
+ *
  * @author ctsims
  */
 public class EntityLoaderTask
         extends ManagedAsyncTask<TreeReference, Integer, Pair<List<Entity<TreeReference>>, List<TreeReference>>> {
 
+    private static final int FIRST_PAGE_SIZE = 50;
+    private static final int BATCH_SIZE = 500;
+
     private final static Object lock = new Object();
     private static EntityLoaderTask pendingTask = null;
 
     private final NodeEntityFactory factory;
+    private final EvaluationContext evalCtx;
+    private final boolean loadInParallel;
     private EntityLoaderListener listener;
     private Exception mException = null;
     private int focusTargetIndex;
 
+    private final boolean streamResults;
+    // Batches built in the background that haven't been handed to the UI thread yet
+    private final ConcurrentLinkedQueue<List<Entity<TreeReference>>> pendingBatches =
+            new ConcurrentLinkedQueue<>();
+    private volatile List<TreeReference> streamedReferences;
+    // Only touched from the UI thread
+    private final List<Entity<TreeReference>> streamedEntities = new ArrayList<>();
+    private EntityLoaderListener streamingListener;
+
     public EntityLoaderTask(Detail detail, EvaluationContext evalCtx) {
+        this(detail, evalCtx, false);
+    }
+
+    /**
+     * @param usesSessionContext Whether evalCtx is the session's own evaluation context, with
+     *                           no context ref or variables of its own. Only then can the load
+     *                           be split across workers, since each worker rebuilds the
+     *                           session's context rather than sharing evalCtx.
+     */
+    public EntityLoaderTask(Detail detail, EvaluationContext evalCtx, boolean usesSessionContext) {
         evalCtx.addFunctionHandler(EntitySelectActivity.getHereFunctionHandler());
         if (detail.useAsyncStrategy()) {
             EntityStorageCache entityStorageCache = new CommCareEntityStorageCache("case");
@@ -46,32 +83,38 @@ public class EntityLoaderTask
                 this.factory.activateDebugTraceOutput();
             }
         }
+        this.evalCtx = evalCtx;
+        // Async entities evaluate their fields lazily against the shared evaluation context,
+        // so they can't be displayed while the loader is still using that context
+        this.streamResults = !detail.useAsyncStrategy()
+                && DeveloperPreferences.isEntityListStreamingEnabled();
+        // Worker factories don't collect traces, so keep tracing loads sequential
+        this.loadInParallel = usesSessionContext
+                && !detail.useAsyncStrategy()
+                && !DeveloperPreferences.collectAndDisplayEntityTraces()
+                && DeveloperPreferences.isParallelEntityLoadingEnabled();
     }
 
     @Override
     protected Pair<List<Entity<TreeReference>>, List<TreeReference>> doInBackground(TreeReference... nodeset) {
         try {
             List<TreeReference> references = factory.expandReferenceList(nodeset[0]);
+            streamedReferences = references;
 
-            List<Entity<TreeReference>> full = new ArrayList<>();
             focusTargetIndex = -1;
-            int indexInFullList = 0;
-            for (TreeReference ref : references) {
-                if (this.isCancelled()) {
-                    return null;
-                }
-
-                Entity<TreeReference> e = factory.getEntity(ref);
-                if (e != null) {
-                    full.add(e);
-                    if (e.shouldReceiveFocus()) {
-                        focusTargetIndex = indexInFullList;
-                    }
-                    indexInFullList++;
-                }
+            List<Entity<TreeReference>> full;
+            if (loadInParallel) {
+                full = buildEntitiesInParallel(references);
+            } else {
+                full = buildEntities(references);
+            }
+            if (full == null || this.isCancelled()) {
+                return null;
             }
 
             factory.prepareEntities(full);
+            // filters started against a streamed first page may be waiting on this
+            EntityFilterScheduler.signalWhenEntitySetReady(factory);
             factory.printAndClearTraces("build");
             return new Pair<>(full, references);
         } catch (XPathException xe) {
@@ -83,6 +126,111 @@ public class EntityLoaderTask
         }
     }
 
+    private List<Entity<TreeReference>> buildEntities(List<TreeReference> references) {
+        List<Entity<TreeReference>> full = new ArrayList<>();
+        int batchStart = 0;
+        for (TreeReference ref : references) {
+            if (this.isCancelled()) {
+                return null;
+            }
+            if (full.size() - batchStart >= getBatchSize(batchStart)) {
+                publishBatch(full, batchStart);
+                batchStart = full.size();
+            }
+            addEntity(full, factory.getEntity(ref));
+        }
+        return full;
+    }
+
+    private List<Entity<TreeReference>> buildEntitiesInParallel(List<TreeReference> references) {
+        ParallelEntityLoader parallelLoader = new ParallelEntityLoader(factory.getDetail(),
+                EntityLoaderTask::createWorkerContext);
+        try {
+            List<Entity<TreeReference>> full = new ArrayList<>();
+            int batchStart = 0;
+            // Chunks are collected in reference order, so focus and ordering match a sequential load
+            for (Future<List<Entity<TreeReference>>> chunk : parallelLoader.submit(references, FIRST_PAGE_SIZE)) {
+                if (this.isCancelled()) {
+                    return null;
+                }
+                for (Entity<TreeReference> e : ParallelEntityLoader.await(chunk)) {
+                    addEntity(full, e);
+                }
+                if (full.size() - batchStart >= getBatchSize(batchStart)) {
+                    publishBatch(full, batchStart);
+                    batchStart = full.size();
+                }
+            }
+            return full;
+        } catch (InterruptedException e) {
+            return null;
+        } finally {
+            parallelLoader.shutdown();
+        }
+    }
+
+    /**
+     * @return A context over instances of its own, so that workers don't share the lazily
+     * loaded storage-backed instances of the task's context. Only equivalent to the task's
+     * context when that is the session's own context.
+     */
+    private static EvaluationContext createWorkerContext() {
+        CommCareSession session = CommCareApplication.instance().getCurrentSession();
+        EvaluationContext workerContext =
+                session.getEvaluationContext(new AndroidInstanceInitializer(session));
+        workerContext.addFunctionHandler(EntitySelectActivity.getHereFunctionHandler());
+        return workerContext;
+    }
+
+    boolean isLoadingInParallel() {
+        return loadInParallel;
+    }
+
+    private void addEntity(List<Entity<TreeReference>> full, Entity<TreeReference> e) {
+        if (e != null) {
+            if (e.shouldReceiveFocus()) {
+                focusTargetIndex = full.size();
+            }
+            full.add(e);
+        }
+    }
+
+    private int getBatchSize(int batchStart) {
+        return streamResults && batchStart == 0 ? FIRST_PAGE_SIZE : BATCH_SIZE;
+    }
+
+    private void publishBatch(List<Entity<TreeReference>> full, int batchStart) {
+        if (streamResults) {
+            pendingBatches.add(new ArrayList<>(full.subList(batchStart, full.size())));
+            publishProgress(full.size());
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... entitiesLoaded) {
+        super.onProgressUpdate(entitiesLoaded);
+
+        List<Entity<TreeReference>> batch = new ArrayList<>();
+        List<Entity<TreeReference>> next;
+        while ((next = pendingBatches.poll()) != null) {
+            batch.addAll(next);
+        }
+        streamedEntities.addAll(batch);
+
+        synchronized (lock) {
+            if (listener == null || isCancelled()) {
+                return;
+            }
+            if (streamingListener != listener) {
+                // Listener hasn't seen anything yet, IE: on the first page or after a re-attach
+                streamingListener = listener;
+                listener.deliverFirstPage(new ArrayList<>(streamedEntities), streamedReferences, factory);
+            } else if (!batch.isEmpty()) {
+                listener.deliverLoadBatch(batch);
+            }
+        }
+    }
+
     @Override
     protected void onPostExecute(Pair<List<Entity<TreeReference>>, List<TreeReference>> result) {
         super.onPostExecute(result);
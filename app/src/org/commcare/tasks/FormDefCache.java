@@ -0,0 +1,151 @@
+package org.commcare.tasks;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.commcare.CommCareApplication;
+import org.commcare.android.database.app.models.FormDefRecord;
+import org.commcare.android.logging.ForceCloseLogger;
+import org.commcare.preferences.DeveloperPreferences;
+import org.commcare.util.LogTypes;
+import org.commcare.utils.GlobalConstants;
+import org.javarosa.core.io.StreamsUtil;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.services.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Binary copies of parsed forms, so that opening a form can skip parsing its XML.
+ *
+ * Entries are keyed by the FormDefRecord's id and resource version, along with the last
+ * modified time of the XForm file in case a record's file is replaced in place. Finding an
+ * entry only needs the record and a stat of the form file, rather than a hash of its contents.
+ */
+public class FormDefCache {
+    private static final String TAG = FormDefCache.class.getSimpleName();
+
+    private static final String EXTENSION = ".formdef";
+
+    /**
+     * @return The cache file for the current version of the record's form, which may not exist
+     */
+    public static File getCacheFile(FormDefRecord record) {
+        File formXml = new File(record.getFilePath());
+        return new File(getCacheDir(), "form_" + record.getID() + "_v" + record.getResourceVersion() +
+                "_" + formXml.lastModified() + EXTENSION);
+    }
+
+    private static File getCacheDir() {
+        return new File(CommCareApplication.instance().getCurrentApp().fsPath(GlobalConstants.FILE_CC_CACHE));
+    }
+
+    /**
+     * @return The cached form for the record, or null if there isn't a usable one
+     */
+    public static FormDef read(Context context, FormDefRecord record) {
+        File formBin = getCacheFile(record);
+        if (!formBin.exists()) {
+            return null;
+        }
+        Log.i(TAG, "Attempting to load " + record.getFilePath() +
+                " from cached file: " + formBin.getAbsolutePath());
+        FormDef fd = deserializeFormDef(context, formBin);
+        if (fd == null) {
+            Logger.log(LogTypes.TYPE_RESOURCES,
+                    "Deserialization of " + formBin.getName() + " form failed.");
+            // Remove the file, so that a new one is made from the xml
+            formBin.delete();
+        }
+        return fd;
+    }
+
+    /**
+     * Write the parsed form to the cache, if it isn't there already. The cache is a bonus, so
+     * failures are logged rather than thrown.
+     */
+    public static void write(FormDef fd, FormDefRecord record) {
+        File formBin = getCacheFile(record);
+        if (formBin.exists()) {
+            return;
+        }
+        try {
+            serializeFormDef(fd, formBin);
+        } catch (Exception e) {
+            // log it so we can clean up whatever is preventing the cached version from working
+            Logger.log(LogTypes.TYPE_RESOURCES, "XForm could not be serialized. Error trace:\n" + ForceCloseLogger.getStackTrace(e));
+        }
+    }
+
+    /**
+     * Remove cached forms other than the provided ones, such as entries for older versions of
+     * a form
+     */
+    public static void removeEntriesExcept(Set<File> entriesToKeep) {
+        File[] entries = getCacheDir().listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (!entriesToKeep.contains(entry)) {
+                entry.delete();
+            }
+        }
+    }
+
+    /**
+     * Read serialized {@link FormDef} from file and recreate as object.
+     */
+    private static FormDef deserializeFormDef(Context context, File formDefFile) {
+        FileInputStream fis = null;
+        DataInputStream dis = null;
+        FormDef fd;
+        try {
+            // create new form def
+            fd = new FormDef(DeveloperPreferences.useExpressionCachingInForms());
+            fis = new FileInputStream(formDefFile);
+            dis = new DataInputStream(new BufferedInputStream(fis));
+
+            // read serialized formdef into new formdef
+            fd.readExternal(dis, CommCareApplication.instance().getPrototypeFactory(context));
+        } catch (Throwable e) {
+            e.printStackTrace();
+            fd = null;
+        } finally {
+            StreamsUtil.closeStream(fis);
+            StreamsUtil.closeStream(dis);
+        }
+
+        return fd;
+    }
+
+    /**
+     * Write the FormDef to the file system as a binary blob. It's written to a temporary file
+     * first, so that a form being opened never sees a partially written cache entry.
+     */
+    private static void serializeFormDef(FormDef fd, File formBin) throws IOException {
+        File tempFile = new File(formBin.getPath() + ".tmp." + Thread.currentThread().getId());
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            fd.writeExternal(dos);
+            dos.flush();
+        } finally {
+            StreamsUtil.closeStream(dos);
+        }
+        if (!tempFile.renameTo(formBin)) {
+            tempFile.delete();
+            if (!formBin.exists()) {
+                throw new IOException("Unable to move cached form into place at " + formBin.getPath());
+            }
+        }
+    }
+}
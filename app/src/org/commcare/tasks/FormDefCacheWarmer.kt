@@ -0,0 +1,53 @@
+package org.commcare.tasks
+
+import android.content.Context
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import org.commcare.CommCareApplication
+import org.commcare.android.database.app.models.FormDefRecord
+import org.commcare.android.logging.ForceCloseLogger
+import org.commcare.util.LogTypes
+import org.javarosa.core.services.Logger
+import java.io.File
+
+// A Worker class that parses and caches the latest version of every form after an app
+// install or update, so that the first open of each form doesn't have to parse its XML
+class FormDefCacheWarmer(appContext: Context, workerParams: WorkerParameters)
+    : Worker(appContext, workerParams) {
+
+    override fun doWork(): Result {
+        if (CommCareApplication.instance().currentApp == null) {
+            return Result.success()
+        }
+        val storage = CommCareApplication.instance().getAppStorage(FormDefRecord::class.java)
+
+        // Only the highest resource version of each form gets opened for new form entries
+        val latestRecords = HashMap<String, FormDefRecord>()
+        for (record in storage) {
+            val current = latestRecords[record.jrFormId]
+            if (current == null || record.resourceVersion >= current.resourceVersion) {
+                latestRecords[record.jrFormId] = record
+            }
+        }
+
+        val cacheFiles = HashSet<File>()
+        for (record in latestRecords.values) {
+            if (isStopped) {
+                return Result.success()
+            }
+            val cacheFile = FormDefCache.getCacheFile(record)
+            cacheFiles.add(cacheFile)
+            if (!cacheFile.exists()) {
+                try {
+                    FormDefCache.write(FormLoaderTask.loadFormFromFile(File(record.filePath)), record)
+                } catch (e: Exception) {
+                    // the form will just be parsed when it's opened
+                    Logger.log(LogTypes.TYPE_RESOURCES, "Unable to cache form " + record.jrFormId +
+                            ": " + ForceCloseLogger.getStackTrace(e))
+                }
+            }
+        }
+        FormDefCache.removeEntriesExcept(cacheFiles)
+        return Result.success()
+    }
+}
@@ -10,9 +10,12 @@ import org.commcare.android.logging.ForceCloseLogEntry;
 import org.commcare.android.logging.ForceCloseLogSerializer;
 import org.commcare.logging.AndroidLogSerializer;
 import org.commcare.logging.DeviceReportWriter;
+import org.commcare.logging.LogChunkLimit;
 import org.commcare.logging.XPathErrorEntry;
 import org.commcare.logging.XPathErrorSerializer;
 import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.SqlStorageIterator;
+import org.commcare.models.encryption.CipherPool;
 import org.commcare.network.CommcareRequestGenerator;
 import org.commcare.preferences.HiddenPreferences;
 import org.commcare.preferences.ServerUrls;
@@ -53,6 +56,13 @@ public class LogSubmissionTask extends AsyncTask<Void, Long, LogSubmitOutcomes>
     private static final long SUBMISSION_NOTIFY = 64;
     private static final long SUBMISSION_DONE = 128;
 
+    // bounds on each log source within a device report, so that a large backlog of logs is
+    // sent in pieces
+    private static final int MAX_LOG_ENTRIES_PER_REPORT = 2000;
+    private static final long MAX_LOG_BYTES_PER_REPORT = 512 * 1024;
+    // reports generated per run, in case logs can't be purged; the rest wait for the next run
+    private static final int MAX_REPORTS_PER_RUN = 100;
+
     protected enum LogSubmitOutcomes implements MessageTag {
         /**
          * Logs successfully submitted
@@ -141,11 +151,8 @@ public class LogSubmissionTask extends AsyncTask<Void, Long, LogSubmitOutcomes>
                     // Signal to the listener that we're ready to submit
                     this.beginSubmissionProcess(numberOfLogsToSubmit);
 
-                    ArrayList<Integer> submittedSuccesfullyIds = new ArrayList<>();
                     ArrayList<DeviceReportRecord> submittedSuccesfully = new ArrayList<>();
-                    submitReports(storage, submittedSuccesfullyIds, submittedSuccesfully);
-
-                    if (!removeLocalReports(storage, submittedSuccesfullyIds, submittedSuccesfully)) {
+                    if (!submitReports(storage, submittedSuccesfully)) {
                         return LogSubmitOutcomes.SERIALIZED;
                     }
 
@@ -168,8 +175,9 @@ public class LogSubmissionTask extends AsyncTask<Void, Long, LogSubmitOutcomes>
 
     /**
      * Serialize all of the entries currently in Android logs, Xpath error logs, and Force close
-     * logs, and write that to a DeviceReportRecord, which then gets added to the internal storage
-     * object of all DeviceReportRecords that have yet to be submitted
+     * logs, and write them to DeviceReportRecords, which then get added to the internal storage
+     * object of all DeviceReportRecords that have yet to be submitted. Android logs are split
+     * across as many records as it takes to keep each one within the report size limits.
      */
     private static boolean serializeLogs(SqlStorage<DeviceReportRecord> storage) {
         SharedPreferences settings = CommCareApplication.instance().getCurrentApp().getAppPreferences();
@@ -177,7 +185,43 @@ public class LogSubmissionTask extends AsyncTask<Void, Long, LogSubmitOutcomes>
         //update the last recorded record
         settings.edit().putLong(HiddenPreferences.LOG_LAST_DAILY_SUBMIT, new Date().getTime()).commit();
 
-        DeviceReportRecord record = DeviceReportRecord.generateNewRecordStub();
+        for (int chunk = 0; chunk < MAX_REPORTS_PER_RUN; chunk++) {
+            List<LogChunkLimit> chunkLimits = new ArrayList<>();
+            if (!serializeLogChunk(storage, chunk, chunkLimits)) {
+                return false;
+            }
+            if (!anyLimitReached(chunkLimits)) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    private static LogChunkLimit newChunkLimit(List<LogChunkLimit> chunkLimits) {
+        LogChunkLimit limit = new LogChunkLimit(MAX_LOG_ENTRIES_PER_REPORT, MAX_LOG_BYTES_PER_REPORT);
+        chunkLimits.add(limit);
+        return limit;
+    }
+
+    private static boolean anyLimitReached(List<LogChunkLimit> chunkLimits) {
+        for (LogChunkLimit limit : chunkLimits) {
+            if (limit.wasReached()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes one device report, with each log source bounded by its own limit. Everything it
+     * covers is purged once the report is stored, so the next chunk picks up where this one
+     * left off.
+     *
+     * @param chunkLimits Filled with the limits used, to check whether any source has logs left
+     */
+    private static boolean serializeLogChunk(SqlStorage<DeviceReportRecord> storage, int chunk,
+                                             List<LogChunkLimit> chunkLimits) {
+        DeviceReportRecord record = DeviceReportRecord.generateNewRecordStub(chunk);
 
         //Ok, so first, we're going to write the logs to disk in an encrypted file
         try {
@@ -193,34 +237,42 @@ public class LogSubmissionTask extends AsyncTask<Void, Long, LogSubmitOutcomes>
 
             // Serialize regular and xpath error logs for the current user
             AndroidLogSerializer<AndroidLogEntry> userLogSerializer = new AndroidLogSerializer<>(
-                    CommCareApplication.instance().getUserStorage(AndroidLogEntry.STORAGE_KEY, AndroidLogEntry.class));
+                    CommCareApplication.instance().getUserStorage(AndroidLogEntry.STORAGE_KEY, AndroidLogEntry.class),
+                    newChunkLimit(chunkLimits));
             reporter.addReportElement(userLogSerializer);
 
             XPathErrorSerializer xpathErrorSerializer = new XPathErrorSerializer(
-                    CommCareApplication.instance().getUserStorage(XPathErrorEntry.STORAGE_KEY, XPathErrorEntry.class));
+                    CommCareApplication.instance().getUserStorage(XPathErrorEntry.STORAGE_KEY, XPathErrorEntry.class),
+                    newChunkLimit(chunkLimits));
             reporter.addReportElement(xpathErrorSerializer);
 
             // Serialize all force close logs -- these can exist in both user and global storage
             ForceCloseLogSerializer globalForceCloseSerializer = new ForceCloseLogSerializer(
-                    CommCareApplication.instance().getGlobalStorage(ForceCloseLogEntry.STORAGE_KEY, ForceCloseLogEntry.class));
+                    CommCareApplication.instance().getGlobalStorage(ForceCloseLogEntry.STORAGE_KEY, ForceCloseLogEntry.class),
+                    newChunkLimit(chunkLimits));
             reporter.addReportElement(globalForceCloseSerializer);
             ForceCloseLogSerializer userForceCloseSerializer = new ForceCloseLogSerializer(
-                    CommCareApplication.instance().getUserStorage(ForceCloseLogEntry.STORAGE_KEY, ForceCloseLogEntry.class));
+                    CommCareApplication.instance().getUserStorage(ForceCloseLogEntry.STORAGE_KEY, ForceCloseLogEntry.class),
+                    newChunkLimit(chunkLimits));
             reporter.addReportElement(userForceCloseSerializer);
 
             // TEMPORARILY ONLY - serialize all force close logs in the old format, so that HQ
-            // still picks them up, until we start processing the new format
+            // still picks them up, until we start processing the new format. Limits matching
+            // the ones above cover the same entries, which the serializers above purge.
             AndroidLogSerializer<ForceCloseLogEntry> globalForceCloseSerializer_oldFormat = new AndroidLogSerializer<>(
-                    CommCareApplication.instance().getGlobalStorage(ForceCloseLogEntry.STORAGE_KEY, ForceCloseLogEntry.class));
+                    CommCareApplication.instance().getGlobalStorage(ForceCloseLogEntry.STORAGE_KEY, ForceCloseLogEntry.class),
+                    newChunkLimit(chunkLimits));
             reporter.addReportElement(globalForceCloseSerializer_oldFormat);
             AndroidLogSerializer<ForceCloseLogEntry> userForceCloseSerializer_oldFormat = new AndroidLogSerializer<>(
-                    CommCareApplication.instance().getUserStorage(ForceCloseLogEntry.STORAGE_KEY, ForceCloseLogEntry.class));
+                    CommCareApplication.instance().getUserStorage(ForceCloseLogEntry.STORAGE_KEY, ForceCloseLogEntry.class),
+                    newChunkLimit(chunkLimits));
             reporter.addReportElement(userForceCloseSerializer_oldFormat);
 
             // Serialize all logs currently in global storage, since we have no way to determine
             // which app they truly belong to
             AndroidLogSerializer globalLogSerializer = new AndroidLogSerializer(
-                    CommCareApplication.instance().getGlobalStorage(AndroidLogEntry.STORAGE_KEY, AndroidLogEntry.class));
+                    CommCareApplication.instance().getGlobalStorage(AndroidLogEntry.STORAGE_KEY, AndroidLogEntry.class),
+                    newChunkLimit(chunkLimits));
             reporter.addReportElement(globalLogSerializer);
 
             // Write serialized logs to the record
@@ -243,15 +295,29 @@ public class LogSubmissionTask extends AsyncTask<Void, Long, LogSubmitOutcomes>
         return true;
     }
 
-    private void submitReports(SqlStorage<DeviceReportRecord> storage,
-                               ArrayList<Integer> submittedSuccesfullyIds,
-                               ArrayList<DeviceReportRecord> submittedSuccesfully) {
+    /**
+     * Submits reports one at a time, removing each one as soon as the server has accepted it
+     * so that nothing the server hasn't acknowledged is lost and nothing it has is resent.
+     *
+     * @return false if an accepted report couldn't be removed
+     */
+    private boolean submitReports(SqlStorage<DeviceReportRecord> storage,
+                                  ArrayList<DeviceReportRecord> submittedSuccesfully) {
+        // read ids up front, since reports are removed while we go
+        ArrayList<Integer> reportIds = new ArrayList<>();
+        for (SqlStorageIterator<DeviceReportRecord> iterator = storage.iterate(false); iterator.hasMore(); ) {
+            reportIds.add(iterator.nextID());
+        }
+
         int index = 0;
-        for (DeviceReportRecord slr : storage) {
+        for (int reportId : reportIds) {
             try {
+                DeviceReportRecord slr = storage.read(reportId);
                 LogSubmitOutcomes outcome = submitDeviceReportRecord(slr, submissionUrl, this, index, forceLogs);
                 if (outcome == LogSubmitOutcomes.SUBMITTED) {
-                    submittedSuccesfullyIds.add(slr.getID());
+                    if (!removeLocalReport(storage, slr)) {
+                        return false;
+                    }
                     submittedSuccesfully.add(slr);
                 } else if (outcome == LogSubmitOutcomes.RATE_LIMITED) {
                     // We're getting rate limited so breaking out of here.
@@ -262,6 +328,7 @@ public class LogSubmissionTask extends AsyncTask<Void, Long, LogSubmitOutcomes>
 
             }
         }
+        return true;
     }
 
     private static LogSubmitOutcomes submitDeviceReportRecord(DeviceReportRecord slr, String submissionUrl,
@@ -291,11 +358,13 @@ public class LogSubmissionTask extends AsyncTask<Void, Long, LogSubmitOutcomes>
 
         List<MultipartBody.Part> parts = new ArrayList<>();
 
+        CipherPool decryptCiphers =
+                FormUploadUtil.buildDecryptCipherPool(new SecretKeySpec(slr.getKey(), "AES"));
         parts.add(FormUploadUtil.createEncryptedFilePart(
                 "xml_submission_file",
                 f,
                 "text/xml",
-                new SecretKeySpec(slr.getKey(), "AES")));
+                decryptCiphers));
 
 
         Response<ResponseBody> response = null;
@@ -311,6 +380,7 @@ public class LogSubmissionTask extends AsyncTask<Void, Long, LogSubmitOutcomes>
             if (response != null && response.body() != null) {
                 response.body().close();
             }
+            decryptCiphers.expire();
         }
 
         int responseCode = response.code();
@@ -323,25 +393,22 @@ public class LogSubmissionTask extends AsyncTask<Void, Long, LogSubmitOutcomes>
         }
     }
 
-    private static boolean removeLocalReports(SqlStorage<DeviceReportRecord> storage,
-                                              ArrayList<Integer> submittedSuccesfullyIds,
-                                              ArrayList<DeviceReportRecord> submittedSuccesfully) {
+    private static boolean removeLocalReport(SqlStorage<DeviceReportRecord> storage,
+                                             DeviceReportRecord record) {
         try {
-            //Wipe the DB entries
-            storage.remove(submittedSuccesfullyIds);
+            //Wipe the DB entry
+            storage.remove(record.getID());
         } catch (Exception e) {
             e.printStackTrace();
             Logger.log(LogTypes.TYPE_MAINTENANCE, "Error deleting logs!" + e.getMessage());
             return false;
         }
-        //Try to wipe the files, too, now that the file's submitted. (Not a huge deal if this fails, though)
-        for (DeviceReportRecord record : submittedSuccesfully) {
-            try {
-                File f = new File(record.getFilePath());
-                f.delete();
-            } catch (Exception e) {
-                //TODO: Anything useful here?
-            }
+        //Try to wipe the file, too, now that the file's submitted. (Not a huge deal if this fails, though)
+        try {
+            File f = new File(record.getFilePath());
+            f.delete();
+        } catch (Exception e) {
+            //TODO: Anything useful here?
         }
         return true;
     }
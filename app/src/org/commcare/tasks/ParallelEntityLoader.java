@@ -0,0 +1,139 @@
+package org.commcare.tasks;
+
+import org.commcare.cases.entity.Entity;
+import org.commcare.cases.entity.NodeEntityFactory;
+import org.commcare.suite.model.Detail;
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.instance.TreeReference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the entities for a list of references on a bounded pool of worker threads.
+ *
+ * Evaluation contexts, their instances and the storage-backed tree elements behind them aren't
+ * safe to share across threads, so every factory used by a load evaluates against a context of
+ * its own, built from scratch by the provided ContextFactory. A chunk takes an idle factory (or
+ * builds one) and returns it when done, so a load never builds more contexts than it has chunks
+ * running at once.
+ *
+ * References are split into fixed size chunks whose results are handed back in reference
+ * order, so callers see entities in the same order a sequential load would produce them. The
+ * worker threads are shared by every load.
+ */
+public class ParallelEntityLoader {
+
+    private static final int MAX_WORKERS = 8;
+
+    private static final ExecutorService workers = createWorkers();
+
+    /**
+     * Builds an evaluation context that no other thread holds on to
+     */
+    public interface ContextFactory {
+        EvaluationContext createContext();
+    }
+
+    private final Detail detail;
+    private final ContextFactory contextFactory;
+    private final ConcurrentLinkedQueue<NodeEntityFactory> idleFactories = new ConcurrentLinkedQueue<>();
+    private final List<Future<List<Entity<TreeReference>>>> submitted = new ArrayList<>();
+
+    public ParallelEntityLoader(Detail detail, ContextFactory contextFactory) {
+        this.detail = detail;
+        this.contextFactory = contextFactory;
+    }
+
+    private static ExecutorService createWorkers() {
+        final AtomicInteger workerIndex = new AtomicInteger();
+        return Executors.newFixedThreadPool(getDefaultWorkerCount(), r -> {
+            Thread thread = new Thread(r, "entity-loader-" + workerIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static int getDefaultWorkerCount() {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_WORKERS));
+    }
+
+    /**
+     * Queues up entity construction for the references.
+     *
+     * @return One pending result per chunk of references, in reference order
+     */
+    public List<Future<List<Entity<TreeReference>>>> submit(List<TreeReference> references,
+                                                            int chunkSize) {
+        List<Future<List<Entity<TreeReference>>>> chunks = new ArrayList<>();
+        for (int start = 0; start < references.size(); start += chunkSize) {
+            final List<TreeReference> chunk =
+                    references.subList(start, Math.min(start + chunkSize, references.size()));
+            chunks.add(workers.submit(() -> buildEntities(chunk)));
+        }
+        synchronized (submitted) {
+            submitted.addAll(chunks);
+        }
+        return chunks;
+    }
+
+    private List<Entity<TreeReference>> buildEntities(List<TreeReference> chunk) {
+        NodeEntityFactory factory = idleFactories.poll();
+        if (factory == null) {
+            factory = new NodeEntityFactory(detail, contextFactory.createContext());
+        }
+        try {
+            List<Entity<TreeReference>> entities = new ArrayList<>(chunk.size());
+            for (TreeReference ref : chunk) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                Entity<TreeReference> e = factory.getEntity(ref);
+                if (e != null) {
+                    entities.add(e);
+                }
+            }
+            return entities;
+        } finally {
+            idleFactories.add(factory);
+        }
+    }
+
+    /**
+     * Waits for a chunk to be built, rethrowing any error hit while building it
+     */
+    public static List<Entity<TreeReference>> await(Future<List<Entity<TreeReference>>> chunk)
+            throws InterruptedException {
+        try {
+            return chunk.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Abandons any chunks of this load that haven't been built yet, leaving the shared workers
+     * to other loads
+     */
+    public void shutdown() {
+        synchronized (submitted) {
+            for (Future<List<Entity<TreeReference>>> chunk : submitted) {
+                chunk.cancel(true);
+            }
+            submitted.clear();
+        }
+        idleFactories.clear();
+    }
+}
@@ -1,5 +1,7 @@
 package org.commcare.utils;
 
+import net.sqlcipher.database.SQLiteDatabase;
+
 import org.commcare.AppUtils;
 import org.commcare.CommCareApplication;
 import org.commcare.activities.DriftHelper;
@@ -57,8 +59,19 @@ public class AndroidInstanceInitializer extends CommCareInstanceInitializer {
     @Override
     protected InstanceRoot setupCaseData(ExternalDataInstance instance) {
         if (casebase == null) {
-            SqlStorage<ACase> storage = (SqlStorage<ACase>)mSandbox.getCaseStorage();
-            casebase = new CaseInstanceTreeElement(instance.getBase(), storage, new AndroidCaseIndexTable());
+            if (mSandbox instanceof AndroidSandbox) {
+                // the case instance is only ever read, so it can use the read connection
+                SqlStorage<ACase> storage = ((AndroidSandbox)mSandbox).getCaseReadStorage();
+                SQLiteDatabase readHandle = CommCareApplication.instance().getUserDbReadHandle();
+                // the in-memory case index graph follows the writer connection, so it can only
+                // answer index queries when reads share that connection
+                AndroidCaseIndexTable indexTable = readHandle == CommCareApplication.instance().getUserDbHandle()
+                        ? new AndroidCaseIndexTable() : new AndroidCaseIndexTable(readHandle);
+                casebase = new CaseInstanceTreeElement(instance.getBase(), storage, indexTable);
+            } else {
+                SqlStorage<ACase> storage = (SqlStorage<ACase>)mSandbox.getCaseStorage();
+                casebase = new CaseInstanceTreeElement(instance.getBase(), storage, new AndroidCaseIndexTable());
+            }
         } else {
             //re-use the existing model if it exists.
             casebase.rebase(instance.getBase());
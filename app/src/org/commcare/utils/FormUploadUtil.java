@@ -7,6 +7,7 @@ import android.webkit.MimeTypeMap;
 import org.apache.commons.lang3.StringUtils;
 import org.commcare.core.network.AuthenticationInterceptor;
 import org.commcare.core.network.CaptivePortalRedirectException;
+import org.commcare.models.encryption.CipherPool;
 import org.commcare.network.CommcareRequestGenerator;
 import org.commcare.network.EncryptedFileBody;
 import org.commcare.tasks.DataSubmissionListener;
@@ -79,6 +80,19 @@ public class FormUploadUtil {
         return null;
     }
 
+    /**
+     * @return Pool of ciphers for decrypting files encrypted with the key, shared by all of the
+     * parts of a submission. The caller should expire it once the submission is done with.
+     */
+    public static CipherPool buildDecryptCipherPool(final SecretKeySpec key) {
+        return new CipherPool() {
+            @Override
+            protected Cipher generateNewCipher() {
+                return getDecryptCipher(key);
+            }
+        };
+    }
+
     /**
      * Send unencrypted data to the server without user facing progress
      * reporting.
@@ -117,7 +131,53 @@ public class FormUploadUtil {
                                                 @Nullable SecretKeySpec key, String url,
                                                 @Nullable DataSubmissionListener listener, User user)
             throws FileNotFoundException {
+        PreparedInstance instance = prepareInstance(folder, key);
+        try {
+            return sendInstance(submissionNumber, instance, url, listener, user);
+        } finally {
+            instance.release();
+        }
+    }
 
+    /**
+     * Send a prepared instance to the server. The same prepared instance can be sent again if
+     * an attempt fails, without re-reading or re-measuring its files.
+     *
+     * @param submissionNumber For progress reporting
+     * @param instance         Parts built by prepareInstance
+     * @param url              Submission server url
+     * @param listener         Used to report progress to the calling task
+     * @param user             Used to build the http post
+     * @return Submission status code
+     */
+    public static FormUploadResult sendInstance(int submissionNumber, PreparedInstance instance,
+                                                String url,
+                                                @Nullable DataSubmissionListener listener, User user) {
+        if (listener != null) {
+            listener.startSubmission(submissionNumber, instance.uploadBytes);
+        }
+
+        if (instance.parts == null) {
+            return FormUploadResult.RECORD_FAILURE;
+        }
+
+        CommcareRequestGenerator generator = new CommcareRequestGenerator(user);
+        return submitEntity(instance.parts, url, generator);
+    }
+
+    /**
+     * Build the multipart body parts for an instance folder, encrypting xml files. Decrypted
+     * lengths of encrypted attachments are computed here, so the request is sent with a known
+     * content length instead of chunked. The prepared instance must be released once it won't
+     * be sent again.
+     *
+     * @param folder All supported files in this folder will be attached to the submission
+     * @param key    For encrypting xml files
+     * @throws FileNotFoundException Is raised if xml file isn't found on the
+     *                               file-system
+     */
+    public static PreparedInstance prepareInstance(File folder, @Nullable SecretKeySpec key)
+            throws FileNotFoundException {
         File[] files = folder.listFiles();
 
         if (files == null) {
@@ -135,23 +195,58 @@ public class FormUploadUtil {
         // If we're listening, figure out how much (roughly) we have to send
         long bytes = estimateUploadBytes(files);
 
-        if (listener != null) {
-            listener.startSubmission(submissionNumber, bytes);
-        }
-
         if (files.length == 0) {
             Log.e(TAG, "no files to upload");
             throw new FileNotFoundException("Folder at path " + folder.getAbsolutePath() + " had no files.");
         }
 
         List<MultipartBody.Part> parts = new ArrayList<>();
+        CipherPool decryptCiphers = key == null ? null : buildDecryptCipherPool(key);
 
-        if (!buildMultipartEntity(parts, key, files)) {
-            return FormUploadResult.RECORD_FAILURE;
+        try {
+            if (!buildMultipartEntity(parts, decryptCiphers, files)) {
+                return new PreparedInstance(null, bytes, decryptCiphers);
+            }
+            for (MultipartBody.Part part : parts) {
+                // Measure encrypted parts now rather than on each attempt
+                part.body().contentLength();
+            }
+        } catch (RuntimeException | FileNotFoundException e) {
+            if (decryptCiphers != null) {
+                decryptCiphers.expire();
+            }
+            throw e;
         }
+        return new PreparedInstance(parts, bytes, decryptCiphers);
+    }
 
-        CommcareRequestGenerator generator = new CommcareRequestGenerator(user);
-        return submitEntity(parts, url, generator);
+    /**
+     * Multipart body parts of a form instance, ready to be sent any number of times
+     */
+    public static final class PreparedInstance {
+        // null if the instance has an invalid submission file and shouldn't be sent
+        @Nullable
+        private final List<MultipartBody.Part> parts;
+        private final long uploadBytes;
+        // shared by the encrypted parts across every attempt at sending them
+        @Nullable
+        private final CipherPool decryptCiphers;
+
+        private PreparedInstance(@Nullable List<MultipartBody.Part> parts, long uploadBytes,
+                                 @Nullable CipherPool decryptCiphers) {
+            this.parts = parts;
+            this.uploadBytes = uploadBytes;
+            this.decryptCiphers = decryptCiphers;
+        }
+
+        /**
+         * Drop the ciphers held for the instance's encrypted parts, once it won't be sent again
+         */
+        public void release() {
+            if (decryptCiphers != null) {
+                decryptCiphers.expire();
+            }
+        }
     }
 
     /**
@@ -317,15 +412,15 @@ public class FormUploadUtil {
      * Add files of supported type to the multipart entity, encrypting xml
      * files.
      *
-     * @param parts Add files to this
-     * @param key   Used to encrypt xml files
+     * @param parts          Add files to this
+     * @param decryptCiphers Used to encrypt xml files
      * @param files The files to be added to the entity,
      * @return false if invalid xml files are found; otherwise true.
      * @throws FileNotFoundException Is raised when an xml doesn't exist on the
      *                               file-system
      */
     private static boolean buildMultipartEntity(List<MultipartBody.Part> parts,
-                                                @Nullable SecretKeySpec key,
+                                                @Nullable CipherPool decryptCiphers,
                                                 File[] files)
             throws FileNotFoundException {
 
@@ -334,11 +429,11 @@ public class FormUploadUtil {
 
         for (File f : files) {
             if (f.getName().endsWith(".xml")) {
-                if (key != null) {
+                if (decryptCiphers != null) {
                     if (!validateSubmissionFile(f)) {
                         return false;
                     }
-                    parts.add(createEncryptedFilePart("xml_submission_file", f, "text/xml", key));
+                    parts.add(createEncryptedFilePart("xml_submission_file", f, "text/xml", decryptCiphers));
                 } else {
                     parts.add(createFilePart("xml_submission_file", f, "text/xml"));
                 }
@@ -347,14 +442,14 @@ public class FormUploadUtil {
                 String contentType = getFileContentType(fileName);
                 if (contentType != null) {
                     numAttachmentsInInstanceFolder++;
-                    numAttachmentsSuccessfullyAdded += addPartToEntity(parts, f, contentType, key);
+                    numAttachmentsSuccessfullyAdded += addPartToEntity(parts, f, contentType, decryptCiphers);
                 } else if (isSupportedMultimediaFile(fileName)) {
                     numAttachmentsInInstanceFolder++;
                     String mimeType = FileUtil.getMimeType(fileName);
                     if (StringUtils.isEmpty(mimeType)) {
                         mimeType = "application/octet-stream";
                     }
-                    numAttachmentsSuccessfullyAdded += addPartToEntity(parts, f, mimeType, key);
+                    numAttachmentsSuccessfullyAdded += addPartToEntity(parts, f, mimeType, decryptCiphers);
                 } else {
                     Logger.log(LogTypes.TYPE_FORM_SUBMISSION,
                             "Could not add unsupported file type to submission entity: " + f.getName());
@@ -368,11 +463,11 @@ public class FormUploadUtil {
         return true;
     }
 
-    private static int addPartToEntity(List<MultipartBody.Part> parts, File f, String contentType, SecretKeySpec key) {
+    private static int addPartToEntity(List<MultipartBody.Part> parts, File f, String contentType, CipherPool decryptCiphers) {
         if (f.length() <= MAX_BYTES) {
             MultipartBody.Part part;
             if (f.getName().endsWith(MediaWidget.AES_EXTENSION)) {
-                part = createEncryptedFilePart(MediaWidget.removeAESExtension(f.getName()), f, contentType, key);
+                part = createEncryptedFilePart(MediaWidget.removeAESExtension(f.getName()), f, contentType, decryptCiphers);
             } else {
                 part = createFilePart(f.getName(), f, contentType);
             }
@@ -411,13 +506,14 @@ public class FormUploadUtil {
     }
 
 
-    public static MultipartBody.Part createEncryptedFilePart(String partName, File file, String contentType, SecretKeySpec key) {
+    public static MultipartBody.Part createEncryptedFilePart(String partName, File file, String contentType,
+                                                              CipherPool decryptCiphers) {
 
         // create RequestBody instance from file
         RequestBody requestFile = new EncryptedFileBody(
                 MediaType.parse(contentType),
                 file,
-                FormUploadUtil.getDecryptCipher(key));
+                decryptCiphers);
 
         // MultipartBody.Part is used to send also the actual file name
         return MultipartBody.Part.createFormData(partName, file.getName(), requestFile);
@@ -15,6 +15,7 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
@@ -55,14 +56,13 @@ public class AndroidBulkCaseXmlParser extends BulkProcessingCaseXmlParser {
     }
 
     @Override
-    protected void performBulkRead(Set<String> currentBulkReadSet, Map<String, Case> currentOperatingSet) throws InvalidStructureException, IOException, XmlPullParserException {
+    protected void performBulkRead(Set<String> currentBulkReadSet, final Map<String, Case> currentOperatingSet) throws InvalidStructureException, IOException, XmlPullParserException {
         SQLiteDatabase db;
         db = getDbHandle();
         db.beginTransaction();
         try {
-            for (ACase c : storage.getBulkRecordsForIndex(Case.INDEX_CASE_ID, currentBulkReadSet)) {
-                currentOperatingSet.put(c.getCaseId(), c);
-            }
+            storage.getBulkRecordsForIndex(Case.INDEX_CASE_ID, currentBulkReadSet,
+                    (recordId, c) -> currentOperatingSet.put(c.getCaseId(), c));
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -73,24 +73,20 @@ public class AndroidBulkCaseXmlParser extends BulkProcessingCaseXmlParser {
     protected void performBulkWrite(LinkedHashMap<String, Case> writeLog) throws IOException {
         SQLiteDatabase db;
         db = getDbHandle();
-        ArrayList<Integer> recordIdsToWipe = new ArrayList<>();
+        Collection<Case> casesToWrite = writeLog.values();
+        ArrayList<Integer> recordIdsToWipe = new ArrayList<>(casesToWrite.size());
 
         db.beginTransaction();
         try {
-            for (String cid : writeLog.keySet()) {
-                Case c = writeLog.get(cid);
-                storage.write(c);
+            storage.writeAll(casesToWrite);
+            for (Case c : casesToWrite) {
                 recordIdsToWipe.add(c.getID());
             }
             if (mEntityCache != null) {
                 mEntityCache.invalidateCaches(recordIdsToWipe);
             }
             mCaseIndexTable.clearCaseIndices(recordIdsToWipe);
-
-            for (String cid : writeLog.keySet()) {
-                Case c = writeLog.get(cid);
-                mCaseIndexTable.indexCase(c);
-            }
+            mCaseIndexTable.indexCases(casesToWrite);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
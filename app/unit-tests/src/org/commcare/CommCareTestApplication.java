@@ -267,6 +267,11 @@ public class CommCareTestApplication extends CommCareApplication implements Test
         // do nothing
     }
 
+    @Override
+    public void prewarmFormDefCache() {
+        // do nothing
+    }
+
     @Override
     public void beforeTest(Method method) {
 
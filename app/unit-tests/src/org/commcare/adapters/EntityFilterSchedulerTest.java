@@ -0,0 +1,122 @@
+package org.commcare.adapters;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for running entity list filters on the shared filter worker
+ */
+public class EntityFilterSchedulerTest {
+
+    @Test
+    public void testOnlyLatestFilterRuns() throws InterruptedException {
+        EntityFilterScheduler scheduler = new EntityFilterScheduler();
+        TestFilterer first = new TestFilterer(true);
+        TestFilterer second = new TestFilterer(true);
+
+        scheduler.schedule(first, EntityFilterScheduler.SEARCH_DEBOUNCE_MS);
+        scheduler.schedule(second, 0);
+
+        Assert.assertTrue(second.awaitRun());
+        Assert.assertFalse(first.awaitRun());
+        Assert.assertEquals(1, first.cancelSearchCalls.get());
+    }
+
+    @Test
+    public void testWaitingFilterDoesNotHoldUpOtherLists() throws InterruptedException {
+        EntityFilterScheduler waitingScheduler = new EntityFilterScheduler();
+        EntityFilterScheduler readyScheduler = new EntityFilterScheduler();
+        TestFilterer waiting = new TestFilterer(false);
+        TestFilterer ready = new TestFilterer(true);
+
+        waitingScheduler.schedule(waiting, 0);
+        readyScheduler.schedule(ready, 0);
+        Assert.assertTrue(ready.awaitRun());
+        Assert.assertEquals(1, waiting.runs.getCount());
+
+        waiting.entitySetReady = true;
+        EntityFilterScheduler.signalEntitySetReady();
+        Assert.assertTrue(waiting.awaitRun());
+    }
+
+    @Test
+    public void testWaitingFilterWaitsForTheSignal() throws InterruptedException {
+        EntityFilterScheduler scheduler = new EntityFilterScheduler();
+        TestFilterer waiting = new TestFilterer(false);
+        scheduler.schedule(waiting, 0);
+
+        // readiness isn't polled for, so nothing happens until the loader signals
+        waiting.entitySetReady = true;
+        Assert.assertFalse(waiting.awaitRun());
+        EntityFilterScheduler.signalEntitySetReady();
+        Assert.assertTrue(waiting.awaitRun());
+    }
+
+    @Test
+    public void testCancellingFinishedFilterLeavesSearchAlone() throws InterruptedException {
+        EntityFilterScheduler scheduler = new EntityFilterScheduler();
+        TestFilterer filterer = new TestFilterer(true);
+        scheduler.schedule(filterer, 0);
+        Assert.assertTrue(filterer.awaitRun());
+        // the worker runs one thing at a time, so once this has run the first filter is done
+        TestFilterer barrier = new TestFilterer(true);
+        new EntityFilterScheduler().schedule(barrier, 0);
+        Assert.assertTrue(barrier.awaitRun());
+
+        scheduler.cancel();
+        Assert.assertEquals(0, filterer.cancelSearchCalls.get());
+        Assert.assertTrue(filterer.isCancelled());
+    }
+
+    @Test
+    public void testCancellingWaitingFilter() throws InterruptedException {
+        EntityFilterScheduler scheduler = new EntityFilterScheduler();
+        TestFilterer filterer = new TestFilterer(false);
+        scheduler.schedule(filterer, 0);
+        scheduler.cancel();
+
+        filterer.entitySetReady = true;
+        EntityFilterScheduler.signalEntitySetReady();
+        Assert.assertFalse(filterer.awaitRun());
+        Assert.assertEquals(1, filterer.cancelSearchCalls.get());
+    }
+
+    private static class TestFilterer extends EntityFiltererBase {
+        volatile boolean entitySetReady;
+        final CountDownLatch runs = new CountDownLatch(1);
+        final AtomicInteger cancelSearchCalls = new AtomicInteger();
+
+        TestFilterer(boolean entitySetReady) {
+            super(null, null, null, null);
+            this.entitySetReady = entitySetReady;
+        }
+
+        boolean awaitRun() throws InterruptedException {
+            return runs.await(EntityFilterScheduler.SEARCH_DEBOUNCE_MS * 4, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        void run() {
+            runs.countDown();
+        }
+
+        @Override
+        boolean isEntitySetReady() {
+            return entitySetReady;
+        }
+
+        @Override
+        public void cancelSearch() {
+            cancelSearchCalls.incrementAndGet();
+            discardResult();
+        }
+
+        @Override
+        protected void filter() {
+        }
+    }
+}
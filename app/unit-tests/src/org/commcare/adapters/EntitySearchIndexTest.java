@@ -0,0 +1,118 @@
+package org.commcare.adapters;
+
+import org.commcare.CommCareApplication;
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.TestAppInstaller;
+import org.commcare.android.util.TestUtils;
+import org.commcare.cases.entity.Entity;
+import org.commcare.cases.entity.NodeEntityFactory;
+import org.commcare.models.database.SqlStorage;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.model.xform.XPathReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure the search index narrows a string search down to the entities that could match,
+ * and covers whichever entities the list it is handed holds
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class EntitySearchIndexTest {
+
+    private static final String CASE_LIST_NODESET = "instance('casedb')/casedb/case[@case_type='case']";
+    // unlikely to turn up in the cases the test user already has
+    private static final String[] CASE_NAMES = {"qxapple", "qxbanana", "qxcherry", "qxdamson"};
+
+    @Before
+    public void setup() {
+        TestAppInstaller.installAppAndLogin(
+                "jr://resource/commcare-apps/index_and_cache_test/profile.ccpr", "test", "123");
+        SqlStorage<ACase> storage =
+                CommCareApplication.instance().getUserStorage(ACase.STORAGE_KEY, ACase.class);
+        for (String name : CASE_NAMES) {
+            ACase c = new ACase(name, "case");
+            c.setCaseId(name + "_case_id");
+            storage.write(c);
+        }
+    }
+
+    @Test
+    public void testCandidatesCoverMatchingEntities() {
+        List<Entity<TreeReference>> entities = loadEntities();
+        EntitySearchIndex index = new EntitySearchIndex();
+        assertTrue(index.indexEntities(entities, 0, Locale.ENGLISH, () -> false));
+
+        List<Entity<TreeReference>> candidates = getCandidates(index, entities, "qxban");
+        assertEquals(1, candidates.size());
+        assertTrue(candidates.contains(getEntity(entities, "qxbanana")));
+    }
+
+    @Test
+    public void testNewGenerationCoversReplacedEntities() {
+        EntitySearchIndex index = new EntitySearchIndex();
+        assertTrue(index.indexEntities(loadEntities(), 0, Locale.ENGLISH, () -> false));
+
+        // same number of entities, none of which have been indexed
+        List<Entity<TreeReference>> reloaded = loadEntities();
+        assertTrue(index.indexEntities(reloaded, 1, Locale.ENGLISH, () -> false));
+
+        List<Entity<TreeReference>> candidates = getCandidates(index, reloaded, "qxban");
+        assertEquals(1, candidates.size());
+        assertTrue(candidates.contains(getEntity(reloaded, "qxbanana")));
+    }
+
+    @Test
+    public void testCancelledIndexingIsFinishedLater() {
+        List<Entity<TreeReference>> entities = loadEntities();
+        EntitySearchIndex index = new EntitySearchIndex();
+        assertFalse(index.indexEntities(entities, 0, Locale.ENGLISH, () -> true));
+
+        // entities the index doesn't cover are always candidates
+        assertEquals(entities.size(), getCandidates(index, entities, "qxban").size());
+        assertTrue(entities.size() > 1);
+
+        assertTrue(index.indexEntities(entities, 0, Locale.ENGLISH, () -> false));
+        assertEquals(1, getCandidates(index, entities, "qxban").size());
+    }
+
+    private static List<Entity<TreeReference>> getCandidates(EntitySearchIndex index,
+                                                             List<Entity<TreeReference>> entities,
+                                                             String term) {
+        return index.getCandidates(entities, new String[]{term}, false, Locale.ENGLISH);
+    }
+
+    private static Entity<TreeReference> getEntity(List<Entity<TreeReference>> entities, String name) {
+        for (Entity<TreeReference> entity : entities) {
+            if (name.equals(entity.getNormalizedField(0))) {
+                return entity;
+            }
+        }
+        throw new IllegalArgumentException("No entity named " + name);
+    }
+
+    private static List<Entity<TreeReference>> loadEntities() {
+        NodeEntityFactory factory = new NodeEntityFactory(
+                CommCareApplication.instance().getCurrentSession().getDetail("m1_case_short"),
+                TestUtils.getEvaluationContextWithAndroidIIF());
+        List<Entity<TreeReference>> entities = new ArrayList<>();
+        for (TreeReference ref : factory.expandReferenceList(
+                XPathReference.getPathExpr(CASE_LIST_NODESET).getReference())) {
+            entities.add(factory.getEntity(ref));
+        }
+        return entities;
+    }
+}
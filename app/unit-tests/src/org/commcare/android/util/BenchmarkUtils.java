@@ -0,0 +1,49 @@
+package org.commcare.android.util;
+
+import org.junit.Assume;
+
+import java.util.Locale;
+
+/**
+ * Shared setup for the benchmarks that live alongside the unit tests. They are skipped unless
+ * the tests are run with -Dcommcare.benchmark=true, and report their results on stdout.
+ */
+public class BenchmarkUtils {
+
+    private static final String BENCHMARK_PROPERTY = "commcare.benchmark";
+
+    public interface TimedTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * Skips the calling test unless benchmarks were asked for
+     */
+    public static void assumeBenchmarksEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    }
+
+    /**
+     * @return How long the task took to run, in milliseconds
+     */
+    public static long timeMillis(TimedTask task) throws Exception {
+        long start = System.nanoTime();
+        task.run();
+        return elapsedMillis(start);
+    }
+
+    public static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    /**
+     * @return Throughput of count operations over the elapsed time
+     */
+    public static double perSecond(int count, long elapsedMs) {
+        return count * 1000.0 / Math.max(1, elapsedMs);
+    }
+
+    public static void report(String format, Object... args) {
+        System.out.println(String.format(Locale.US, format, args));
+    }
+}
@@ -0,0 +1,127 @@
+package org.commcare.engine.cases;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.BenchmarkUtils;
+import org.commcare.android.util.TestUtils;
+import org.commcare.cases.util.CaseDBUtils;
+import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.user.models.CaseDbHashTable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure the running case db hash stays equal to a full scan of the cases through inserts,
+ * removals and wipes, and that verifying it recovers from a digest that has drifted.
+ *
+ * Also holds a benchmark of the running hash against a full scan, which is skipped unless the
+ * tests are run with -Dcommcare.benchmark=true
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class CaseDbHashTest {
+
+    private SqlStorage<ACase> storage;
+
+    @Before
+    public void setup() {
+        TestUtils.initializeStaticTestStorage();
+        storage = TestUtils.getCaseStorage();
+    }
+
+    @Test
+    public void testHashFollowsWrites() {
+        assertEquals("", CaseUtils.computeCaseDbHash(storage));
+
+        List<ACase> cases = writeCases(20);
+        assertHashMatchesScan();
+
+        ACase updated = cases.get(0);
+        updated.setProperty("test_value", "changed");
+        storage.write(updated);
+        assertHashMatchesScan();
+
+        storage.remove(cases.get(1).getID());
+        Vector<Integer> toRemove = new Vector<>();
+        toRemove.add(cases.get(2).getID());
+        toRemove.add(cases.get(3).getID());
+        storage.removeAll(toRemove);
+        assertHashMatchesScan();
+
+        storage.removeAll();
+        assertEquals("", CaseUtils.computeCaseDbHash(storage));
+    }
+
+    @Test
+    public void testHashFollowsCaseTransactions() {
+        TestUtils.processResourceTransaction("/inputs/case_create.xml");
+        assertHashMatchesScan();
+        TestUtils.processResourceTransaction("/inputs/case_create_and_index.xml");
+        assertHashMatchesScan();
+    }
+
+    @Test
+    public void testVerifyRebuildsDriftedHash() {
+        writeCases(5);
+        assertTrue(CaseUtils.verifyCaseDbHash(storage));
+
+        SQLiteDatabase db = storage.getAccessLock();
+        CaseDbHashTable.writeDigest(db, CaseDbHashTable.emptyDigest(), 1);
+        assertFalse(CaseUtils.verifyCaseDbHash(storage));
+        assertHashMatchesScan();
+
+        db.delete(CaseDbHashTable.TABLE_NAME, null, null);
+        assertNull(CaseDbHashTable.readHash(db));
+        assertHashMatchesScan();
+        assertEquals(CaseDBUtils.computeCaseDbHash(storage), CaseDbHashTable.readHash(db));
+    }
+
+    @Test
+    public void benchmarkRunningHashAgainstScan() {
+        BenchmarkUtils.assumeBenchmarksEnabled();
+
+        writeCases(20000);
+
+        long start = System.nanoTime();
+        String scanned = CaseUtils.rebuildCaseDbHash(storage);
+        long scanMs = BenchmarkUtils.elapsedMillis(start);
+
+        start = System.nanoTime();
+        String running = CaseUtils.computeCaseDbHash(storage);
+        long runningMs = BenchmarkUtils.elapsedMillis(start);
+
+        assertEquals(scanned, running);
+        BenchmarkUtils.report("case db hash over 20000 cases: full scan %dms, running digest %dms",
+                scanMs, runningMs);
+    }
+
+    private List<ACase> writeCases(int count) {
+        List<ACase> cases = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ACase c = new ACase("Case " + i, "hash_test");
+            c.setCaseId("hash_test_case_" + i);
+            cases.add(c);
+        }
+        storage.writeAll(cases);
+        return cases;
+    }
+
+    private void assertHashMatchesScan() {
+        assertEquals(CaseDBUtils.computeCaseDbHash(storage), CaseUtils.computeCaseDbHash(storage));
+    }
+}
@@ -0,0 +1,130 @@
+package org.commcare.engine.cases;
+
+import org.commcare.CommCareApplication;
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.TestAppInstaller;
+import org.commcare.cases.model.CaseIndex;
+import org.commcare.models.database.SqlStorage;
+import org.commcare.models.database.user.models.AndroidCaseIndexTable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Vector;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure the array based purge graph removes the same cases as CasePurgeFilter, and hands
+ * graphs it can't judge back to it
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class CasePurgeGraphTest {
+
+    private static final String OWNER = "owner";
+
+    private SqlStorage<ACase> storage;
+    private AndroidCaseIndexTable indexTable;
+    private Vector<String> owners;
+
+    @Before
+    public void setup() {
+        TestAppInstaller.installAppAndLogin(
+                "jr://resource/commcare-apps/archive_form_tests/profile.ccpr",
+                "test", "123");
+        storage = CommCareApplication.instance().getUserStorage(ACase.STORAGE_KEY, ACase.class);
+        indexTable = new AndroidCaseIndexTable();
+        owners = new Vector<>();
+        owners.add(OWNER);
+    }
+
+    @Test
+    public void testMatchesPurgeFilter() throws Exception {
+        ACase owned = writeCase("owned", OWNER, false);
+        writeCase("owned_parent", OWNER, true);
+        ACase unownedChild = writeCase("unowned_child", "other", false,
+                new CaseIndex("parent", "test", "owned", CaseIndex.RELATIONSHIP_CHILD));
+        ACase unownedExtension = writeCase("unowned_extension", "other", false,
+                new CaseIndex("host", "test", "owned", CaseIndex.RELATIONSHIP_EXTENSION));
+        ACase closedUnlinked = writeCase("closed_unlinked", OWNER, true);
+        ACase unownedHost = writeCase("unowned_host", "other", false);
+        ACase ownedExtension = writeCase("owned_extension", OWNER, false,
+                new CaseIndex("host", "test", "unowned_host", CaseIndex.RELATIONSHIP_EXTENSION));
+        writeCase("doubly_indexed", "other", false,
+                new CaseIndex("host", "test", "unowned_child", CaseIndex.RELATIONSHIP_EXTENSION),
+                new CaseIndex("parent", "test", "unowned_child", CaseIndex.RELATIONSHIP_CHILD));
+        owned.setIndex(new CaseIndex("parent", "test", "owned_parent", CaseIndex.RELATIONSHIP_CHILD));
+        storage.write(owned);
+        indexTable.clearCaseIndices(owned);
+        indexTable.indexCase(owned);
+
+        CasePurgeGraph graph = CasePurgeGraph.load(
+                CommCareApplication.instance().getUserDbHandle(), new HashSet<>(owners));
+        assertTrue(graph.isValid());
+        Set<Integer> removed = new HashSet<>(graph.getCasesToRemove());
+
+        assertEquals(new HashSet<>(CaseUtils.getCasesToRemoveWithFilter(storage, owners)), removed);
+        assertTrue(removed.contains(unownedChild.getID()));
+        assertTrue(removed.contains(closedUnlinked.getID()));
+        assertFalse(removed.contains(unownedExtension.getID()));
+        assertFalse(removed.contains(unownedHost.getID()));
+        assertFalse(removed.contains(ownedExtension.getID()));
+    }
+
+    @Test
+    public void testChildAndExtensionIndexToSameHostIsAnExtension() throws Exception {
+        writeCase("owned_host", OWNER, false);
+        // only kept through the extension index, since it isn't owned
+        ACase extension = writeCase("child_and_extension", "other", false,
+                new CaseIndex("parent", "test", "owned_host", CaseIndex.RELATIONSHIP_CHILD),
+                new CaseIndex("host", "test", "owned_host", CaseIndex.RELATIONSHIP_EXTENSION));
+
+        CasePurgeGraph graph = CasePurgeGraph.load(
+                CommCareApplication.instance().getUserDbHandle(), new HashSet<>(owners));
+        assertTrue(graph.isValid());
+        Set<Integer> removed = new HashSet<>(graph.getCasesToRemove());
+
+        assertEquals(new HashSet<>(CaseUtils.getCasesToRemoveWithFilter(storage, owners)), removed);
+        assertFalse(removed.contains(extension.getID()));
+    }
+
+    @Test
+    public void testMissingTargetIsInvalid() {
+        writeCase("orphan", OWNER, false,
+                new CaseIndex("parent", "test", "not_on_device", CaseIndex.RELATIONSHIP_CHILD));
+        assertFalse(CasePurgeGraph.load(
+                CommCareApplication.instance().getUserDbHandle(), new HashSet<>(owners)).isValid());
+    }
+
+    @Test
+    public void testCycleIsInvalid() {
+        writeCase("first", OWNER, false,
+                new CaseIndex("parent", "test", "second", CaseIndex.RELATIONSHIP_CHILD));
+        writeCase("second", OWNER, false,
+                new CaseIndex("parent", "test", "first", CaseIndex.RELATIONSHIP_CHILD));
+        assertFalse(CasePurgeGraph.load(
+                CommCareApplication.instance().getUserDbHandle(), new HashSet<>(owners)).isValid());
+    }
+
+    private ACase writeCase(String caseId, String ownerId, boolean closed, CaseIndex... indices) {
+        ACase c = new ACase(caseId, "test");
+        c.setCaseId(caseId);
+        c.setUserId(ownerId);
+        c.setClosed(closed);
+        for (CaseIndex index : indices) {
+            c.setIndex(index);
+        }
+        storage.write(c);
+        indexTable.indexCase(c);
+        return c;
+    }
+}
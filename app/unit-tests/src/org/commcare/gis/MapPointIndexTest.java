@@ -0,0 +1,89 @@
+package org.commcare.gis;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for finding and clustering map points through the grid index
+ */
+public class MapPointIndexTest {
+
+    @Test
+    public void testQueryMatchesScan() {
+        Random random = new Random(7);
+        int pointCount = 5000;
+        double[] latitudes = new double[pointCount];
+        double[] longitudes = new double[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            latitudes[i] = -40 + random.nextDouble() * 80;
+            longitudes[i] = -179 + random.nextDouble() * 358;
+        }
+        MapPointIndex index = new MapPointIndex(latitudes, longitudes);
+
+        double[][] viewports = {
+                {-10, -20, 10, 20},
+                {-90, -180, 90, 180},
+                {30, 100, 50, 179.5},
+                // crosses the antimeridian
+                {-20, 170, 20, -170},
+                {60, 0, 80, 10}
+        };
+        for (double[] viewport : viewports) {
+            Set<Integer> found = new HashSet<>();
+            index.query(viewport[0], viewport[1], viewport[2], viewport[3], found::add);
+
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < pointCount; i++) {
+                boolean inLongitude = viewport[1] <= viewport[3]
+                        ? longitudes[i] >= viewport[1] && longitudes[i] <= viewport[3]
+                        : longitudes[i] >= viewport[1] || longitudes[i] <= viewport[3];
+                if (latitudes[i] >= viewport[0] && latitudes[i] <= viewport[2] && inLongitude) {
+                    expected.add(i);
+                }
+            }
+            Assert.assertEquals(expected, found);
+        }
+    }
+
+    @Test
+    public void testClustersCoverVisiblePoints() {
+        double[] latitudes = {0.3, 0.3001, 0.3002, 10, 10.0001};
+        double[] longitudes = {32.5, 32.5001, 32.5002, 40, 40.0001};
+        MapPointIndex index = new MapPointIndex(latitudes, longitudes);
+
+        List<MapPointIndex.Cluster> zoomedOut = index.cluster(-90, -180, 90, 180, 3);
+        Assert.assertEquals(2, zoomedOut.size());
+        Assert.assertEquals(5, zoomedOut.get(0).getCount() + zoomedOut.get(1).getCount());
+
+        List<MapPointIndex.Cluster> zoomedIn = index.cluster(-90, -180, 90, 180, MapPointIndex.MAX_CLUSTER_ZOOM + 1);
+        Assert.assertEquals(5, zoomedIn.size());
+        Set<Integer> points = new HashSet<>();
+        for (MapPointIndex.Cluster cluster : zoomedIn) {
+            Assert.assertEquals(1, cluster.getCount());
+            points.add(cluster.getFirstPoint());
+        }
+        Assert.assertEquals(5, points.size());
+
+        // only points inside of the bounds are clustered
+        List<MapPointIndex.Cluster> partial = index.cluster(5, 35, 15, 45, 3);
+        Assert.assertEquals(1, partial.size());
+        Assert.assertEquals(2, partial.get(0).getCount());
+        Assert.assertEquals(10.00005, partial.get(0).getLatitude(), 1e-9);
+    }
+
+    @Test
+    public void testEmptyAndCoincidentPoints() {
+        MapPointIndex empty = new MapPointIndex(new double[0], new double[0]);
+        Assert.assertTrue(empty.cluster(-90, -180, 90, 180, 5).isEmpty());
+
+        MapPointIndex sameSpot = new MapPointIndex(new double[]{1, 1, 1}, new double[]{2, 2, 2});
+        List<MapPointIndex.Cluster> clusters = sameSpot.cluster(0, 0, 5, 5, 12);
+        Assert.assertEquals(1, clusters.size());
+        Assert.assertEquals(3, clusters.get(0).getCount());
+    }
+}
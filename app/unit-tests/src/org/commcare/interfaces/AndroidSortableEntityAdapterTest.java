@@ -0,0 +1,46 @@
+package org.commcare.interfaces;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for merging batches of entities into an already sorted list
+ */
+public class AndroidSortableEntityAdapterTest {
+
+    @Test
+    public void testMergeMatchesFullSort() {
+        Random random = new Random(11);
+        List<Integer> sorted = new ArrayList<>();
+        List<Integer> everything = new ArrayList<>();
+        for (int batch = 0; batch < 20; batch++) {
+            List<Integer> additions = new ArrayList<>();
+            int batchSize = random.nextInt(60);
+            for (int i = 0; i < batchSize; i++) {
+                additions.add(random.nextInt(100));
+            }
+            AndroidSortableEntityAdapter.mergeSorted(sorted, additions, Comparator.naturalOrder());
+
+            everything.addAll(additions);
+            List<Integer> expected = new ArrayList<>(everything);
+            Collections.sort(expected);
+            Assert.assertEquals(expected, sorted);
+        }
+    }
+
+    @Test
+    public void testExistingEntriesStayAheadOfEqualAdditions() {
+        // compared by their first letter only
+        Comparator<String> byFirstLetter = (a, b) -> Character.compare(a.charAt(0), b.charAt(0));
+        List<String> sorted = new ArrayList<>(Arrays.asList("a1", "b1", "c1"));
+        AndroidSortableEntityAdapter.mergeSorted(sorted, Arrays.asList("c2", "a2", "b2", "d2"), byFirstLetter);
+        Assert.assertEquals(Arrays.asList("a1", "a2", "b1", "b2", "c1", "c2", "d2"), sorted);
+    }
+}
@@ -0,0 +1,79 @@
+package org.commcare.logging;
+
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.javarosa.AndroidLogEntry;
+import org.commcare.android.util.TestUtils;
+import org.commcare.models.database.SqlStorage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kxml2.io.KXmlSerializer;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure a chunk limited log serializer only writes, and only purges, the entries that fit
+ * in its chunk.
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class AndroidLogSerializerTest {
+
+    private SqlStorage<AndroidLogEntry> storage;
+
+    @Before
+    public void setup() {
+        storage = TestUtils.getStorage("chunked_log_test", AndroidLogEntry.class);
+        for (int i = 0; i < 10; i++) {
+            storage.write(new AndroidLogEntry("test", "message " + i, new Date()));
+        }
+    }
+
+    @Test
+    public void testChunksCoverEveryEntryOnce() throws IOException {
+        LogChunkLimit firstLimit = new LogChunkLimit(4, Long.MAX_VALUE);
+        String firstChunk = serializeChunk(firstLimit);
+        assertTrue(firstLimit.wasReached());
+        assertTrue(firstChunk.contains("message 3"));
+        assertFalse(firstChunk.contains("message 4"));
+        assertEquals(6, storage.getNumRecords());
+
+        LogChunkLimit secondLimit = new LogChunkLimit(100, Long.MAX_VALUE);
+        String secondChunk = serializeChunk(secondLimit);
+        assertFalse(secondLimit.wasReached());
+        assertFalse(secondChunk.contains("message 3"));
+        assertTrue(secondChunk.contains("message 4"));
+        assertTrue(secondChunk.contains("message 9"));
+        assertEquals(0, storage.getNumRecords());
+    }
+
+    @Test
+    public void testOversizedEntryStillFits() throws IOException {
+        LogChunkLimit limit = new LogChunkLimit(100, 1);
+        String chunk = serializeChunk(limit);
+        assertTrue(limit.wasReached());
+        assertTrue(chunk.contains("message 0"));
+        assertFalse(chunk.contains("message 1"));
+    }
+
+    private String serializeChunk(LogChunkLimit limit) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        KXmlSerializer serializer = new KXmlSerializer();
+        serializer.setOutput(output, "UTF-8");
+
+        AndroidLogSerializer<AndroidLogEntry> logSerializer = new AndroidLogSerializer<>(storage, limit);
+        logSerializer.writeToDeviceReport(serializer);
+        serializer.flush();
+        logSerializer.purge();
+        return output.toString("UTF-8");
+    }
+}
@@ -0,0 +1,125 @@
+package org.commcare.logging;
+
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.javarosa.AndroidLogEntry;
+import org.commcare.android.util.TestUtils;
+import org.commcare.models.database.SqlStorage;
+import org.javarosa.core.services.storage.Persistable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Make sure a buffered logger writes out everything that was logged, in order, and records
+ * entries it had to drop.
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class AndroidLoggerTest {
+
+    private SqlStorage<AndroidLogEntry> storage;
+
+    @Before
+    public void setup() {
+        storage = TestUtils.getStorage("buffered_log_test", AndroidLogEntry.class);
+    }
+
+    @Test
+    public void testBufferedEntriesAreWrittenInOrder() {
+        AndroidLogger logger = new AndroidLogger(storage, true);
+        for (int i = 0; i < 250; i++) {
+            logger.log("test", "message " + i, new Date());
+        }
+        assertEquals(250, logger.logSize());
+
+        List<String> messages = new ArrayList<>();
+        for (AndroidLogEntry entry : storage) {
+            messages.add(entry.getMessage());
+        }
+        for (int i = 0; i < 250; i++) {
+            assertEquals("message " + i, messages.get(i));
+        }
+        logger.halt();
+    }
+
+    @Test
+    public void testDroppedEntriesAreAccountedFor() {
+        AndroidLogger logger = new AndroidLogger(storage, true);
+        // how many fit in the queue depends on how quickly the background thread drains it
+        for (int i = 0; i < 5000; i++) {
+            logger.log("test", "message " + i, new Date());
+        }
+        logger.panic();
+
+        int written = 0;
+        int dropped = 0;
+        for (AndroidLogEntry entry : storage) {
+            String message = entry.getMessage();
+            if (message.contains("log entries were dropped")) {
+                dropped += Integer.parseInt(message.substring(0, message.indexOf(' ')));
+            } else {
+                written++;
+            }
+        }
+        assertEquals(5000, written + dropped);
+        logger.halt();
+    }
+
+    @Test
+    public void testHaltedLoggerWritesImmediately() {
+        AndroidLogger logger = new AndroidLogger(storage, true);
+        logger.log("test", "before halt", new Date());
+        logger.halt();
+        assertEquals(1, storage.getNumRecords());
+
+        logger.log("test", "after halt", new Date());
+        assertEquals(2, storage.getNumRecords());
+    }
+
+    @Test
+    public void testHaltingBufferedLoggingWritesPendingEntries() {
+        AndroidLogger logger = new AndroidLogger(storage, true);
+        logger.log("test", "before halt", new Date());
+        AndroidLogger.haltBufferedLogging();
+        assertEquals(1, storage.getNumRecords());
+
+        // nothing is left queued once the logger has been halted
+        logger.log("test", "after halt", new Date());
+        assertEquals(2, storage.getNumRecords());
+    }
+
+    @Test
+    public void testUnwritableEntriesGoToFallbackStorage() {
+        SqlStorage<AndroidLogEntry> fallback =
+                TestUtils.getStorage("buffered_log_fallback_test", AndroidLogEntry.class);
+        // stands in for storage whose database has been closed
+        SqlStorage<AndroidLogEntry> failing = new SqlStorage<AndroidLogEntry>(
+                "buffered_log_test", AndroidLogEntry.class, null) {
+            @Override
+            public void writeAll(Collection<? extends Persistable> records) {
+                throw new IllegalStateException("database closed");
+            }
+        };
+
+        AndroidLogger logger = new AndroidLogger(failing, true, fallback);
+        for (int i = 0; i < 10; i++) {
+            logger.log("test", "message " + i, new Date());
+        }
+        logger.halt();
+        assertEquals(10, fallback.getNumRecords());
+
+        logger.log("test", "after halt", new Date());
+        assertEquals(11, fallback.getNumRecords());
+        assertEquals(0, storage.getNumRecords());
+    }
+}
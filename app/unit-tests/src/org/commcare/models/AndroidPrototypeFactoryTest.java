@@ -0,0 +1,246 @@
+package org.commcare.models;
+
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.javarosa.AndroidXFormExtensions;
+import org.commcare.android.util.BenchmarkUtils;
+import org.javarosa.core.util.externalizable.ExtUtil;
+import org.javarosa.core.util.externalizable.Hasher;
+import org.javarosa.core.util.externalizable.PrototypeFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Make sure class lookups resolve the same when the prototype map is read from several
+ * threads while it's being initialized.
+ *
+ * Also holds a serialization and deserialization throughput benchmark against the previous
+ * Hashtable and synchronized hasher implementations, which is skipped unless the tests are
+ * run with -Dcommcare.benchmark=true
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class AndroidPrototypeFactoryTest {
+
+    private static final int THREADS = 4;
+
+    private HashSet<String> classNames;
+
+    @Before
+    public void setup() {
+        classNames = new HashSet<>(CommCareTestApplication.getTestPrototypeFactoryClasses());
+        AndroidClassHasher.registerAndroidClassHashStrategy();
+    }
+
+    @After
+    public void tearDown() {
+        AndroidClassHasher.registerAndroidClassHashStrategy();
+    }
+
+    @Test
+    public void testConcurrentLookupsDuringInit() throws Exception {
+        final AndroidPrototypeFactory factory = new AndroidPrototypeFactory(classNames);
+        final byte[] hash = AndroidClassHasher.getInstance().getClassHashValue(ACase.class);
+
+        List<Callable<Class>> lookups = new ArrayList<>();
+        for (int i = 0; i < THREADS * 4; i++) {
+            lookups.add(() -> factory.getClass(hash));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (Future<Class> lookup : executor.invokeAll(lookups)) {
+                assertEquals(ACase.class, lookup.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMigratedAndAddedClassesResolve() {
+        AndroidPrototypeFactory factory = new AndroidPrototypeFactory(null);
+        byte[] oldHash = AndroidClassHasher.getInstance()
+                .getClassnameHash("org.odk.collect.android.jr.extensions.AndroidXFormExtensions");
+        assertEquals(AndroidXFormExtensions.class, factory.getClass(oldHash));
+
+        // added after initialization, so it lands in a copy of the published map
+        factory.addClass(ACase.class);
+        assertEquals(ACase.class,
+                factory.getClass(AndroidClassHasher.getInstance().getClassHashValue(ACase.class)));
+        assertEquals(AndroidXFormExtensions.class, factory.getClass(oldHash));
+    }
+
+    @Test
+    public void testHashesMatchAcrossThreads() throws Exception {
+        final AndroidClassHasher hasher = AndroidClassHasher.getInstance();
+        List<Callable<byte[]>> hashes = new ArrayList<>();
+        for (int i = 0; i < THREADS * 4; i++) {
+            hashes.add(() -> hasher.getClassnameHash(ACase.class.getName()));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (Future<byte[]> hash : executor.invokeAll(hashes)) {
+                assertArrayEquals(hasher.getClassHashValue(ACase.class), hash.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void benchmarkDeserializationThroughput() throws Exception {
+        BenchmarkUtils.assumeBenchmarksEnabled();
+
+        final int caseCount = 20000;
+        List<ACase> cases = new ArrayList<>();
+        for (int i = 0; i < caseCount; i++) {
+            ACase c = new ACase("Case " + i, "case");
+            c.setCaseId("generated_case_" + i);
+            for (int j = 0; j < 10; j++) {
+                c.setProperty("property_" + j, "value " + i + " " + j);
+            }
+            cases.add(c);
+        }
+
+        PrototypeFactory.setStaticHasher(new LegacyClassHasher());
+        long legacySerializeMs = serializeAll(cases, new ArrayList<byte[]>());
+        AndroidClassHasher.registerAndroidClassHashStrategy();
+        List<byte[]> serialized = new ArrayList<>();
+        long serializeMs = serializeAll(cases, serialized);
+
+        long legacyDeserializeMs = deserializeAll(serialized, new LegacyPrototypeFactory(classNames));
+        long deserializeMs = deserializeAll(serialized, new AndroidPrototypeFactory(classNames));
+
+        BenchmarkUtils.report(
+                "%d cases x%d threads: serialize %dms -> %dms, deserialize %dms (%.0f/s) -> %dms (%.0f/s)",
+                caseCount, THREADS, legacySerializeMs, serializeMs,
+                legacyDeserializeMs, BenchmarkUtils.perSecond(caseCount, legacyDeserializeMs),
+                deserializeMs, BenchmarkUtils.perSecond(caseCount, deserializeMs));
+    }
+
+    private static long serializeAll(final List<ACase> cases, final List<byte[]> output)
+            throws Exception {
+        final byte[][] results = new byte[cases.size()][];
+        long elapsed = runAcrossThreads(cases.size(), index -> results[index] = ExtUtil.serialize(cases.get(index)));
+        for (byte[] result : results) {
+            output.add(result);
+        }
+        return elapsed;
+    }
+
+    private static long deserializeAll(final List<byte[]> serialized, final PrototypeFactory factory)
+            throws Exception {
+        // warm up the factory so that initialization isn't part of the measurement
+        ExtUtil.deserialize(serialized.get(0), ACase.class, factory);
+        return runAcrossThreads(serialized.size(),
+                index -> ExtUtil.deserialize(serialized.get(index), ACase.class, factory));
+    }
+
+    private interface IndexedTask {
+        void run(int index) throws Exception;
+    }
+
+    private static long runAcrossThreads(final int count, final IndexedTask task) throws Exception {
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            workers.add(() -> {
+                for (int i = offset; i < count; i += THREADS) {
+                    task.run(i);
+                }
+                return null;
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            return BenchmarkUtils.timeMillis(() -> {
+                for (Future<Void> worker : executor.invokeAll(workers)) {
+                    worker.get();
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Boxed Hashtable lookups, as AndroidPrototypeFactory did before moving to a primitive map
+     */
+    private static class LegacyPrototypeFactory extends PrototypeFactory {
+        private Hashtable<Integer, Class> prototypes;
+
+        LegacyPrototypeFactory(HashSet<String> classNames) {
+            super(AndroidClassHasher.getInstance(), classNames);
+        }
+
+        @Override
+        protected void lazyInit() {
+            initialized = false;
+            prototypes = new Hashtable<>();
+            super.lazyInit();
+        }
+
+        private Integer hashAsInteger(byte[] hash) {
+            return (hash[3]) + (hash[2] << 8) + (hash[1] << 16) + (hash[0] << 24);
+        }
+
+        @Override
+        public Class getClass(byte[] hash) {
+            if (!initialized) {
+                lazyInit();
+            }
+            return prototypes.get(hashAsInteger(hash));
+        }
+
+        @Override
+        protected void storeHash(Class c, byte[] hash) {
+            prototypes.put(hashAsInteger(hash), c);
+        }
+    }
+
+    /**
+     * Hash cache behind a single lock, as AndroidClassHasher did before going lock-free
+     */
+    private static class LegacyClassHasher extends Hasher {
+        private final HashMap<String, byte[]> classNameHashMap = new HashMap<>();
+
+        @Override
+        public synchronized byte[] getHash(Class c) {
+            String name = c.getName();
+            if (classNameHashMap.containsKey(name)) {
+                return classNameHashMap.get(name);
+            }
+            byte[] hash;
+            try {
+                hash = java.security.MessageDigest.getInstance("MD5").digest(name.getBytes());
+            } catch (java.security.NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            classNameHashMap.put(name, hash);
+            return hash;
+        }
+
+        @Override
+        public int getHashSize() {
+            return AndroidClassHasher.getInstance().getHashSize();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.commcare.models.database;
+
+import android.database.Cursor;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.BenchmarkUtils;
+import org.commcare.models.database.user.DatabaseUserOpenHelper;
+import org.commcare.modern.database.DatabaseHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Make sure a user database opened with write-ahead logging can be read from a reader
+ * connection while a write transaction is open.
+ *
+ * Also holds a benchmark of read latency during a long write transaction, on the writer
+ * connection versus a reader connection, which is skipped unless the tests are run with
+ * -Dcommcare.benchmark=true
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class DbProfileTest {
+
+    private static final String SANDBOX_ID = "wal_test";
+    private static final String KEY = "wal_test_key";
+
+    private static final DbProfile WAL_PROFILE =
+            new DbProfile(true, DbProfile.DEFAULT_CIPHER_PAGE_SIZE, 2048, true);
+
+    private SQLiteDatabase writer;
+    private SQLiteDatabase reader;
+
+    @Before
+    public void setup() {
+        writer = new DatabaseUserOpenHelper(ApplicationProvider.getApplicationContext(), SANDBOX_ID, WAL_PROFILE)
+                .getWritableDatabase(KEY);
+        reader = DbUtil.openReaderConnection(ApplicationProvider.getApplicationContext(),
+                DatabaseUserOpenHelper.getDbName(SANDBOX_ID), KEY, WAL_PROFILE);
+    }
+
+    @After
+    public void tearDown() {
+        reader.close();
+        writer.close();
+    }
+
+    @Test
+    public void testReaderSeesLastCommit() {
+        Cursor mode = writer.rawQuery("PRAGMA journal_mode;", null);
+        mode.moveToFirst();
+        assertEquals("wal", mode.getString(0).toLowerCase());
+        mode.close();
+
+        insertCases(10);
+        writer.beginTransaction();
+        try {
+            insertCases(5);
+            assertEquals(10, countCases(reader));
+            assertEquals(15, countCases(writer));
+        } finally {
+            writer.endTransaction();
+        }
+        assertEquals(10, countCases(reader));
+    }
+
+    @Test
+    public void benchmarkReadLatencyDuringSync() throws Exception {
+        BenchmarkUtils.assumeBenchmarksEnabled();
+
+        insertCases(5000);
+        List<Long> writerLatencies = readDuringWrite(writer);
+        List<Long> readerLatencies = readDuringWrite(reader);
+
+        BenchmarkUtils.report(
+                "read latency during sync, median/max: writer connection %d/%dms, reader connection %d/%dms",
+                median(writerLatencies), Collections.max(writerLatencies),
+                median(readerLatencies), Collections.max(readerLatencies));
+    }
+
+    /**
+     * Times reads on the provided connection while another thread holds a write transaction,
+     * the way a sync does for its whole restore
+     */
+    private List<Long> readDuringWrite(SQLiteDatabase readConnection) throws Exception {
+        final CountDownLatch transactionStarted = new CountDownLatch(1);
+        final AtomicBoolean reading = new AtomicBoolean(true);
+        Thread sync = new Thread(() -> {
+            writer.beginTransaction();
+            try {
+                transactionStarted.countDown();
+                while (reading.get()) {
+                    insertCases(50);
+                }
+                writer.setTransactionSuccessful();
+            } finally {
+                writer.endTransaction();
+            }
+        });
+        sync.start();
+        transactionStarted.await();
+
+        List<Long> latencies = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            // stop the writer once the read is stuck behind it, so that reads always finish
+            Thread releaseWriter = new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                reading.set(false);
+            });
+            releaseWriter.start();
+            countCases(readConnection);
+            latencies.add(BenchmarkUtils.elapsedMillis(start));
+            releaseWriter.interrupt();
+            if (!reading.get()) {
+                break;
+            }
+        }
+        reading.set(false);
+        sync.join();
+        return latencies;
+    }
+
+    private void insertCases(int count) {
+        for (int i = 0; i < count; i++) {
+            writer.execSQL("INSERT INTO " + ACase.STORAGE_KEY + " (" + DatabaseHelper.DATA_COL + ") VALUES (?)",
+                    new Object[]{new byte[64]});
+        }
+    }
+
+    private static int countCases(SQLiteDatabase db) {
+        Cursor c = db.rawQuery("SELECT COUNT(*) FROM " + ACase.STORAGE_KEY, null);
+        try {
+            c.moveToFirst();
+            return c.getInt(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
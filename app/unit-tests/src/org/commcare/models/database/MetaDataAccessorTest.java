@@ -0,0 +1,142 @@
+package org.commcare.models.database;
+
+import android.content.ContentValues;
+
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.database.user.models.FormRecord;
+import org.commcare.android.util.TestUtils;
+import org.commcare.modern.database.DatabaseHelper;
+import org.javarosa.core.services.storage.IMetaData;
+import org.javarosa.core.util.externalizable.Externalizable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure the compiled metadata accessors produce the same columns and values as
+ * DatabaseHelper's reflective metadata extraction, and that records written through them
+ * read back the same.
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class MetaDataAccessorTest {
+
+    @Before
+    public void setup() {
+        TestUtils.initializeStaticTestStorage();
+    }
+
+    @Test
+    public void testMatchesDatabaseHelperMetaData() {
+        ACase c = new ACase("Accessor Case", "accessor_case");
+        c.setCaseId("accessor_case_id");
+        assertMatchesDatabaseHelper(c);
+
+        FormRecord record = new FormRecord(FormRecord.STATUS_UNSTARTED, "some form",
+                new byte[]{1, 2, 3}, null, new Date(0), "some app id");
+        assertMatchesDatabaseHelper(record);
+
+        assertSame(MetaDataAccessor.forRecord(record), MetaDataAccessor.forRecord(new FormRecord()));
+    }
+
+    private static void assertMatchesDatabaseHelper(Externalizable e) {
+        HashMap<String, Object> expected = DatabaseHelper.getNonDataMetaEntries(e);
+        ContentValues actual = new ContentValues();
+        MetaDataAccessor accessor = MetaDataAccessor.forRecord(e);
+        accessor.copyValues(accessor.readValues(e), actual);
+
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<String, Object> entry : expected.entrySet()) {
+            assertEquals(String.valueOf(entry.getValue()), actual.getAsString(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testWriteAndUpdateRoundTrip() {
+        SqlStorage<ACase> storage = TestUtils.getCaseStorage();
+        ACase c = new ACase("Accessor Case", "accessor_case");
+        c.setCaseId("accessor_case_id");
+        storage.write(c);
+
+        ACase read = storage.getRecordForValue(ACase.INDEX_CASE_ID, "accessor_case_id");
+        assertEquals(c.getID(), read.getID());
+        assertEquals("Accessor Case", read.getName());
+        assertEquals("accessor_case",
+                storage.getMetaDataFieldForRecord(c.getID(), ACase.INDEX_CASE_TYPE));
+
+        c.setName("Renamed Case");
+        c.setTypeId("renamed_case");
+        storage.write(c);
+        assertEquals("Renamed Case", storage.read(c.getID()).getName());
+        assertEquals("renamed_case",
+                storage.getMetaDataFieldForRecord(c.getID(), ACase.INDEX_CASE_TYPE));
+    }
+
+    @Test
+    public void testUnsetFieldsAreLeftOutOfWrites() {
+        MetaDataAccessor accessor = MetaDataAccessor.forRecord(new FormRecord());
+        String[] values = accessor.readValues(new FormRecord());
+        BitSet presentColumns = accessor.getPresentColumns(values);
+
+        assertTrue(presentColumns.isEmpty());
+        assertEquals("INSERT INTO some_table (" + DatabaseHelper.DATA_COL + ") VALUES (?)",
+                accessor.getInsertSql("some_table", presentColumns));
+        for (String value : values) {
+            assertNull(value);
+        }
+    }
+
+    @Test
+    public void testUnsetFieldsOfWideRecordsAreLeftOutOfWrites() {
+        WideRecord record = new WideRecord(70);
+        record.values.put("field_65", null);
+        MetaDataAccessor accessor = MetaDataAccessor.forRecord(record);
+        String[] values = accessor.readValues(record);
+        BitSet presentColumns = accessor.getPresentColumns(values);
+
+        assertEquals(69, presentColumns.cardinality());
+        assertFalse(presentColumns.get(65));
+        assertTrue(presentColumns.get(69));
+        String updateSql = accessor.getUpdateSql("some_table", presentColumns);
+        assertFalse(updateSql.contains("field_65"));
+        assertTrue(updateSql.contains("field_69 = ?"));
+    }
+
+    private static class WideRecord implements IMetaData {
+        final String[] fields;
+        final HashMap<String, String> values = new HashMap<>();
+
+        WideRecord(int fieldCount) {
+            fields = new String[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                fields[i] = String.format("field_%02d", i);
+                values.put(fields[i], "value " + i);
+            }
+        }
+
+        @Override
+        public String[] getMetaDataFields() {
+            return fields;
+        }
+
+        @Override
+        public Object getMetaData(String fieldName) {
+            return values.get(fieldName);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.commcare.models.database;
+
+import org.commcare.CommCareTestApplication;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.TestUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure the single-row read paths of SqlStorage behave the same when their statements
+ * are served out of the statement cache.
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class SqlStorageStatementCacheTest {
+
+    @Before
+    public void setup() {
+        TestUtils.initializeStaticTestStorage();
+        TestUtils.processResourceTransaction("/inputs/case_create.xml");
+    }
+
+    @Test
+    public void testStatementsAreReused() {
+        SqlStorage<ACase> storage = TestUtils.getCaseStorage();
+        int id = storage.getRecordForValue(ACase.INDEX_CASE_ID, "test_case_id").getID();
+
+        SqlStorageStatementCache cache = storage.getStatementCache();
+        long compiledBefore = cache.getStatementsCompiled();
+
+        assertTrue(storage.exists(id));
+        assertFalse(storage.exists(id + 1000));
+        assertTrue(storage.exists(id));
+
+        // only the first existence check should need to compile a statement
+        assertEquals(compiledBefore + 1, cache.getStatementsCompiled());
+        assertTrue(cache.getStatementsReused() >= 2);
+
+        assertEquals("test_case_id",
+                storage.getMetaDataFieldForRecord(id, ACase.INDEX_CASE_ID));
+        assertEquals("test_case_id",
+                storage.getMetaDataForRecord(id, new String[]{ACase.INDEX_CASE_ID})[0]);
+        assertEquals("Test Case", storage.read(id).getName());
+    }
+
+    @Test
+    public void testBatchWriteReusesStatements() {
+        SqlStorage<ACase> storage = TestUtils.getCaseStorage();
+        SqlStorageStatementCache cache = storage.getStatementCache();
+
+        List<ACase> cases = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ACase c = new ACase("Batch Case " + i, "batch_case");
+            c.setCaseId("batch_case_" + i);
+            cases.add(c);
+        }
+        long compiledBefore = cache.getStatementsCompiled();
+        storage.writeAll(cases);
+        assertEquals(compiledBefore + 1, cache.getStatementsCompiled());
+
+        for (ACase c : cases) {
+            c.setName(c.getName() + " updated");
+        }
+        storage.writeAll(cases);
+        assertEquals(compiledBefore + 2, cache.getStatementsCompiled());
+
+        ACase written = storage.getRecordForValue(ACase.INDEX_CASE_ID, "batch_case_3");
+        assertEquals(cases.get(3).getID(), written.getID());
+        assertEquals("Batch Case 3 updated", written.getName());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testMissingMetaDataField() {
+        SqlStorage<ACase> storage = TestUtils.getCaseStorage();
+        storage.getMetaDataFieldForRecord(Integer.MAX_VALUE, ACase.INDEX_CASE_ID);
+    }
+}
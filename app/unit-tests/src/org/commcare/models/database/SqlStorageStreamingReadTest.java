@@ -0,0 +1,130 @@
+package org.commcare.models.database;
+
+import org.commcare.CommCareTestApplication;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.TestUtils;
+import org.javarosa.core.model.condition.RequestAbandonedException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Make sure the streaming bulk reads of SqlStorage hand over the same records as the
+ * collecting versions, across more than one query chunk, and stop when abandoned.
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class SqlStorageStreamingReadTest {
+
+    private static final int CASE_COUNT = 1200;
+
+    private SqlStorage<ACase> storage;
+    private final List<Integer> recordIds = new ArrayList<>();
+    private final List<String> caseIds = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        TestUtils.initializeStaticTestStorage();
+        storage = TestUtils.getCaseStorage();
+
+        List<ACase> cases = new ArrayList<>();
+        for (int i = 0; i < CASE_COUNT; i++) {
+            ACase c = new ACase("Streamed Case " + i, "streamed_case");
+            c.setCaseId("streamed_case_" + i);
+            cases.add(c);
+        }
+        storage.writeAll(cases);
+        for (ACase c : cases) {
+            recordIds.add(c.getID());
+            caseIds.add(c.getCaseId());
+        }
+    }
+
+    @Test
+    public void testBulkReadStreamsEveryRecord() {
+        final HashMap<Integer, String> streamed = new HashMap<>();
+        storage.bulkRead(recordIds, (recordId, record) -> {
+            assertEquals(recordId, record.getID());
+            assertFalse(streamed.containsKey(recordId));
+            streamed.put(recordId, record.getCaseId());
+        });
+        assertEquals(CASE_COUNT, streamed.size());
+
+        HashMap<Integer, ACase> collected = new HashMap<>();
+        storage.bulkRead(new LinkedHashSet<>(recordIds), collected);
+        assertEquals(CASE_COUNT, collected.size());
+        for (Integer id : recordIds) {
+            assertEquals(collected.get(id).getCaseId(), streamed.get(id));
+        }
+    }
+
+    @Test
+    public void testIndexReadStreamsEveryMatch() {
+        final Set<String> streamed = new HashSet<>();
+        storage.getBulkRecordsForIndex(ACase.INDEX_CASE_ID, caseIds,
+                (recordId, record) -> assertTrue(streamed.add(record.getCaseId())));
+        assertEquals(new HashSet<>(caseIds), streamed);
+
+        Vector<ACase> collected = storage.getBulkRecordsForIndex(ACase.INDEX_CASE_ID, caseIds);
+        assertEquals(CASE_COUNT, collected.size());
+    }
+
+    @Test
+    public void testInterruptedReadsAreAbandoned() {
+        final int[] consumed = {0};
+        try {
+            storage.bulkRead(recordIds, (recordId, record) -> {
+                if (++consumed[0] == 10) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            fail("An interrupted bulk read should be abandoned");
+        } catch (RequestAbandonedException e) {
+            assertEquals(10, consumed[0]);
+        }
+
+        consumed[0] = 0;
+        try {
+            storage.getBulkRecordsForIndex(ACase.INDEX_CASE_ID, caseIds, (recordId, record) -> {
+                if (++consumed[0] == 10) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            fail("An interrupted index read should be abandoned");
+        } catch (RequestAbandonedException e) {
+            assertEquals(10, consumed[0]);
+        }
+        // the read clears the interrupt it acted on
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testConsumerCanStopTheRead() {
+        final int[] consumed = {0};
+        try {
+            storage.bulkRead(recordIds, (recordId, record) -> {
+                if (++consumed[0] == 5) {
+                    throw new RequestAbandonedException();
+                }
+            });
+            fail("The consumer's exception should end the read");
+        } catch (RequestAbandonedException e) {
+            assertEquals(5, consumed[0]);
+        }
+    }
+}
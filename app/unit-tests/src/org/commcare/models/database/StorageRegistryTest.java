@@ -0,0 +1,59 @@
+package org.commcare.models.database;
+
+import org.commcare.CommCareApplication;
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.app.models.FormDefRecord;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.TestAppInstaller;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Make sure user storages are shared for a session and count what goes through them
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class StorageRegistryTest {
+
+    @Before
+    public void setup() {
+        TestAppInstaller.installAppAndLogin(
+                "jr://resource/commcare-apps/archive_form_tests/profile.ccpr",
+                "test", "123");
+    }
+
+    @Test
+    public void testStoragesAreShared() {
+        CommCareApplication app = CommCareApplication.instance();
+        assertSame(app.getUserStorage(ACase.STORAGE_KEY, ACase.class),
+                app.getUserStorage(ACase.STORAGE_KEY, ACase.class));
+        assertSame(app.getAppStorage(FormDefRecord.class), app.getAppStorage(FormDefRecord.class));
+    }
+
+    @Test
+    public void testAccessIsCounted() {
+        CommCareApplication app = CommCareApplication.instance();
+        StorageRegistry.TableAccessCounter counter =
+                app.getUserStorageRegistry().getAccessCounter(ACase.STORAGE_KEY);
+        long reads = counter.getReads();
+        long writes = counter.getWrites();
+
+        SqlStorage<ACase> storage = app.getUserStorage(ACase.STORAGE_KEY, ACase.class);
+        ACase c = new ACase("Counted Case", "counted");
+        c.setCaseId("counted_case");
+        storage.write(c);
+        storage.read(c.getID());
+        storage.read(c.getID());
+        storage.remove(c.getID());
+
+        assertEquals(reads + 2, counter.getReads());
+        assertEquals(writes + 2, counter.getWrites());
+    }
+}
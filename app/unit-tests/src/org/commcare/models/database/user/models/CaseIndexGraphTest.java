@@ -0,0 +1,131 @@
+package org.commcare.models.database.user.models;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.commcare.CommCareApplication;
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.TestAppInstaller;
+import org.commcare.cases.model.CaseIndex;
+import org.commcare.models.database.SqlStorage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Vector;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure the in-memory index graph answers the same as the index table itself through
+ * index writes, clears, wipes and rolled back transactions
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class CaseIndexGraphTest {
+
+    private SqlStorage<ACase> storage;
+    private SQLiteDatabase db;
+    private AndroidCaseIndexTable graphTable;
+    private AndroidCaseIndexTable sqlTable;
+
+    @Before
+    public void setup() {
+        TestAppInstaller.installAppAndLogin(
+                "jr://resource/commcare-apps/archive_form_tests/profile.ccpr",
+                "test", "123");
+        storage = CommCareApplication.instance().getUserStorage(ACase.STORAGE_KEY, ACase.class);
+        db = CommCareApplication.instance().getUserDbHandle();
+        graphTable = new AndroidCaseIndexTable();
+        sqlTable = new AndroidCaseIndexTable(db);
+    }
+
+    @Test
+    public void testGraphFollowsIndexWrites() {
+        writeCase("mother");
+        writeCase("father");
+        ACase first = writeCase("first", parent("mother"), new CaseIndex("father", "test", "father", CaseIndex.RELATIONSHIP_CHILD));
+        writeCase("second", parent("mother"));
+        assertGraphMatchesTable();
+
+        graphTable.clearCaseIndices(first);
+        first.setIndex(parent("father"));
+        graphTable.indexCase(first);
+        assertGraphMatchesTable();
+
+        List<Integer> cleared = new ArrayList<>();
+        cleared.add(first.getID());
+        graphTable.clearCaseIndices(cleared);
+        assertGraphMatchesTable();
+
+        writeCase("third", parent("father"));
+        assertGraphMatchesTable();
+
+        graphTable.wipeTable();
+        assertTrue(graphTable.getCasesMatchingIndex("parent", "mother").isEmpty());
+        assertGraphMatchesTable();
+    }
+
+    @Test
+    public void testGraphRecoversFromRollback() {
+        writeCase("mother");
+        writeCase("first", parent("mother"));
+        assertGraphMatchesTable();
+
+        db.beginTransaction();
+        try {
+            writeCase("second", parent("mother"));
+            assertEquals(2, graphTable.getCasesMatchingIndex("parent", "mother").size());
+        } finally {
+            db.endTransaction();
+        }
+
+        assertEquals(1, graphTable.getCasesMatchingIndex("parent", "mother").size());
+        assertGraphMatchesTable();
+    }
+
+    private ACase writeCase(String caseId, CaseIndex... indices) {
+        ACase c = new ACase(caseId, "test");
+        c.setCaseId(caseId);
+        for (CaseIndex index : indices) {
+            c.setIndex(index);
+        }
+        storage.write(c);
+        graphTable.indexCase(c);
+        return c;
+    }
+
+    private static CaseIndex parent(String target) {
+        return new CaseIndex("parent", "test", target, CaseIndex.RELATIONSHIP_CHILD);
+    }
+
+    private void assertGraphMatchesTable() {
+        for (String indexName : new String[]{"parent", "father"}) {
+            for (String target : new String[]{"mother", "father"}) {
+                assertEquals(new HashSet<>(sqlTable.getCasesMatchingIndex(indexName, target)),
+                        new HashSet<>(graphTable.getCasesMatchingIndex(indexName, target)));
+            }
+            assertEquals(new HashSet<>(sqlTable.getCasesMatchingValueSet(indexName, new String[]{"mother", "father"})),
+                    new HashSet<>(graphTable.getCasesMatchingValueSet(indexName, new String[]{"mother", "father"})));
+            assertEquals(loadIndexCache(sqlTable, indexName), loadIndexCache(graphTable, indexName));
+        }
+    }
+
+    private static HashMap<String, HashSet<Integer>> loadIndexCache(AndroidCaseIndexTable table, String indexName) {
+        HashMap<String, Vector<Integer>> cache = new HashMap<>();
+        table.loadIntoIndexTable(cache, indexName);
+        HashMap<String, HashSet<Integer>> sets = new HashMap<>();
+        for (String key : cache.keySet()) {
+            sets.put(key, new HashSet<>(cache.get(key)));
+        }
+        return sets;
+    }
+}
@@ -0,0 +1,102 @@
+package org.commcare.models.database.user.models;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.commcare.AppUtils;
+import org.commcare.CommCareApplication;
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.util.TestAppInstaller;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Make sure the in-memory layer of the entity cache never serves a value the entity_cache
+ * table doesn't hold, including after rolled back transactions
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class EntityCacheMemoryLayerTest {
+
+    private SQLiteDatabase db;
+    private CommCareEntityStorageCache cache;
+    private EntityCacheMemoryLayer layer;
+
+    @Before
+    public void setup() {
+        TestAppInstaller.installAppAndLogin(
+                "jr://resource/commcare-apps/archive_form_tests/profile.ccpr",
+                "test", "123");
+        db = CommCareApplication.instance().getUserDbHandle();
+        cache = new CommCareEntityStorageCache("case");
+        layer = EntityCacheMemoryLayer.getLayer(db);
+    }
+
+    @Test
+    public void testRolledBackValuesAreNotServed() {
+        cache.cache("1", "detail_0", "committed");
+
+        db.beginTransaction();
+        try {
+            cache.cache("1", "detail_0", "rolled back");
+            cache.cache("2", "detail_0", "rolled back");
+            // inside of the transaction the table is read through
+            assertEquals("rolled back", cache.retrieveCacheValue("1", "detail_0"));
+        } finally {
+            db.endTransaction();
+        }
+
+        assertEquals("committed", cache.retrieveCacheValue("1", "detail_0"));
+        assertNull(cache.retrieveCacheValue("2", "detail_0"));
+    }
+
+    @Test
+    public void testValuesAreKeptOnceCommitted() throws IOException {
+        Closeable lock = cache.lockCache();
+        try {
+            cache.cache("1", "detail_0", "value");
+            int hitsBefore = layer.getHitCount();
+            cache.retrieveCacheValue("1", "detail_0");
+            // nothing is served from memory until the transaction commits
+            assertEquals(hitsBefore, layer.getHitCount());
+        } finally {
+            lock.close();
+        }
+
+        int hitsBefore = layer.getHitCount();
+        assertEquals("value", cache.retrieveCacheValue("1", "detail_0"));
+        assertEquals(hitsBefore + 1, layer.getHitCount());
+    }
+
+    @Test
+    public void testInvalidationDropsStagedValues() throws IOException {
+        Closeable lock = cache.lockCache();
+        try {
+            cache.cache("1", "detail_0", "value");
+            cache.invalidateCache("1");
+        } finally {
+            lock.close();
+        }
+        assertNull(cache.retrieveCacheValue("1", "detail_0"));
+    }
+
+    @Test
+    public void testLayersAreDroppedWithTheUserDb() {
+        cache.cache("1", "detail_0", "value");
+        EntityCacheMemoryLayer.clearLayers();
+
+        EntityCacheMemoryLayer freshLayer = EntityCacheMemoryLayer.getLayer(db);
+        assertNotSame(layer, freshLayer);
+        assertNull(freshLayer.get(AppUtils.getCurrentAppId(), "case", "1", "detail_0"));
+    }
+}
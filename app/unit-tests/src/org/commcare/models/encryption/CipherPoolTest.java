@@ -0,0 +1,105 @@
+package org.commcare.models.encryption;
+
+import org.commcare.CommCareTestApplication;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class CipherPoolTest {
+
+    private CipherPool pool;
+
+    @Before
+    public void setup() {
+        pool = new CipherPool() {
+            @Override
+            protected Cipher generateNewCipher() {
+                try {
+                    Cipher cipher = Cipher.getInstance("AES");
+                    cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(new byte[16], "AES"));
+                    return cipher;
+                } catch (GeneralSecurityException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        pool.init();
+    }
+
+    @Test
+    public void testRemittedCiphersAreReused() {
+        Cipher first = pool.borrow();
+        pool.remit(first);
+
+        // the free list is FIFO, so cycle through the rest of the initial batch
+        Cipher lent = null;
+        for (int i = 0; i < pool.getPoolSize(); i++) {
+            lent = pool.borrow();
+            pool.remit(lent);
+        }
+        assertSame(first, lent);
+        assertEquals(0.0, pool.getMissRate(), 0.0);
+    }
+
+    @Test
+    public void testGrowthIsBounded() {
+        List<Cipher> lent = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Cipher cipher = pool.borrow();
+            assertNotNull(cipher);
+            lent.add(cipher);
+        }
+        assertTrue(pool.getPoolSize() < 100);
+        assertTrue(pool.getMissRate() > 0);
+
+        for (Cipher cipher : lent) {
+            pool.remit(cipher);
+        }
+        assertTrue(pool.getPoolSize() < 100);
+    }
+
+    @Test
+    public void testMissIsRefilledInTheBackground() throws InterruptedException {
+        int initialSize = pool.getPoolSize();
+        for (int i = 0; i < initialSize; i++) {
+            pool.borrow();
+        }
+        // the borrower only waits on its own cipher
+        assertNotNull(pool.borrow());
+        assertTrue(pool.getMissRate() > 0);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getPoolSize() <= initialSize + 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(pool.getPoolSize() > initialSize + 1);
+    }
+
+    @Test
+    public void testExpiredCiphersAreNotReturned() {
+        Cipher stale = pool.borrow();
+        pool.expire();
+        pool.remit(stale);
+        pool.init();
+        for (int i = 0; i < 10; i++) {
+            assertNotSame(stale, pool.borrow());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.commcare.network;
+
+import org.commcare.CommCareTestApplication;
+import org.commcare.models.encryption.CipherPool;
+import org.commcare.utils.FormUploadUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import okhttp3.MediaType;
+import okio.Buffer;
+
+/**
+ * Make sure encrypted attachments report their decrypted length up front and can be written
+ * more than once, as happens when a submission is retried
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class EncryptedFileBodyTest {
+
+    @Test
+    public void testLengthIsKnownAndBodyIsRewritable() throws IOException, GeneralSecurityException {
+        final SecretKeySpec key = new SecretKeySpec(new byte[16], "AES");
+        for (int length : new int[]{1, 15, 16, 17, 10000}) {
+            byte[] plaintext = new byte[length];
+            new Random(length).nextBytes(plaintext);
+            File encrypted = writeEncrypted(plaintext, key);
+
+            CipherPool ciphers = new CipherPool() {
+                @Override
+                protected Cipher generateNewCipher() {
+                    return FormUploadUtil.getDecryptCipher(key);
+                }
+            };
+            EncryptedFileBody body =
+                    new EncryptedFileBody(MediaType.parse("image/jpeg"), encrypted, ciphers);
+
+            Assert.assertEquals(length, body.contentLength());
+            for (int attempt = 0; attempt < 2; attempt++) {
+                Buffer sink = new Buffer();
+                body.writeTo(sink);
+                Assert.assertArrayEquals(plaintext, sink.readByteArray());
+            }
+        }
+    }
+
+    private static File writeEncrypted(byte[] plaintext, SecretKeySpec key)
+            throws IOException, GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        File file = File.createTempFile("attachment", ".jpg.aes");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(cipher.doFinal(plaintext));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,95 @@
+package org.commcare.network;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for reading a response through the bounded pipelined download buffer
+ */
+public class PipelinedDownloadStreamTest {
+
+    @Test
+    public void testPayloadLargerThanBufferIsReadIntact() throws IOException {
+        byte[] payload = new byte[100 * 1024];
+        new Random(42).nextBytes(payload);
+
+        PipelinedDownloadStream stream =
+                new PipelinedDownloadStream(new ByteArrayInputStream(payload), null, 1024).start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] readBuffer = new byte[333];
+        int read;
+        while ((read = stream.read(readBuffer)) != -1) {
+            out.write(readBuffer, 0, read);
+        }
+        stream.close();
+
+        Assert.assertArrayEquals(payload, out.toByteArray());
+    }
+
+    @Test
+    public void testCompletionIsReportedOnlyForFullDownloads() throws IOException, InterruptedException {
+        final CountDownLatch completed = new CountDownLatch(1);
+        byte[] payload = new byte[512];
+        // the buffer holds the whole payload, so the download finishes before anything is read
+        PipelinedDownloadStream stream = new PipelinedDownloadStream(new ByteArrayInputStream(payload), null, 1024)
+                .whenDownloadComplete(completed::countDown)
+                .start();
+        Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(payload.length, stream.available());
+        stream.close();
+
+        final CountDownLatch failedCompletion = new CountDownLatch(1);
+        InputStream failingSource = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new SocketTimeoutException();
+            }
+        };
+        PipelinedDownloadStream failingStream = new PipelinedDownloadStream(failingSource, null, 64)
+                .whenDownloadComplete(failedCompletion::countDown)
+                .start();
+        try {
+            failingStream.read();
+            Assert.fail("Download failure should be rethrown to the reader");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        Assert.assertEquals(1, failedCompletion.getCount());
+    }
+
+    @Test
+    public void testDownloadErrorReachesReaderAfterBufferedData() throws IOException {
+        InputStream failingSource = new InputStream() {
+            int served = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (served == 10) {
+                    throw new SocketTimeoutException();
+                }
+                return served++;
+            }
+        };
+
+        PipelinedDownloadStream stream =
+                new PipelinedDownloadStream(failingSource, null, 64).start();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i, stream.read());
+        }
+        try {
+            stream.read();
+            Assert.fail("Download failure should be rethrown to the reader");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.commcare.provider;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.commcare.CommCareApplication;
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.TestAppInstaller;
+import org.commcare.models.database.SqlStorage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Make sure case metadata queries answered from the case table's columns line up with the
+ * ones that need the case models, and that projections, filters and paging apply to both.
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class CaseDataContentProviderTest {
+
+    private CaseDataContentProvider provider;
+
+    @Before
+    public void setup() {
+        TestAppInstaller.installAppAndLogin(
+                "jr://resource/commcare-apps/archive_form_tests/profile.ccpr",
+                "test", "123");
+        SqlStorage<ACase> storage =
+                CommCareApplication.instance().getUserStorage(ACase.STORAGE_KEY, ACase.class);
+        for (int i = 0; i < 10; i++) {
+            ACase c = new ACase("Case " + i, i % 2 == 0 ? "even" : "odd");
+            c.setCaseId("case_" + i);
+            c.setUserId("owner");
+            storage.write(c);
+        }
+
+        provider = new CaseDataContentProvider();
+        provider.onCreate();
+    }
+
+    @Test
+    public void testIndexedProjection() {
+        Cursor cursor = provider.query(CaseDataAPI.MetadataColumns.CONTENT_URI,
+                new String[]{CaseDataAPI.MetadataColumns.CASE_ID, CaseDataAPI.MetadataColumns.STATUS},
+                "case_type = ? and owner_ID = 'owner'", new String[]{"even"}, null);
+        assertEquals(2, cursor.getColumnCount());
+        assertEquals(5, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("case_0", cursor.getString(cursor.getColumnIndex(CaseDataAPI.MetadataColumns.CASE_ID)));
+        assertEquals("open", cursor.getString(cursor.getColumnIndex(CaseDataAPI.MetadataColumns.STATUS)));
+        cursor.close();
+    }
+
+    @Test
+    public void testProjectionNeedingRecords() {
+        Cursor cursor = provider.query(CaseDataAPI.MetadataColumns.CONTENT_URI,
+                new String[]{CaseDataAPI.MetadataColumns.CASE_NAME, CaseDataAPI.MetadataColumns.CASE_ID},
+                "case_type = 'odd' and owner_id = ?", new String[]{"owner"}, null);
+        assertEquals(5, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Case 1", cursor.getString(0));
+        assertEquals("case_1", cursor.getString(1));
+        cursor.close();
+    }
+
+    @Test
+    public void testSingleCase() {
+        Uri uri = Uri.withAppendedPath(CaseDataAPI.MetadataColumns.CONTENT_URI, "case_3");
+        Cursor cursor = provider.query(uri, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Case 3", cursor.getString(cursor.getColumnIndex(CaseDataAPI.MetadataColumns.CASE_NAME)));
+        assertEquals("odd", cursor.getString(cursor.getColumnIndex(CaseDataAPI.MetadataColumns.CASE_TYPE)));
+        cursor.close();
+    }
+
+    @Test
+    public void testPaging() {
+        Uri uri = CaseDataAPI.MetadataColumns.CONTENT_URI.buildUpon()
+                .appendQueryParameter(CaseDataAPI.MetadataColumns.QUERY_LIMIT, "3")
+                .appendQueryParameter(CaseDataAPI.MetadataColumns.QUERY_OFFSET, "4")
+                .build();
+        for (String[] projection : new String[][]{
+                {CaseDataAPI.MetadataColumns.CASE_ID},
+                {CaseDataAPI.MetadataColumns.CASE_ID, CaseDataAPI.MetadataColumns.CASE_NAME}}) {
+            Cursor cursor = provider.query(uri, projection, "owner_ID = 'owner'", null, null);
+            assertEquals(3, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("case_4", cursor.getString(0));
+            cursor.moveToLast();
+            assertEquals("case_6", cursor.getString(0));
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownColumn() {
+        provider.query(CaseDataAPI.MetadataColumns.CONTENT_URI,
+                new String[]{"not_a_column"}, null, null, null);
+    }
+}
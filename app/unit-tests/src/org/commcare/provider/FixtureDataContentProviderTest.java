@@ -0,0 +1,59 @@
+package org.commcare.provider;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.commcare.CommCareTestApplication;
+import org.commcare.models.database.StoreFixturesOnFilesystemTests;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure fixtures are listed and looked up by instance id through the fixture index
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class FixtureDataContentProviderTest {
+
+    private FixtureDataContentProvider provider;
+
+    @Before
+    public void setup() {
+        StoreFixturesOnFilesystemTests.installAppWithFixtureData(this.getClass(), "odk_level_ipm_restore.xml");
+        provider = new FixtureDataContentProvider();
+        provider.onCreate();
+    }
+
+    @Test
+    public void testListFixtures() {
+        Cursor cursor = provider.query(FixtureDataAPI.MetadataColumns.CONTENT_URI, null, null, null, null);
+        Set<String> instanceIds = new HashSet<>();
+        while (cursor.moveToNext()) {
+            instanceIds.add(cursor.getString(cursor.getColumnIndex(FixtureDataAPI.MetadataColumns.FIXTURE_ID)));
+        }
+        cursor.close();
+        assertTrue(instanceIds.contains("commtrack:locations"));
+        assertTrue(instanceIds.contains("commtrack:products"));
+    }
+
+    @Test
+    public void testFixtureForId() {
+        Cursor cursor = provider.query(Uri.withAppendedPath(FixtureDataAPI.MetadataColumns.CONTENT_URI, "user-groups"),
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("user-groups", cursor.getString(cursor.getColumnIndex(FixtureDataAPI.MetadataColumns.FIXTURE_ID)));
+        assertTrue(cursor.getString(cursor.getColumnIndex(FixtureDataAPI.MetadataColumns.CONTENT)).contains("<groups"));
+        cursor.close();
+    }
+}
@@ -0,0 +1,179 @@
+package org.commcare.tasks;
+
+import android.util.Pair;
+
+import org.commcare.CommCareApplication;
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.TestAppInstaller;
+import org.commcare.android.util.TestUtils;
+import org.commcare.cases.entity.Entity;
+import org.commcare.cases.entity.NodeEntityFactory;
+import org.commcare.models.database.SqlStorage;
+import org.commcare.preferences.PrefValues;
+import org.commcare.suite.model.Detail;
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.model.xform.XPathReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure a streaming entity load hands the list over in order, a first page followed by
+ * batches, before delivering the complete list
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class EntityLoaderTaskTest {
+
+    private static final String CASE_LIST_NODESET = "instance('casedb')/casedb/case[@case_type='case']";
+    private static final int CASE_COUNT = 1200;
+
+    @Before
+    public void setup() {
+        TestAppInstaller.installAppAndLogin(
+                "jr://resource/commcare-apps/index_and_cache_test/profile.ccpr", "test", "123");
+        CommCareApplication.instance().getCurrentApp().getAppPreferences().edit()
+                .putString("cc-entity-list-streaming-enabled", PrefValues.YES).commit();
+        writeCases();
+    }
+
+    @Test
+    public void testStreamedEntitiesMatchTheFinalList() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        EntityLoaderTask task = new EntityLoaderTask(getCaseListDetail(),
+                TestUtils.getEvaluationContextWithAndroidIIF());
+        task.attachListener(listener);
+
+        final List<Pair<List<Entity<TreeReference>>, List<TreeReference>>> result = new ArrayList<>();
+        Thread loader = new Thread(() -> result.add(task.doInBackground(getNodeset())));
+        loader.start();
+        // let the batches reach the listener while the load is still running
+        while (loader.isAlive()) {
+            ShadowLooper.idleMainLooper();
+            loader.join(10);
+        }
+        ShadowLooper.idleMainLooper();
+        task.onPostExecute(result.get(0));
+
+        int total = listener.result.size();
+        assertTrue(total >= CASE_COUNT);
+        assertNotNull(listener.firstPage);
+        assertTrue(listener.firstPage.size() >= 50);
+
+        // everything streamed is a prefix of the final list, in the same order
+        List<Entity<TreeReference>> streamed = new ArrayList<>(listener.firstPage);
+        for (List<Entity<TreeReference>> batch : listener.batches) {
+            assertTrue(!batch.isEmpty());
+            streamed.addAll(batch);
+        }
+        // a first page of 50 and then batches of 500 are published once the entity after them
+        // is reached, so only the entities after the last full batch wait for the final list
+        assertEquals(50 + ((total - 51) / 500) * 500, streamed.size());
+        for (int i = 0; i < streamed.size(); i++) {
+            assertSame(listener.result.get(i), streamed.get(i));
+        }
+    }
+
+    @Test
+    public void testCancelledLoadDeliversNothing() {
+        RecordingListener listener = new RecordingListener();
+        EntityLoaderTask task = new EntityLoaderTask(getCaseListDetail(),
+                TestUtils.getEvaluationContextWithAndroidIIF());
+        task.attachListener(listener);
+        task.cancel(false);
+
+        assertNull(task.doInBackground(getNodeset()));
+        ShadowLooper.idleMainLooper();
+        assertNull(listener.firstPage);
+        assertTrue(listener.batches.isEmpty());
+    }
+
+    @Test
+    public void testOnlySessionContextLoadsInParallel() {
+        CommCareApplication.instance().getCurrentApp().getAppPreferences().edit()
+                .putString("cc-parallel-entity-loading-enabled", PrefValues.YES).commit();
+        EvaluationContext sessionContext = TestUtils.getEvaluationContextWithAndroidIIF();
+        TreeReference firstCase = new NodeEntityFactory(getCaseListDetail(), sessionContext)
+                .expandReferenceList(getNodeset()).get(0);
+        EvaluationContext caseContext = new EvaluationContext(sessionContext, firstCase);
+
+        // workers rebuild the session's context, which would lose this context's ref
+        EntityLoaderTask task = new EntityLoaderTask(getCaseListDetail(), caseContext);
+        assertFalse(task.isLoadingInParallel());
+        Pair<List<Entity<TreeReference>>, List<TreeReference>> result = task.doInBackground(getNodeset());
+        ShadowLooper.idleMainLooper();
+        assertEquals(result.second.size(), result.first.size());
+
+        assertTrue(new EntityLoaderTask(getCaseListDetail(),
+                TestUtils.getEvaluationContextWithAndroidIIF(), true).isLoadingInParallel());
+    }
+
+    private static class RecordingListener implements EntityLoaderListener {
+        List<Entity<TreeReference>> firstPage;
+        final List<List<Entity<TreeReference>>> batches = new ArrayList<>();
+        List<Entity<TreeReference>> result;
+
+        @Override
+        public void attachLoader(EntityLoaderTask task) {
+        }
+
+        @Override
+        public void deliverFirstPage(List<Entity<TreeReference>> entities, List<TreeReference> references,
+                                     NodeEntityFactory factory) {
+            firstPage = entities;
+        }
+
+        @Override
+        public void deliverLoadBatch(List<Entity<TreeReference>> entities) {
+            batches.add(entities);
+        }
+
+        @Override
+        public void deliverLoadResult(List<Entity<TreeReference>> entities, List<TreeReference> references,
+                                      NodeEntityFactory factory, int focusTargetIndex) {
+            result = entities;
+        }
+
+        @Override
+        public void deliverLoadError(Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void writeCases() {
+        SqlStorage<ACase> storage =
+                CommCareApplication.instance().getUserStorage(ACase.STORAGE_KEY, ACase.class);
+        List<ACase> cases = new ArrayList<>();
+        for (int i = 0; i < CASE_COUNT; i++) {
+            ACase c = new ACase("Case " + i, "case");
+            c.setCaseId("generated_case_" + i);
+            c.setProperty("sample_number_question", String.valueOf(i));
+            cases.add(c);
+        }
+        storage.writeAll(cases);
+    }
+
+    private static Detail getCaseListDetail() {
+        return CommCareApplication.instance().getCurrentSession().getDetail("m1_case_short");
+    }
+
+    private static TreeReference getNodeset() {
+        return XPathReference.getPathExpr(CASE_LIST_NODESET).getReference();
+    }
+}
@@ -0,0 +1,69 @@
+package org.commcare.tasks;
+
+import org.commcare.CommCareApplication;
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.app.models.FormDefRecord;
+import org.commcare.android.util.TestAppInstaller;
+import org.javarosa.core.model.FormDef;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Collections;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure parsed forms are cached per form record and only served for the version they
+ * were written for
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class FormDefCacheTest {
+
+    private FormDefRecord record;
+
+    @Before
+    public void setup() {
+        TestAppInstaller.installAppAndLogin(
+                "jr://resource/commcare-apps/archive_form_tests/profile.ccpr",
+                "test", "123");
+        record = CommCareApplication.instance().getAppStorage(FormDefRecord.class).iterate().nextRecord();
+        FormDefCache.removeEntriesExcept(Collections.emptySet());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertNull(FormDefCache.read(ApplicationProvider.getApplicationContext(), record));
+
+        FormDef parsed = FormLoaderTask.loadFormFromFile(new File(record.getFilePath()));
+        FormDefCache.write(parsed, record);
+        assertTrue(FormDefCache.getCacheFile(record).exists());
+
+        FormDef cached = FormDefCache.read(ApplicationProvider.getApplicationContext(), record);
+        assertNotNull(cached);
+        assertEquals(parsed.getMainInstance().schema, cached.getMainInstance().schema);
+    }
+
+    @Test
+    public void testReplacedFormMissesCache() throws Exception {
+        FormDefCache.write(FormLoaderTask.loadFormFromFile(new File(record.getFilePath())), record);
+        File oldEntry = FormDefCache.getCacheFile(record);
+
+        File formXml = new File(record.getFilePath());
+        assertTrue(formXml.setLastModified(formXml.lastModified() + 60 * 1000));
+        assertNull(FormDefCache.read(ApplicationProvider.getApplicationContext(), record));
+
+        FormDefCache.removeEntriesExcept(Collections.singleton(FormDefCache.getCacheFile(record)));
+        assertFalse(oldEntry.exists());
+    }
+}
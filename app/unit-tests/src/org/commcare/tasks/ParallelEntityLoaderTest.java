@@ -0,0 +1,161 @@
+package org.commcare.tasks;
+
+import org.commcare.CommCareApplication;
+import org.commcare.CommCareTestApplication;
+import org.commcare.android.database.user.models.ACase;
+import org.commcare.android.util.BenchmarkUtils;
+import org.commcare.android.util.TestAppInstaller;
+import org.commcare.android.util.TestUtils;
+import org.commcare.cases.entity.Entity;
+import org.commcare.cases.entity.NodeEntityFactory;
+import org.commcare.models.database.SqlStorage;
+import org.commcare.suite.model.Detail;
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.model.xform.XPathReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Make sure entities built across worker threads come back the same as a sequential load.
+ *
+ * Also holds a throughput benchmark over 10k and 50k cases, which is skipped unless the tests
+ * are run with -Dcommcare.benchmark=true
+ */
+@Config(application = CommCareTestApplication.class)
+@RunWith(AndroidJUnit4.class)
+public class ParallelEntityLoaderTest {
+
+    private static final String CASE_LIST_NODESET = "instance('casedb')/casedb/case[@case_type='case']";
+    private static final int CHUNK_SIZE = 50;
+
+    private int casesWritten = 0;
+
+    @Before
+    public void setup() {
+        TestAppInstaller.installAppAndLogin(
+                "jr://resource/commcare-apps/index_and_cache_test/profile.ccpr", "test", "123");
+    }
+
+    @Test
+    public void testParallelLoadMatchesSequentialLoad() throws InterruptedException {
+        writeCases(500);
+        Detail detail = getCaseListDetail();
+        EvaluationContext ec = TestUtils.getEvaluationContextWithAndroidIIF();
+        NodeEntityFactory factory = new NodeEntityFactory(detail, ec);
+        List<TreeReference> references = factory.expandReferenceList(getNodeset());
+
+        List<Entity<TreeReference>> sequential = new ArrayList<>();
+        for (TreeReference ref : references) {
+            sequential.add(factory.getEntity(ref));
+        }
+        List<Entity<TreeReference>> parallel =
+                loadInParallel(new ParallelEntityLoader(detail, TestUtils::getEvaluationContextWithAndroidIIF), references);
+
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.get(i).getElement(), parallel.get(i).getElement());
+            assertEquals(sequential.get(i).getFieldString(0), parallel.get(i).getFieldString(0));
+        }
+    }
+
+    @Test
+    public void testWorkersEvaluateAgainstTheirOwnContexts() throws InterruptedException {
+        writeCases(500);
+        Detail detail = getCaseListDetail();
+        NodeEntityFactory factory = new NodeEntityFactory(detail, TestUtils.getEvaluationContextWithAndroidIIF());
+        List<TreeReference> references = factory.expandReferenceList(getNodeset());
+
+        Set<EvaluationContext> contexts = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Entity<TreeReference>> parallel = loadInParallel(new ParallelEntityLoader(detail, () -> {
+            EvaluationContext ec = TestUtils.getEvaluationContextWithAndroidIIF();
+            synchronized (contexts) {
+                contexts.add(ec);
+            }
+            return ec;
+        }), references);
+
+        assertEquals(references.size(), parallel.size());
+        // one per chunk running at once, never one per chunk
+        assertTrue(contexts.size() >= 1);
+        assertTrue(contexts.size() <= ParallelEntityLoader.getDefaultWorkerCount());
+    }
+
+    @Test
+    public void benchmarkEntityLoadThroughput() throws Exception {
+        BenchmarkUtils.assumeBenchmarksEnabled();
+
+        for (int caseCount : new int[]{10000, 50000}) {
+            writeCases(caseCount - casesWritten);
+            Detail detail = getCaseListDetail();
+            EvaluationContext ec = TestUtils.getEvaluationContextWithAndroidIIF();
+            NodeEntityFactory factory = new NodeEntityFactory(detail, ec);
+            List<TreeReference> references = factory.expandReferenceList(getNodeset());
+
+            long sequentialMs = BenchmarkUtils.timeMillis(() -> {
+                for (TreeReference ref : references) {
+                    factory.getEntity(ref);
+                }
+            });
+
+            int workers = ParallelEntityLoader.getDefaultWorkerCount();
+            long parallelMs = BenchmarkUtils.timeMillis(() -> loadInParallel(
+                    new ParallelEntityLoader(detail, TestUtils::getEvaluationContextWithAndroidIIF), references));
+
+            BenchmarkUtils.report("%d cases: sequential %dms (%.0f/s), parallel x%d %dms (%.0f/s)",
+                    caseCount, sequentialMs, BenchmarkUtils.perSecond(caseCount, sequentialMs),
+                    workers, parallelMs, BenchmarkUtils.perSecond(caseCount, parallelMs));
+        }
+    }
+
+    private static List<Entity<TreeReference>> loadInParallel(ParallelEntityLoader loader,
+                                                              List<TreeReference> references)
+            throws InterruptedException {
+        List<Entity<TreeReference>> entities = new ArrayList<>();
+        try {
+            for (Future<List<Entity<TreeReference>>> chunk : loader.submit(references, CHUNK_SIZE)) {
+                entities.addAll(ParallelEntityLoader.await(chunk));
+            }
+        } finally {
+            loader.shutdown();
+        }
+        return entities;
+    }
+
+    private void writeCases(int count) {
+        SqlStorage<ACase> storage =
+                CommCareApplication.instance().getUserStorage(ACase.STORAGE_KEY, ACase.class);
+        List<ACase> cases = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int caseNumber = casesWritten + i;
+            ACase c = new ACase("Case " + caseNumber, "case");
+            c.setCaseId("generated_case_" + caseNumber);
+            c.setProperty("sample_number_question", String.valueOf(caseNumber));
+            cases.add(c);
+        }
+        storage.writeAll(cases);
+        casesWritten += count;
+    }
+
+    private static Detail getCaseListDetail() {
+        return CommCareApplication.instance().getCurrentSession().getDetail("m1_case_short");
+    }
+
+    private static TreeReference getNodeset() {
+        return XPathReference.getPathExpr(CASE_LIST_NODESET).getReference();
+    }
+}